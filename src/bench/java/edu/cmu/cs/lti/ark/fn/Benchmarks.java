@@ -0,0 +1,36 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks, with the same arguments as JMH's own main (e.g. a regex of the benchmarks to run, or
+ * "-prof stack" to add a profiler), except that the gc profiler is always on, so that allocation per operation is
+ * reported along with time.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()
+				|| commandLineOptions.shouldListWithParams() || commandLineOptions.shouldListProfilers()
+				|| commandLineOptions.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		final OptionsBuilder options = new OptionsBuilder();
+		options.parent(commandLineOptions);
+		if (!hasGcProfiler(commandLineOptions)) options.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+
+	private static boolean hasGcProfiler(CommandLineOptions commandLineOptions) {
+		for (ProfilerConfig profiler : commandLineOptions.getProfilers()) {
+			if (profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName())) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,38 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses one synthetic sentence, from lemmatization to argument identification, cycling through the sentences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemaforBenchmark {
+	private Semafor semafor;
+	private List<Sentence> sentences;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createModel() {
+		final SyntheticModel model = SyntheticModel.create(0);
+		semafor = model.semafor;
+		sentences = model.sentences;
+	}
+
+	@Benchmark
+	public SemaforParseResult parseSentence() throws IOException {
+		final Sentence sentence = sentences.get(next);
+		next = (next + 1) % sentences.size();
+		return semafor.parseSentence(sentence);
+	}
+}
@@ -0,0 +1,236 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier;
+import edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.identification.SmoothedGraph;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.parsing.SyntheticFrames;
+import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectDoubleHashMap;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+
+/**
+ * A random Semafor model, and random parsed sentences in its vocabulary, so that benchmarks can run without the real
+ * models or any data. Sizes are roughly those of the real thing: a thousand frames with a few roles each, a few
+ * thousand target words, half of which are in the lexicon, and sentences of 5 to 40 tokens.
+ *
+ * Words are made up (but inflected like English, so that lemmatization does some work), and parses are random trees.
+ */
+public class SyntheticModel {
+	public static final int NUM_FRAMES = 1000;
+	public static final int NUM_STEMS = 3000;
+	public static final int NUM_SENTENCES = 200;
+	private static final int MAX_ROLES = 8;
+	private static final int MIN_LENGTH = 5;
+	private static final int MAX_LENGTH = 40;
+	/** base features of the frame identification model are conjoined with this many random frames */
+	private static final int FRAMES_PER_FEATURE = 5;
+	private static final String[] SYLLABLES = {
+			"ba", "ko", "ri", "ten", "mu", "sal", "po", "dra", "fen", "li", "vor", "ne", "gus", "ta", "pla", "mir" };
+	private static final String[][] CLOSED_CLASS_WORDS = {
+			{"the", "DT"}, {"a", "DT"}, {"of", "IN"}, {"in", "IN"}, {"on", "IN"}, {"to", "TO"}, {"and", "CC"},
+			{"he", "PRP"}, {"they", "PRP"}, {"not", "RB"}, {",", ","} };
+	private static final String[] OPEN_CLASS_POSTAGS = {"NN", "NNS", "VB", "VBD", "VBG", "VBZ", "JJ"};
+	private static final String[] DEPRELS = {"SBJ", "OBJ", "NMOD", "PMOD", "VC", "ADV", "COORD", "P"};
+
+	/** the sentences, as they'd be read from conll input (i.e. without lemmas) */
+	public final List<Sentence> sentences;
+	/** the same sentences, lemmatized */
+	public final List<Sentence> lemmatizedSentences;
+	/** lemmas that are in the frame identification lexicon */
+	public final Set<String> seenLemmas;
+	/** the argument identification model's features */
+	public final Map<String, Integer> argIdFeatureIndex;
+	public final FEDict frameElementsForFrame;
+	public final Semafor semafor;
+
+	private SyntheticModel(List<Sentence> sentences,
+						   List<Sentence> lemmatizedSentences,
+						   Set<String> seenLemmas,
+						   Map<String, Integer> argIdFeatureIndex,
+						   FEDict frameElementsForFrame,
+						   Semafor semafor) {
+		this.sentences = sentences;
+		this.lemmatizedSentences = lemmatizedSentences;
+		this.seenLemmas = seenLemmas;
+		this.argIdFeatureIndex = argIdFeatureIndex;
+		this.frameElementsForFrame = frameElementsForFrame;
+		this.semafor = semafor;
+	}
+
+	public static SyntheticModel create(long seed) {
+		final Random random = new Random(seed);
+		final List<String> stems = stems(random);
+		final List<Sentence> sentences = Lists.newArrayList();
+		for (int i = 0; i < NUM_SENTENCES; i++) {
+			sentences.add(sentence(random, stems));
+		}
+		final MorphaLemmatizer lemmatizer = new MorphaLemmatizer();
+		final List<Sentence> lemmatizedSentences = Lists.newArrayList();
+		for (Sentence sentence : sentences) {
+			lemmatizedSentences.add(lemmatizer.addLemmas(sentence));
+		}
+
+		// frames, and their roles
+		final List<String> frames = Lists.newArrayList();
+		final Map<String, THashSet<String>> rolesByFrame = Maps.newHashMap();
+		for (int i = 0; i < NUM_FRAMES; i++) {
+			final String frame = "Frame" + i;
+			frames.add(frame);
+			final THashSet<String> roles = new THashSet<String>();
+			for (int r = 1 + random.nextInt(MAX_ROLES); r > 0; r--) roles.add("Role" + random.nextInt(2 * MAX_ROLES));
+			rolesByFrame.put(frame, roles);
+		}
+		final Set<String> allFrames = Sets.newHashSet(frames);
+
+		// half of the open class lemmas are in the lexicon. the segmenter also knows about some that aren't
+		final Set<String> seenLemmas = Sets.newHashSet();
+		final Set<String> allRelatedWords = Sets.newHashSet();
+		final THashMap<String, THashSet<String>> framesByLemma = new THashMap<String, THashSet<String>>();
+		for (Sentence sentence : lemmatizedSentences) {
+			for (Token token : sentence.getTokens()) {
+				if (!isOpenClass(token.getPostag()) || framesByLemma.containsKey(token.getLemma())) continue;
+				final String relatedWord = token.getLemma() + "_" + token.getPostag().substring(0, 1);
+				if (random.nextBoolean()) {
+					final THashSet<String> lemmaFrames = new THashSet<String>();
+					for (int f = 1 + random.nextInt(3); f > 0; f--) lemmaFrames.add(frames.get(random.nextInt(NUM_FRAMES)));
+					framesByLemma.put(token.getLemma(), lemmaFrames);
+					seenLemmas.add(token.getLemma());
+					allRelatedWords.add(relatedWord);
+				} else if (random.nextInt(4) == 0) {
+					allRelatedWords.add(relatedWord);
+				}
+			}
+		}
+
+		// frame identification weights, for the features that fire on the sentences
+		final IdFeatureExtractor idFeatureExtractor = IdFeatureExtractor.fromName("basic");
+		final TObjectDoubleHashMap<String> idParams = new TObjectDoubleHashMap<String>();
+		for (String frame : frames) {
+			idParams.put(idFeatureExtractor.getConjoinedFeatureNames(ImmutableList.of(frame), "bias").iterator().next(),
+					random.nextGaussian());
+		}
+		for (Sentence sentence : lemmatizedSentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			for (int i = 0; i < sentence.size(); i++) {
+				for (String feature : idFeatureExtractor.getBaseFeatures(new int[] {i}, analysis).keySet()) {
+					for (int f = 0; f < FRAMES_PER_FEATURE; f++) {
+						final List<String> frame = ImmutableList.of(frames.get(random.nextInt(NUM_FRAMES)));
+						for (String conjoined : idFeatureExtractor.getConjoinedFeatureNames(frame, feature)) {
+							idParams.put(conjoined, random.nextGaussian());
+						}
+					}
+				}
+			}
+		}
+		final GraphBasedFrameIdentifier idModel = new GraphBasedFrameIdentifier(idFeatureExtractor, allFrames,
+				framesByLemma, idParams, new SmoothedGraph(Maps.<String, Set<String>>newHashMap(),
+						Maps.<String, Set<String>>newHashMap()));
+
+		// argument identification weights, for the features that fire on one target per sentence
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		final Map<String, Integer> argIdFeatureIndex = Maps.newHashMap();
+		for (Sentence sentence : lemmatizedSentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			final String frame = frames.get(random.nextInt(NUM_FRAMES));
+			final int target = random.nextInt(sentence.size());
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(analysis.getArgIdParses(),
+					SyntheticFrames.frameLine(frame, target), null);
+			for (String role : rolesByFrame.get(frame)) {
+				for (SpanAndParseIdx span : analysis.getCandidateSpans()) {
+					for (String feature : featureExtractor.extractFeatures(dataPoint, frame, role, span.span,
+							analysis.getArgIdParses().getBestParse()).elementSet()) {
+						if (!argIdFeatureIndex.containsKey(feature)) argIdFeatureIndex.put(feature, argIdFeatureIndex.size());
+					}
+				}
+			}
+		}
+		final Decoding decoder = new Decoding(SyntheticFrames.weights(random, argIdFeatureIndex.size()));
+
+		final FEDict frameElementsForFrame = new FEDict(rolesByFrame);
+		final Semafor semafor = new Semafor(allRelatedWords, frameElementsForFrame, new RoteSegmenter(allRelatedWords),
+				idModel, decoder, argIdFeatureIndex);
+		return new SyntheticModel(sentences, lemmatizedSentences, Collections.unmodifiableSet(seenLemmas),
+				argIdFeatureIndex, frameElementsForFrame, semafor);
+	}
+
+	public static boolean isOpenClass(String postag) {
+		for (String openClassPostag : OPEN_CLASS_POSTAGS) {
+			if (openClassPostag.equals(postag)) return true;
+		}
+		return false;
+	}
+
+	private static List<String> stems(Random random) {
+		final Set<String> stems = Sets.newLinkedHashSet();
+		while (stems.size() < NUM_STEMS) {
+			final StringBuilder stem = new StringBuilder();
+			for (int i = 2 + random.nextInt(2); i > 0; i--) stem.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			stems.add(stem.toString());
+		}
+		return ImmutableList.copyOf(stems);
+	}
+
+	/** A random sentence, with a random dependency tree */
+	private static Sentence sentence(Random random, List<String> stems) {
+		final int length = MIN_LENGTH + random.nextInt(MAX_LENGTH - MIN_LENGTH + 1);
+		// attach each token to a random token that's already in the tree
+		final List<Integer> order = Lists.newArrayList();
+		for (int i = 1; i < length; i++) order.add(i);
+		Collections.shuffle(order, random);
+		final int[] heads = new int[length + 1];
+		heads[order.get(0)] = 0;
+		for (int i = 1; i < order.size(); i++) {
+			heads[order.get(i)] = order.get(random.nextInt(i));
+		}
+		heads[length] = order.get(0);
+		final List<Token> tokens = Lists.newArrayList();
+		for (int id = 1; id <= length; id++) {
+			final String form;
+			final String postag;
+			if (id == length) {
+				form = ".";
+				postag = ".";
+			} else if (random.nextInt(5) < 3) {
+				postag = OPEN_CLASS_POSTAGS[random.nextInt(OPEN_CLASS_POSTAGS.length)];
+				form = inflect(stems.get(random.nextInt(stems.size())), postag);
+			} else {
+				final String[] word = CLOSED_CLASS_WORDS[random.nextInt(CLOSED_CLASS_WORDS.length)];
+				form = word[0];
+				postag = word[1];
+			}
+			final String deprel = heads[id] == 0 ? "ROOT" : id == length ? "P" : DEPRELS[random.nextInt(DEPRELS.length)];
+			tokens.add(new Token(id, form, null, postag.substring(0, 1), postag, null, heads[id], deprel, null, null));
+		}
+		return new Sentence(tokens);
+	}
+
+	private static String inflect(String stem, String postag) {
+		if (postag.equals("NNS")) return stem + "s";
+		if (postag.equals("VBD")) return stem + "ed";
+		if (postag.equals("VBG")) return stem + "ing";
+		if (postag.equals("VBZ")) return stem + "es";
+		if (postag.equals("JJ")) return stem + "al";
+		return stem;
+	}
+}
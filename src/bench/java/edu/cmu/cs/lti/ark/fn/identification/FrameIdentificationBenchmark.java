@@ -0,0 +1,62 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.SyntheticModel;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identifies the frame of one single-token target, cycling through the open class words of the synthetic sentences.
+ * "seen" targets are in the lexicon, so only a few frames are scored; "unseen" targets aren't in the lexicon or the
+ * graph, so every frame is scored.
+ * Sentences are analyzed (parsed) beforehand, as they are when parsing, where every target in a sentence shares one
+ * analysis.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameIdentificationBenchmark {
+	@Param({"seen", "unseen"})
+	public String targets;
+
+	private GraphBasedFrameIdentifier idModel;
+	private List<Pair<SentenceAnalysis, Integer>> examples;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createModel() {
+		final SyntheticModel model = SyntheticModel.create(0);
+		idModel = model.semafor.getIdModel();
+		final boolean seen = targets.equals("seen");
+		examples = Lists.newArrayList();
+		for (Sentence sentence : model.lemmatizedSentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			analysis.getFrameIdParse();
+			final List<Token> tokens = sentence.getTokens();
+			for (int i = 0; i < tokens.size(); i++) {
+				final Token token = tokens.get(i);
+				if (!SyntheticModel.isOpenClass(token.getPostag())) continue;
+				final boolean isExample = seen
+						? model.seenLemmas.contains(token.getLemma())
+						: idModel.getCandidateFrames(new int[] {i}, sentence) == idModel.allFrames;
+				if (isExample) examples.add(Pair.of(analysis, i));
+			}
+		}
+	}
+
+	@Benchmark
+	public String getBestFrame() {
+		final Pair<SentenceAnalysis, Integer> example = examples.get(next);
+		next = (next + 1) % examples.size();
+		return idModel.getBestFrame(new int[] {example.second}, example.first);
+	}
+}
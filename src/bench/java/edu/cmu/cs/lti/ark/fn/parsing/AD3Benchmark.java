@@ -0,0 +1,77 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solves AD^3 problems recorded by DDDecoding's factor file, from decoding synthetic frames.
+ * Run with "-prof gc" to see allocation per solve.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AD3Benchmark {
+	private static final int NUM_FEATURES = 1000;
+
+	@Param({"200"})
+	public int numFrames;
+
+	private List<FactorGraph> graphs;
+	private DDDecoding decoder;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void recordFactorGraphs() throws IOException {
+		final Random random = new Random(0);
+		final File factorFile = File.createTempFile("factors", ".txt");
+		factorFile.deleteOnExit();
+		decoder = new DDDecoding(false);
+		final Set<Pair<String, String>> roles01 = ImmutableSet.of(Pair.of("Role0", "Role1"));
+		final Set<Pair<String, String>> roles23 = ImmutableSet.of(Pair.of("Role2", "Role3"));
+		decoder.setMaps(ImmutableMap.of(SyntheticFrames.FRAME_NAME, roles01),
+				ImmutableMap.of(SyntheticFrames.FRAME_NAME, roles23));
+		decoder.setFactorFile(factorFile.getAbsolutePath());
+		final JointDecoding jointDecoding =
+				new JointDecoding(WeightVector.of(SyntheticFrames.weights(random, NUM_FEATURES)), decoder, null, false);
+		final List<String> frameLines = SyntheticFrames.frameLines(numFrames);
+		final SyntheticFrames syntheticFrames = new SyntheticFrames(random, NUM_FEATURES);
+		for (int i = 0; i < numFrames; i++) {
+			final FrameFeatures frame = syntheticFrames.frame();
+			jointDecoding.getNonOverlappingDecision(frame, frameLines.get(i), 0, false);
+		}
+		jointDecoding.wrapUp();
+		final BufferedReader reader = Files.newReader(factorFile, Charsets.UTF_8);
+		try {
+			graphs = FactorGraph.readAll(reader);
+		} finally {
+			reader.close();
+		}
+		// a decoder that doesn't record
+		decoder = new DDDecoding(false);
+	}
+
+	/** One frame's worth of AD^3, cycling through the recorded graphs */
+	@Benchmark
+	public void runAD3(Blackhole blackhole) {
+		final FactorGraph graph = graphs.get(next);
+		next = (next + 1) % graphs.size();
+		blackhole.consume(graph.solve(decoder));
+	}
+}
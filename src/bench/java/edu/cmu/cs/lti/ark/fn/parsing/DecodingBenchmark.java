@@ -0,0 +1,69 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.Scored;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes one synthetic frame's arguments, cycling through the frames: with beam search
+ * ({@link Decoding#getPredictions}), and with AD^3 ({@link JointDecoding}), including scoring the candidate spans and
+ * building the factor graph. {@link AD3Benchmark} times AD^3 on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodingBenchmark {
+	private static final int NUM_FEATURES = 1000;
+
+	@Param({"200"})
+	public int numFrames;
+
+	private Decoding beamDecoding;
+	private JointDecoding jointDecoding;
+	private List<FrameFeatures> frames;
+	private List<String> frameLines;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createFrames() {
+		final Random random = new Random(0);
+		final double[] weights = SyntheticFrames.weights(random, NUM_FEATURES);
+		beamDecoding = new Decoding(weights);
+		final DDDecoding ad3 = new DDDecoding(false);
+		final Set<Pair<String, String>> roles01 = ImmutableSet.of(Pair.of("Role0", "Role1"));
+		final Set<Pair<String, String>> roles23 = ImmutableSet.of(Pair.of("Role2", "Role3"));
+		ad3.setMaps(ImmutableMap.of(SyntheticFrames.FRAME_NAME, roles01),
+				ImmutableMap.of(SyntheticFrames.FRAME_NAME, roles23));
+		jointDecoding = new JointDecoding(WeightVector.of(weights), ad3, null, false);
+		frames = new SyntheticFrames(random, NUM_FEATURES).frames(numFrames);
+		frameLines = SyntheticFrames.frameLines(numFrames);
+	}
+
+	private int nextFrame() {
+		final int i = next;
+		next = (next + 1) % frames.size();
+		return i;
+	}
+
+	@Benchmark
+	public List<Scored<Decoding.RoleAssignments>> beamSearch() {
+		return beamDecoding.getPredictions(frames.get(nextFrame()), 1);
+	}
+
+	@Benchmark
+	public String ad3() {
+		final int i = nextFrame();
+		return jointDecoding.getNonOverlappingDecision(frames.get(i), frameLines.get(i), 0, false);
+	}
+}
@@ -0,0 +1,129 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import edu.cmu.cs.lti.ark.fn.SyntheticModel;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Range0Based;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import gnu.trove.TIntArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts argument identification features for one (target, role, candidate span), cycling through a target in
+ * each synthetic sentence, and all of the candidate spans for it.
+ * extractFeatures builds the feature names, as training does; extractFeatureIdxs looks them up in the model's
+ * feature index.
+ * allRoles and allRolesFactored get the features of a span for each of eight roles: by calling
+ * extractFeatureIdxs for each role, and by extracting the span's features once and looking up each role in a
+ * {@link RoleFeatureIndex}, as parsing does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureExtractorBenchmark {
+	private static final String FRAME = "Frame0";
+	private static final String ROLE = "Role0";
+	/** as many roles as the largest synthetic frames have */
+	private static final String[] ROLES = {"Role0", "Role1", "Role2", "Role3", "Role4", "Role5", "Role6", "Role7"};
+
+	private static class Example {
+		final DataPointWithFrameElements dataPoint;
+		final Range0Based span;
+		final DependencyParse parse;
+
+		Example(DataPointWithFrameElements dataPoint, Range0Based span, DependencyParse parse) {
+			this.dataPoint = dataPoint;
+			this.span = span;
+			this.parse = parse;
+		}
+	}
+
+	private final FeatureExtractor featureExtractor = new FeatureExtractor();
+	private final TIntArrayList featureIdxs = new TIntArrayList();
+	private final RoleFeatureIndex.SpanFeatures spanFeatures = new RoleFeatureIndex.SpanFeatures();
+	private FeatureIndex featureIndex;
+	private RoleFeatureIndex roleFeatureIndex;
+	private int[] roleIds;
+	private int[] frameRoleIds;
+	private List<Example> examples;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createExamples() {
+		final Random random = new Random(0);
+		final SyntheticModel model = SyntheticModel.create(0);
+		featureIndex = FeatureIndex.fromMap(model.argIdFeatureIndex);
+		roleFeatureIndex = RoleFeatureIndex.create(featureIndex, model.argIdFeatureIndex, model.frameElementsForFrame);
+		roleIds = new int[ROLES.length];
+		frameRoleIds = new int[ROLES.length];
+		for (int i = 0; i < ROLES.length; i++) {
+			roleIds[i] = roleFeatureIndex.getRoleId(ROLES[i]);
+			frameRoleIds[i] = roleFeatureIndex.getFrameRoleId(FRAME, ROLES[i]);
+		}
+		examples = Lists.newArrayList();
+		for (Sentence sentence : model.lemmatizedSentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			final DependencyParse parse = analysis.getArgIdParses().getBestParse();
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(analysis.getArgIdParses(),
+					SyntheticFrames.frameLine(FRAME, random.nextInt(sentence.size())), null);
+			for (DataPrep.SpanAndParseIdx span : analysis.getCandidateSpans()) {
+				examples.add(new Example(dataPoint, span.span, parse));
+			}
+		}
+	}
+
+	private Example nextExample() {
+		final Example example = examples.get(next);
+		next = (next + 1) % examples.size();
+		return example;
+	}
+
+	@Benchmark
+	public Multiset<String> extractFeatures() {
+		final Example example = nextExample();
+		return featureExtractor.extractFeatures(example.dataPoint, FRAME, ROLE, example.span, example.parse);
+	}
+
+	@Benchmark
+	public int extractFeatureIdxs() {
+		final Example example = nextExample();
+		featureExtractor.extractFeatureIdxs(example.dataPoint, FRAME, ROLE, example.span, example.parse,
+				featureIndex, featureIdxs);
+		return featureIdxs.size();
+	}
+
+	@Benchmark
+	public int allRoles() {
+		final Example example = nextExample();
+		int numFeatures = 0;
+		for (String role : ROLES) {
+			featureExtractor.extractFeatureIdxs(example.dataPoint, FRAME, role, example.span, example.parse,
+					featureIndex, featureIdxs);
+			numFeatures += featureIdxs.size();
+		}
+		return numFeatures;
+	}
+
+	@Benchmark
+	public int allRolesFactored() {
+		final Example example = nextExample();
+		featureExtractor.extractSpanFeatures(example.dataPoint, example.span, example.parse, roleFeatureIndex,
+				spanFeatures);
+		int numFeatures = 0;
+		for (int i = 0; i < ROLES.length; i++) {
+			roleFeatureIndex.getFeatureIdxs(spanFeatures, roleIds[i], frameRoleIds[i], featureIdxs);
+			numFeatures += featureIdxs.size();
+		}
+		return numFeatures;
+	}
+}
@@ -0,0 +1,36 @@
+package edu.cmu.cs.lti.ark.fn.segmentation;
+
+import edu.cmu.cs.lti.ark.fn.SyntheticModel;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the targets in one synthetic lemmatized sentence, cycling through the sentences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoteSegmenterBenchmark {
+	private SyntheticModel model;
+	private List<Sentence> sentences;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createModel() {
+		model = SyntheticModel.create(0);
+		sentences = model.lemmatizedSentences;
+	}
+
+	@Benchmark
+	public List<List<Integer>> getSegmentation() {
+		final Sentence sentence = sentences.get(next);
+		next = (next + 1) % sentences.size();
+		return model.semafor.predictTargets(sentence);
+	}
+}
@@ -0,0 +1,47 @@
+package edu.cmu.cs.lti.ark.util.nlp;
+
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.SyntheticModel;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lemmatizes one word, cycling through the words of the synthetic sentences.
+ * "morpha" runs Morpha on every word; "cached" puts a {@link CachingLemmatizer} in front of it, as parsing does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LemmatizerBenchmark {
+	@Param({"morpha", "cached"})
+	public String lemmatizer;
+
+	private Lemmatizer instance;
+	private List<Token> tokens;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void createTokens() {
+		instance = lemmatizer.equals("cached")
+				? new CachingLemmatizer(new MorphaLemmatizer(), CachingLemmatizer.DEFAULT_MAXIMUM_SIZE)
+				: new MorphaLemmatizer();
+		tokens = Lists.newArrayList();
+		for (Sentence sentence : SyntheticModel.create(0).sentences) {
+			tokens.addAll(sentence.getTokens());
+		}
+	}
+
+	@Benchmark
+	public String getLemma() {
+		final Token token = tokens.get(next);
+		next = (next + 1) % tokens.size();
+		return instance.getLemma(token.getForm(), token.getPostag());
+	}
+}
@@ -0,0 +1,74 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A Semafor that looks up each sentence in a {@link ParseCache} before parsing it,
+ * so that duplicate sentences are only parsed once.
+ * Both {@link #parseSentence} and {@link #parseAll} use the cache.
+ */
+public class CachingSemafor extends Semafor {
+	private final ParseCache cache;
+
+	public CachingSemafor(Semafor semafor, ParseCache cache) {
+		super(semafor);
+		this.cache = cache;
+	}
+
+	public ParseCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public SemaforParseResult parseSentence(final Sentence unLemmatizedSentence) throws IOException {
+		return cache.get(unLemmatizedSentence, new Callable<SemaforParseResult>() {
+			@Override public SemaforParseResult call() throws Exception {
+				return CachingSemafor.super.parseSentence(unLemmatizedSentence);
+			} });
+	}
+
+	/** Only parses the sentences that aren't cached (once each, however often they appear), and caches them */
+	@Override
+	public List<SemaforParseResult> parseAll(List<Sentence> sentences) throws IOException {
+		final SemaforParseResult[] results = new SemaforParseResult[sentences.size()];
+		// the positions of each sentence that isn't cached
+		final Map<HashCode, List<Integer>> missing = Maps.newLinkedHashMap();
+		final List<Sentence> toParse = Lists.newArrayList();
+		for (int i = 0; i < results.length; i++) {
+			final Sentence sentence = sentences.get(i);
+			final Optional<SemaforParseResult> result = cache.getIfPresent(sentence);
+			if (result.isPresent()) {
+				results[i] = result.get();
+				continue;
+			}
+			final HashCode key = ParseCache.getKey(sentence);
+			if (!missing.containsKey(key)) {
+				missing.put(key, Lists.<Integer>newArrayList());
+				toParse.add(sentence);
+			}
+			missing.get(key).add(i);
+		}
+		if (!toParse.isEmpty()) {
+			final List<SemaforParseResult> parsed = super.parseAll(toParse);
+			int j = 0;
+			for (List<Integer> positions : missing.values()) {
+				final SemaforParseResult result = parsed.get(j);
+				cache.put(toParse.get(j), result);
+				for (int i : positions) results[i] = result;
+				j++;
+			}
+		}
+		return Arrays.asList(results);
+	}
+}
@@ -0,0 +1,436 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.fn.identification.*;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FastDecoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectDoubleHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+import static edu.cmu.cs.lti.ark.fn.Semafor.ALPHABET_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.Semafor.ARG_MODEL_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.Semafor.FRAME_ELEMENT_MAP_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.Semafor.REQUIRED_DATA_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier.GRAPH_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier.ID_MODEL_FILE;
+import static edu.cmu.cs.lti.ark.util.SerializedObjects.readObject;
+
+/**
+ * A trained model, packed into one binary file so that it loads quickly.
+ *
+ * A bundle holds everything that {@link Semafor#getSemaforInstance} would otherwise read from the model directory
+ * (reqData.jobj, sparsegraph.gz, idmodel.dat, parser.conf, framenet.frame.element.map and argmodel.dat).
+ * Each distinct string is stored once, in a UTF-8 string table, and is referred to everywhere else by its index.
+ * Maps from strings to sets of strings are stored in CSR layout, and weights as raw arrays of doubles.
+ * The loader memory-maps the file and bulk-copies the int arrays, instead of deserializing objects or parsing text.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   magic, version
+ *   source files: size and modification time of each of {@link #SOURCE_FILENAMES} (longs)
+ *   string table: count, byte offsets (count + 1 ints), UTF-8 bytes, padding to 8 bytes
+ *   all related words: string idxs
+ *   all frames: string idxs
+ *   frames by lemma, fine graph map, coarse graph map, frame elements by frame: CSR maps
+ *   frame id feature extractor name: string idx
+ *   frame id model, compiled (see {@link CompiledFrameScorer}): frame feature names, base feature names (string
+ *     idxs), offsets, frame feature idxs, weights
+ *   arg id alphabet: string idxs, in feature index order (starting at 1)
+ *   arg id model: weights
+ * </pre>
+ * where an array is written as its length followed by its elements, and a CSR map as its key idxs, then offsets
+ * (one more than the number of keys), then value idxs. Arrays of doubles start on an 8 byte boundary.
+ *
+ * By default the weights are read straight from the mapped file, rather than copied onto the heap
+ * (see {@link WeightVector}).
+ *
+ * Only the non-latent frame identification model can be bundled.
+ *
+ * {@link Semafor#getSemaforInstance} refuses to load a bundle whose source files have changed since it was compiled
+ * (see {@link #checkSources}).
+ */
+public class ModelBundle {
+	public static final String DEFAULT_FILENAME = "semafor.bundle";
+	/** "SMFB" */
+	private static final int MAGIC = 0x534d4642;
+	/** should be incremented whenever the layout changes */
+	public static final int VERSION = 3;
+	/** the model files that a bundle is compiled from, in the order their sizes and times are written */
+	private static final List<String> SOURCE_FILENAMES = ImmutableList.of(REQUIRED_DATA_FILENAME, GRAPH_FILENAME,
+			ID_MODEL_FILE, ALPHABET_FILENAME, FRAME_ELEMENT_MAP_FILENAME, ARG_MODEL_FILENAME);
+
+	/**
+	 * Compiles the model in model-dir into a bundle.
+	 *
+	 * required flags:
+	 * model-dir
+	 * optional flags:
+	 * output-file: where to write the bundle (default: model-dir/semafor.bundle)
+	 */
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final String modelDirectory = options.modelDirectory.get();
+		final File bundleFile = options.outputFile.present() ?
+				new File(options.outputFile.get()) :
+				new File(modelDirectory, DEFAULT_FILENAME);
+		compile(modelDirectory, bundleFile);
+	}
+
+	/** Reads the model in modelDirectory, and writes it to bundleFile */
+	public static void compile(String modelDirectory, File bundleFile) throws IOException, ClassNotFoundException {
+		final String requiredDataFilename = new File(modelDirectory, REQUIRED_DATA_FILENAME).getAbsolutePath();
+		final String graphFilename = new File(modelDirectory, GRAPH_FILENAME).getAbsolutePath();
+		final File idParamsFile = new File(modelDirectory, ID_MODEL_FILE);
+		final String alphabetFilename = new File(modelDirectory, ALPHABET_FILENAME).getAbsolutePath();
+		final String frameElementMapFilename = new File(modelDirectory, FRAME_ELEMENT_MAP_FILENAME).getAbsolutePath();
+		final String argModelFilename = new File(modelDirectory, ARG_MODEL_FILENAME).getAbsolutePath();
+
+		System.err.println("Reading model from " + modelDirectory + "...");
+		final RequiredDataForFrameIdentification r = readObject(requiredDataFilename);
+		final SmoothedGraph graph = readObject(graphFilename);
+		final String idFeatureExtractorName = Files.readFirstLine(idParamsFile, Charsets.UTF_8).trim();
+		final TObjectDoubleHashMap<String> idParams;
+		try {
+			idParams = FrameIdentificationRelease.parseParamFile(idParamsFile.getAbsolutePath()).second;
+		} catch (NullPointerException e) {
+			throw new IOException(idParamsFile + " looks like a latent frame identification model, " +
+					"which can't be bundled.", e);
+		}
+		final Map<String, Integer> argIdFeatureIndex = DataPrep.readFeatureIndex(new File(alphabetFilename));
+		final double[] argModelWeights = Decoding.readModel(argModelFilename, alphabetFilename);
+		final Map<String, THashSet<String>> frameElementsForFrame = readObject(frameElementMapFilename);
+
+		System.err.println("Writing model bundle to " + bundleFile + "...");
+		final StringTable strings = new StringTable();
+		final int[] allRelatedWords = strings.internAll(r.getAllRelatedWords());
+		final int[] allFrames = strings.internAll(r.getFrameMap().keySet());
+		final CsrMap framesByLemma = CsrMap.encode(r.getcMap(), strings);
+		final CsrMap fineMap = CsrMap.encode(graph.getFineMap(), strings);
+		final CsrMap coarseMap = CsrMap.encode(graph.getCoarseMap(), strings);
+		final CsrMap frameElements = CsrMap.encode(frameElementsForFrame, strings);
+		final int idFeatureExtractor = strings.intern(idFeatureExtractorName);
+		final CompiledFrameScorer idScorer = CompiledFrameScorer.compile(idParams,
+				IdFeatureExtractor.fromName(idFeatureExtractorName).getFrameFeatureExtractor(),
+				Collections.<String>emptyList());
+		final int[] idFrameFeatureNames = strings.internAll(Arrays.asList(idScorer.getFrameFeatureNames()));
+		final int[] idBaseFeatureNames = strings.internAll(Arrays.asList(idScorer.getBaseFeatureNames()));
+		final WeightVector idWeights = idScorer.getWeights();
+		final int[] argIdAlphabet = new int[argIdFeatureIndex.size()];
+		for (Map.Entry<String, Integer> feature : argIdFeatureIndex.entrySet()) {
+			argIdAlphabet[feature.getValue() - 1] = strings.intern(feature.getKey());
+		}
+
+		final DataOutputStream output =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bundleFile), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			for (String filename : SOURCE_FILENAMES) {
+				final File source = new File(modelDirectory, filename);
+				output.writeLong(source.length());
+				output.writeLong(source.lastModified());
+			}
+			strings.write(output);
+			writeInts(output, allRelatedWords);
+			writeInts(output, allFrames);
+			framesByLemma.write(output);
+			fineMap.write(output);
+			coarseMap.write(output);
+			frameElements.write(output);
+			output.writeInt(idFeatureExtractor);
+			writeInts(output, idFrameFeatureNames);
+			writeInts(output, idBaseFeatureNames);
+			writeInts(output, idScorer.getOffsets());
+			writeInts(output, idScorer.getFrameFeatures());
+			writeDoubles(output, idWeights);
+			writeInts(output, argIdAlphabet);
+			writeDoubles(output, WeightVector.of(argModelWeights));
+		} finally {
+			output.close();
+		}
+		System.err.println("Done writing model bundle.");
+	}
+
+	/** Memory-maps a bundle written by {@link #compile}, and builds a Semafor from it, with off-heap weights */
+	public static Semafor load(File bundleFile) throws IOException {
+		return load(bundleFile, true);
+	}
+
+	/**
+	 * Memory-maps a bundle written by {@link #compile}, and builds a Semafor from it
+	 * @param offHeapWeights if true, model weights are read straight from the mapped file. Otherwise they're
+	 *                       copied onto the heap.
+	 */
+	public static Semafor load(File bundleFile, boolean offHeapWeights) throws IOException {
+		System.err.println("Loading model bundle from " + bundleFile + "...");
+		final BundleReader input = readHeader(bundleFile);
+		for (int i = 0; i < SOURCE_FILENAMES.size(); i++) {
+			input.readLong();
+			input.readLong();
+		}
+		final String[] strings = input.readStringTable();
+		final THashSet<String> allRelatedWords = input.readSet(strings);
+		final THashSet<String> allFrames = input.readSet(strings);
+		final THashMap<String, THashSet<String>> framesByLemma = input.readMap(strings);
+		final Map<String, Set<String>> fineMap = Collections.<String, Set<String>>unmodifiableMap(input.readMap(strings));
+		final Map<String, Set<String>> coarseMap = Collections.<String, Set<String>>unmodifiableMap(input.readMap(strings));
+		final THashMap<String, THashSet<String>> frameElementsForFrame = input.readMap(strings);
+		final IdFeatureExtractor idFeatureExtractor = IdFeatureExtractor.fromName(strings[input.readInt()]);
+		final CompiledFrameScorer idScorer = CompiledFrameScorer.fromArrays(
+				idFeatureExtractor.getFrameFeatureExtractor(),
+				input.readStrings(strings),
+				input.readStrings(strings),
+				input.readInts(),
+				input.readInts(),
+				input.readWeights(offHeapWeights),
+				allFrames);
+		final int[] argIdAlphabet = input.readInts();
+		final Map<String, Integer> argIdFeatureIndex = Maps.newHashMapWithExpectedSize(argIdAlphabet.length);
+		for (int i = 0; i < argIdAlphabet.length; i++) {
+			argIdFeatureIndex.put(strings[argIdAlphabet[i]], i + 1);
+		}
+		final WeightVector argModelWeights = input.readWeights(offHeapWeights);
+		System.err.println("Done loading model bundle.");
+
+		final GraphBasedFrameIdentifier idModel = new GraphBasedFrameIdentifier(
+				idFeatureExtractor,
+				allFrames,
+				framesByLemma,
+				idScorer,
+				new SmoothedGraph(fineMap, coarseMap));
+		return new Semafor(allRelatedWords,
+				new FEDict(frameElementsForFrame),
+				new RoteSegmenter(allRelatedWords),
+				idModel,
+				new FastDecoding(argModelWeights),
+				argIdFeatureIndex);
+	}
+
+	/**
+	 * Checks that the model files in modelDirectory are the ones that bundleFile was compiled from, going by their
+	 * sizes and modification times. Missing files are skipped, so a bundle can be deployed without them.
+	 * @throws IOException if any of them has changed since
+	 */
+	public static void checkSources(File bundleFile, String modelDirectory) throws IOException {
+		final BundleReader input = readHeader(bundleFile);
+		for (String filename : SOURCE_FILENAMES) {
+			final long length = input.readLong();
+			final long lastModified = input.readLong();
+			final File source = new File(modelDirectory, filename);
+			if (source.exists() && (source.length() != length || source.lastModified() != lastModified)) {
+				throw new IOException(source + " has changed since " + bundleFile + " was compiled from it. " +
+						"Please recompile the bundle, or delete it to load the model files directly.");
+			}
+		}
+	}
+
+	/**
+	 * Identifies the model in modelDirectory by the sizes and modification times of its model files and bundle,
+	 * so that anything derived from the model can tell when it has changed
+	 */
+	public static String getSourceFingerprint(String modelDirectory) {
+		final List<String> sources = Lists.newArrayList();
+		for (String filename : Iterables.concat(SOURCE_FILENAMES, ImmutableList.of(DEFAULT_FILENAME))) {
+			final File source = new File(modelDirectory, filename);
+			sources.add(filename + ":" + (source.exists() ? source.length() + ":" + source.lastModified() : "-"));
+		}
+		return Joiner.on(' ').join(sources);
+	}
+
+	/** Maps bundleFile, and reads its magic number and version */
+	private static BundleReader readHeader(File bundleFile) throws IOException {
+		final BundleReader input = new BundleReader(Files.map(bundleFile));
+		if (input.readInt() != MAGIC) throw new IOException(bundleFile + " is not a SEMAFOR model bundle.");
+		final int version = input.readInt();
+		if (version != VERSION) {
+			throw new IOException("Expected model bundle version " + VERSION + ", but " + bundleFile +
+					" has version " + version + ". Please recompile it.");
+		}
+		return input;
+	}
+
+	private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+		output.writeInt(values.length);
+		for (int value : values) output.writeInt(value);
+	}
+
+	private static void writeDoubles(DataOutputStream output, WeightVector values) throws IOException {
+		output.writeInt(values.size());
+		pad(output);
+		for (int i = 0; i < values.size(); i++) output.writeDouble(values.get(i));
+	}
+
+	/** Pads with zeros up to the next 8 byte boundary */
+	private static void pad(DataOutputStream output) throws IOException {
+		while (output.size() % 8 != 0) output.writeByte(0);
+	}
+
+	/** Assigns each distinct string an index, in order of first appearance */
+	private static class StringTable {
+		private final Map<String, Integer> idxs = Maps.newHashMap();
+		private final List<String> strings = Lists.newArrayList();
+
+		public int intern(String string) {
+			final Integer idx = idxs.get(string);
+			if (idx != null) return idx;
+			final int newIdx = strings.size();
+			idxs.put(string, newIdx);
+			strings.add(string);
+			return newIdx;
+		}
+
+		public int[] internAll(Collection<String> values) {
+			final int[] result = new int[values.size()];
+			int i = 0;
+			for (String value : values) result[i++] = intern(value);
+			return result;
+		}
+
+		public void write(DataOutputStream output) throws IOException {
+			final byte[][] bytes = new byte[strings.size()][];
+			final int[] offsets = new int[strings.size() + 1];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = strings.get(i).getBytes(Charsets.UTF_8);
+				offsets[i + 1] = offsets[i] + bytes[i].length;
+			}
+			output.writeInt(strings.size());
+			for (int offset : offsets) output.writeInt(offset);
+			for (byte[] string : bytes) output.write(string);
+			pad(output);
+		}
+	}
+
+	/** A map from strings to sets of strings, in CSR layout */
+	private static class CsrMap {
+		private final int[] keys;
+		private final int[] offsets;
+		private final int[] values;
+
+		private CsrMap(int[] keys, int[] offsets, int[] values) {
+			this.keys = keys;
+			this.offsets = offsets;
+			this.values = values;
+		}
+
+		public static CsrMap encode(Map<String, ? extends Set<String>> map, StringTable strings) {
+			final int[] keys = new int[map.size()];
+			final int[] offsets = new int[map.size() + 1];
+			int numValues = 0;
+			for (Set<String> values : map.values()) numValues += values.size();
+			final int[] values = new int[numValues];
+			int i = 0;
+			for (Map.Entry<String, ? extends Set<String>> entry : map.entrySet()) {
+				keys[i] = strings.intern(entry.getKey());
+				int j = offsets[i];
+				for (String value : entry.getValue()) values[j++] = strings.intern(value);
+				offsets[++i] = j;
+			}
+			return new CsrMap(keys, offsets, values);
+		}
+
+		public void write(DataOutputStream output) throws IOException {
+			writeInts(output, keys);
+			writeInts(output, offsets);
+			writeInts(output, values);
+		}
+	}
+
+	/** Reads the sections of a bundle in order */
+	private static class BundleReader {
+		private final ByteBuffer buffer;
+
+		private BundleReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int readInt() {
+			return buffer.getInt();
+		}
+
+		public long readLong() {
+			return buffer.getLong();
+		}
+
+		public int[] readInts() {
+			final int[] values = new int[buffer.getInt()];
+			buffer.asIntBuffer().get(values);
+			buffer.position(buffer.position() + 4 * values.length);
+			return values;
+		}
+
+		/** @param offHeap whether to leave the weights in the buffer, or copy them into an array */
+		public WeightVector readWeights(boolean offHeap) {
+			final int length = buffer.getInt();
+			skipPadding();
+			final DoubleBuffer weights = buffer.asDoubleBuffer();
+			weights.limit(length);
+			buffer.position(buffer.position() + 8 * length);
+			if (offHeap) return WeightVector.of(weights);
+			final double[] values = new double[length];
+			weights.get(values);
+			return WeightVector.of(values);
+		}
+
+		public String[] readStrings(String[] strings) {
+			final int[] idxs = readInts();
+			final String[] result = new String[idxs.length];
+			for (int i = 0; i < idxs.length; i++) result[i] = strings[idxs[i]];
+			return result;
+		}
+
+		private void skipPadding() {
+			while (buffer.position() % 8 != 0) buffer.get();
+		}
+
+		public String[] readStringTable() {
+			final String[] strings = new String[buffer.getInt()];
+			final int[] offsets = new int[strings.length + 1];
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + 4 * offsets.length);
+			final byte[] bytes = new byte[offsets[strings.length]];
+			buffer.get(bytes);
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], Charsets.UTF_8);
+			}
+			skipPadding();
+			return strings;
+		}
+
+		public THashSet<String> readSet(String[] strings) {
+			final int[] idxs = readInts();
+			final THashSet<String> result = new THashSet<String>(idxs.length);
+			for (int idx : idxs) result.add(strings[idx]);
+			return result;
+		}
+
+		public THashMap<String, THashSet<String>> readMap(String[] strings) {
+			final int[] keys = readInts();
+			final int[] offsets = readInts();
+			final int[] values = readInts();
+			final THashMap<String, THashSet<String>> result = new THashMap<String, THashSet<String>>(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				final THashSet<String> set = new THashSet<String>(offsets[i + 1] - offsets[i]);
+				for (int j = offsets[i]; j < offsets[i + 1]; j++) set.add(strings[values[j]]);
+				result.put(strings[keys[i]], set);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+
+/**
+ * A bounded cache of parse results, keyed by a hash of the conll encoding of the input sentence.
+ *
+ * The most recently used results are kept in memory. Optionally, every result is also appended to a file on disk,
+ * which is read back the next time the cache is opened, so that reprocessing a corpus reuses earlier work.
+ * Results on disk aren't kept in memory until they're used. The file records a fingerprint of the model and options
+ * that produced its results, and is cleared if it's opened with a different one.
+ * Concurrent requests for the same sentence only parse it once.
+ */
+@ThreadSafe
+public class ParseCache implements Closeable {
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	private final Cache<HashCode, SemaforParseResult> memory;
+	private final Optional<DiskStore> disk;
+	private final AtomicLong diskHits = new AtomicLong();
+
+	/**
+	 * @param fingerprint identifies the model and options that results are parsed with (see
+	 *                    {@link Semafor#getFingerprint}). can't contain newlines
+	 */
+	public ParseCache(long maximumSize, Optional<File> diskStoreFile, String fingerprint) throws IOException {
+		checkArgument(fingerprint.indexOf('\n') < 0, "fingerprint can't contain newlines");
+		this.memory = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+		this.disk = diskStoreFile.isPresent() ?
+				Optional.of(new DiskStore(diskStoreFile.get(), fingerprint)) :
+				Optional.<DiskStore>absent();
+	}
+
+	public static HashCode getKey(Sentence sentence) {
+		return HASH_FUNCTION.hashString(ConllCodec.encode(sentence), Charsets.UTF_8);
+	}
+
+	/**
+	 * Returns the cached result for sentence, or calls parse to compute it (and caches that).
+	 * The result is shared, so it must not be modified.
+	 */
+	public SemaforParseResult get(Sentence sentence, final Callable<SemaforParseResult> parse) throws IOException {
+		final HashCode key = getKey(sentence);
+		try {
+			return memory.get(key, new Callable<SemaforParseResult>() {
+				@Override public SemaforParseResult call() throws Exception {
+					if (disk.isPresent()) {
+						final Optional<String> json = disk.get().get(key);
+						if (json.isPresent()) {
+							diskHits.incrementAndGet();
+							return SemaforParseResult.fromJson(json.get());
+						}
+					}
+					final SemaforParseResult result = parse.call();
+					if (disk.isPresent()) disk.get().put(key, result.toJson());
+					return result;
+				} });
+		} catch (ExecutionException e) {
+			propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw propagate(e.getCause());
+		} catch (UncheckedExecutionException e) {
+			throw propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the cached result for sentence, from memory or disk, if there is one.
+	 * The result is shared, so it must not be modified.
+	 */
+	public Optional<SemaforParseResult> getIfPresent(Sentence sentence) throws IOException {
+		final HashCode key = getKey(sentence);
+		final SemaforParseResult result = memory.getIfPresent(key);
+		if (result != null) return Optional.of(result);
+		if (disk.isPresent()) {
+			final Optional<String> json = disk.get().get(key);
+			if (json.isPresent()) {
+				diskHits.incrementAndGet();
+				final SemaforParseResult fromDisk = SemaforParseResult.fromJson(json.get());
+				memory.put(key, fromDisk);
+				return Optional.of(fromDisk);
+			}
+		}
+		return Optional.absent();
+	}
+
+	/** Caches result as the parse of sentence, which {@link #getIfPresent} didn't find */
+	public void put(Sentence sentence, SemaforParseResult result) throws IOException {
+		final HashCode key = getKey(sentence);
+		memory.put(key, result);
+		if (disk.isPresent()) disk.get().put(key, result.toJson());
+	}
+
+	/** The number of lookups found in memory */
+	public long getHitCount() {
+		return memory.stats().hitCount();
+	}
+
+	/** The number of lookups that weren't in memory, but were found on disk */
+	public long getDiskHitCount() {
+		return diskHits.get();
+	}
+
+	/** The number of lookups that had to be parsed */
+	public long getMissCount() {
+		return memory.stats().missCount() - diskHits.get();
+	}
+
+	public String getSummary() {
+		final CacheStats stats = memory.stats();
+		return String.format("parse cache: %d hits, %d disk hits, %d misses, %d evictions, %d results in memory%s",
+				getHitCount(),
+				getDiskHitCount(),
+				getMissCount(),
+				stats.evictionCount(),
+				memory.size(),
+				disk.isPresent() ? ", " + disk.get().size() + " on disk" : "");
+	}
+
+	@Override public void close() throws IOException {
+		if (disk.isPresent()) disk.get().close();
+	}
+
+	/**
+	 * An append-only file of "key\tjson\n" lines, after a header line with the fingerprint, and an in-memory index
+	 * from key to the position of its json.
+	 * A truncated last line (e.g. from a crash) is ignored, and overwritten by the next result.
+	 */
+	private static class DiskStore implements Closeable {
+		private static final String MAGIC = "semafor-parse-cache\t";
+
+		private final RandomAccessFile file;
+		/** hex key -> start and length (in bytes) of its json */
+		private final Map<String, long[]> index = Maps.newHashMap();
+		private long end = 0;
+
+		private DiskStore(File storeFile, String fingerprint) throws IOException {
+			this.file = new RandomAccessFile(storeFile, "rw");
+			final byte[] header = (MAGIC + fingerprint + "\n").getBytes(Charsets.UTF_8);
+			if (hasHeader(header)) {
+				readIndex(header.length);
+			} else {
+				if (file.length() > 0) {
+					System.err.println("Clearing " + storeFile + ": its results are from a different model or options.");
+				}
+				file.setLength(0);
+				file.write(header);
+				end = header.length;
+			}
+		}
+
+		private boolean hasHeader(byte[] header) throws IOException {
+			if (file.length() < header.length) return false;
+			final byte[] start = new byte[header.length];
+			file.seek(0);
+			file.readFully(start);
+			return Arrays.equals(start, header);
+		}
+
+		/** Indexes the results after the header, which is headerLength bytes long */
+		private void readIndex(long headerLength) throws IOException {
+			file.seek(headerLength);
+			final InputStream input = new BufferedInputStream(new FileInputStream(file.getFD()), 1 << 16);
+			final ByteArrayOutputStream key = new ByteArrayOutputStream();
+			long position = headerLength;
+			long lineStart = headerLength;
+			long jsonStart = -1;
+			int b;
+			while ((b = input.read()) != -1) {
+				if (jsonStart < 0) {
+					if (b == '\t') {
+						jsonStart = position + 1;
+					} else {
+						key.write(b);
+					}
+				} else if (b == '\n') {
+					index.put(key.toString("UTF-8"), new long[] {jsonStart, position - jsonStart});
+					key.reset();
+					jsonStart = -1;
+					lineStart = position + 1;
+				}
+				position++;
+			}
+			end = lineStart;
+			file.setLength(end);
+		}
+
+		public synchronized Optional<String> get(HashCode key) throws IOException {
+			final long[] location = index.get(key.toString());
+			if (location == null) return Optional.absent();
+			final byte[] json = new byte[(int) location[1]];
+			file.seek(location[0]);
+			file.readFully(json);
+			return Optional.of(new String(json, Charsets.UTF_8));
+		}
+
+		public synchronized void put(HashCode key, String json) throws IOException {
+			final byte[] keyBytes = (key + "\t").getBytes(Charsets.UTF_8);
+			final byte[] jsonBytes = json.getBytes(Charsets.UTF_8);
+			file.seek(end);
+			file.write(keyBytes);
+			file.write(jsonBytes);
+			file.write('\n');
+			index.put(key.toString(), new long[] {end + keyBytes.length, jsonBytes.length});
+			end += keyBytes.length + jsonBytes.length + 1;
+		}
+
+		public synchronized int size() {
+			return index.size();
+		}
+
+		@Override public synchronized void close() throws IOException {
+			file.close();
+		}
+	}
+}
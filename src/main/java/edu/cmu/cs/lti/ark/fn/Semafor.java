@@ -22,42 +22,58 @@
 package edu.cmu.cs.lti.ark.fn;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.OutputSupplier;
 import com.google.common.primitives.Ints;
-import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import com.google.common.util.concurrent.Callables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.ConllSentenceReader;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
 import edu.cmu.cs.lti.ark.fn.evaluation.PrepareFullAnnotationJson;
 import edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier;
+import edu.cmu.cs.lti.ark.fn.identification.LatentGraphBasedFrameIdentifier;
 import edu.cmu.cs.lti.ark.fn.identification.RequiredDataForFrameIdentification;
 import edu.cmu.cs.lti.ark.fn.parsing.*;
 import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
 import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
 import edu.cmu.cs.lti.ark.util.ds.Range0Based;
-import edu.cmu.cs.lti.ark.util.nlp.Lemmatizer;
+import edu.cmu.cs.lti.ark.util.metrics.MetricsRegistry;
+import edu.cmu.cs.lti.ark.util.nlp.CachingLemmatizer;
 import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
-import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParses;
+import gnu.trove.TIntArrayList;
 
+import javax.management.JMException;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.net.URISyntaxException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
 import static com.google.common.collect.ImmutableList.copyOf;
 import static com.google.common.collect.Lists.transform;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
@@ -68,11 +84,15 @@ import static edu.cmu.cs.lti.ark.util.SerializedObjects.readObject;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 
-public class Semafor {
+public class Semafor implements Closeable {
 	public static final String REQUIRED_DATA_FILENAME = "reqData.jobj";
-	private static final String ALPHABET_FILENAME = "parser.conf";
-	private static final String FRAME_ELEMENT_MAP_FILENAME = "framenet.frame.element.map";
-	private static final String ARG_MODEL_FILENAME = "argmodel.dat";
+	public static final String ALPHABET_FILENAME = "parser.conf";
+	public static final String FRAME_ELEMENT_MAP_FILENAME = "framenet.frame.element.map";
+	public static final String ARG_MODEL_FILENAME = "argmodel.dat";
+	/** the number of sentences {@link #parseAll(Iterator)} parses at a time */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	/** the JMX name that main registers the metrics under */
+	public static final String METRICS_MBEAN_NAME = "edu.cmu.cs.lti.ark.fn:type=Semafor";
 
 	private static final Joiner TAB = Joiner.on("\t");
 
@@ -82,13 +102,58 @@ public class Semafor {
 	protected final GraphBasedFrameIdentifier idModel;
 	protected final Decoding decoder;
 	protected final Map<String, Integer> argIdFeatureIndex;
-	protected final Lemmatizer lemmatizer = new MorphaLemmatizer();
+	protected final RoleFeatureIndex argIdFeatureIdxs;
+	/** shared by all the threads parsing with this Semafor */
+	protected final CachingLemmatizer lemmatizer;
+	/** latency of each stage, and counts of targets, frames and spans. shared by all threads parsing with this */
+	protected final MetricsRegistry metricsRegistry;
+	private final Metrics metrics;
+	/** the size of the pool that {@link #parseAll} runs on. Guarded by this */
+	private int numBatchThreads = Runtime.getRuntime().availableProcessors();
+	/** the pool that {@link #parseAll} runs on, created when first needed. Guarded by this */
+	private ExecutorService batchExecutor;
+
+	/** What parsing records in a {@link MetricsRegistry}, besides what frame identification does */
+	private static class Metrics {
+		final MetricsRegistry.Stage sentence;
+		final MetricsRegistry.Stage lemmatization;
+		final MetricsRegistry.Stage targetId;
+		final MetricsRegistry.Stage argumentFeatures;
+		final MetricsRegistry.Stage decoding;
+		final AtomicLong spans;
+
+		Metrics(MetricsRegistry registry, GraphBasedFrameIdentifier idModel) {
+			sentence = registry.stage("sentence");
+			lemmatization = registry.stage("lemmatization");
+			targetId = registry.stage("target id");
+			idModel.setMetrics(registry);
+			argumentFeatures = registry.stage("argument features");
+			decoding = registry.stage("decoding");
+			spans = registry.counter("candidate spans");
+		}
+	}
 
 	/**
 	 * required flags:
 	 * model-dir
 	 * input-file
 	 * output-file
+	 * optional flags:
+	 * numthreads
+	 * parse-cache-size: if given, cache the results of up to this many distinct sentences in memory
+	 * parse-cache-file: if given (with parse-cache-size), also save every result to this file, and reuse the results
+	 *   already in it
+	 * max-candidate-frames: if given, and the model isn't a latent frame identification model, only score this many
+	 *   frames (the best scoring according to an index of the model's weights) for targets that aren't in the lexicon
+	 *   or the graph, instead of every frame
+	 * pipeline-batch-size: if given, parse batches of this many sentences in a {@link SemaforPipeline}
+	 * pipeline-threads: (with pipeline-batch-size) the numbers of threads for target identification, frame
+	 *   identification and argument identification, comma-separated (default: numthreads for each)
+	 * lemma-frequency-file: if given, lemmatize the most frequent words in this list (as written by
+	 *   {@link CachingLemmatizer#main}) up front
+	 * frame-scoring-threads: if given, and the model is a latent frame identification model, score large sets of
+	 *   candidate frames on this many extra threads
+	 * metrics-summary-seconds: if given, print the latency of each stage, and other metrics, this often
 	 */
 	public static void main(String[] args) throws Exception {
 		final FNModelOptions options = new FNModelOptions(args);
@@ -97,10 +162,84 @@ public class Semafor {
 		final String modelDirectory = options.modelDirectory.get();
 		final int numThreads = options.numThreads.present() ? options.numThreads.get() : 1;
 		final Semafor semafor = getSemaforInstance(modelDirectory);
-		semafor.runParser(
-				Files.newReaderSupplier(inputFile, Charsets.UTF_8),
-				Files.newWriterSupplier(outputFile, Charsets.UTF_8),
-				numThreads);
+		startMetrics(semafor, options);
+		if (options.lemmaFrequencyFile.present()) {
+			final int numWarmed = semafor.lemmatizer.warm(new File(options.lemmaFrequencyFile.get()));
+			System.err.printf("Lemmatized the %d most frequent words.%n", numWarmed);
+		}
+		if (options.maxCandidateFrames.present()) {
+			if (semafor.idModel instanceof LatentGraphBasedFrameIdentifier) {
+				System.err.println("Ignoring max-candidate-frames: the frame identification model is latent.");
+			} else {
+				semafor.idModel.setMaxCandidateFrames(options.maxCandidateFrames.get());
+			}
+		}
+		if (options.frameScoringThreads.present()) {
+			if (semafor.idModel instanceof LatentGraphBasedFrameIdentifier) {
+				((LatentGraphBasedFrameIdentifier) semafor.idModel).setFrameScoringExecutor(newFixedThreadPool(
+						options.frameScoringThreads.get(),
+						new ThreadFactoryBuilder().setDaemon(true).setNameFormat("frame-scoring-%d").build()));
+			} else {
+				System.err.println("Ignoring frame-scoring-threads: the frame identification model isn't latent.");
+			}
+		}
+		if (options.pipelineBatchSize.present()) {
+			checkArgument(!options.parseCacheSize.present(), "pipeline-batch-size can't be used with parse-cache-size");
+			final int[] stageThreads = {numThreads, numThreads, numThreads};
+			if (options.pipelineThreads.present()) {
+				final String[] fields = options.pipelineThreads.get().split(",");
+				checkArgument(fields.length == 3, "pipeline-threads must be 3 comma-separated numbers");
+				for (int i = 0; i < fields.length; i++) stageThreads[i] = Integer.parseInt(fields[i].trim());
+			}
+			new SemaforPipeline(semafor,
+					options.pipelineBatchSize.get(),
+					stageThreads[0],
+					stageThreads[1],
+					stageThreads[2],
+					SemaforPipeline.DEFAULT_SUMMARY_INTERVAL_MILLIS)
+					.run(inputFile, Files.newWriterSupplier(outputFile, Charsets.UTF_8));
+		} else if (options.parseCacheSize.present()) {
+			final Optional<File> cacheFile = options.parseCacheFile.present() ?
+					Optional.of(new File(options.parseCacheFile.get())) :
+					Optional.<File>absent();
+			final ParseCache cache =
+					new ParseCache(options.parseCacheSize.get(), cacheFile, getFingerprint(semafor, modelDirectory));
+			try {
+				new CachingSemafor(semafor, cache).runParser(
+						inputFile,
+						Files.newWriterSupplier(outputFile, Charsets.UTF_8),
+						numThreads);
+				System.err.println(cache.getSummary());
+			} finally {
+				cache.close();
+			}
+		} else {
+			semafor.runParser(
+					inputFile,
+					Files.newWriterSupplier(outputFile, Charsets.UTF_8),
+					numThreads);
+		}
+		System.err.println(semafor.lemmatizer.getSummary());
+		System.err.println(semafor.metricsRegistry.getSummary());
+	}
+
+	/** Identifies the model in modelDirectory, and the options that change semafor's results */
+	static String getFingerprint(Semafor semafor, String modelDirectory) {
+		final Optional<Integer> maxCandidateFrames = semafor.idModel.getMaxCandidateFrames();
+		return ModelBundle.getSourceFingerprint(modelDirectory) +
+				" max-candidate-frames:" + (maxCandidateFrames.isPresent() ? maxCandidateFrames.get() : "all");
+	}
+
+	/** Exposes semafor's metrics over JMX, and, if metrics-summary-seconds is given, starts printing them */
+	static void startMetrics(Semafor semafor, FNModelOptions options) {
+		try {
+			semafor.metricsRegistry.registerMBean(METRICS_MBEAN_NAME);
+		} catch (JMException e) {
+			System.err.println("Couldn't register metrics over JMX: " + e);
+		}
+		if (options.metricsSummarySeconds.present()) {
+			semafor.metricsRegistry.startSummary(options.metricsSummarySeconds.get() * 1000L);
+		}
 	}
 
 	public Semafor(Set<String> allRelatedWords,
@@ -114,10 +253,34 @@ public class Semafor {
 		this.idModel = idModel;
 		this.decoder = decoder;
 		this.argIdFeatureIndex = argIdFeatureIndex;
+		this.argIdFeatureIdxs = RoleFeatureIndex.create(FeatureIndex.fromMap(argIdFeatureIndex), argIdFeatureIndex,
+				frameElementsForFrame);
+		this.lemmatizer = new CachingLemmatizer(new MorphaLemmatizer(), CachingLemmatizer.DEFAULT_MAXIMUM_SIZE);
+		this.metricsRegistry = new MetricsRegistry();
+		this.metrics = new Metrics(metricsRegistry, idModel);
+	}
+
+	/** Shares all of other's models */
+	protected Semafor(Semafor other) {
+		this.allRelatedWords = other.allRelatedWords;
+		this.frameElementsForFrame = other.frameElementsForFrame;
+		this.segmenter = other.segmenter;
+		this.idModel = other.idModel;
+		this.decoder = other.decoder;
+		this.argIdFeatureIndex = other.argIdFeatureIndex;
+		this.argIdFeatureIdxs = other.argIdFeatureIdxs;
+		this.lemmatizer = other.lemmatizer;
+		this.metricsRegistry = other.metricsRegistry;
+		this.metrics = other.metrics;
 	}
 
 	public static Semafor getSemaforInstance(String modelDirectory)
 			throws IOException, ClassNotFoundException, URISyntaxException {
+		final File bundleFile = new File(modelDirectory, ModelBundle.DEFAULT_FILENAME);
+		if (bundleFile.exists()) {
+			ModelBundle.checkSources(bundleFile, modelDirectory);
+			return ModelBundle.load(bundleFile);
+		}
 		final String requiredDataFilename = new File(modelDirectory, REQUIRED_DATA_FILENAME).getAbsolutePath();
 		final String alphabetFilename = new File(modelDirectory, ALPHABET_FILENAME).getAbsolutePath();
 		final String frameElementMapFilename = new File(modelDirectory, FRAME_ELEMENT_MAP_FILENAME).getAbsolutePath();
@@ -130,7 +293,7 @@ public class Semafor {
 		System.err.println("Initializing alphabet for argument identification..");
 		final Map<String, Integer> argIdFeatureIndex = DataPrep.readFeatureIndex(new File(alphabetFilename));
 		final FEDict frameElementsForFrame = FEDict.fromFile(frameElementMapFilename);
-		final Decoding decoder = Decoding.fromFile(argModelFilename, alphabetFilename);
+		final Decoding decoder = FastDecoding.fromFile(argModelFilename, alphabetFilename);
 		return new Semafor(allRelatedWords,
 				frameElementsForFrame,
 				segmenter,
@@ -152,6 +315,45 @@ public class Semafor {
 						  final OutputSupplier<? extends Writer> outputSupplier,
 						  final int numThreads)
 			throws IOException, InterruptedException {
+		final SentenceCodec.SentenceIterator sentences = ConllCodec.readInput(inputSupplier.getInput());
+		try {
+			runParser(Iterators.transform(sentences, new Function<Sentence, Callable<Sentence>>() {
+				@Override public Callable<Sentence> apply(final Sentence sentence) {
+					return Callables.returning(sentence);
+				} }), outputSupplier, numThreads);
+		} finally { closeQuietly(sentences); }
+	}
+
+	/**
+	 * Reads conll sentences from a UTF-8 encoded file, parses them, and writes the json-serialized results.
+	 * The file is memory-mapped, and split into sentences without decoding it; each sentence is decoded by the worker
+	 * thread that parses it.
+	 *
+	 * @param inputFile where to read conll sentences from
+	 * @param outputSupplier where to write the results to
+	 * @param numThreads the number of threads to use
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void runParser(File inputFile,
+						  OutputSupplier<? extends Writer> outputSupplier,
+						  int numThreads)
+			throws IOException, InterruptedException {
+		final ConllSentenceReader sentences = ConllSentenceReader.map(inputFile);
+		try {
+			runParser(sentences.deferredSentences(), outputSupplier, numThreads);
+		} finally { closeQuietly(sentences); }
+	}
+
+	/**
+	 * Parses sentences, and writes the json-serialized results.
+	 *
+	 * @param sentences the sentences to parse. each is fetched (e.g. decoded) by the worker thread that parses it
+	 */
+	private void runParser(Iterator<Callable<Sentence>> sentences,
+						   OutputSupplier<? extends Writer> outputSupplier,
+						   int numThreads)
+			throws IOException, InterruptedException {
 		// use the producer-worker-consumer pattern to parse all sentences in multiple threads, while keeping
 		// output in order.
 		final BlockingQueue<Future<Optional<SemaforParseResult>>> results =
@@ -186,34 +388,28 @@ public class Semafor {
 			consumer.start();
 			// in main thread, put placeholders on results queue (so results stay in order), then
 			// tell a worker thread to fill up the placeholder
-			final SentenceCodec.SentenceIterator sentences = ConllCodec.readInput(inputSupplier.getInput());
-			try {
-				int i = 0;
-				while (sentences.hasNext()) {
-					final Sentence sentence = sentences.next();
-					final int sentenceId = i;
-					results.put(workerThreadPool.submit(new Callable<Optional<SemaforParseResult>>() {
-						@Override public Optional<SemaforParseResult> call() throws Exception {
-							final long start = System.currentTimeMillis();
-							try {
-								final SemaforParseResult result = parseSentence(sentence);
-								final long end = System.currentTimeMillis();
-								System.err.printf("parsed sentence %d in %d millis.%n", sentenceId, end - start);
-								return Optional.of(result);
-							} catch (Exception e) {
-								e.printStackTrace();
-								throw e;
-							}
-						} }));
-					i++;
-				}
-				// put a poison pill on the queue to signal that we're done
+			int i = 0;
+			while (sentences.hasNext()) {
+				final Callable<Sentence> sentence = sentences.next();
+				final int sentenceId = i;
 				results.put(workerThreadPool.submit(new Callable<Optional<SemaforParseResult>>() {
 					@Override public Optional<SemaforParseResult> call() throws Exception {
-						return Optional.absent();
+						try {
+							return Optional.of(parseSentence(sentence.call()));
+						} catch (Exception e) {
+							System.err.printf("failed to parse sentence %d.%n", sentenceId);
+							e.printStackTrace();
+							throw e;
+						}
 					} }));
-				workerThreadPool.shutdown();
-			} finally { closeQuietly(sentences); }
+				i++;
+			}
+			// put a poison pill on the queue to signal that we're done
+			results.put(workerThreadPool.submit(new Callable<Optional<SemaforParseResult>>() {
+				@Override public Optional<SemaforParseResult> call() throws Exception {
+					return Optional.absent();
+				} }));
+			workerThreadPool.shutdown();
 			// wait for consumer to finish
 			consumer.join();
 		} finally { closeQuietly(output); }
@@ -221,24 +417,160 @@ public class Semafor {
 	}
 
 	public SemaforParseResult parseSentence(Sentence unLemmatizedSentence) throws IOException {
-		// look up lemmas
-		final Sentence sentence = addLemmas(unLemmatizedSentence);
-		// find targets
-		final List<List<Integer>> segments = predictTargets(sentence);
-		// frame identification
-		final List<Pair<List<Integer>, String>> idResult = predictFrames(sentence, segments);
-		// argument identification
-		return predictArguments(sentence, idResult);
+		final MetricsRegistry.Timer timer = metrics.sentence.start();
+		try {
+			// look up lemmas
+			final SentenceAnalysis analysis = new SentenceAnalysis(addLemmas(unLemmatizedSentence));
+			// find targets
+			final List<List<Integer>> segments = predictTargets(analysis.getSentence());
+			// frame identification
+			final List<Pair<List<Integer>, String>> idResult = predictFrames(analysis, segments);
+			// argument identification
+			return predictArguments(analysis, idResult);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/** The latency of each stage of parsing, and counts of targets, candidate frames and spans */
+	public MetricsRegistry getMetrics() {
+		return metricsRegistry;
+	}
+
+	/**
+	 * Sets the number of threads that {@link #parseAll} runs on (default: the number of processors).
+	 * Must be called before the first call to parseAll.
+	 */
+	public synchronized void setBatchThreads(int numThreads) {
+		checkArgument(numThreads > 0, "number of threads must be positive");
+		checkState(batchExecutor == null, "parseAll has already started its threads");
+		numBatchThreads = numThreads;
+	}
+
+	private synchronized ExecutorService getBatchExecutor() {
+		checkState(numBatchThreads > 0, "Semafor has been closed");
+		if (batchExecutor == null) {
+			batchExecutor = newFixedThreadPool(numBatchThreads,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("semafor-batch-%d").build());
+		}
+		return batchExecutor;
+	}
+
+	/**
+	 * Stops the threads that {@link #parseAll} runs on, and the periodic metrics summary.
+	 * parseAll can't be called afterwards
+	 */
+	@Override
+	public synchronized void close() {
+		numBatchThreads = 0;
+		if (batchExecutor != null) batchExecutor.shutdownNow();
+		metricsRegistry.close();
+	}
+
+	/**
+	 * Parses sentences in parallel, on a pool of threads owned by this Semafor (see {@link #setBatchThreads}).
+	 * Each sentence is lemmatized and segmented in one task, then each of its targets gets frame identification and
+	 * argument identification in a task of its own, so a sentence with many targets is spread over many threads.
+	 * The results are the same as {@link #parseSentence}'s.
+	 *
+	 * @param sentences unlemmatized sentences
+	 * @return the parse of each sentence, in the same order
+	 */
+	public List<SemaforParseResult> parseAll(List<Sentence> sentences) throws IOException {
+		final ExecutorService executor = getBatchExecutor();
+		final List<Future<?>> tasks = Lists.newArrayList();
+		try {
+			// lemmatize and find targets
+			final List<Future<Pair<SentenceAnalysis, List<List<Integer>>>>> analyses = Lists.newArrayList();
+			for (final Sentence sentence : sentences) {
+				final Future<Pair<SentenceAnalysis, List<List<Integer>>>> analysis =
+						executor.submit(new Callable<Pair<SentenceAnalysis, List<List<Integer>>>>() {
+							@Override public Pair<SentenceAnalysis, List<List<Integer>>> call() {
+								final SentenceAnalysis analysis = new SentenceAnalysis(addLemmas(sentence));
+								return Pair.of(analysis, predictTargets(analysis.getSentence()));
+							} });
+				analyses.add(analysis);
+				tasks.add(analysis);
+			}
+			// as each sentence's targets are found, identify their frames and arguments.
+			// tasks never wait on other tasks, so this can't deadlock however few threads there are
+			final List<List<Future<String>>> argumentLines = Lists.newArrayListWithCapacity(sentences.size());
+			for (Future<Pair<SentenceAnalysis, List<List<Integer>>>> future : analyses) {
+				final SentenceAnalysis analysis = future.get().first;
+				final List<Future<String>> sentenceLines = Lists.newArrayList();
+				for (final List<Integer> targetTokenIdxs : future.get().second) {
+					final Future<String> lines = executor.submit(new Callable<String>() {
+						@Override public String call() throws IOException {
+							final String frame = idModel.getBestFrame(Ints.toArray(targetTokenIdxs), analysis);
+							final List<String> idResultLines = getArgumentIdInput(analysis,
+									ImmutableList.of(Pair.of(targetTokenIdxs, frame)));
+							return predictArgumentLines(analysis, idResultLines, 1).get(0);
+						} });
+					sentenceLines.add(lines);
+					tasks.add(lines);
+				}
+				argumentLines.add(sentenceLines);
+			}
+			final List<SemaforParseResult> results = Lists.newArrayListWithCapacity(sentences.size());
+			for (int i = 0; i < sentences.size(); i++) {
+				final List<String> lines = Lists.newArrayListWithCapacity(argumentLines.get(i).size());
+				for (Future<String> line : argumentLines.get(i)) {
+					lines.add(line.get());
+				}
+				results.add(getSemaforParseResult(analyses.get(i).get().first.getSentence(), lines));
+			}
+			return results;
+		} catch (InterruptedException e) {
+			for (Future<?> task : tasks) task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw propagate(e);
+		} catch (ExecutionException e) {
+			for (Future<?> task : tasks) task.cancel(true);
+			propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Parses sentences lazily, {@link #DEFAULT_BATCH_SIZE} at a time, with {@link #parseAll(List)}.
+	 * An IOException while parsing is rethrown wrapped in a RuntimeException.
+	 *
+	 * @param sentences unlemmatized sentences
+	 * @return the parse of each sentence, in the same order
+	 */
+	public Iterator<SemaforParseResult> parseAll(Iterator<Sentence> sentences) {
+		return Iterators.concat(Iterators.transform(Iterators.partition(sentences, DEFAULT_BATCH_SIZE),
+				new Function<List<Sentence>, Iterator<SemaforParseResult>>() {
+					@Override public Iterator<SemaforParseResult> apply(List<Sentence> batch) {
+						try {
+							return parseAll(batch).iterator();
+						} catch (IOException e) {
+							throw propagate(e);
+						}
+					} }));
+	}
+
+	public GraphBasedFrameIdentifier getIdModel() {
+		return idModel;
 	}
 
 	public List<List<Integer>> predictTargets(Sentence sentence) {
-		return segmenter.getSegmentation(sentence);
+		final MetricsRegistry.Timer timer = metrics.targetId.start();
+		try {
+			return segmenter.getSegmentation(sentence);
+		} finally {
+			timer.stop();
+		}
 	}
 
 	public List<Pair<List<Integer>, String>> predictFrames(Sentence sentence, List<List<Integer>> targets) {
+		return predictFrames(new SentenceAnalysis(sentence), targets);
+	}
+
+	public List<Pair<List<Integer>, String>> predictFrames(SentenceAnalysis analysis, List<List<Integer>> targets) {
 		final List<Pair<List<Integer>, String>> idResult = Lists.newArrayList();
 		for (List<Integer> targetTokenIdxs : targets) {
-			final String frame = idModel.getBestFrame(targetTokenIdxs, sentence);
+			final String frame = idModel.getBestFrame(Ints.toArray(targetTokenIdxs), analysis);
 			idResult.add(Pair.of(targetTokenIdxs, frame));
 		}
 		return idResult;
@@ -246,9 +578,14 @@ public class Semafor {
 
 	public SemaforParseResult predictArguments(Sentence sentence, List<Pair<List<Integer>, String>> idResults)
 			throws IOException {
-		final List<String> idResultLines = getArgumentIdInput(sentence, idResults);
-		final List<String> argResult = predictArgumentLines(sentence, idResultLines, 1);
-		return getSemaforParseResult(sentence, argResult);
+		return predictArguments(new SentenceAnalysis(sentence), idResults);
+	}
+
+	public SemaforParseResult predictArguments(SentenceAnalysis analysis, List<Pair<List<Integer>, String>> idResults)
+			throws IOException {
+		final List<String> idResultLines = getArgumentIdInput(analysis, idResults);
+		final List<String> argResult = predictArgumentLines(analysis, idResultLines, 1);
+		return getSemaforParseResult(analysis.getSentence(), argResult);
 	}
 
 	/**
@@ -258,13 +595,17 @@ public class Semafor {
 	 * @return a list of strings in the format that {@link #predictArgumentLines} expects.
 	 */
 	public List<String> getArgumentIdInput(Sentence sentence, List<Pair<List<Integer>, String>> idResults) {
+		return getArgumentIdInput(new SentenceAnalysis(sentence), idResults);
+	}
+
+	public List<String> getArgumentIdInput(SentenceAnalysis analysis, List<Pair<List<Integer>, String>> idResults) {
 		final List<String> idResultLines = Lists.newArrayList();
-		final String parseLine = AllLemmaTags.makeLine(sentence.toAllLemmaTagsArray());
+		final Sentence argIdSentence = analysis.getArgIdSentence();
 		for (Pair<List<Integer>, String> targetAndFrame : idResults) {
 			final List<Integer> targetTokenIdxs = targetAndFrame.first;
 			final String frame = targetAndFrame.second;
 			final String tokenIdxsStr = Joiner.on("_").join(targetTokenIdxs);
-			final Pair<String, String> tokenRepresentation = getTokenRepresentation(tokenIdxsStr, parseLine);
+			final Pair<String, String> tokenRepresentation = getTokenRepresentation(targetTokenIdxs, argIdSentence);
 			final String lexicalUnit = tokenRepresentation.first;
 			final String tokenStrs = tokenRepresentation.second;
 			idResultLines.add(TAB.join(0, 1.0, 1, frame, lexicalUnit, tokenIdxsStr, tokenStrs, 0));
@@ -273,28 +614,65 @@ public class Semafor {
 	}
 
 	public List<String> predictArgumentLines(Sentence sentence, List<String> idResult, int kBest) throws IOException {
+		return predictArgumentLines(new SentenceAnalysis(sentence), idResult, kBest);
+	}
+
+	public List<String> predictArgumentLines(SentenceAnalysis analysis, List<String> idResult, int kBest)
+			throws IOException {
+		final List<FrameFeatures> frameFeaturesList;
+		final MetricsRegistry.Timer featuresTimer = metrics.argumentFeatures.start();
+		try {
+			frameFeaturesList = getFrameFeatures(analysis, idResult);
+		} finally {
+			featuresTimer.stop();
+		}
+		final MetricsRegistry.Timer decodingTimer = metrics.decoding.start();
+		try {
+			return decoder.decodeAll(frameFeaturesList, idResult, 0, kBest);
+		} finally {
+			decodingTimer.stop();
+		}
+	}
+
+	/** Extracts the features of every candidate span, for every role of each frame in idResult */
+	private List<FrameFeatures> getFrameFeatures(SentenceAnalysis analysis, List<String> idResult) {
 		final List<FrameFeatures> frameFeaturesList = Lists.newArrayList();
 		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		final TIntArrayList featArray = new TIntArrayList();
+		final DependencyParses parses = analysis.getArgIdParses();
 		for (String feLine : idResult) {
-			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(sentence, feLine);
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(parses, feLine, null);
 			final String frame = dataPoint.getFrameName();
-			final DependencyParses parses = dataPoint.getParses();
 			final int targetStartTokenIdx = dataPoint.getTargetTokenIdxs()[0];
 			final int targetEndTokenIdx = dataPoint.getTargetTokenIdxs()[dataPoint.getTargetTokenIdxs().length-1];
-			final List<SpanAndParseIdx> spans = DataPrep.findSpans(dataPoint, 1);
+			// lines with overt frame elements have extra candidates. usually there are none, so the spans can be shared
+			final List<SpanAndParseIdx> spans = dataPoint.getOvertFrameElementFillerSpans().isEmpty()
+					? analysis.getCandidateSpans()
+					: DataPrep.findSpans(dataPoint, 1);
+			metrics.spans.addAndGet(spans.size());
 			final List<String> frameElements = Lists.newArrayList(frameElementsForFrame.lookupFrameElements(frame));
 			final List<SpanAndCorrespondingFeatures[]> featuresAndSpanByArgument = Lists.newArrayList();
+			// extract the features of each span once, then conjoin them with each role
+			final RoleFeatureIndex.SpanFeatures[] spanFeatures = new RoleFeatureIndex.SpanFeatures[spans.size()];
+			if (!frameElements.isEmpty()) {
+				for (int i = 0; i < spans.size(); i++) {
+					final SpanAndParseIdx candidateSpanAndParseIdx = spans.get(i);
+					spanFeatures[i] = new RoleFeatureIndex.SpanFeatures();
+					featureExtractor.extractSpanFeatures(dataPoint, candidateSpanAndParseIdx.span,
+							parses.get(candidateSpanAndParseIdx.parseIdx), argIdFeatureIdxs, spanFeatures[i]);
+				}
+			}
 			for (String frameElement : frameElements) {
-				final List<SpanAndCorrespondingFeatures> spansAndFeatures = Lists.newArrayList();
-				for (SpanAndParseIdx candidateSpanAndParseIdx : spans) {
-					final Range0Based span = candidateSpanAndParseIdx.span;
-					final DependencyParse parse = parses.get(candidateSpanAndParseIdx.parseIdx);
-					final Set<String> featureSet =
-							featureExtractor.extractFeatures(dataPoint, frame, frameElement, span, parse).elementSet();
-					final int[] featArray = convertToIdxs(featureSet);
-					spansAndFeatures.add(new SpanAndCorrespondingFeatures(new int[] {span.start, span.end}, featArray));
+				final int roleId = argIdFeatureIdxs.getRoleId(frameElement);
+				final int frameRoleId = argIdFeatureIdxs.getFrameRoleId(frame, frameElement);
+				final SpanAndCorrespondingFeatures[] spansAndFeatures = new SpanAndCorrespondingFeatures[spans.size()];
+				for (int i = 0; i < spans.size(); i++) {
+					final Range0Based span = spans.get(i).span;
+					argIdFeatureIdxs.getFeatureIdxs(spanFeatures[i], roleId, frameRoleId, featArray);
+					spansAndFeatures[i] = new SpanAndCorrespondingFeatures(new int[] {span.start, span.end},
+							featArray.toNativeArray());
 				}
-				featuresAndSpanByArgument.add(spansAndFeatures.toArray(new SpanAndCorrespondingFeatures[spansAndFeatures.size()]));
+				featuresAndSpanByArgument.add(spansAndFeatures);
 			}
 			frameFeaturesList.add(new FrameFeatures(frame,
 					targetStartTokenIdx,
@@ -302,19 +680,7 @@ public class Semafor {
 					frameElements,
 					featuresAndSpanByArgument));
 		}
-		return decoder.decodeAll(frameFeaturesList, idResult, 0, kBest);
-	}
-
-	private int[] convertToIdxs(Iterable<String> featureSet) {
-		// convert feature names to feature indexes
-		final List<Integer> featureList = Lists.newArrayList();
-		for (String feature : featureSet) {
-			final Integer idx = argIdFeatureIndex.get(feature);
-			if (idx != null) {
-				featureList.add(idx);
-			}
-		}
-		return Ints.toArray(featureList);
+		return frameFeaturesList;
 	}
 
 	public SemaforParseResult getSemaforParseResult(Sentence sentence, List<String> results) {
@@ -327,6 +693,11 @@ public class Semafor {
 	}
 
 	public Sentence addLemmas(Sentence sentence) {
-		return lemmatizer.addLemmas(sentence);
+		final MetricsRegistry.Timer timer = metrics.lemmatization.start();
+		try {
+			return lemmatizer.addLemmas(sentence);
+		} finally {
+			timer.stop();
+		}
 	}
 }
@@ -0,0 +1,184 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.google.common.io.Closeables.closeQuietly;
+import static edu.cmu.cs.lti.ark.fn.SemaforSocketServer.DEFAULT_MAX_PENDING_PER_CONNECTION;
+import static edu.cmu.cs.lti.ark.fn.SemaforSocketServer.parseToJson;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Serves SEMAFOR over HTTP, using the JDK's built-in server.
+ *
+ * POST a batch of dependency-parsed sentences in conll format (separated by blank lines) to /parse.
+ * The response is streamed back with chunked encoding: one json-serialized {@link
+ * edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult} per line, in the same order as the input sentences.
+ * A sentence that fails to parse gets an {"error": ...} line instead.
+ * Connections are kept alive between requests, so a client can send many batches over one connection.
+ */
+public class SemaforHttpServer {
+	public static final String PARSE_PATH = "/parse";
+	private static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+
+	private final Semafor semafor;
+	private final ExecutorService workerThreadPool;
+	private final int maxPendingPerRequest;
+
+	/**
+	 * required flags:
+	 * model-dir
+	 * port
+	 * optional flags:
+	 * numthreads: the number of threads to parse with (default 1)
+	 * max-pending-per-connection: the number of sentences from one request that may be in flight at once
+	 * metrics-summary-seconds: if given, print the latency of each stage, and other metrics, this often
+	 */
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final String modelDirectory = options.modelDirectory.get();
+		final int port = options.port.get();
+		final int numThreads = options.numThreads.present() ? options.numThreads.get() : 1;
+		final int maxPending = options.maxPendingPerConnection.present() ?
+				options.maxPendingPerConnection.get() : DEFAULT_MAX_PENDING_PER_CONNECTION;
+		final Semafor semafor = Semafor.getSemaforInstance(modelDirectory);
+		Semafor.startMetrics(semafor, options);
+		runHttpServer(semafor, port, numThreads, maxPending);
+	}
+
+	public SemaforHttpServer(Semafor semafor, ExecutorService workerThreadPool, int maxPendingPerRequest) {
+		this.semafor = semafor;
+		this.workerThreadPool = workerThreadPool;
+		this.maxPendingPerRequest = maxPendingPerRequest;
+	}
+
+	public static HttpServer runHttpServer(String modelDirectory, int port, int numThreads, int maxPendingPerRequest)
+			throws URISyntaxException, IOException, ClassNotFoundException {
+		return runHttpServer(Semafor.getSemaforInstance(modelDirectory), port, numThreads, maxPendingPerRequest);
+	}
+
+	public static HttpServer runHttpServer(Semafor semafor, int port, int numThreads, int maxPendingPerRequest)
+			throws IOException {
+		final SemaforHttpServer handler =
+				new SemaforHttpServer(semafor, newFixedThreadPool(numThreads), maxPendingPerRequest);
+		final HttpServer server = handler.start(new InetSocketAddress(port));
+		System.err.println("Listening on port: " + server.getAddress().getPort());
+		return server;
+	}
+
+	/**
+	 * Starts serving on address. Requests are read and written on their own threads, and sentences are
+	 * parsed on our workerThreadPool.
+	 */
+	public HttpServer start(InetSocketAddress address) throws IOException {
+		final HttpServer server = HttpServer.create(address, 0);
+		server.createContext(PARSE_PATH, new ParseHandler());
+		server.setExecutor(newCachedThreadPool());
+		server.start();
+		return server;
+	}
+
+	private class ParseHandler implements HttpHandler {
+		@Override public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					sendError(exchange, 405, "Use POST");
+					return;
+				}
+				final List<Sentence> sentences;
+				try {
+					sentences = readSentences(exchange.getRequestBody());
+				} catch (RuntimeException e) {
+					sendError(exchange, 400, "Couldn't read conll input: " + e);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, 0); // 0 means chunked
+				final Writer output = new BufferedWriter(
+						new OutputStreamWriter(exchange.getResponseBody(), Charsets.UTF_8));
+				try {
+					writeResults(sentences, output);
+				} finally {
+					closeQuietly(output);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static List<Sentence> readSentences(InputStream requestBody) throws IOException {
+		final SentenceCodec.SentenceIterator sentenceIterator =
+				ConllCodec.readInput(new InputStreamReader(requestBody, Charsets.UTF_8));
+		try {
+			return Lists.newArrayList(sentenceIterator);
+		} finally {
+			closeQuietly(sentenceIterator);
+		}
+	}
+
+	/**
+	 * Parses sentences on the worker pool, and writes the results to output in order.
+	 * At most maxPendingPerRequest sentences are submitted at a time, so a big batch can't crowd out
+	 * other requests.
+	 */
+	private void writeResults(List<Sentence> sentences, Writer output) throws IOException {
+		final Deque<Future<String>> pending = Queues.newArrayDeque();
+		try {
+			for (final Sentence sentence : sentences) {
+				if (pending.size() >= maxPendingPerRequest) writeResult(pending, output);
+				pending.addLast(workerThreadPool.submit(new Callable<String>() {
+					@Override public String call() throws Exception {
+						return parseToJson(semafor, sentence);
+					} }));
+			}
+			while (!pending.isEmpty()) writeResult(pending, output);
+		} finally {
+			// if the client went away, don't bother parsing the rest
+			for (Future<String> result : pending) result.cancel(false);
+		}
+	}
+
+	/** Writes the first pending result. Only flushes (sending a chunk) if the next result isn't ready yet. */
+	private static void writeResult(Deque<Future<String>> pending, Writer output) throws IOException {
+		try {
+			output.write(pending.removeFirst().get());
+			output.write('\n');
+			if (pending.isEmpty() || !pending.peekFirst().isDone()) output.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+		final byte[] body = (message + "\n").getBytes(Charsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length);
+		final OutputStream responseBody = exchange.getResponseBody();
+		try {
+			responseBody.write(body);
+		} finally {
+			closeQuietly(responseBody);
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.OutputSupplier;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.ConllSentenceReader;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static com.google.common.base.Throwables.propagateIfPossible;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Parses sentences in micro-batches, in a pipeline of three stages, each with its own pool of threads:
+ * decoding, lemmatizing and target identification; frame identification; and argument identification.
+ * Results are written in input order, as json, one per line.
+ *
+ * Compared with {@link Semafor#runParser}, which runs one task per sentence, this has less per-sentence overhead:
+ * tasks and queue operations are per batch, output is buffered and only flushed when the writer runs out of finished
+ * batches, and instead of logging every sentence, a throughput summary is printed periodically.
+ * Sizing the stages separately lets the slowest stage (usually argument identification) have the most threads.
+ *
+ * Finished batches wait in a ring buffer until all batches before them have been written. The ring also bounds the
+ * number of batches in flight, so the reader can't get arbitrarily far ahead of the writer.
+ */
+public class SemaforPipeline {
+	public static final long DEFAULT_SUMMARY_INTERVAL_MILLIS = 30 * 1000;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	/** the ring holds this many batches for each worker thread */
+	private static final int BATCHES_PER_THREAD = 4;
+
+	private final Semafor semafor;
+	private final int batchSize;
+	private final int numTargetThreads;
+	private final int numFrameThreads;
+	private final int numArgumentThreads;
+	private final long summaryIntervalMillis;
+
+	/** A batch of sentences, and everything computed for them so far */
+	private static class Batch {
+		final long index;
+		final List<Callable<Sentence>> inputs;
+		List<SentenceAnalysis> sentences;
+		List<List<List<Integer>>> targets;
+		List<List<Pair<List<Integer>, String>>> frames;
+		List<String> results;
+		Throwable failure;
+
+		Batch(long index, List<Callable<Sentence>> inputs) {
+			this.index = index;
+			this.inputs = inputs;
+		}
+	}
+
+	/** One stage of the pipeline: a pool of threads, and how much time they've spent on batches */
+	private abstract class Stage {
+		final String name;
+		final ExecutorService pool;
+		final AtomicLong busyNanos = new AtomicLong();
+
+		Stage(String name, int numThreads) {
+			this.name = name;
+			this.pool = newFixedThreadPool(numThreads);
+		}
+
+		abstract void process(Batch batch) throws Exception;
+
+		/** Called with the batch after this stage has processed it */
+		abstract void next(Batch batch);
+
+		void submit(final Batch batch) {
+			pool.execute(new Runnable() {
+				@Override public void run() {
+					final long start = System.nanoTime();
+					try {
+						process(batch);
+					} catch (Throwable t) {
+						batch.failure = t;
+					}
+					busyNanos.addAndGet(System.nanoTime() - start);
+					if (batch.failure == null) next(batch); else finish(batch);
+				} });
+		}
+	}
+
+	/** Finished batches, by index modulo the ring's size. Guarded by itself */
+	private Batch[] ring;
+	/** the number of batches the reader has produced, or -1 if it isn't done yet. Guarded by ring */
+	private long numBatches;
+	/** permits to put a batch into the pipeline. one per free slot in the ring */
+	private Semaphore freeSlots;
+	private volatile Throwable failure;
+
+	/**
+	 * @param semafor the models to parse with
+	 * @param batchSize the number of sentences in each batch
+	 * @param numTargetThreads threads for decoding, lemmatizing and target identification
+	 * @param numFrameThreads threads for frame identification
+	 * @param numArgumentThreads threads for argument identification
+	 * @param summaryIntervalMillis how often to print a throughput summary to stderr
+	 */
+	public SemaforPipeline(Semafor semafor,
+						   int batchSize,
+						   int numTargetThreads,
+						   int numFrameThreads,
+						   int numArgumentThreads,
+						   long summaryIntervalMillis) {
+		checkArgument(batchSize > 0 && numTargetThreads > 0 && numFrameThreads > 0 && numArgumentThreads > 0,
+				"batch size and numbers of threads must be positive");
+		checkArgument(summaryIntervalMillis > 0, "summary interval must be positive");
+		this.semafor = semafor;
+		this.batchSize = batchSize;
+		this.numTargetThreads = numTargetThreads;
+		this.numFrameThreads = numFrameThreads;
+		this.numArgumentThreads = numArgumentThreads;
+		this.summaryIntervalMillis = summaryIntervalMillis;
+	}
+
+	/**
+	 * Parses the conll sentences in a UTF-8 encoded file, and writes the json-serialized results.
+	 */
+	public void run(File inputFile, OutputSupplier<? extends Writer> outputSupplier)
+			throws IOException, InterruptedException {
+		final ConllSentenceReader sentences = ConllSentenceReader.map(inputFile);
+		try {
+			run(sentences.deferredSentences(), outputSupplier);
+		} finally { closeQuietly(sentences); }
+	}
+
+	/**
+	 * Parses sentences, and writes the json-serialized results.
+	 *
+	 * @param sentences the sentences to parse. each is fetched (e.g. decoded) in the first stage of the pipeline
+	 */
+	public synchronized void run(Iterator<Callable<Sentence>> sentences, OutputSupplier<? extends Writer> outputSupplier)
+			throws IOException, InterruptedException {
+		final int ringSize = BATCHES_PER_THREAD * (numTargetThreads + numFrameThreads + numArgumentThreads);
+		ring = new Batch[ringSize];
+		numBatches = -1;
+		freeSlots = new Semaphore(ringSize);
+		failure = null;
+		final Stage arguments = new Stage("argument id", numArgumentThreads) {
+			@Override void process(Batch batch) throws Exception {
+				batch.results = Lists.newArrayListWithCapacity(batch.sentences.size());
+				for (int i = 0; i < batch.sentences.size(); i++) {
+					batch.results.add(semafor.predictArguments(batch.sentences.get(i), batch.frames.get(i)).toJson());
+				}
+				batch.sentences = null;
+				batch.targets = null;
+				batch.frames = null;
+			}
+			@Override void next(Batch batch) { finish(batch); }
+		};
+		final Stage frames = new Stage("frame id", numFrameThreads) {
+			@Override void process(Batch batch) {
+				batch.frames = Lists.newArrayListWithCapacity(batch.sentences.size());
+				for (int i = 0; i < batch.sentences.size(); i++) {
+					batch.frames.add(semafor.predictFrames(batch.sentences.get(i), batch.targets.get(i)));
+				}
+			}
+			@Override void next(Batch batch) { arguments.submit(batch); }
+		};
+		final Stage targets = new Stage("targets", numTargetThreads) {
+			@Override void process(Batch batch) throws Exception {
+				batch.sentences = Lists.newArrayListWithCapacity(batch.inputs.size());
+				batch.targets = Lists.newArrayListWithCapacity(batch.inputs.size());
+				for (Callable<Sentence> input : batch.inputs) {
+					final SentenceAnalysis sentence = new SentenceAnalysis(semafor.addLemmas(input.call()));
+					batch.sentences.add(sentence);
+					batch.targets.add(semafor.predictTargets(sentence.getSentence()));
+				}
+			}
+			@Override void next(Batch batch) { frames.submit(batch); }
+		};
+		final List<Stage> stages = Lists.newArrayList(targets, frames, arguments);
+		final Writer output = outputSupplier.getOutput();
+		final Thread writer = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					write(output, stages);
+				} catch (Throwable t) {
+					fail(t);
+				}
+			} }, "semafor-pipeline-writer");
+		try {
+			writer.start();
+			long numRead = 0;
+			while (sentences.hasNext() && failure == null) {
+				final List<Callable<Sentence>> inputs = Lists.newArrayListWithCapacity(batchSize);
+				while (inputs.size() < batchSize && sentences.hasNext()) inputs.add(sentences.next());
+				freeSlots.acquire();
+				if (failure != null) break;
+				targets.submit(new Batch(numRead++, inputs));
+			}
+			synchronized (ring) {
+				numBatches = numRead;
+				ring.notifyAll();
+			}
+			writer.join();
+		} catch (RuntimeException e) {
+			fail(e);
+			writer.join();
+		} finally {
+			for (Stage stage : stages) stage.pool.shutdownNow();
+			closeQuietly(output);
+		}
+		if (failure != null) {
+			propagateIfInstanceOf(failure, IOException.class);
+			propagateIfPossible(failure);
+			throw new RuntimeException(failure);
+		}
+		System.err.println("Done.");
+	}
+
+	/** Puts a batch that's done (or failed) into the ring, for the writer */
+	private void finish(Batch batch) {
+		synchronized (ring) {
+			ring[(int) (batch.index % ring.length)] = batch;
+			ring.notifyAll();
+		}
+	}
+
+	/** Stops the pipeline, and makes sure neither the reader nor the writer stays blocked */
+	private void fail(Throwable t) {
+		synchronized (ring) {
+			if (failure == null) failure = t;
+			ring.notifyAll();
+		}
+		freeSlots.release(ring.length);
+	}
+
+	/** Writes the results of each batch, in order, and periodically prints a throughput summary */
+	private void write(Writer output, List<Stage> stages) throws IOException, InterruptedException {
+		final BufferedWriter buffered = new BufferedWriter(output, OUTPUT_BUFFER_SIZE);
+		final long startTime = System.currentTimeMillis();
+		long lastSummaryTime = startTime;
+		long numWritten = 0;
+		long numSentences = 0;
+		long lastSummarySentences = 0;
+		while (true) {
+			final int slot = (int) (numWritten % ring.length);
+			Batch batch;
+			synchronized (ring) {
+				batch = ring[slot];
+				if (batch == null && numBatches != numWritten && failure == null) {
+					// nothing to do until the next batch is done. don't leave output sitting in the buffer meanwhile
+					buffered.flush();
+					while ((batch = ring[slot]) == null && numBatches != numWritten && failure == null) {
+						ring.wait(summaryIntervalMillis);
+						if (System.currentTimeMillis() - lastSummaryTime >= summaryIntervalMillis) break;
+					}
+				}
+				if (failure != null || (batch == null && numBatches == numWritten)) break;
+				if (batch != null) ring[slot] = null;
+			}
+			if (batch != null) {
+				if (batch.failure != null) {
+					fail(batch.failure);
+					break;
+				}
+				for (String result : batch.results) {
+					buffered.write(result);
+					buffered.newLine();
+				}
+				numSentences += batch.results.size();
+				numWritten++;
+				freeSlots.release();
+			}
+			final long now = System.currentTimeMillis();
+			if (now - lastSummaryTime >= summaryIntervalMillis) {
+				printSummary(numSentences, numSentences - lastSummarySentences, now - startTime, now - lastSummaryTime,
+						stages);
+				lastSummaryTime = now;
+				lastSummarySentences = numSentences;
+			}
+		}
+		buffered.flush();
+		if (failure == null) {
+			final long now = System.currentTimeMillis();
+			printSummary(numSentences, numSentences - lastSummarySentences, now - startTime, now - lastSummaryTime,
+					stages);
+		}
+	}
+
+	private static void printSummary(long numSentences,
+									 long numRecentSentences,
+									 long elapsedMillis,
+									 long recentMillis,
+									 List<Stage> stages) {
+		final StringBuilder summary = new StringBuilder(String.format(
+				"parsed %d sentences in %.1f seconds (%.1f sentences/second overall, %.1f in the last %.1f seconds).",
+				numSentences, elapsedMillis / 1000.0,
+				numSentences * 1000.0 / Math.max(1, elapsedMillis),
+				numRecentSentences * 1000.0 / Math.max(1, recentMillis), recentMillis / 1000.0));
+		summary.append(" busy time per stage:");
+		for (Stage stage : stages) {
+			summary.append(String.format(" %s %.1fs;", stage.name, stage.busyNanos.get() / 1e9));
+		}
+		System.err.println(summary);
+	}
+}
@@ -1,6 +1,9 @@
 package edu.cmu.cs.lti.ark.fn;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
@@ -12,24 +15,49 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static com.google.common.io.Closeables.closeQuietly;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
 public class SemaforSocketServer {
 	private static final ObjectMapper jsonMapper = new ObjectMapper();
+	/** default number of sentences per connection that may be parsed or waiting to be written at once */
+	public static final int DEFAULT_MAX_PENDING_PER_CONNECTION = 16;
 
 	/**
 	 * required flags:
 	 * model-dir
 	 * port
+	 * optional flags:
+	 * numthreads: if given, serve many connections at once, parsing their sentences on a shared pool of
+	 *   this many threads
+	 * max-pending-per-connection: the number of sentences from one connection that may be in flight at once
+	 *   (only used with numthreads)
+	 * metrics-summary-seconds: if given, print the latency of each stage, and other metrics, this often
 	 */
 	public static void main(String[] args) throws Exception {
 		final FNModelOptions options = new FNModelOptions(args);
 		final String modelDirectory = options.modelDirectory.get();
 		final int port = options.port.get();
-		runSocketServer(modelDirectory, port);
+		final Semafor semafor = Semafor.getSemaforInstance(modelDirectory);
+		Semafor.startMetrics(semafor, options);
+		final ServerSocket serverSocket = new ServerSocket(port);
+		System.err.println("Listening on port: " + serverSocket.getLocalPort());
+		if (options.numThreads.present()) {
+			final int maxPending = options.maxPendingPerConnection.present() ?
+					options.maxPendingPerConnection.get() : DEFAULT_MAX_PENDING_PER_CONNECTION;
+			runSocketServer(semafor, serverSocket, options.numThreads.get(), maxPending);
+		} else {
+			runSocketServer(semafor, serverSocket);
+		}
 	}
 
 	public static void runSocketServer(String modelDirectory, int port)
@@ -38,7 +66,12 @@ public class SemaforSocketServer {
 		// Set up socket server
 		final ServerSocket serverSocket = new ServerSocket(port);
 		System.err.println("Listening on port: " + serverSocket.getLocalPort());
-		while (true) {
+		runSocketServer(semafor, serverSocket);
+	}
+
+	/** Serves one connection at a time, parsing its sentences one at a time, until serverSocket is closed */
+	public static void runSocketServer(Semafor semafor, ServerSocket serverSocket) {
+		while (!serverSocket.isClosed()) {
 			try {
 				final Socket clientSocket = serverSocket.accept();
 				final SentenceCodec.SentenceIterator sentences =
@@ -50,25 +83,170 @@ public class SemaforSocketServer {
 				}
 				closeQuietly(sentences);
 				closeQuietly(output);
+			} catch (Exception e) {
+				if (!serverSocket.isClosed()) e.printStackTrace(System.err);
+			}
+		}
+	}
+
+	/**
+	 * Serves many connections at once. Each connection gets its own reader and writer thread, and its
+	 * sentences are parsed on a pool of numThreads worker threads shared by all connections.
+	 * Results are written back in the order that the connection sent its sentences.
+	 * At most maxPendingPerConnection sentences per connection are queued or being parsed at once; after that
+	 * we stop reading from the connection until its results are written, so a client that sends a lot (or
+	 * reads slowly) can't crowd out the others.
+	 * Once serverSocket is closed, stops accepting connections, and returns when the open ones have finished.
+	 */
+	public static void runSocketServer(String modelDirectory, int port, int numThreads, int maxPendingPerConnection)
+			throws URISyntaxException, IOException, ClassNotFoundException {
+		final Semafor semafor = Semafor.getSemaforInstance(modelDirectory);
+		final ServerSocket serverSocket = new ServerSocket(port);
+		System.err.println("Listening on port: " + serverSocket.getLocalPort());
+		runSocketServer(semafor, serverSocket, numThreads, maxPendingPerConnection);
+	}
+
+	public static void runSocketServer(Semafor semafor,
+									   ServerSocket serverSocket,
+									   int numThreads,
+									   int maxPendingPerConnection) {
+		final ExecutorService workerThreadPool = newFixedThreadPool(numThreads);
+		final ExecutorService connectionThreadPool = newCachedThreadPool();
+		// open connections. they still need both pools, so the pools are only shut down once these finish
+		final List<Future<?>> connections = Lists.newArrayList();
+		try {
+			while (!serverSocket.isClosed()) {
+				try {
+					final Socket clientSocket = serverSocket.accept();
+					for (Iterator<Future<?>> it = connections.iterator(); it.hasNext(); ) {
+						if (it.next().isDone()) it.remove();
+					}
+					connections.add(connectionThreadPool.submit(new Connection(semafor,
+							clientSocket,
+							workerThreadPool,
+							connectionThreadPool,
+							maxPendingPerConnection)));
+				} catch (Exception e) {
+					if (!serverSocket.isClosed()) e.printStackTrace(System.err);
+				}
+			}
+			for (Future<?> connection : connections) {
+				try {
+					connection.get();
+				} catch (ExecutionException e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			connectionThreadPool.shutdown();
+			workerThreadPool.shutdown();
+		}
+	}
+
+	/** Reads sentences from one client, hands them to the worker pool, and writes the results in order */
+	private static class Connection implements Runnable {
+		private final Semafor semafor;
+		private final Socket clientSocket;
+		private final ExecutorService workerThreadPool;
+		private final ExecutorService connectionThreadPool;
+		/** results in the order their sentences were read. absent marks the end of input */
+		private final BlockingQueue<Future<Optional<String>>> results;
+
+		private Connection(Semafor semafor,
+						   Socket clientSocket,
+						   ExecutorService workerThreadPool,
+						   ExecutorService connectionThreadPool,
+						   int maxPending) {
+			this.semafor = semafor;
+			this.clientSocket = clientSocket;
+			this.workerThreadPool = workerThreadPool;
+			this.connectionThreadPool = connectionThreadPool;
+			this.results = Queues.newArrayBlockingQueue(maxPending);
+		}
+
+		@Override public void run() {
+			try {
+				final PrintWriter output =
+						new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), Charsets.UTF_8));
+				final Future<?> writer = connectionThreadPool.submit(new Runnable() {
+					@Override public void run() { writeResults(output); } });
+				final SentenceCodec.SentenceIterator sentences =
+						ConllCodec.readInput(new InputStreamReader(clientSocket.getInputStream(), Charsets.UTF_8));
+				try {
+					while (sentences.hasNext()) {
+						final Sentence sentence = sentences.next();
+						// blocks while this connection has too many sentences in flight
+						results.put(workerThreadPool.submit(new Callable<Optional<String>>() {
+							@Override public Optional<String> call() throws Exception {
+								return Optional.of(parseToJson(semafor, sentence));
+							} }));
+					}
+				} catch (Exception e) {
+					e.printStackTrace(System.err);
+				} finally {
+					results.put(immediateFuture(Optional.<String>absent()));
+				}
+				// closing sentences would close the socket, so wait until all results are written
+				writer.get();
+				closeQuietly(sentences);
 			} catch (Exception e) {
 				e.printStackTrace(System.err);
+			} finally {
+				closeQuietly(clientSocket);
+			}
+		}
+
+		/** Writes results until the end of input. If the client goes away, discards the rest. */
+		private void writeResults(PrintWriter output) {
+			boolean clientIsGone = false;
+			try {
+				while (true) {
+					final Future<Optional<String>> result = results.take();
+					if (clientIsGone) {
+						result.cancel(false);
+						if (result.isCancelled()) continue;
+					}
+					final Optional<String> line;
+					try {
+						line = result.get();
+					} catch (ExecutionException e) {
+						// keep draining so the reader never blocks, but stop talking to this client
+						e.printStackTrace(System.err);
+						clientIsGone = true;
+						closeQuietly(clientSocket);
+						continue;
+					}
+					if (!line.isPresent()) break; // end of input
+					if (clientIsGone) continue;
+					output.println(line.get());
+					// only flush once we've caught up, so a fast stream of results is written in batches
+					if (results.isEmpty() || !results.peek().isDone()) output.flush();
+					clientIsGone = output.checkError();
+				}
+				output.flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
 
 	public static void processSentence(Semafor semafor, Sentence sentence, PrintWriter output)
 		throws IOException {
-		final long start = System.currentTimeMillis();
+		output.println(parseToJson(semafor, sentence));
+		output.flush();
+	}
+
+	/** Parses sentence, and returns either the json-serialized result, or a json-serialized error */
+	public static String parseToJson(Semafor semafor, Sentence sentence) throws IOException {
 		try {
-			output.println(semafor.parseSentence(sentence).toJson());
+			return semafor.parseSentence(sentence).toJson();
 		} catch (Exception e) {
 			System.err.println("Error on parsing sentence:" + e);
 			e.printStackTrace(System.err);
 			String message = jsonMapper.writeValueAsString(e.toString());
-			output.println("{\"error\": "+message+"}");
+			return "{\"error\": "+message+"}";
 		}
-		output.flush();
-		final long end = System.currentTimeMillis();
-		System.err.printf("parsed sentence with %d tokens in %d millis.%n", sentence.size(), end - start);
-    }
+	}
 }
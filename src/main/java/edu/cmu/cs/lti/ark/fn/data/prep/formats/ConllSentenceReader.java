@@ -0,0 +1,241 @@
+package edu.cmu.cs.lti.ark.fn.data.prep.formats;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+
+/**
+ * Splits UTF-8 conll input into sentences, without decoding it.
+ *
+ * Sentences are separated by blank lines (lines that are empty or only contain whitespace). The reader scans raw
+ * bytes for them, and returns each sentence as a buffer of its undecoded bytes, so that the (comparatively slow)
+ * decoding can be done by {@link #decode} in worker threads, instead of in the single thread that reads the input.
+ *
+ * Files can be memory-mapped (see {@link #map}), in which case sentences are views of the mapped file, and the file
+ * is never copied onto the heap. Files larger than 2GB are mapped one window at a time.
+ * Other input is read into a reusable buffer (see {@link #fromStream}), and each sentence is copied out of it.
+ */
+public abstract class ConllSentenceReader extends AbstractIterator<ByteBuffer> implements Closeable {
+	/** the current window of input */
+	protected ByteBuffer buffer;
+	/** the first byte of the current sentence, or of the next line if we're between sentences */
+	private int start = 0;
+	/** the first byte of the next line to look at */
+	private int scan = 0;
+	private boolean inSentence = false;
+	private boolean done = false;
+
+	protected ConllSentenceReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Memory-maps a file, and splits it into sentences
+	 */
+	public static ConllSentenceReader map(File file) throws IOException {
+		return new Mapped(new RandomAccessFile(file, "r").getChannel(), Mapped.MAX_WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads input from a stream, and splits it into sentences
+	 */
+	public static ConllSentenceReader fromStream(InputStream input) {
+		return new Streamed(Channels.newChannel(input), Streamed.INITIAL_BUFFER_SIZE);
+	}
+
+	/**
+	 * Decodes the raw bytes of a sentence, as returned by this reader. Safe to call from any thread.
+	 */
+	public static Sentence decode(ByteBuffer sentence) {
+		return ConllCodec.decode(Charsets.UTF_8.decode(sentence.duplicate()).toString());
+	}
+
+	/**
+	 * The sentences of the input, each of which is only decoded when it's called.
+	 * Lets the thread that reads the input hand the decoding off to whichever thread processes the sentence.
+	 */
+	public Iterator<Callable<Sentence>> deferredSentences() {
+		return Iterators.transform(this, new Function<ByteBuffer, Callable<Sentence>>() {
+			@Override public Callable<Sentence> apply(final ByteBuffer sentence) {
+				return new Callable<Sentence>() {
+					@Override public Sentence call() {
+						return decode(sentence);
+					} };
+			} });
+	}
+
+	/**
+	 * Drops the bytes of the buffer before keepFrom (so that the byte at keepFrom is now at index 0), and appends
+	 * more input to it.
+	 *
+	 * @return false if there was no more input
+	 */
+	protected abstract boolean refill(int keepFrom) throws IOException;
+
+	/**
+	 * @return the bytes of the buffer in [from, to), in a buffer that won't be changed by the next refill
+	 */
+	protected abstract ByteBuffer slice(int from, int to);
+
+	@Override
+	protected ByteBuffer computeNext() {
+		try {
+			while (!done) {
+				final int limit = buffer.limit();
+				while (scan < limit) {
+					final int newline = indexOfNewline(scan, limit);
+					if (newline < 0) break;
+					final int lineStart = scan;
+					scan = newline + 1;
+					if (isBlank(lineStart, newline)) {
+						if (inSentence) {
+							inSentence = false;
+							final ByteBuffer sentence = slice(start, lineStart);
+							start = scan;
+							return sentence;
+						}
+						start = scan;
+					} else if (!inSentence) {
+						inSentence = true;
+						start = lineStart;
+					}
+				}
+				// the rest of the buffer is an incomplete line. keep it (and the rest of the sentence it's in)
+				final int keepFrom = inSentence ? start : scan;
+				final boolean gotMore = refill(keepFrom);
+				start -= keepFrom;
+				scan -= keepFrom;
+				if (!gotMore) {
+					done = true;
+					// the last line didn't end in a newline
+					if (!isBlank(scan, buffer.limit()) && !inSentence) {
+						inSentence = true;
+						start = scan;
+					}
+					if (inSentence) return slice(start, buffer.limit());
+				}
+			}
+			return endOfData();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int indexOfNewline(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == '\n') return i;
+		}
+		return -1;
+	}
+
+	private boolean isBlank(int from, int to) {
+		for (int i = from; i < to; i++) {
+			final byte b = buffer.get(i);
+			if (b != ' ' && b != '\t' && b != '\r') return false;
+		}
+		return true;
+	}
+
+	/** Maps a file one window at a time. Sentences are views of the mapped file */
+	static class Mapped extends ConllSentenceReader {
+		static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+		private final FileChannel channel;
+		private final int windowSize;
+		/** the position in the file of the start of the current window */
+		private long windowStart = 0;
+
+		Mapped(FileChannel channel, int windowSize) throws IOException {
+			super(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(windowSize, channel.size())));
+			this.channel = channel;
+			this.windowSize = windowSize;
+		}
+
+		@Override
+		protected boolean refill(int keepFrom) throws IOException {
+			final long fileSize = channel.size();
+			final int kept = buffer.limit() - keepFrom;
+			windowStart += keepFrom;
+			if (windowStart + kept >= fileSize) {
+				buffer = slice(keepFrom, buffer.limit());
+				return false;
+			}
+			final long size = Math.min(windowSize, fileSize - windowStart);
+			if (size <= kept) {
+				throw new IOException(String.format("Sentence at byte %d is longer than %d bytes", windowStart, windowSize));
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+			return true;
+		}
+
+		@Override
+		protected ByteBuffer slice(int from, int to) {
+			final ByteBuffer view = buffer.duplicate();
+			view.limit(to).position(from);
+			return view.slice();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/** Reads a stream into a buffer, which grows if a sentence doesn't fit. Sentences are copied out of it */
+	static class Streamed extends ConllSentenceReader {
+		static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+		private final ReadableByteChannel channel;
+
+		Streamed(ReadableByteChannel channel, int bufferSize) {
+			super((ByteBuffer) ByteBuffer.allocate(bufferSize).limit(0));
+			this.channel = channel;
+		}
+
+		@Override
+		protected boolean refill(int keepFrom) throws IOException {
+			final int kept = buffer.limit() - keepFrom;
+			buffer.position(keepFrom);
+			if (kept == buffer.capacity()) {
+				buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer);
+			} else {
+				buffer.compact();
+			}
+			int numRead = 0;
+			while (numRead == 0) {
+				numRead = channel.read(buffer);
+			}
+			buffer.flip();
+			return numRead > 0;
+		}
+
+		@Override
+		protected ByteBuffer slice(int from, int to) {
+			final ByteBuffer view = buffer.duplicate();
+			view.limit(to).position(from);
+			final ByteBuffer copy = ByteBuffer.allocate(to - from);
+			copy.put(view).flip();
+			return copy;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableSet;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Proposes a short list of candidate frames for targets that aren't in any of the lexicon maps, so that
+ * {@link GraphBasedFrameIdentifier} doesn't have to score every frame in FrameNet for them.
+ *
+ * Each target's frames are ranked by their model scores, from the target's own base features. The scores come from
+ * an inverted index, built from a {@link CompiledFrameScorer}: for each base feature, the frames that have a nonzero
+ * weight for it, with that weight summed over each frame's frame features. A target's scores then take one pass
+ * over the postings of its base features, into an array indexed by frame, instead of a lookup per frame.
+ * Frames with no weight for any of the target's features score 0.
+ *
+ * These are the exhaustive scores summed in a different order, so they can only differ from them by rounding, and
+ * not at all when each frame has one frame feature (as with the basic frame feature extractor).
+ * The frame that exhaustive scoring picks is therefore always among the k candidates, unless k or more other frames
+ * are within rounding error of it. Candidates are returned in the order of allFrames, so that when
+ * {@link FastFrameIdentifier#pickBestFrame} rescores them, ties are broken the same way as exhaustive scoring would.
+ *
+ * The index holds its own copy of the weights, on the heap.
+ */
+public class CandidateFramePruner {
+	private final int k;
+	private final CompiledFrameScorer scorer;
+	/** every frame, in the order of allFrames */
+	private final String[] frames;
+	/** the postings of base feature b are at [offsets[b], offsets[b+1]) in postingFrames and postingWeights */
+	private final int[] offsets;
+	private final int[] postingFrames;
+	private final double[] postingWeights;
+
+	public CandidateFramePruner(CompiledFrameScorer scorer, Set<String> allFrames, int k) {
+		checkArgument(k > 0, "k must be positive");
+		this.k = k;
+		this.scorer = scorer;
+		this.frames = allFrames.toArray(new String[allFrames.size()]);
+		// frame feature -> frames, in CSR layout
+		final int numFrameFeatures = scorer.getNumFrameFeatures();
+		final int[][] frameFeaturesByFrame = new int[frames.length][];
+		final int[] framesStart = new int[numFrameFeatures + 1];
+		for (int f = 0; f < frames.length; f++) {
+			frameFeaturesByFrame[f] = scorer.getFrameFeatureIdxs(frames[f]);
+			for (int frameFeature : frameFeaturesByFrame[f]) framesStart[frameFeature + 1]++;
+		}
+		for (int i = 0; i < numFrameFeatures; i++) framesStart[i + 1] += framesStart[i];
+		final int[] framesOfFrameFeature = new int[framesStart[numFrameFeatures]];
+		final int[] next = Arrays.copyOf(framesStart, numFrameFeatures);
+		for (int f = 0; f < frames.length; f++) {
+			for (int frameFeature : frameFeaturesByFrame[f]) framesOfFrameFeature[next[frameFeature]++] = f;
+		}
+
+		// base feature -> (frame, weight summed over the frame's frame features)
+		final int[] scorerOffsets = scorer.getOffsets();
+		final int[] scorerFrameFeatures = scorer.getFrameFeatures();
+		final WeightVector scorerWeights = scorer.getWeights();
+		final int numBaseFeatures = scorerOffsets.length - 1;
+		offsets = new int[numBaseFeatures + 1];
+		int[] postingFrames = new int[scorerFrameFeatures.length];
+		double[] postingWeights = new double[scorerFrameFeatures.length];
+		final double[] weightOfFrame = new double[frames.length];
+		// the frames touched by the current base feature. lastTouchedBy[f] is 1 + the last base feature to touch f
+		final int[] touched = new int[frames.length];
+		final int[] lastTouchedBy = new int[frames.length];
+		for (int b = 0; b < numBaseFeatures; b++) {
+			int numTouched = 0;
+			for (int i = scorerOffsets[b]; i < scorerOffsets[b + 1]; i++) {
+				final int frameFeature = scorerFrameFeatures[i];
+				for (int j = framesStart[frameFeature]; j < framesStart[frameFeature + 1]; j++) {
+					final int f = framesOfFrameFeature[j];
+					if (lastTouchedBy[f] != b + 1) {
+						lastTouchedBy[f] = b + 1;
+						weightOfFrame[f] = 0.0;
+						touched[numTouched++] = f;
+					}
+					weightOfFrame[f] += scorerWeights.get(i);
+				}
+			}
+			int end = offsets[b];
+			if (end + numTouched > postingFrames.length) {
+				final int length = Math.max(2 * postingFrames.length, end + numTouched);
+				postingFrames = Arrays.copyOf(postingFrames, length);
+				postingWeights = Arrays.copyOf(postingWeights, length);
+			}
+			for (int t = 0; t < numTouched; t++) {
+				final int f = touched[t];
+				if (weightOfFrame[f] == 0.0) continue;
+				postingFrames[end] = f;
+				postingWeights[end] = weightOfFrame[f];
+				end++;
+			}
+			offsets[b + 1] = end;
+		}
+		this.postingFrames = Arrays.copyOf(postingFrames, offsets[numBaseFeatures]);
+		this.postingWeights = Arrays.copyOf(postingWeights, offsets[numBaseFeatures]);
+	}
+
+	private CandidateFramePruner(CandidateFramePruner other, int k) {
+		checkArgument(k > 0, "k must be positive");
+		this.k = k;
+		this.scorer = other.scorer;
+		this.frames = other.frames;
+		this.offsets = other.offsets;
+		this.postingFrames = other.postingFrames;
+		this.postingWeights = other.postingWeights;
+	}
+
+	/** A pruner with the same index, that proposes a different number of candidates */
+	public CandidateFramePruner withK(int k) {
+		return new CandidateFramePruner(this, k);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @param baseFeatures the base features of a target (see {@link IdFeatureExtractor#getBaseFeatures})
+	 * @return the k frames with the highest scores for the target, in the order of allFrames
+	 */
+	public Set<String> getCandidateFrames(Map<String, Double> baseFeatures) {
+		final double[] scores = new double[frames.length];
+		final boolean[] touched = new boolean[frames.length];
+		for (Map.Entry<String, Double> baseFeature : baseFeatures.entrySet()) {
+			final int baseIdx = scorer.getBaseFeatureIdx(baseFeature.getKey());
+			if (baseIdx < 0) continue;
+			final double value = baseFeature.getValue();
+			final int end = offsets[baseIdx + 1];
+			for (int i = offsets[baseIdx]; i < end; i++) {
+				scores[postingFrames[i]] += value * postingWeights[i];
+				touched[postingFrames[i]] = true;
+			}
+		}
+		// of the frames that score 0 because no feature touched them, only the last can win a tie
+		int lastUntouched = frames.length - 1;
+		while (lastUntouched >= 0 && touched[lastUntouched]) lastUntouched--;
+		// the best k so far, in a heap with the worst at its root. once it fills up, most frames are rejected after
+		// one comparison, so this is cheap when k is small, as it needs to be for pruning to pay off
+		final int[] top = new int[Math.min(k, frames.length)];
+		int size = 0;
+		for (int f = 0; f < frames.length; f++) {
+			if (!touched[f] && f != lastUntouched) continue;
+			if (size < top.length) {
+				int i = size++;
+				for (; i > 0 && isWorse(f, top[(i - 1) / 2], scores); i = (i - 1) / 2) top[i] = top[(i - 1) / 2];
+				top[i] = f;
+			} else if (isWorse(top[0], f, scores)) {
+				int i = 0;
+				for (int child = 1; child < size; i = child, child = 2 * i + 1) {
+					if (child + 1 < size && isWorse(top[child + 1], top[child], scores)) child++;
+					if (!isWorse(top[child], f, scores)) break;
+					top[i] = top[child];
+				}
+				top[i] = f;
+			}
+		}
+		Arrays.sort(top, 0, size);
+		final ImmutableSet.Builder<String> candidates = ImmutableSet.builder();
+		for (int i = 0; i < size; i++) candidates.add(frames[top[i]]);
+		return candidates.build();
+	}
+
+	/** whether frame a loses to frame b in pickBestFrame, which keeps the later of two frames with the same score */
+	private static boolean isWorse(int a, int b, double[] scores) {
+		return scores[a] < scores[b] || (scores[a] == scores[b] && a < b);
+	}
+}
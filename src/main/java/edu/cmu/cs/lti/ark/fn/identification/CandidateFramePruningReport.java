@@ -0,0 +1,120 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.Semafor;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+
+/**
+ * Measures how {@link CandidateFramePruner} trades accuracy for speed.
+ *
+ * Finds every target in the input that isn't in the lexicon or the graph (the targets for which all frames would be
+ * scored), and identifies its frame both exhaustively and with pruning, for several values of k.
+ * Reports how often the pruned prediction agrees with the exhaustive one, and the average time per target (of the
+ * fastest of a few runs).
+ * Needs a frame identification model that isn't latent.
+ *
+ * required flags:
+ * model-dir
+ * input-file: dependency parsed sentences, in conll format
+ * optional flags:
+ * max-candidate-frames: the k to report on (default: several)
+ */
+public class CandidateFramePruningReport {
+	private static final int[] DEFAULT_KS = {1, 5, 10, 25, 50, 100};
+	private static final int NUM_RUNS = 10;
+
+	private static class Target {
+		final int[] tokenIndices;
+		final SentenceAnalysis analysis;
+
+		Target(int[] tokenIndices, SentenceAnalysis analysis) {
+			this.tokenIndices = tokenIndices;
+			this.analysis = analysis;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final Semafor semafor = Semafor.getSemaforInstance(options.modelDirectory.get());
+		final int[] ks = options.maxCandidateFrames.present() ?
+				new int[] {options.maxCandidateFrames.get()} :
+				DEFAULT_KS;
+		final SentenceCodec.SentenceIterator sentences =
+				ConllCodec.readInput(Files.newReader(new File(options.inputFile.get()), Charsets.UTF_8));
+		try {
+			report(semafor, sentences, ks);
+		} finally {
+			sentences.close();
+		}
+	}
+
+	static void report(Semafor semafor, Iterator<Sentence> sentences, int[] ks) {
+		final GraphBasedFrameIdentifier idModel = semafor.getIdModel();
+		final List<Target> targets = Lists.newArrayList();
+		int numTargets = 0;
+		while (sentences.hasNext()) {
+			final Sentence sentence = semafor.addLemmas(sentences.next());
+			// parse up front, so that only frame identification is timed
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			analysis.getFrameIdParse();
+			for (List<Integer> target : semafor.predictTargets(sentence)) {
+				numTargets++;
+				final int[] tokenIndices = Ints.toArray(target);
+				if (idModel.getCandidateFrames(tokenIndices, sentence) == idModel.allFrames) {
+					targets.add(new Target(tokenIndices, analysis));
+				}
+			}
+		}
+		System.out.printf("%d of %d targets aren't in the lexicon or the graph%n", targets.size(), numTargets);
+		if (targets.isEmpty()) return;
+
+		final String[] expected = new String[targets.size()];
+		// warm up the pruned path too, so that the first k isn't timed while it's being compiled
+		idModel.setMaxCandidateFrames(ks[0]);
+		identifyAll(idModel, targets, expected);
+		idModel.clearMaxCandidateFrames();
+		final double exhaustiveMicros = identifyAll(idModel, targets, expected);
+		System.out.printf("%8s %10s %14s %8s%n", "k", "agreement", "micros/target", "speedup");
+		System.out.printf("%8s %10s %14.1f %8s%n", "all", "100.00%", exhaustiveMicros, "1.0x");
+		final String[] actual = new String[targets.size()];
+		for (int k : ks) {
+			idModel.setMaxCandidateFrames(k);
+			final double micros = identifyAll(idModel, targets, actual);
+			int numAgree = 0;
+			for (int i = 0; i < expected.length; i++) {
+				if (expected[i].equals(actual[i])) numAgree++;
+			}
+			System.out.printf("%8d %9.2f%% %14.1f %7.1fx%n",
+					k, 100.0 * numAgree / targets.size(), micros, exhaustiveMicros / micros);
+		}
+	}
+
+	/**
+	 * Identifies the frame of every target, into frames: once to warm up, then NUM_RUNS more times
+	 * @return the average time per target of the fastest run, in microseconds
+	 */
+	private static double identifyAll(GraphBasedFrameIdentifier idModel, List<Target> targets, String[] frames) {
+		double bestMicros = Double.POSITIVE_INFINITY;
+		for (int run = 0; run <= NUM_RUNS; run++) {
+			final long start = System.nanoTime();
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = idModel.getBestFrame(targets.get(i).tokenIndices, targets.get(i).analysis);
+			}
+			final double micros = (System.nanoTime() - start) / 1000.0 / frames.length;
+			if (run > 0) bestMicros = Math.min(bestMicros, micros);
+		}
+		return bestMicros;
+	}
+}
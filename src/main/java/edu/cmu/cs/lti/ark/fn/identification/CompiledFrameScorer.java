@@ -0,0 +1,239 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.Maps;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectDoubleIterator;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Scores frames without conjoining feature names at runtime.
+ *
+ * The frame identification model has one weight for each (frame feature, base feature) pair,
+ * stored as the String "frameFeature baseFeature" (see {@link FrameFeatureExtractor#conjoinAll}).
+ * At load time we split those names and build a table from each base feature to the frame features
+ * it has weights for (in CSR layout).
+ * At runtime a target is scored with one pass over its base features, accumulating a score for
+ * every frame feature into a dense array, then one pass over each candidate frame's frame features.
+ * The scores are the same as {@link FastFrameIdentifier#getValueForFrame}, up to floating point
+ * rounding.
+ */
+public class CompiledFrameScorer {
+	private static final char SEPARATOR = ' ';
+	private static final int[] NO_FRAME_FEATURES = new int[0];
+
+	private final FrameFeatureExtractor frameFeatureExtractor;
+	/** frame feature name -> frame feature idx */
+	private final Map<String, Integer> frameFeatureIdxs;
+	/** frame name -> idxs of its frame features */
+	private final Map<String, int[]> frameFeatureIdxsByFrame;
+	/** base feature name -> base feature idx */
+	private final Map<String, Integer> baseFeatureIdxs;
+	/** the weights of base feature b are at [offsets[b], offsets[b+1]) in frameFeatures and weights */
+	private final int[] offsets;
+	private final int[] frameFeatures;
+	private final WeightVector weights;
+
+	private CompiledFrameScorer(FrameFeatureExtractor frameFeatureExtractor,
+								Map<String, Integer> frameFeatureIdxs,
+								Map<String, int[]> frameFeatureIdxsByFrame,
+								Map<String, Integer> baseFeatureIdxs,
+								int[] offsets,
+								int[] frameFeatures,
+								WeightVector weights) {
+		this.frameFeatureExtractor = frameFeatureExtractor;
+		this.frameFeatureIdxs = frameFeatureIdxs;
+		this.frameFeatureIdxsByFrame = frameFeatureIdxsByFrame;
+		this.baseFeatureIdxs = baseFeatureIdxs;
+		this.offsets = offsets;
+		this.frameFeatures = frameFeatures;
+		this.weights = weights;
+	}
+
+	/**
+	 * @param params the weights of the model, keyed by conjoined feature name
+	 * @param frameFeatureExtractor the extractor used to conjoin features in training
+	 * @param frames the frames whose frame features should be precomputed
+	 */
+	public static CompiledFrameScorer compile(TObjectDoubleHashMap<String> params,
+											  FrameFeatureExtractor frameFeatureExtractor,
+											  Iterable<String> frames) {
+		final Map<String, Integer> frameFeatureIdxs = Maps.newHashMap();
+		final Map<String, Integer> baseFeatureIdxs = Maps.newHashMap();
+		// first pass: index feature names and count the weights of each base feature
+		int[] counts = new int[16];
+		for (TObjectDoubleIterator<String> it = params.iterator(); it.hasNext(); ) {
+			it.advance();
+			final String name = it.key();
+			final int split = name.indexOf(SEPARATOR);
+			if (split < 0) continue;
+			getOrAdd(frameFeatureIdxs, name.substring(0, split));
+			final int baseIdx = getOrAdd(baseFeatureIdxs, name.substring(split + 1));
+			if (baseIdx >= counts.length) counts = Arrays.copyOf(counts, 2 * counts.length);
+			counts[baseIdx]++;
+		}
+		final int numBaseFeatures = baseFeatureIdxs.size();
+		final int[] offsets = new int[numBaseFeatures + 1];
+		for (int b = 0; b < numBaseFeatures; b++) {
+			offsets[b + 1] = offsets[b] + counts[b];
+		}
+		// second pass: fill in the table
+		final int[] frameFeatures = new int[offsets[numBaseFeatures]];
+		final double[] weights = new double[offsets[numBaseFeatures]];
+		final int[] next = Arrays.copyOf(offsets, numBaseFeatures);
+		for (TObjectDoubleIterator<String> it = params.iterator(); it.hasNext(); ) {
+			it.advance();
+			final String name = it.key();
+			final int split = name.indexOf(SEPARATOR);
+			if (split < 0) continue;
+			final int baseIdx = baseFeatureIdxs.get(name.substring(split + 1));
+			frameFeatures[next[baseIdx]] = frameFeatureIdxs.get(name.substring(0, split));
+			weights[next[baseIdx]] = it.value();
+			next[baseIdx]++;
+		}
+		final Map<String, int[]> frameFeatureIdxsByFrame = Maps.newHashMap();
+		for (String frame : frames) {
+			frameFeatureIdxsByFrame.put(frame, lookupFrameFeatures(frameFeatureExtractor, frameFeatureIdxs, frame));
+		}
+		return new CompiledFrameScorer(frameFeatureExtractor,
+				frameFeatureIdxs,
+				frameFeatureIdxsByFrame,
+				baseFeatureIdxs,
+				offsets,
+				frameFeatures,
+				WeightVector.of(weights));
+	}
+
+	/**
+	 * Rebuilds a scorer from the arrays returned by its getters, e.g. after they've been written to disk.
+	 * weights isn't copied, so it can stay off the heap.
+	 */
+	public static CompiledFrameScorer fromArrays(FrameFeatureExtractor frameFeatureExtractor,
+												 String[] frameFeatureNames,
+												 String[] baseFeatureNames,
+												 int[] offsets,
+												 int[] frameFeatures,
+												 WeightVector weights,
+												 Iterable<String> frames) {
+		final Map<String, Integer> frameFeatureIdxs = indexOf(frameFeatureNames);
+		final Map<String, int[]> frameFeatureIdxsByFrame = Maps.newHashMap();
+		for (String frame : frames) {
+			frameFeatureIdxsByFrame.put(frame, lookupFrameFeatures(frameFeatureExtractor, frameFeatureIdxs, frame));
+		}
+		return new CompiledFrameScorer(frameFeatureExtractor,
+				frameFeatureIdxs,
+				frameFeatureIdxsByFrame,
+				indexOf(baseFeatureNames),
+				offsets,
+				frameFeatures,
+				weights);
+	}
+
+	/** @return the name of each frame feature, by idx */
+	public String[] getFrameFeatureNames() {
+		return namesOf(frameFeatureIdxs);
+	}
+
+	/** @return the name of each base feature, by idx */
+	public String[] getBaseFeatureNames() {
+		return namesOf(baseFeatureIdxs);
+	}
+
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	public int[] getFrameFeatures() {
+		return frameFeatures;
+	}
+
+	public WeightVector getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Computes the score of every frame feature, given the base features of a target.
+	 * The result should be passed to {@link #getValueForFrame}.
+	 */
+	public double[] getFrameFeatureScores(Map<String, Double> baseFeatures) {
+		final double[] scores = new double[frameFeatureIdxs.size()];
+		for (Map.Entry<String, Double> baseFeature : baseFeatures.entrySet()) {
+			final Integer baseIdx = baseFeatureIdxs.get(baseFeature.getKey());
+			if (baseIdx == null) continue;
+			final double value = baseFeature.getValue();
+			final int end = offsets[baseIdx + 1];
+			for (int i = offsets[baseIdx]; i < end; i++) {
+				scores[frameFeatures[i]] += value * weights.get(i);
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Applies the log-linear model to frame
+	 * @param frameFeatureScores the result of {@link #getFrameFeatureScores}
+	 * @return the log score of the frame
+	 */
+	public double getValueForFrame(String frame, double[] frameFeatureScores) {
+		double score = 0.0;
+		for (int idx : getFrameFeatureIdxs(frame)) {
+			score += frameFeatureScores[idx];
+		}
+		return score;
+	}
+
+	/** @return the idxs of the frame features of frame that the model has weights for */
+	int[] getFrameFeatureIdxs(String frame) {
+		final int[] idxs = frameFeatureIdxsByFrame.get(frame);
+		return idxs != null ? idxs : lookupFrameFeatures(frameFeatureExtractor, frameFeatureIdxs, frame);
+	}
+
+	/** @return the idx of baseFeature, or -1 if the model has no weights for it */
+	int getBaseFeatureIdx(String baseFeature) {
+		final Integer idx = baseFeatureIdxs.get(baseFeature);
+		return idx == null ? -1 : idx;
+	}
+
+	int getNumFrameFeatures() {
+		return frameFeatureIdxs.size();
+	}
+
+	private static int[] lookupFrameFeatures(FrameFeatureExtractor frameFeatureExtractor,
+											 Map<String, Integer> frameFeatureIdxs,
+											 String frame) {
+		final Map<String, Integer> frameFeatures = frameFeatureExtractor.extractFeatures(frame);
+		int[] idxs = new int[frameFeatures.size()];
+		int i = 0;
+		for (String name : frameFeatures.keySet()) {
+			final Integer idx = frameFeatureIdxs.get(name);
+			if (idx != null) idxs[i++] = idx;
+		}
+		return i == 0 ? NO_FRAME_FEATURES : Arrays.copyOf(idxs, i);
+	}
+
+	private static Map<String, Integer> indexOf(String[] names) {
+		final Map<String, Integer> index = Maps.newHashMapWithExpectedSize(names.length);
+		for (int i = 0; i < names.length; i++) {
+			index.put(names[i], i);
+		}
+		return index;
+	}
+
+	private static String[] namesOf(Map<String, Integer> index) {
+		final String[] names = new String[index.size()];
+		for (Map.Entry<String, Integer> entry : index.entrySet()) {
+			names[entry.getValue()] = entry.getKey();
+		}
+		return names;
+	}
+
+	private static int getOrAdd(Map<String, Integer> index, String name) {
+		final Integer idx = index.get(name);
+		if (idx != null) return idx;
+		final int newIdx = index.size();
+		index.put(name, newIdx);
+		return newIdx;
+	}
+}
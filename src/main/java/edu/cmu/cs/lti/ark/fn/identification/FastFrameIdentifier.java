@@ -24,11 +24,11 @@ package edu.cmu.cs.lti.ark.fn.identification;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TObjectDoubleHashMap;
@@ -50,32 +50,64 @@ public class FastFrameIdentifier {
 	// map from lemmas to frames
 	private THashMap<String, THashSet<String>> framesByLemma;
 	public final IdFeatureExtractor featureExtractor;
+	// params, compiled so that we don't have to conjoin feature names at runtime. null for the latent model.
+	private final CompiledFrameScorer scorer;
 
 	public FastFrameIdentifier(IdFeatureExtractor featureExtractor,
 							   TObjectDoubleHashMap<String> params,
 							   Set<String> allFrames,
 							   THashMap<String, THashSet<String>> framesByLemma) {
+		this(featureExtractor,
+				params,
+				featureExtractor == null ? null :
+						CompiledFrameScorer.compile(params, featureExtractor.getFrameFeatureExtractor(), allFrames),
+				allFrames,
+				framesByLemma);
+	}
+
+	/** Uses an already compiled model, which {@link #pickBestFrame} scores with. params will be null */
+	public FastFrameIdentifier(IdFeatureExtractor featureExtractor,
+							   CompiledFrameScorer scorer,
+							   Set<String> allFrames,
+							   THashMap<String, THashSet<String>> framesByLemma) {
+		this(featureExtractor, null, scorer, allFrames, framesByLemma);
+	}
+
+	private FastFrameIdentifier(IdFeatureExtractor featureExtractor,
+								TObjectDoubleHashMap<String> params,
+								CompiledFrameScorer scorer,
+								Set<String> allFrames,
+								THashMap<String, THashSet<String>> framesByLemma) {
 		this.params = params;
 		this.allFrames = allFrames;
 		this.framesByLemma = framesByLemma;
 		this.featureExtractor = featureExtractor;
+		this.scorer = scorer;
+	}
+
+	public CompiledFrameScorer getScorer() {
+		return scorer;
 	}
 
 	/**
 	 * Applies the log-linear model to each frame in frames and selects the highest scoring frame
 	 *
 	 * @param frames       the frames to consider
-	 * @param sentence     the dependency parse of the sentence, needed to extract features
+	 * @param analysis     the sentence and its dependency parse, needed to extract features
 	 * @param tokenIndices the token indexes that the frame spans
 	 * @return the highest scoring frame
 	 */
-	protected String pickBestFrame(Set<String> frames, Sentence sentence, int[] tokenIndices) {
-		final Map<String, Map<String, Double>> featuresByFrame =
-				featureExtractor.extractFeaturesByName(frames, tokenIndices, sentence);
+	protected String pickBestFrame(Set<String> frames, SentenceAnalysis analysis, int[] tokenIndices) {
+		return pickBestFrame(frames, featureExtractor.getBaseFeatures(tokenIndices, analysis));
+	}
+
+	/** Like {@link #pickBestFrame(Set, SentenceAnalysis, int[])}, with the target's base features already extracted */
+	protected String pickBestFrame(Set<String> frames, Map<String, Double> baseFeatures) {
+		final double[] frameFeatureScores = scorer.getFrameFeatureScores(baseFeatures);
 		String result = null;
 		double maxVal = Double.NEGATIVE_INFINITY;
 		for (String frame : frames) {
-			double val = getValueForFrame(featuresByFrame.get(frame));
+			double val = scorer.getValueForFrame(frame, frameFeatureScores);
 			if (val >= maxVal) {
 				maxVal = val;
 				result = frame;
@@ -84,19 +116,6 @@ public class FastFrameIdentifier {
 		return result;
 	}
 
-	/**
-	 * Applies the log-linear model to frame
-	 * @return the log score of the frame
-	 */
-	protected double getValueForFrame(Map<String, Double> features) {
-		Preconditions.checkArgument(features.size() > 0);
-		double featSum = 0.0;
-		for (String feat : features.keySet()) {
-			featSum += features.get(feat) * params.get(feat);
-		}
-		return featSum;
-	}
-
 	protected Optional<THashSet<String>> checkPresenceOfTokensInMap(int[] intTokNums, Sentence sentence) {
 		final List<Token> tokens = sentence.getTokens();
 		final List<String> lemmatizedTokens = Lists.newArrayList();
@@ -116,10 +135,18 @@ public class FastFrameIdentifier {
 	}
 
 	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Optional<THashSet<String>> oFrames = checkPresenceOfTokensInMap(tokenIndices, sentence);
+		return getBestFrame(tokenIndices, new SentenceAnalysis(sentence));
+	}
+
+	/**
+	 * Like {@link #getBestFrame(int[], Sentence)}, but shares the sentence's parse with any other targets (and
+	 * stages) that use the same analysis
+	 */
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Optional<THashSet<String>> oFrames = checkPresenceOfTokensInMap(tokenIndices, analysis.getSentence());
 		// fall back to all frames if lemmas aren't in the map.
 		final Set<String> frames = oFrames.isPresent() ? oFrames.get() : allFrames;
-		return pickBestFrame(frames, sentence, tokenIndices);
+		return pickBestFrame(frames, analysis, tokenIndices);
 	}
 
 	private int[] getTargetTokenIdxs(String frameLine) {
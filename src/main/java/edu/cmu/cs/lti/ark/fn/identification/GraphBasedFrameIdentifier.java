@@ -7,9 +7,11 @@ import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
 import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
 import edu.cmu.cs.lti.ark.fn.Semafor;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.fn.wordnet.CachedRelations;
 import edu.cmu.cs.lti.ark.fn.wordnet.Relations;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.metrics.MetricsRegistry;
 import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
@@ -20,7 +22,9 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.nullToEmpty;
 import static edu.cmu.cs.lti.ark.util.SerializedObjects.readObject;
 
@@ -35,6 +39,25 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 	public static final String ID_MODEL_FILE = "idmodel.dat";
 
 	final protected SmoothedGraph graph;
+	/** if present, limits the frames considered for targets that aren't in the lexicon or the graph */
+	private volatile Optional<CandidateFramePruner> pruner = Optional.absent();
+	private volatile Metrics metrics = new Metrics(new MetricsRegistry());
+
+	/** What frame identification records in a {@link MetricsRegistry} */
+	private static class Metrics {
+		final MetricsRegistry.Stage frameId;
+		final AtomicLong targets;
+		final AtomicLong candidateFrames;
+		/** targets that weren't in the lexicon or the graph, so were scored against all (or the pruned) frames */
+		final AtomicLong fallbacks;
+
+		Metrics(MetricsRegistry registry) {
+			frameId = registry.stage("frame id");
+			targets = registry.counter("targets");
+			candidateFrames = registry.counter("candidate frames");
+			fallbacks = registry.counter("all-frames fallbacks");
+		}
+	}
 
 	public GraphBasedFrameIdentifier(IdFeatureExtractor featureExtractor,
 									 Set<String> allFrames,
@@ -45,6 +68,15 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 		this.graph = graph;
 	}
 
+	public GraphBasedFrameIdentifier(IdFeatureExtractor featureExtractor,
+									 Set<String> allFrames,
+									 THashMap<String, THashSet<String>> framesByLemma,
+									 CompiledFrameScorer scorer,
+									 SmoothedGraph graph) {
+		super(featureExtractor, scorer, allFrames, framesByLemma);
+		this.graph = graph;
+	}
+
 	public static GraphBasedFrameIdentifier getInstance(String modelDirectory) throws IOException, ClassNotFoundException {
 		final String graphFilename = new File(modelDirectory, GRAPH_FILENAME).getAbsolutePath();
 		final String idParamsFile = new File(modelDirectory, ID_MODEL_FILE).getAbsolutePath();
@@ -86,10 +118,53 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 		}
 	}
 
+	/**
+	 * Only scores the top k frames proposed by a {@link CandidateFramePruner} for targets that would otherwise fall
+	 * back to all frames. Needs a compiled (i.e. not latent) model. Should be called before parsing starts.
+	 */
+	public void setMaxCandidateFrames(int k) {
+		checkState(getScorer() != null, "Candidate frames can only be pruned with a compiled frame id model");
+		final Optional<CandidateFramePruner> pruner = this.pruner;
+		this.pruner = Optional.of(pruner.isPresent() ?
+				pruner.get().withK(k) :
+				new CandidateFramePruner(getScorer(), allFrames, k));
+	}
+
+	/** @return the k set by {@link #setMaxCandidateFrames}, if any */
+	public Optional<Integer> getMaxCandidateFrames() {
+		final Optional<CandidateFramePruner> pruner = this.pruner;
+		return pruner.isPresent() ? Optional.of(pruner.get().getK()) : Optional.<Integer>absent();
+	}
+
+	/** Goes back to scoring all frames for targets that aren't in the lexicon or the graph. Drops the pruner's index */
+	public void clearMaxCandidateFrames() {
+		pruner = Optional.absent();
+	}
+
+	/** Records the latency of each target, and counts of targets and candidate frames, in registry */
+	public void setMetrics(MetricsRegistry registry) {
+		metrics = new Metrics(registry);
+	}
+
 	@Override
-	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, sentence);
-		return pickBestFrame(candidateFrames, sentence, tokenIndices);
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Metrics metrics = this.metrics;
+		final MetricsRegistry.Timer timer = metrics.frameId.start();
+		metrics.targets.incrementAndGet();
+		try {
+			final Set<String> candidateFrames = getCandidateFrames(tokenIndices, analysis.getSentence());
+			final Optional<CandidateFramePruner> pruner = this.pruner;
+			if (candidateFrames == allFrames && pruner.isPresent()) {
+				final Map<String, Double> baseFeatures = featureExtractor.getBaseFeatures(tokenIndices, analysis);
+				final Set<String> prunedFrames = pruner.get().getCandidateFrames(baseFeatures);
+				metrics.candidateFrames.addAndGet(prunedFrames.size());
+				return pickBestFrame(prunedFrames, baseFeatures);
+			}
+			metrics.candidateFrames.addAndGet(candidateFrames.size());
+			return pickBestFrame(candidateFrames, analysis, tokenIndices);
+		} finally {
+			timer.stop();
+		}
 	}
 
 	protected Set<String> getCandidateFrames(int[] tokenIndices, Sentence sentence) {
@@ -120,6 +195,7 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 			final String coarseToken = getCanonicalForm(lemma);
 			if (coarseMap.containsKey(coarseToken)) return coarseMap.get(coarseToken);
 		}
+		metrics.fallbacks.incrementAndGet();
 		return allFrames;
 	}
 
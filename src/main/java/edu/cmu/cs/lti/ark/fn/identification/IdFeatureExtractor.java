@@ -9,6 +9,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 import gnu.trove.TIntDoubleHashMap;
@@ -54,7 +55,18 @@ public class IdFeatureExtractor {
 		return featureExtractorMap.get(name.trim().toLowerCase()).get();
 	}
 
+	public FrameFeatureExtractor getFrameFeatureExtractor() {
+		return frameFeatureExtractor;
+	}
+
 	public Map<String, Double> getBaseFeatures(int[] targetTokenIdxs, Sentence sentence) {
+		return getBaseFeatures(targetTokenIdxs, new SentenceAnalysis(sentence));
+	}
+
+	/** Like {@link #getBaseFeatures(int[], Sentence)}, but reuses the sentence's parse, if it's been built already */
+	public Map<String, Double> getBaseFeatures(int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		final Sentence sentence = analysis.getSentence();
+		final DependencyParse parse = analysis.getFrameIdParse();
 		Arrays.sort(targetTokenIdxs);
 		final Map<String, Double> results = Maps.newHashMap();
 		// Get lemmas and postags for target
@@ -63,9 +75,9 @@ public class IdFeatureExtractor {
 			results.putAll(getSentenceContextFeatures(sentence));
 		}
 		// syntactic features
-		results.putAll(getSyntacticFeatures(targetTokenIdxs, sentence));
+		results.putAll(getSyntacticFeatures(targetTokenIdxs, parse));
 		if (sennaFeatureExtractor.isPresent()) {
-			results.putAll(sennaFeatureExtractor.get().getSennaFeatures(targetTokenIdxs, sentence));
+			results.putAll(sennaFeatureExtractor.get().getSennaFeatures(targetTokenIdxs, sentence, parse));
 		}
 		// add homogenous/bias feature
 		results.put("bias", 1.0);
@@ -102,9 +114,8 @@ public class IdFeatureExtractor {
 		return featureMap.scaleBy(1.0);
 	}
 
-	protected Map<String, Double> getSyntacticFeatures(int[] targetTokenIdxs, Sentence sentence) {
-		final DependencyParse parse = DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0);
-		final DependencyParse head = DependencyParse.getHeuristicHead(parse.getIndexSortedListOfNodes(), targetTokenIdxs);
+	protected Map<String, Double> getSyntacticFeatures(int[] targetTokenIdxs, DependencyParse parse) {
+		final DependencyParse head = parse.getTreeIndex().getHeuristicHead(targetTokenIdxs);
 		final String headCpostag = getCpostag(head.getPOS());
 
 		final List<DependencyParse> children = head.getChildren();
@@ -1,21 +1,28 @@
 package edu.cmu.cs.lti.ark.fn.identification;
 
-import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import edu.cmu.cs.lti.ark.fn.identification.latentmodel.CompiledLatentFrameScorer;
 import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
-import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
-import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TObjectDoubleHashMap;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
+ * Frame identification with the latent model: the score of a frame sums over its hidden lexical units.
+ * Frames are scored by a {@link CompiledLatentFrameScorer}. Large candidate sets (e.g. for targets that aren't in the
+ * lexicon) can be scored in parallel, see {@link #setFrameScoringExecutor}.
+ *
  * @author sthomson@cs.cmu.edu
  */
 public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
-	private final LatentFeatureExtractor featureExtractor;
-	private final THashMap<String, THashSet<String>> hiddenUnitsByFrame;
+	private final CompiledLatentFrameScorer scorer;
+	private ExecutorService frameScoringExecutor = MoreExecutors.sameThreadExecutor();
 
 	public LatentGraphBasedFrameIdentifier(LatentFeatureExtractor featureExtractor,
 										   THashMap<String, THashSet<String>> hiddenUnitsByFrame,
@@ -23,33 +30,42 @@ public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
 										   TObjectDoubleHashMap<String> params,
 										   SmoothedGraph graph) {
 		super(null, hiddenUnitsByFrame.keySet(), framesByLemma, params, graph);
-		this.featureExtractor = featureExtractor;
-		this.hiddenUnitsByFrame = hiddenUnitsByFrame;
+		this.scorer = CompiledLatentFrameScorer.compile(featureExtractor, hiddenUnitsByFrame, params);
+	}
+
+	/**
+	 * Scores large candidate sets in parallel on executor (see {@link CompiledLatentFrameScorer#getValuesForFrames}).
+	 * Should be called before parsing starts.
+	 */
+	public void setFrameScoringExecutor(ExecutorService executor) {
+		frameScoringExecutor = executor;
 	}
 
 	@Override
-	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, sentence);
-		return pickBestFrame(candidateFrames, sentence, tokenIndices);
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, analysis.getSentence());
+		return pickBestFrame(candidateFrames, analysis, tokenIndices);
 	}
 
 	/**
 	 * Applies the log-linear model to each frame in frames and selects the highest scoring frame
 	 *
 	 * @param frames       the frames to consider
-	 * @param sentence     the dependency parse of the sentence, needed to extract features
+	 * @param analysis     the sentence and its dependency parse, needed to extract features
 	 * @param targetTokenIdxs the token indexes that the frame spans
 	 * @return the highest scoring frame
 	 */
 	@Override
-	protected String pickBestFrame(Set<String> frames, Sentence sentence, int[] targetTokenIdxs) {
+	protected String pickBestFrame(Set<String> frames, SentenceAnalysis analysis, int[] targetTokenIdxs) {
+		final List<String> frameList = Lists.newArrayList(frames);
+		final double[] values = scorer.getValuesForFrames(frameList,
+				scorer.getTarget(targetTokenIdxs, analysis), frameScoringExecutor);
 		String result = null;
 		double maxVal = Double.NEGATIVE_INFINITY;
-		for (String frame : frames) {
-			double val = getValueForFrame(frame, targetTokenIdxs, sentence);
-			if (val >= maxVal) {
-				maxVal = val;
-				result = frame;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] >= maxVal) {
+				maxVal = values[i];
+				result = frameList.get(i);
 			}
 		}
 		return result;
@@ -58,31 +74,11 @@ public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
 	/**
 	 * Applies the log-linear model to frame
 	 * @param frame the frames to score
-	 * @param sentence the dependency parse of the sentence, needed to extract features
+	 * @param analysis the sentence and its dependency parse, needed to extract features
 	 * @param targetTokenIdxs the token indexes that the frame spans
-	 * @return the score of the frame
+	 * @return the log score of the frame
 	 */
-	protected double getValueForFrame(String frame, int[] targetTokenIdxs, Sentence sentence) {
-		if (!allFrames.contains(frame)) return Double.NEGATIVE_INFINITY;
-		final THashSet<String> hiddenUnits = hiddenUnitsByFrame.get(frame);
-		final String[][] allLemmaTags = sentence.toAllLemmaTagsArray();
-		final DependencyParse parse = DependencyParse.processFN(allLemmaTags, 0.0);
-		double result = 0.0;
-		for (String hiddenLexUnit : hiddenUnits) {
-			final IntCounter<String> features =
-					featureExtractor.extractFeatures(
-							frame,
-							targetTokenIdxs,
-							hiddenLexUnit,
-							allLemmaTags,
-							parse,
-							true);
-			double featSum = 0.0;
-			for (String feat : features.keySet()) {
-				featSum += features.get(feat) * params.get(feat);
-			}
-			result += Math.exp(featSum);
-		}
-		return result;
+	protected double getValueForFrame(String frame, int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		return scorer.getValueForFrame(frame, scorer.getTarget(targetTokenIdxs, analysis));
 	}
 }
@@ -11,7 +11,6 @@ import java.util.List;
 import java.util.Map;
 
 import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
-import static edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse.getHeuristicHead;
 
 /**
  * @author sthomson@cs.cmu.edu
@@ -30,10 +29,17 @@ public class SennaFeatureExtractor {
 	}
 
 	public Map<String, Double> getSennaFeatures(int[] targetTokenIdxs, Sentence sentence) {
+		return getSennaFeatures(targetTokenIdxs, sentence,
+				DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0));
+	}
+
+	/**
+	 * @param parse the parse of sentence that frame identification uses (see {@link DependencyParse#processFN})
+	 */
+	public Map<String, Double> getSennaFeatures(int[] targetTokenIdxs, Sentence sentence, DependencyParse parse) {
 		final Map<String, Double> features = Maps.newHashMap();
 
-		final DependencyParse parse = DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0);
-		final int headIdx = getHeuristicHead(parse.getIndexSortedListOfNodes(), targetTokenIdxs).getIndex() - 1;
+		final int headIdx = parse.getTreeIndex().getHeuristicHead(targetTokenIdxs).getIndex() - 1;
 		final List<Token> tokens = sentence.getTokens();
 		// add senna features for five-word window around target head
 		for (int i : xrange(FIVE_WORD_WINDOW_NAMES.length)) {
@@ -54,6 +54,11 @@ public class SmoothedGraph implements Serializable {
 	
 	private Map<String, Set<String>> coarseMap;
 	
+	public SmoothedGraph(Map<String, Set<String>> fineMap, Map<String, Set<String>> coarseMap) {
+		this.fineMap = fineMap;
+		this.coarseMap = coarseMap;
+	}
+
 	public SmoothedGraph (String file, int t) {
 		fineMap = new THashMap<String, Set<String>>();
 		coarseMap = new THashMap<String, Set<String>>();
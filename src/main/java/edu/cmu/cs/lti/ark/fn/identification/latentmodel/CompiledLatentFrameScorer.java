@@ -0,0 +1,390 @@
+package edu.cmu.cs.lti.ark.fn.identification.latentmodel;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureIndex;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.fn.wordnet.Relations;
+import edu.cmu.cs.lti.ark.fn.wordnet.WordNetRelations;
+import edu.cmu.cs.lti.ark.util.nlp.Lemmatizer;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongDoubleHashMap;
+import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectDoubleIterator;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Throwables.propagate;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags.*;
+import static edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor.getCpostag;
+
+/**
+ * Scores frames with the latent frame identification model, giving the same scores as summing the weights of
+ * {@link LatentFeatureExtractor#extractFeatures} over every hidden lexical unit of the frame, but without repeating
+ * work that doesn't depend on the hidden unit or the frame:
+ * <ul>
+ *   <li>hidden units are split and lemmatized once, at load time, and the weights of the features that only depend
+ *   on the hidden unit and its frame are summed then.</li>
+ *   <li>the features of the target and its sentence (words, dependency labels, parent) are extracted once per target
+ *   ({@link #getTarget}). Their weights are looked up by (feature, frame) pairs of ints, and added once per frame,
+ *   instead of once per hidden unit.</li>
+ *   <li>only features relating the target to the hidden unit (WordNet relations and exact matches) are looked up by
+ *   name, and there are few of them.</li>
+ * </ul>
+ * The score of a frame is the log of the sum over its hidden units of exp(score of the hidden unit), computed so that
+ * it can't overflow. Picking the frame with the highest score is the same as with the sum itself.
+ */
+@ThreadSafe
+public class CompiledLatentFrameScorer {
+	private static final Joiner SPACE = Joiner.on(" ");
+	private static final Joiner UNDERSCORE = Joiner.on("_");
+	/** every feature is conjoined with the frame name, with this in between */
+	private static final String FRAME_SEPARATOR = "_f:";
+	/** prefixes of the features that depend on the target, but not on the hidden unit */
+	private static final String[] TARGET_FEATURE_PREFIXES = { "sTP:", "sLP:", "d:", "sC:", "pP:", "pL:" };
+	/** candidate sets at least this big are split into tasks of this many frames by {@link #getValuesForFrames} */
+	public static final int FRAMES_PER_TASK = 64;
+
+	private final Relations wnRelations;
+	private final TObjectDoubleHashMap<String> params;
+	private final Map<String, HiddenUnit[]> hiddenUnitsByFrame;
+	/** frame name -> frame idx, starting from 1 */
+	private final Map<String, Integer> frameIdxs;
+	/** target feature name (without the frame) -> target feature idx */
+	private final FeatureIndex targetFeatureIdxs;
+	/** (target feature idx, frame idx) -> weight. see {@link #key} */
+	private final TLongDoubleHashMap targetFeatureWeights;
+
+	/** A hidden lexical unit, split and lemmatized */
+	private static class HiddenUnit {
+		/** the forms, separated by spaces */
+		final String tokens;
+		final String tokenAndCpostags;
+		final String cpostags;
+		final String lemmaAndCpostags;
+		/** the sum of the weights of the features that only depend on the hidden unit and its frame */
+		final double weight;
+
+		HiddenUnit(String tokens, String tokenAndCpostags, String cpostags, String lemmaAndCpostags, double weight) {
+			this.tokens = tokens;
+			this.tokenAndCpostags = tokenAndCpostags;
+			this.cpostags = cpostags;
+			this.lemmaAndCpostags = lemmaAndCpostags;
+			this.weight = weight;
+		}
+	}
+
+	/** The features of a target that don't depend on the frame, from {@link #getTarget} */
+	public static class Target {
+		final String tokens;
+		final String tokenAndCpostags;
+		final String cpostags;
+		final String lemmaAndCpostags;
+		/** idxs of the target features that fire, once for each time they fire */
+		final int[] featureIdxs;
+
+		Target(String tokens, String tokenAndCpostags, String cpostags, String lemmaAndCpostags, int[] featureIdxs) {
+			this.tokens = tokens;
+			this.tokenAndCpostags = tokenAndCpostags;
+			this.cpostags = cpostags;
+			this.lemmaAndCpostags = lemmaAndCpostags;
+			this.featureIdxs = featureIdxs;
+		}
+	}
+
+	private CompiledLatentFrameScorer(Relations wnRelations,
+									  TObjectDoubleHashMap<String> params,
+									  Map<String, HiddenUnit[]> hiddenUnitsByFrame,
+									  Map<String, Integer> frameIdxs,
+									  FeatureIndex targetFeatureIdxs,
+									  TLongDoubleHashMap targetFeatureWeights) {
+		this.wnRelations = wnRelations;
+		this.params = params;
+		this.hiddenUnitsByFrame = hiddenUnitsByFrame;
+		this.frameIdxs = frameIdxs;
+		this.targetFeatureIdxs = targetFeatureIdxs;
+		this.targetFeatureWeights = targetFeatureWeights;
+	}
+
+	/**
+	 * @param featureExtractor the extractor the model was trained with, for its WordNet relations and lemmatizer
+	 * @param hiddenUnitsByFrame the hidden lexical units of each frame, each in the format
+	 * 	"form1_pos1 form2_pos2 ... formn_posn"
+	 * @param params the weights of the model, keyed by feature name
+	 */
+	public static CompiledLatentFrameScorer compile(LatentFeatureExtractor featureExtractor,
+													Map<String, ? extends Set<String>> hiddenUnitsByFrame,
+													TObjectDoubleHashMap<String> params) {
+		final Lemmatizer lemmatizer = featureExtractor.lemmatizer;
+		final Map<String, Integer> frameIdxs = Maps.newHashMap();
+		final Map<String, HiddenUnit[]> hiddenUnits = Maps.newHashMap();
+		for (Map.Entry<String, ? extends Set<String>> entry : hiddenUnitsByFrame.entrySet()) {
+			final String frame = entry.getKey();
+			frameIdxs.put(frame, frameIdxs.size() + 1);
+			final List<HiddenUnit> units = Lists.newArrayList();
+			for (String hiddenLexUnit : entry.getValue()) {
+				units.add(compileHiddenUnit(hiddenLexUnit, frame, lemmatizer, params));
+			}
+			hiddenUnits.put(frame, units.toArray(new HiddenUnit[units.size()]));
+		}
+		// split the names of target features into (feature, frame)
+		final Map<String, Integer> targetFeatureIdxs = Maps.newHashMap();
+		final TLongDoubleHashMap targetFeatureWeights = new TLongDoubleHashMap();
+		for (TObjectDoubleIterator<String> it = params.iterator(); it.hasNext(); ) {
+			it.advance();
+			final String name = it.key();
+			if (!isTargetFeature(name)) continue;
+			final int split = name.lastIndexOf(FRAME_SEPARATOR);
+			if (split < 0) continue;
+			final Integer frameIdx = frameIdxs.get(name.substring(split + FRAME_SEPARATOR.length()));
+			if (frameIdx == null) continue;
+			final String feature = name.substring(0, split);
+			Integer featureIdx = targetFeatureIdxs.get(feature);
+			if (featureIdx == null) {
+				featureIdx = targetFeatureIdxs.size() + 1;
+				targetFeatureIdxs.put(feature, featureIdx);
+			}
+			targetFeatureWeights.put(key(featureIdx, frameIdx, frameIdxs.size()), it.value());
+		}
+		return new CompiledLatentFrameScorer(featureExtractor.wnRelations,
+				params,
+				hiddenUnits,
+				frameIdxs,
+				FeatureIndex.fromMap(targetFeatureIdxs),
+				targetFeatureWeights);
+	}
+
+	private static boolean isTargetFeature(String name) {
+		for (String prefix : TARGET_FEATURE_PREFIXES) {
+			if (name.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/** Numbers (feature, frame) pairs densely, since trove hashes a long by xor-ing its halves */
+	private static long key(int featureIdx, int frameIdx, int numFrames) {
+		return (long) featureIdx * (numFrames + 1) + frameIdx;
+	}
+
+	private static HiddenUnit compileHiddenUnit(String hiddenLexUnit,
+												String frame,
+												Lemmatizer lemmatizer,
+												TObjectDoubleHashMap<String> params) {
+		final String[] hiddenTokenAndPos = hiddenLexUnit.split(" ");
+		final List<String> tokens = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
+		final List<String> tokenAndCpostags = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
+		final List<String> cpostags = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
+		final List<String> lemmaAndCpostags = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
+		for (String hiddenTok : hiddenTokenAndPos) {
+			final String[] arr = hiddenTok.split("_");
+			final String form = arr[0];
+			final String postag = arr[1].toUpperCase();
+			final String cpostag = getCpostag(postag);
+			tokens.add(form);
+			tokenAndCpostags.add(form + "_" + cpostag);
+			cpostags.add(cpostag);
+			lemmaAndCpostags.add(lemmatizer.getLemma(form, postag) + "_" + cpostag);
+		}
+		final String tokenAndCpostagsStr = UNDERSCORE.join(tokenAndCpostags);
+		final String lemmaAndCpostagsStr = UNDERSCORE.join(lemmaAndCpostags);
+		final String frameSuffix = FRAME_SEPARATOR + frame;
+		final double weight = params.get("hT:" + tokenAndCpostagsStr + frameSuffix)
+				+ params.get("hLP:" + lemmaAndCpostagsStr + frameSuffix);
+		return new HiddenUnit(SPACE.join(tokens),
+				tokenAndCpostagsStr,
+				UNDERSCORE.join(cpostags),
+				lemmaAndCpostagsStr,
+				weight);
+	}
+
+	/** Extracts the features of a target that don't depend on the frame or the hidden unit */
+	public Target getTarget(int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		final String[][] allLemmaTags = analysis.getAllLemmaTags();
+		final int[] sortedTokenIdxs = targetTokenIdxs.clone();
+		Arrays.sort(sortedTokenIdxs);
+		final List<String> tokens = Lists.newArrayListWithExpectedSize(sortedTokenIdxs.length);
+		final List<String> tokenAndCpostags = Lists.newArrayListWithExpectedSize(sortedTokenIdxs.length);
+		final List<String> cpostags = Lists.newArrayListWithExpectedSize(sortedTokenIdxs.length);
+		final List<String> lemmaAndCpostags = Lists.newArrayListWithExpectedSize(sortedTokenIdxs.length);
+		for (int tokenIdx : sortedTokenIdxs) {
+			final String form = allLemmaTags[PARSE_TOKEN_ROW][tokenIdx];
+			final String cpostag = getCpostag(allLemmaTags[PARSE_POS_ROW][tokenIdx].toUpperCase());
+			tokens.add(form);
+			tokenAndCpostags.add(form + "_" + cpostag);
+			cpostags.add(cpostag);
+			lemmaAndCpostags.add(allLemmaTags[PARSE_LEMMA_ROW][tokenIdx] + "_" + cpostag);
+		}
+
+		final TIntArrayList featureIdxs = new TIntArrayList();
+		final StringBuilder feature = new StringBuilder();
+		// a feature for each word in the sentence
+		for (int tokenIdx = 0; tokenIdx < allLemmaTags[0].length; tokenIdx++) {
+			final String cpostag = getCpostag(allLemmaTags[PARSE_POS_ROW][tokenIdx].toUpperCase());
+			feature.setLength(0);
+			feature.append("sTP:").append(allLemmaTags[PARSE_TOKEN_ROW][tokenIdx]).append('_').append(cpostag);
+			addTargetFeature(feature, featureIdxs);
+			feature.setLength(0);
+			feature.append("sLP:").append(allLemmaTags[PARSE_LEMMA_ROW][tokenIdx]).append('_').append(cpostag);
+			addTargetFeature(feature, featureIdxs);
+		}
+
+		// syntactic features
+		final DependencyParse head = analysis.getFrameIdParse().getTreeIndex().getHeuristicHead(sortedTokenIdxs);
+		final List<DependencyParse> children = head.getChildren();
+		final SortedSet<String> depLabels = Sets.newTreeSet(); // unordered set of arc labels of children
+		for (DependencyParse child : children) {
+			depLabels.add(child.getLabelType().toUpperCase());
+		}
+		feature.setLength(0);
+		addTargetFeature(feature.append("d:").append(UNDERSCORE.join(depLabels)), featureIdxs);
+		if (getCpostag(head.getPOS()).equals("V")) {
+			final List<String> subcat = Lists.newArrayListWithExpectedSize(children.size()); // ordered arc labels
+			for (DependencyParse child : children) {
+				final String labelType = child.getLabelType().toUpperCase();
+				if (!labelType.equals("SUB") && !labelType.equals("P") && !labelType.equals("CC")) {
+					subcat.add(labelType);
+				}
+			}
+			feature.setLength(0);
+			addTargetFeature(feature.append("sC:").append(UNDERSCORE.join(subcat)), featureIdxs);
+		}
+		final DependencyParse parent = head.getParent();
+		feature.setLength(0);
+		addTargetFeature(feature.append("pP:").append(parent == null ? "NULL" : parent.getPOS().toUpperCase()),
+				featureIdxs);
+		feature.setLength(0);
+		addTargetFeature(feature.append("pL:").append(parent == null ? "NULL" : parent.getLabelType().toUpperCase()),
+				featureIdxs);
+
+		return new Target(SPACE.join(tokens),
+				UNDERSCORE.join(tokenAndCpostags),
+				UNDERSCORE.join(cpostags),
+				UNDERSCORE.join(lemmaAndCpostags),
+				featureIdxs.toNativeArray());
+	}
+
+	private void addTargetFeature(CharSequence feature, TIntArrayList featureIdxs) {
+		final int idx = targetFeatureIdxs.getIndex(feature);
+		if (idx != FeatureIndex.MISSING) featureIdxs.add(idx);
+	}
+
+	/**
+	 * Applies the log-linear model to frame
+	 * @param target the result of {@link #getTarget}
+	 * @return the log of the sum, over the hidden units of frame, of exp(score of the hidden unit); or
+	 * 	-Infinity if frame isn't in the model
+	 */
+	public double getValueForFrame(String frame, Target target) {
+		final HiddenUnit[] hiddenUnits = hiddenUnitsByFrame.get(frame);
+		if (hiddenUnits == null) return Double.NEGATIVE_INFINITY;
+		final int frameIdx = frameIdxs.get(frame);
+		final int numFrames = frameIdxs.size();
+		double targetScore = 0.0;
+		for (int featureIdx : target.featureIdxs) {
+			targetScore += targetFeatureWeights.get(key(featureIdx, frameIdx, numFrames));
+		}
+		// log-sum-exp, scaled by the largest score so far
+		final String frameSuffix = FRAME_SEPARATOR + frame;
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0.0;
+		for (HiddenUnit hiddenUnit : hiddenUnits) {
+			final double score = hiddenUnit.weight + getMatchScore(hiddenUnit, target, frameSuffix);
+			if (score <= max) {
+				sum += Math.exp(score - max);
+			} else {
+				sum = sum * Math.exp(max - score) + 1.0;
+				max = score;
+			}
+		}
+		return targetScore + max + Math.log(sum);
+	}
+
+	/** The weights of the features that relate the target to the hidden unit */
+	private double getMatchScore(HiddenUnit hiddenUnit, Target target, String frameSuffix) {
+		double score = 0.0;
+		for (String relation : wnRelations.getRelations(target.tokens, hiddenUnit.tokens)) {
+			if (relation.equals(WordNetRelations.NO_RELATION)) continue;
+			final String relationFeature = "tRLn:" + relation;
+			score += params.get(relationFeature + frameSuffix);
+			score += params.get(UNDERSCORE.join(relationFeature, hiddenUnit.tokenAndCpostags) + frameSuffix);
+			score += params.get(UNDERSCORE.join(relationFeature,
+					hiddenUnit.tokenAndCpostags,
+					"hP:" + hiddenUnit.cpostags,
+					"aP:" + target.cpostags) + frameSuffix);
+		}
+		if (hiddenUnit.tokenAndCpostags.equals(target.tokenAndCpostags)) {
+			score += getMatchScore("sTs", hiddenUnit, target, frameSuffix);
+		}
+		if (hiddenUnit.lemmaAndCpostags.equals(target.lemmaAndCpostags)) {
+			score += getMatchScore("sLs", hiddenUnit, target, frameSuffix);
+		}
+		return score;
+	}
+
+	private double getMatchScore(String matchFeature, HiddenUnit hiddenUnit, Target target, String frameSuffix) {
+		return params.get(matchFeature + frameSuffix)
+				+ params.get(UNDERSCORE.join(matchFeature, "hT:" + hiddenUnit.tokenAndCpostags) + frameSuffix)
+				+ params.get(UNDERSCORE.join(matchFeature, "aP:" + target.cpostags, "hP:" + hiddenUnit.cpostags)
+						+ frameSuffix)
+				+ params.get(UNDERSCORE.join(matchFeature,
+						"aLP:" + target.lemmaAndCpostags,
+						"hLP:" + hiddenUnit.lemmaAndCpostags) + frameSuffix);
+	}
+
+	/**
+	 * Scores each of frames, as {@link #getValueForFrame} does.
+	 * If there are at least 2 * {@link #FRAMES_PER_TASK} frames, all but the first {@link #FRAMES_PER_TASK} are
+	 * scored on executor, in tasks of that many frames, while the calling thread scores the first ones. executor
+	 * shouldn't be a bounded pool that the calling thread belongs to, or it could wait on itself.
+	 */
+	public double[] getValuesForFrames(final List<String> frames, final Target target, ExecutorService executor) {
+		final double[] values = new double[frames.size()];
+		if (frames.size() < 2 * FRAMES_PER_TASK) {
+			scoreFrames(frames, target, 0, frames.size(), values);
+			return values;
+		}
+		final List<Future<?>> tasks = Lists.newArrayList();
+		for (int start = FRAMES_PER_TASK; start < frames.size(); start += FRAMES_PER_TASK) {
+			final int taskStart = start;
+			final int taskEnd = Math.min(start + FRAMES_PER_TASK, frames.size());
+			tasks.add(executor.submit(new Callable<Void>() {
+				@Override public Void call() {
+					scoreFrames(frames, target, taskStart, taskEnd, values);
+					return null;
+				} }));
+		}
+		try {
+			scoreFrames(frames, target, 0, FRAMES_PER_TASK, values);
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> task : tasks) task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw propagate(e);
+		} catch (ExecutionException e) {
+			for (Future<?> task : tasks) task.cancel(true);
+			throw propagate(e.getCause());
+		}
+		return values;
+	}
+
+	private void scoreFrames(List<String> frames, Target target, int start, int end, double[] values) {
+		for (int i = start; i < end; i++) {
+			values[i] = getValueForFrame(frames.get(i), target);
+		}
+	}
+}
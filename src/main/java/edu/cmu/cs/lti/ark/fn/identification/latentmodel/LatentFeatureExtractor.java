@@ -45,8 +45,8 @@ import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
 public class LatentFeatureExtractor {
 	private static final Joiner SPACE = Joiner.on(" ");
 	private static final Joiner UNDERSCORE = Joiner.on("_");
-	private final Relations wnRelations;
-	private final Lemmatizer lemmatizer;
+	final Relations wnRelations;
+	final Lemmatizer lemmatizer;
 
 	public LatentFeatureExtractor(Relations wnRelations, Lemmatizer lemmatizer) {
 		this.wnRelations = wnRelations;
@@ -213,8 +213,7 @@ public class LatentFeatureExtractor {
 		/*
 		 * syntactic features
 		 */
-		final DependencyParse[] sortedNodes = parse.getIndexSortedListOfNodes();
-		final DependencyParse head = DependencyParse.getHeuristicHead(sortedNodes, targetTokenIdxs);
+		final DependencyParse head = parse.getTreeIndex().getHeuristicHead(targetTokenIdxs);
 		final String headCpostag = getCpostag(head.getPOS());
 
 		final List<DependencyParse> children = head.getChildren();
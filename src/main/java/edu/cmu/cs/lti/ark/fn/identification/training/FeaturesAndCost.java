@@ -16,4 +16,33 @@ public class FeaturesAndCost implements Serializable {
 		this.features = features;
 		this.cost = cost;
 	}
+
+	/** A view of the events for one target, as read from a feats_NNNNNN.jobj.gz file */
+	public static TargetEvents asTargetEvents(final FeaturesAndCost[] featuresByFrame) {
+		return new TargetEvents() {
+			@Override public int getNumFrames() {
+				return featuresByFrame.length;
+			}
+
+			@Override public float getCost(int frameIdx) {
+				return featuresByFrame[frameIdx].cost;
+			}
+
+			@Override public double dotProduct(int frameIdx, double[] params) {
+				final TIntDoubleHashMap features = featuresByFrame[frameIdx].features;
+				double result = 0.0;
+				for (int featureIdx : features.keys()) {
+					result += params[featureIdx] * features.get(featureIdx);
+				}
+				return result;
+			}
+
+			@Override public void addTo(int frameIdx, double scale, double[] vector) {
+				final TIntDoubleHashMap features = featuresByFrame[frameIdx].features;
+				for (int featureIdx : features.keys()) {
+					vector[featureIdx] += scale * features.get(featureIdx);
+				}
+			}
+		};
+	}
 }
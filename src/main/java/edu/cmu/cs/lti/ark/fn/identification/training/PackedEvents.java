@@ -0,0 +1,340 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import gnu.trove.TIntDoubleHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The frame identification training events (see {@link ExtractTrainingFeatures}), packed into one binary file,
+ * so that {@link TrainBatch} doesn't have to decompress and deserialize a feats_NNNNNN.jobj.gz file for every
+ * target on every L-BFGS iteration.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   magic, version
+ *   for each target: number of frames, costs (floats), feature offsets (one more than the number of frames),
+ *     feature idxs (ints), feature values (doubles)
+ *   byte offset of each target (one more than the number of targets, as longs)
+ *   number of targets
+ * </pre>
+ * Feature offsets are relative to the start of the target's feature idxs. Features are written in the order in
+ * which the original maps iterate over them, so that sums over them come out exactly the same.
+ *
+ * {@link #open} copies the events into primitive arrays if they comfortably fit in the heap, and otherwise reads
+ * them straight from the memory-mapped file.
+ */
+public abstract class PackedEvents {
+	private static final Logger logger = Logger.getLogger(PackedEvents.class.getCanonicalName());
+
+	/** "SFEV" */
+	private static final int MAGIC = 0x53464556;
+	/** should be incremented whenever the layout changes */
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	/** the most that can be mapped in one MappedByteBuffer */
+	private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * Packs the feats_NNNNNN.jobj.gz files in an events directory into one file.
+	 *
+	 * required flags:
+	 * eventsfile: the directory written by {@link ExtractTrainingFeatures}
+	 * output-file: where to write the packed events
+	 */
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final List<String> eventFiles = TrainBatch.getEventFiles(new File(options.eventsFile.get()));
+		pack(eventFiles, new File(options.outputFile.get()));
+	}
+
+	/** Reads each of eventFiles, in order, and writes them all to outputFile */
+	public static void pack(List<String> eventFiles, File outputFile) throws IOException, ClassNotFoundException {
+		final long[] targetOffsets = new long[eventFiles.size() + 1];
+		final DataOutputStream output =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			long position = HEADER_SIZE;
+			for (int targetIdx = 0; targetIdx < eventFiles.size(); targetIdx++) {
+				targetOffsets[targetIdx] = position;
+				final FeaturesAndCost[] featuresByFrame = SerializedObjects.readObject(eventFiles.get(targetIdx));
+				position += writeTarget(output, featuresByFrame);
+				if (targetIdx % 1000 == 0) logger.info(String.format("target idx: %d", targetIdx));
+			}
+			targetOffsets[eventFiles.size()] = position;
+			for (long targetOffset : targetOffsets) output.writeLong(targetOffset);
+			output.writeInt(eventFiles.size());
+		} finally {
+			output.close();
+		}
+		logger.info(String.format("Packed %d targets into %s", eventFiles.size(), outputFile));
+	}
+
+	/** Writes the events for one target, and returns the number of bytes written */
+	private static long writeTarget(DataOutputStream output, FeaturesAndCost[] featuresByFrame) throws IOException {
+		final int numFrames = featuresByFrame.length;
+		final int[][] keys = new int[numFrames][];
+		int numFeatures = 0;
+		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
+			keys[frameIdx] = featuresByFrame[frameIdx].features.keys();
+			numFeatures += keys[frameIdx].length;
+		}
+		output.writeInt(numFrames);
+		for (FeaturesAndCost frame : featuresByFrame) output.writeFloat(frame.cost);
+		int offset = 0;
+		output.writeInt(offset);
+		for (int[] frameKeys : keys) {
+			offset += frameKeys.length;
+			output.writeInt(offset);
+		}
+		for (int[] frameKeys : keys) {
+			for (int featureIdx : frameKeys) output.writeInt(featureIdx);
+		}
+		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
+			final TIntDoubleHashMap features = featuresByFrame[frameIdx].features;
+			for (int featureIdx : keys[frameIdx]) output.writeDouble(features.get(featureIdx));
+		}
+		return 4L + 4L * numFrames + 4L * (numFrames + 1) + 12L * numFeatures;
+	}
+
+	/**
+	 * Opens a file written by {@link #pack}. The events are copied onto the heap if the file is smaller than half
+	 * of the maximum heap size, and are otherwise read from the memory-mapped file.
+	 */
+	public static PackedEvents open(File file) throws IOException {
+		final Mapped mapped = Mapped.map(file);
+		if (file.length() < Runtime.getRuntime().maxMemory() / 2 && mapped.numFeatures() < Integer.MAX_VALUE - 8) {
+			logger.info(String.format("Loading %d packed targets from %s into memory", mapped.size(), file));
+			return InMemory.copyOf(mapped);
+		}
+		logger.info(String.format("Memory-mapping %d packed targets from %s", mapped.size(), file));
+		return mapped;
+	}
+
+	/** The number of targets */
+	public abstract int size();
+
+	/** The events for the given target. The returned view is safe to use from any thread. */
+	public abstract TargetEvents get(int targetIdx);
+
+	/** Reads events straight from a memory-mapped file, which may be split over several buffers */
+	static class Mapped extends PackedEvents {
+		private final ByteBuffer[] chunks;
+		private final int[] chunkByTarget;
+		private final int[] positionByTarget;
+
+		private Mapped(ByteBuffer[] chunks, int[] chunkByTarget, int[] positionByTarget) {
+			this.chunks = chunks;
+			this.chunkByTarget = chunkByTarget;
+			this.positionByTarget = positionByTarget;
+		}
+
+		static Mapped map(File file) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				final FileChannel channel = raf.getChannel();
+				final long length = channel.size();
+				if (length < HEADER_SIZE + 4) throw new IOException(file + " is not a packed events file");
+				final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a packed events file");
+				if (header.getInt(4) != VERSION) {
+					throw new IOException(String.format("%s has version %d, expected %d", file, header.getInt(4), VERSION));
+				}
+				final int numTargets = channel.map(FileChannel.MapMode.READ_ONLY, length - 4, 4).getInt(0);
+				final long footerSize = 8L * (numTargets + 1);
+				final ByteBuffer footer =
+						channel.map(FileChannel.MapMode.READ_ONLY, length - 4 - footerSize, footerSize);
+				final long[] targetOffsets = new long[numTargets + 1];
+				for (int i = 0; i <= numTargets; i++) targetOffsets[i] = footer.getLong(8 * i);
+				// split the targets into runs that each fit in one buffer
+				final List<ByteBuffer> chunks = Lists.newArrayList();
+				final int[] chunkByTarget = new int[numTargets];
+				final int[] positionByTarget = new int[numTargets];
+				int start = 0;
+				while (start < numTargets) {
+					int end = start + 1;
+					while (end < numTargets && targetOffsets[end + 1] - targetOffsets[start] <= MAX_CHUNK_SIZE) end++;
+					final long chunkStart = targetOffsets[start];
+					final long chunkSize = targetOffsets[end] - chunkStart;
+					if (chunkSize > MAX_CHUNK_SIZE) throw new IOException("Target " + start + " is too large to map");
+					for (int targetIdx = start; targetIdx < end; targetIdx++) {
+						chunkByTarget[targetIdx] = chunks.size();
+						positionByTarget[targetIdx] = (int) (targetOffsets[targetIdx] - chunkStart);
+					}
+					chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkSize));
+					start = end;
+				}
+				return new Mapped(chunks.toArray(new ByteBuffer[chunks.size()]), chunkByTarget, positionByTarget);
+			} finally {
+				Closeables.closeQuietly(raf);
+			}
+		}
+
+		@Override public int size() {
+			return chunkByTarget.length;
+		}
+
+		@Override public MappedTarget get(int targetIdx) {
+			return new MappedTarget(chunks[chunkByTarget[targetIdx]], positionByTarget[targetIdx]);
+		}
+
+		/** The total number of (frame, feature) entries */
+		long numFeatures() {
+			long numFeatures = 0;
+			for (int targetIdx = 0; targetIdx < size(); targetIdx++) numFeatures += get(targetIdx).numFeatures();
+			return numFeatures;
+		}
+	}
+
+	/** Uses only absolute reads, so that many threads can share the buffer */
+	static class MappedTarget implements TargetEvents {
+		private final ByteBuffer buffer;
+		private final int numFrames;
+		private final int costsPosition;
+		private final int offsetsPosition;
+		private final int idxsPosition;
+		private final int valuesPosition;
+
+		MappedTarget(ByteBuffer buffer, int position) {
+			this.buffer = buffer;
+			numFrames = buffer.getInt(position);
+			costsPosition = position + 4;
+			offsetsPosition = costsPosition + 4 * numFrames;
+			idxsPosition = offsetsPosition + 4 * (numFrames + 1);
+			valuesPosition = idxsPosition + 4 * numFeatures();
+		}
+
+		private int offset(int frameIdx) {
+			return buffer.getInt(offsetsPosition + 4 * frameIdx);
+		}
+
+		int numFeatures() {
+			return offset(numFrames);
+		}
+
+		@Override public int getNumFrames() {
+			return numFrames;
+		}
+
+		@Override public float getCost(int frameIdx) {
+			return buffer.getFloat(costsPosition + 4 * frameIdx);
+		}
+
+		@Override public double dotProduct(int frameIdx, double[] params) {
+			double result = 0.0;
+			for (int i = offset(frameIdx), end = offset(frameIdx + 1); i < end; i++) {
+				result += params[buffer.getInt(idxsPosition + 4 * i)] * buffer.getDouble(valuesPosition + 8 * i);
+			}
+			return result;
+		}
+
+		@Override public void addTo(int frameIdx, double scale, double[] vector) {
+			for (int i = offset(frameIdx), end = offset(frameIdx + 1); i < end; i++) {
+				vector[buffer.getInt(idxsPosition + 4 * i)] += scale * buffer.getDouble(valuesPosition + 8 * i);
+			}
+		}
+	}
+
+	/** Holds all events in flat primitive arrays, in CSR layout */
+	static class InMemory extends PackedEvents {
+		/** index into costs and featureOffsets of each target's first frame, plus one for the end */
+		private final int[] frameOffsets;
+		private final float[] costs;
+		/** index into featureIdxs and featureValues of each frame's first feature, plus one for the end */
+		private final int[] featureOffsets;
+		private final int[] featureIdxs;
+		private final double[] featureValues;
+
+		private InMemory(int[] frameOffsets, float[] costs, int[] featureOffsets, int[] featureIdxs,
+						 double[] featureValues) {
+			this.frameOffsets = frameOffsets;
+			this.costs = costs;
+			this.featureOffsets = featureOffsets;
+			this.featureIdxs = featureIdxs;
+			this.featureValues = featureValues;
+		}
+
+		static InMemory copyOf(PackedEvents events) {
+			final int numTargets = events.size();
+			final int[] frameOffsets = new int[numTargets + 1];
+			int numFrames = 0;
+			long numFeatures = 0;
+			for (int targetIdx = 0; targetIdx < numTargets; targetIdx++) {
+				final MappedTarget target = (MappedTarget) events.get(targetIdx);
+				frameOffsets[targetIdx] = numFrames;
+				numFrames += target.getNumFrames();
+				numFeatures += target.numFeatures();
+			}
+			frameOffsets[numTargets] = numFrames;
+			final float[] costs = new float[numFrames];
+			final int[] featureOffsets = new int[numFrames + 1];
+			final int[] featureIdxs = new int[(int) numFeatures];
+			final double[] featureValues = new double[(int) numFeatures];
+			int frame = 0;
+			int feature = 0;
+			for (int targetIdx = 0; targetIdx < numTargets; targetIdx++) {
+				final MappedTarget target = (MappedTarget) events.get(targetIdx);
+				for (int frameIdx = 0; frameIdx < target.getNumFrames(); frameIdx++) {
+					costs[frame] = target.getCost(frameIdx);
+					featureOffsets[frame] = feature;
+					for (int i = target.offset(frameIdx), end = target.offset(frameIdx + 1); i < end; i++) {
+						featureIdxs[feature] = target.buffer.getInt(target.idxsPosition + 4 * i);
+						featureValues[feature] = target.buffer.getDouble(target.valuesPosition + 8 * i);
+						feature++;
+					}
+					frame++;
+				}
+			}
+			featureOffsets[numFrames] = feature;
+			return new InMemory(frameOffsets, costs, featureOffsets, featureIdxs, featureValues);
+		}
+
+		@Override public int size() {
+			return frameOffsets.length - 1;
+		}
+
+		@Override public TargetEvents get(int targetIdx) {
+			final int firstFrame = frameOffsets[targetIdx];
+			final int numFrames = frameOffsets[targetIdx + 1] - firstFrame;
+			return new TargetEvents() {
+				@Override public int getNumFrames() {
+					return numFrames;
+				}
+
+				@Override public float getCost(int frameIdx) {
+					return costs[firstFrame + frameIdx];
+				}
+
+				@Override public double dotProduct(int frameIdx, double[] params) {
+					double result = 0.0;
+					for (int i = featureOffsets[firstFrame + frameIdx], end = featureOffsets[firstFrame + frameIdx + 1];
+						 i < end; i++) {
+						result += params[featureIdxs[i]] * featureValues[i];
+					}
+					return result;
+				}
+
+				@Override public void addTo(int frameIdx, double scale, double[] vector) {
+					for (int i = featureOffsets[firstFrame + frameIdx], end = featureOffsets[firstFrame + frameIdx + 1];
+						 i < end; i++) {
+						vector[featureIdxs[i]] += scale * featureValues[i];
+					}
+				}
+			};
+		}
+	}
+}
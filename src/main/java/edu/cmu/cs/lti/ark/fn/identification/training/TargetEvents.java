@@ -0,0 +1,17 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+/**
+ * The training events for one target: a sparse feature vector and a cost for each candidate frame.
+ * The correct frame is always first.
+ */
+public interface TargetEvents {
+	int getNumFrames();
+
+	float getCost(int frameIdx);
+
+	/** Dot product of the dense vector params with the features of the given frame */
+	double dotProduct(int frameIdx, double[] params);
+
+	/** Adds scale times the features of the given frame to the dense vector vector */
+	void addTo(int frameIdx, double scale, double[] vector);
+}
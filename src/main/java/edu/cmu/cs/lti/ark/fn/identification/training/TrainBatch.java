@@ -27,17 +27,18 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientService;
 import edu.cmu.cs.lti.ark.fn.optimization.Lbfgs;
+import edu.cmu.cs.lti.ark.fn.optimization.MinibatchOptimizer;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
-import edu.cmu.cs.lti.ark.fn.utils.ThreadPool;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
-import gnu.trove.TIntDoubleHashMap;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.logging.FileHandler;
@@ -49,6 +50,17 @@ import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
 import static edu.cmu.cs.lti.ark.util.Math2.sum;
 
 
+/**
+ * Trains the frame identification model with L-BFGS.
+ *
+ * eventsfile may be either the directory of feats_NNNNNN.jobj.gz files written by {@link ExtractTrainingFeatures},
+ * or the single file that {@link PackedEvents} packs them into. The latter is much faster, since the events are
+ * read once, instead of once per target per iteration.
+ *
+ * With optimizer:adagrad or optimizer:adam, trains with minibatches instead (see {@link MinibatchOptimizer}),
+ * for totalpasses epochs (default 10) of batchsize targets (default 100). If dev-eventsfile is given, the
+ * model with the best frame accuracy on those events is kept.
+ */
 public class TrainBatch {
 	private static final Logger logger = Logger.getLogger(TrainBatch.class.getCanonicalName());
 
@@ -69,17 +81,18 @@ public class TrainBatch {
 		}
 	};
 	private static float DEFAULT_COST_MULTIPLE = 5f;
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final int DEFAULT_NUM_EPOCHS = 10;
 
 	private final double[] params;
-	private final List<String> eventFiles;
+	private final Events events;
+	private final int numTargets;
 	private final String modelFile;
 	private final boolean useL1Regularization;
 	private final boolean useL2Regularization;
-	private final int numThreads;
 	private final double lambda;
 	final double[] gradients;
-	final double[][] tGradients;
-	final double[] tValues;
+	private final GradientService gradientService;
 	private final boolean usePartialCreditCosts;
 	private float costMultiple;
 
@@ -88,7 +101,8 @@ public class TrainBatch {
 		LogManager.getLogManager().reset();
 		final FileHandler fh = new FileHandler(options.logOutputFile.get(), true);
 		fh.setFormatter(new SimpleFormatter());
-		logger.addHandler(fh);
+		// on the root logger, so that the optimizer's progress is logged too
+		Logger.getLogger("").addHandler(fh);
 
 		final String restartFile = options.restartFile.get();
 		final int numThreads = options.numThreads.present() ?
@@ -104,7 +118,22 @@ public class TrainBatch {
 				numThreads,
 				options.usePartialCredit.get(),
 				options.costMultiple.present() ? (float) options.costMultiple.get() : DEFAULT_COST_MULTIPLE);
-		tbm.trainModel();
+		final String optimizer = options.optimizer.present() ? options.optimizer.get() : "lbfgs";
+		if (optimizer.equalsIgnoreCase("lbfgs")) {
+			tbm.trainModel();
+		} else {
+			final MinibatchOptimizer.Method method = MinibatchOptimizer.Method.valueOf(optimizer.toUpperCase());
+			final MinibatchOptimizer minibatchOptimizer = new MinibatchOptimizer(
+					method,
+					options.learningRate.present() ? options.learningRate.get() : method.defaultLearningRate,
+					options.batchSize.present() ? options.batchSize.get() : DEFAULT_BATCH_SIZE,
+					options.totalPasses.present() ? options.totalPasses.get() : DEFAULT_NUM_EPOCHS,
+					MinibatchOptimizer.parseRegularization(options.reg.get()),
+					options.lambda.get(),
+					0L);
+			tbm.trainModelMinibatch(minibatchOptimizer,
+					options.devEventsFile.present() ? Optional.of(options.devEventsFile.get()) : Optional.<String>absent());
+		}
 	}
 
 	public TrainBatch(String alphabetFile,
@@ -119,18 +148,17 @@ public class TrainBatch {
 		final int modelSize = AlphabetCreationThreaded.getAlphabetSize(alphabetFile);
 		logger.info(String.format("Number of features: %d", modelSize));
 		this.modelFile = modelFile;
-		this.eventFiles = getEventFiles(new File(eventsDir));
+		this.events = new Events(new File(eventsDir));
+		this.numTargets = events.size();
 		this.useL1Regularization = reg.toLowerCase().equals("l1");
 		this.useL2Regularization = reg.toLowerCase().equals("l2");
 		this.lambda = lambda;
-		this.numThreads = numThreads;
 		this.usePartialCreditCosts = usePartialCreditCosts;
 		this.costMultiple = costMultiple;
 		this.params = restartFile.isPresent() ? loadModel(restartFile.get()) : new double[modelSize];
 
 		gradients = new double[modelSize];
-		tGradients = new double[numThreads][modelSize];
-		tValues = new double[numThreads];
+		gradientService = new GradientService(numThreads, modelSize);
 	}
 
 	public double[] trainModel() throws Exception {
@@ -140,35 +168,66 @@ public class TrainBatch {
 						return getValuesAndGradientsThreaded(currentParams);
 					}
 				};
-		return Lbfgs.trainAndSaveModel(params, valueAndGradientFunction, modelFile);
+		try {
+			return Lbfgs.trainAndSaveModel(params, valueAndGradientFunction, modelFile);
+		} finally {
+			gradientService.close();
+		}
 	}
 
-	private Pair<Double, double[]> getValuesAndGradientsThreaded(final double[] currentParams) {
-		final long startTime = System.currentTimeMillis();
-		final int batchSize = (int) Math.ceil(eventFiles.size() / (double) numThreads);
-		final ThreadPool threadPool = new ThreadPool(numThreads);
-		int task = 0;
-		for (int start = 0; start < eventFiles.size(); start += batchSize) {
-			final int taskId = task;
-			final Iterable<Integer> targetIdxs = xrange(start, Math.min(start + batchSize, eventFiles.size()));
-			threadPool.runTask(new Runnable() {
-				public void run() {
-					logger.info(String.format("Task %d : start", taskId));
-					try {
-						tValues[taskId] = processBatch(targetIdxs, currentParams, tGradients[taskId]);
-					} catch (Exception e) { throw new RuntimeException(e); }
-					logger.info(String.format("Task %d : end", taskId));
+	/**
+	 * Trains with minibatches, instead of L-BFGS.
+	 *
+	 * @param devEventsFile held-out events (a directory or packed file, like eventsfile) to pick the best epoch with
+	 */
+	public double[] trainModelMinibatch(MinibatchOptimizer optimizer, Optional<String> devEventsFile)
+			throws IOException {
+		logger.info("Training with " + optimizer);
+		final Optional<Function<double[], Double>> heldOutScore;
+		if (devEventsFile.isPresent()) {
+			final Events devEvents = new Events(new File(devEventsFile.get()));
+			heldOutScore = Optional.<Function<double[], Double>>of(new Function<double[], Double>() {
+				@Override public Double apply(double[] currentParams) {
+					return getAccuracy(devEvents, currentParams);
 				}
 			});
-			task++;
+		} else {
+			heldOutScore = Optional.absent();
 		}
-		threadPool.join();
-		// merge the calculated tValues and gradients together
-		double logLikelihood = sum(tValues);
-		Arrays.fill(gradients, 0.0);
-		for (double[] tGrad : tGradients) {
-			plusEquals(gradients, tGrad);
+		try {
+			return optimizer.train(params, numTargets, new GradientService.Example() {
+				@Override public double addGradient(int targetIdx, double[] gradient) throws Exception {
+					return addLogLossAndGradientForExample(getFeaturesForTarget(targetIdx), params, gradient);
+				}
+			}, gradientService, heldOutScore, modelFile);
+		} finally {
+			gradientService.close();
 		}
+	}
+
+	/** The fraction of targets in events for which the correct frame (strictly) has the highest score */
+	double getAccuracy(final Events events, final double[] currentParams) {
+		final double numCorrect = gradientService.sum(events.size(), new GradientService.Value() {
+			@Override public double getValue(int targetIdx) throws Exception {
+				final TargetEvents targetEvents = events.get(targetIdx);
+				final double correctScore = targetEvents.dotProduct(0, currentParams);
+				for (int frameIdx = 1; frameIdx < targetEvents.getNumFrames(); frameIdx++) {
+					if (targetEvents.dotProduct(frameIdx, currentParams) >= correctScore) return 0.0;
+				}
+				return 1.0;
+			}
+		});
+		return numCorrect / events.size();
+	}
+
+	private Pair<Double, double[]> getValuesAndGradientsThreaded(final double[] currentParams) {
+		final long startTime = System.currentTimeMillis();
+		final double logLikelihood = gradientService.compute(numTargets, new GradientService.Example() {
+			@Override public double addGradient(int targetIdx, double[] gradient) throws Exception {
+				if (targetIdx % 100 == 0) logger.info(String.format("target idx: %d", targetIdx));
+				return addLogLossAndGradientForExample(getFeaturesForTarget(targetIdx), currentParams, gradient);
+			}
+		}, gradients);
 		// LBGFS always minimizes, so objective is -log(likelihood)
 		double negLogLikelihood = -logLikelihood; // * oneOverN;
 		timesEquals(gradients, -1.0); //oneOverN);
@@ -192,34 +251,16 @@ public class TrainBatch {
 		return Pair.of(negLogLikelihood, gradients);
 	}
 
-	/** Writes gradients to tGradients as a side-effect */
-	private double processBatch(Iterable<Integer> targetIdxs,
-								double[] currentParams,
-								double[] tGradients) throws Exception {
-		Arrays.fill(tGradients, 0.0);
-		double logLikelihood = 0.0;
-		for (int targetIdx : targetIdxs) {
-			if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
-			logLikelihood +=
-					addLogLossAndGradientForExample(getFeaturesForTarget(targetIdx), currentParams, tGradients);
-			if (targetIdx % 100 == 0) logger.info(String.format("target idx: %d", targetIdx));
-		}
-		return logLikelihood;
-	}
-
 	/** Writes to gradients as a side-effect */
-	private double addLogLossAndGradientForExample(FeaturesAndCost[] featuresByFrame,
-												   double[] currentParams,
-												   double[] gradient) {
-		int numFrames = featuresByFrame.length;
+	double addLogLossAndGradientForExample(TargetEvents events, double[] currentParams, double[] gradient) {
+		int numFrames = events.getNumFrames();
 		double frameScore[] = new double[numFrames];
 		double expdFrameScore[] = new double[numFrames];
 		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
-			final TIntDoubleHashMap frameFeatures = featuresByFrame[frameIdx].features;
-			frameScore[frameIdx] = dotProduct(currentParams, frameFeatures);
+			frameScore[frameIdx] = events.dotProduct(frameIdx, currentParams);
 			if (usePartialCreditCosts) {
 				// softmax-margin
-				frameScore[frameIdx] += costMultiple * featuresByFrame[frameIdx].cost;
+				frameScore[frameIdx] += costMultiple * events.getCost(frameIdx);
 			}
 			expdFrameScore[frameIdx] = Math.exp(frameScore[frameIdx]);
 		}
@@ -227,26 +268,15 @@ public class TrainBatch {
 
 		// the correct frame is always first
 		final int correctFrameIdx = 0;
-		plusEquals(gradient, featuresByFrame[correctFrameIdx].features);
+		events.addTo(correctFrameIdx, 1.0, gradient);
 		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
 			// estimate of P(y | x) * cost(y, y*) under the current parameters
 			double prob = Math.exp(frameScore[frameIdx] - logPartitionFn);
-			for (int featIdx : featuresByFrame[frameIdx].features.keys()) {
-				gradient[featIdx] -= prob * featuresByFrame[frameIdx].features.get(featIdx);
-			}
+			events.addTo(frameIdx, -prob, gradient);
 		}
 		return frameScore[correctFrameIdx] - logPartitionFn;
 	}
 
-	/** Performs a dot product of the dense vector a and the sparse vector b (encoded as a map from index to value). */
-	private static double dotProduct(double[] a, TIntDoubleHashMap b) {
-		double result = 0.0;
-		for (int featureIdx : b.keys()) {
-			result += a[featureIdx] * b.get(featureIdx);
-		}
-		return result;
-	}
-
 	/** Performs a dot product of the two dense vectors a and b. */
 	private static double dotProduct(double[] a, double[] b) {
 		double result = 0.0;
@@ -256,20 +286,6 @@ public class TrainBatch {
 		return result;
 	}
 
-	/** Adds the sparse vector rhs to the dense vector lhs **/
-	private static void plusEquals(double[] lhs, TIntDoubleHashMap rhs) {
-		for (int i : rhs.keys()) {
-			lhs[i] += rhs.get(i);
-		}
-	}
-
-	/** Adds the dense vector rhs to the dense vector lhs **/
-	private static void plusEquals(double[] lhs, double[] rhs) {
-		for (int i = 0; i < lhs.length; i++) {
-			lhs[i] += rhs[i];
-		}
-	}
-
 	/** Multiplies the dense vector <code>vector</code> by the scalar <code>scalar</code> **/
 	private static void timesEquals(double[] vector, double scalar) {
 		for (int i = 0; i < vector.length; i++) {
@@ -281,10 +297,10 @@ public class TrainBatch {
 	 * Get features for every frame for given target
 	 *
 	 * @param targetIdx the target to get features for
-	 * @return map from feature index to feature value (for each frame)
+	 * @return sparse features and cost for each frame
 	 */
-	private FeaturesAndCost[] getFeaturesForTarget(int targetIdx) throws Exception {
-		return SerializedObjects.readObject(eventFiles.get(targetIdx));
+	TargetEvents getFeaturesForTarget(int targetIdx) throws Exception {
+		return events.get(targetIdx);
 	}
 
 	/**
@@ -302,7 +318,7 @@ public class TrainBatch {
 	}
 
 	/** Gets the list of all feature files */
-	private static List<String> getEventFiles(File eventsDir) {
+	static List<String> getEventFiles(File eventsDir) {
 		final String[] files = eventsDir.list(featureFilenameFilter);
 		Arrays.sort(files, featureFilenameComparator);
 		final List<String> eventFiles = Lists.newArrayListWithExpectedSize(files.length);
@@ -310,4 +326,29 @@ public class TrainBatch {
 		logger.info(String.format("Total number of datapoints: %d", eventFiles.size()));
 		return eventFiles;
 	}
+
+	/** Events read either from a file written by {@link PackedEvents}, or from a directory of feats_NNNNNN.jobj.gz files */
+	static class Events {
+		private final Optional<PackedEvents> packedEvents;
+		private final List<String> eventFiles;
+
+		Events(File file) throws IOException {
+			if (file.isFile()) {
+				packedEvents = Optional.of(PackedEvents.open(file));
+				eventFiles = Collections.emptyList();
+			} else {
+				packedEvents = Optional.absent();
+				eventFiles = getEventFiles(file);
+			}
+		}
+
+		int size() {
+			return packedEvents.isPresent() ? packedEvents.get().size() : eventFiles.size();
+		}
+
+		TargetEvents get(int targetIdx) throws Exception {
+			if (packedEvents.isPresent()) return packedEvents.get().get(targetIdx);
+			return FeaturesAndCost.asTargetEvents(SerializedObjects.<FeaturesAndCost[]>readObject(eventFiles.get(targetIdx)));
+		}
+	}
 }
@@ -0,0 +1,243 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static com.google.common.base.Throwables.propagate;
+
+/**
+ * Sums the values and gradients of many training examples in parallel, on a fork-join pool that is created once
+ * and reused for every iteration of training.
+ *
+ * Ranges of examples are split recursively, so threads that finish early steal work from slower ones, instead of
+ * waiting for the slowest of a fixed set of chunks. Each worker thread adds the gradients of the examples it
+ * processes into its own buffer, and at the end of each call the buffers are summed in parallel, one slice of the
+ * gradient at a time.
+ * Buffers belong to pool indexes rather than to threads, so when the pool retires an idle worker and later starts a
+ * new one, the new one reuses a buffer, and there are never more buffers than the pool has had threads at once.
+ *
+ * Since the assignment of examples to threads varies from call to call, results may differ in the last few bits.
+ */
+public class GradientService implements Closeable {
+	/** the number of gradient entries summed by each task of the final reduction */
+	private static final int REDUCE_GRAIN = 1 << 14;
+	/** aim for this many leaf tasks per thread, so that there is work left to steal */
+	private static final int TASKS_PER_THREAD = 16;
+
+	/** The value and gradient of a single training example */
+	public interface Example {
+		/** Adds the gradient of the example at index into gradient, and returns its value */
+		double addGradient(int index, double[] gradient) throws Exception;
+	}
+
+	/** The value of a single example, with no gradient (e.g. whether it is predicted correctly) */
+	public interface Value {
+		double getValue(int index) throws Exception;
+	}
+
+	private static class Buffer {
+		final double[] gradient;
+		double value;
+
+		Buffer(int dimension) {
+			gradient = new double[dimension];
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int dimension;
+	/**
+	 * buffers[i + 1] belongs to the worker with pool index i, and buffers[0] to any thread outside the pool.
+	 * Created when first needed. Grows if the pool adds spare threads beyond its parallelism. Guarded by this
+	 */
+	private Buffer[] buffers;
+
+	public GradientService(int numThreads, int dimension) {
+		this.pool = new ForkJoinPool(numThreads);
+		this.dimension = dimension;
+		this.buffers = new Buffer[numThreads + 1];
+	}
+
+	/** @return the buffer of the current thread's pool index */
+	private synchronized Buffer getBuffer() {
+		final Thread thread = Thread.currentThread();
+		final int slot = thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool
+				? ((ForkJoinWorkerThread) thread).getPoolIndex() + 1
+				: 0;
+		if (slot >= buffers.length) buffers = Arrays.copyOf(buffers, Math.max(slot + 1, 2 * buffers.length));
+		if (buffers[slot] == null) buffers[slot] = new Buffer(dimension);
+		return buffers[slot];
+	}
+
+	private synchronized Buffer[] getBuffers() {
+		int numBuffers = 0;
+		for (Buffer buffer : buffers) {
+			if (buffer != null) numBuffers++;
+		}
+		final Buffer[] allBuffers = new Buffer[numBuffers];
+		int i = 0;
+		for (Buffer buffer : buffers) {
+			if (buffer != null) allBuffers[i++] = buffer;
+		}
+		return allBuffers;
+	}
+
+	/**
+	 * Sums the values and gradients of examples 0 (inclusive) to numExamples (exclusive).
+	 * Must not be called by more than one thread at a time.
+	 *
+	 * @param gradient overwritten with the sum of the examples' gradients
+	 * @return the sum of the examples' values
+	 */
+	public double compute(int numExamples, Example example, double[] gradient) {
+		final int grain = Math.max(1, numExamples / (pool.getParallelism() * TASKS_PER_THREAD));
+		try {
+			pool.invoke(new ExamplesTask(example, 0, numExamples, grain));
+		} catch (RuntimeException e) {
+			clearBuffers();
+			throw e;
+		}
+		final Buffer[] allBuffers = getBuffers();
+		pool.invoke(new ReduceTask(allBuffers, gradient, 0, gradient.length));
+		double value = 0.0;
+		for (Buffer buffer : allBuffers) {
+			value += buffer.value;
+			buffer.value = 0.0;
+		}
+		return value;
+	}
+
+	/**
+	 * Sums the values of examples 0 (inclusive) to numExamples (exclusive) on the same pool, without touching the
+	 * gradient buffers, so it's cheap (no reduction) and can be called between calls to compute.
+	 */
+	public double sum(int numExamples, Value value) {
+		final int grain = Math.max(1, numExamples / (pool.getParallelism() * TASKS_PER_THREAD));
+		return pool.invoke(new ValuesTask(value, 0, numExamples, grain));
+	}
+
+	/** Stops the worker threads */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	private void clearBuffers() {
+		for (Buffer buffer : getBuffers()) {
+			Arrays.fill(buffer.gradient, 0.0);
+			buffer.value = 0.0;
+		}
+	}
+
+	/** Adds the values and gradients of examples [start, end) into the current thread's buffer */
+	private class ExamplesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Example example;
+		private final int start;
+		private final int end;
+		private final int grain;
+
+		ExamplesTask(Example example, int start, int end, int grain) {
+			this.example = example;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		@Override protected void compute() {
+			if (end - start <= grain) {
+				final Buffer buffer = getBuffer();
+				double value = 0.0;
+				try {
+					for (int i = start; i < end; i++) {
+						value += example.addGradient(i, buffer.gradient);
+					}
+				} catch (Exception e) {
+					throw propagate(e);
+				}
+				buffer.value += value;
+			} else {
+				final int mid = (start + end) >>> 1;
+				final ExamplesTask right = new ExamplesTask(example, mid, end, grain);
+				right.fork();
+				// always wait for both halves, so that no task is still writing to a buffer if one of them fails
+				try {
+					new ExamplesTask(example, start, mid, grain).compute();
+				} finally {
+					right.join();
+				}
+			}
+		}
+	}
+
+	/** Sums the values of examples [start, end) */
+	private static class ValuesTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final Value value;
+		private final int start;
+		private final int end;
+		private final int grain;
+
+		ValuesTask(Value value, int start, int end, int grain) {
+			this.value = value;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+
+		@Override protected Double compute() {
+			if (end - start <= grain) {
+				double sum = 0.0;
+				try {
+					for (int i = start; i < end; i++) sum += value.getValue(i);
+				} catch (Exception e) {
+					throw propagate(e);
+				}
+				return sum;
+			}
+			final int mid = (start + end) >>> 1;
+			final ValuesTask right = new ValuesTask(value, mid, end, grain);
+			right.fork();
+			return new ValuesTask(value, start, mid, grain).compute() + right.join();
+		}
+	}
+
+	/** Sets gradient[start, end) to the sum of the buffers, and zeroes the buffers, ready for the next call */
+	private static class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Buffer[] buffers;
+		private final double[] gradient;
+		private final int start;
+		private final int end;
+
+		ReduceTask(Buffer[] buffers, double[] gradient, int start, int end) {
+			this.buffers = buffers;
+			this.gradient = gradient;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override protected void compute() {
+			if (end - start <= REDUCE_GRAIN) {
+				Arrays.fill(gradient, start, end, 0.0);
+				for (Buffer buffer : buffers) {
+					final double[] bufferGradient = buffer.gradient;
+					for (int i = start; i < end; i++) {
+						gradient[i] += bufferGradient[i];
+						bufferGradient[i] = 0.0;
+					}
+				}
+			} else {
+				final int mid = (start + end) >>> 1;
+				invokeAll(new ReduceTask(buffers, gradient, start, mid), new ReduceTask(buffers, gradient, mid, end));
+			}
+		}
+	}
+}
@@ -94,7 +94,7 @@ public class Lbfgs {
 	 *
 	 * @param outputSupplier the output to write to
 	 */
-	private static void saveModel(double[] params, OutputSupplier<OutputStreamWriter> outputSupplier)
+	static void saveModel(double[] params, OutputSupplier<OutputStreamWriter> outputSupplier)
 			throws IOException {
 		final OutputStreamWriter output = outputSupplier.getOutput();
 		try {
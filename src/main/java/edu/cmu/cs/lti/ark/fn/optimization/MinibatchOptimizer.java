@@ -0,0 +1,205 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static com.google.common.io.Files.newWriterSupplier;
+
+/**
+ * Minibatch stochastic optimization with AdaGrad or Adam, as a faster alternative to full-batch L-BFGS
+ * (see {@link Lbfgs}).
+ *
+ * Maximizes the sum of the examples' values (e.g. log-likelihoods), minus lambda times an L1 or L2 penalty,
+ * the same objective that {@link Lbfgs} minimizes the negation of. Each step computes the gradient of one
+ * minibatch of examples in parallel on a {@link GradientService}, and applies the penalty (scaled down to the
+ * minibatch's share of the data) as a proximal step.
+ *
+ * Updates are sparse: coordinates whose minibatch gradient is zero only get the (cheap) proximal step of the
+ * penalty, and their moments are left alone. For AdaGrad this is the same as a full update, since a zero gradient
+ * doesn't change the sum of squares. For Adam, it means that the moments of untouched coordinates aren't decayed
+ * (as in "lazy Adam"). Coordinates that have never had a nonzero gradient aren't regularized.
+ * The penalty isn't deferred any further than that, because the minibatch gradient is reduced into a dense array
+ * anyway (so every step already visits every coordinate), and deferring it would mean computing the next
+ * gradients with parameters that haven't been shrunk yet.
+ *
+ * After every epoch, the parameters are saved to modelFilePrefix_NNNNN (numbered by epoch, like the L-BFGS
+ * checkpoints), and, if a held-out score is given, evaluated. At the end, the parameters with the best held-out
+ * score (or the last parameters) are saved to modelFilePrefix itself.
+ */
+public class MinibatchOptimizer {
+	private static final Logger logger = Logger.getLogger(MinibatchOptimizer.class.getCanonicalName());
+
+	public enum Method {
+		ADAGRAD(0.1), ADAM(0.01);
+
+		public final double defaultLearningRate;
+
+		Method(double defaultLearningRate) {
+			this.defaultLearningRate = defaultLearningRate;
+		}
+	}
+
+	public enum Regularization { NONE, L1, L2 }
+
+	private static final double EPSILON = 1e-8;
+	private static final double BETA1 = 0.9;
+	private static final double BETA2 = 0.999;
+
+	private final Method method;
+	private final double learningRate;
+	private final int batchSize;
+	private final int numEpochs;
+	private final Regularization regularization;
+	private final double lambda;
+	private final Random random;
+
+	public MinibatchOptimizer(Method method,
+							  double learningRate,
+							  int batchSize,
+							  int numEpochs,
+							  Regularization regularization,
+							  double lambda,
+							  long seed) {
+		this.method = method;
+		this.learningRate = learningRate;
+		this.batchSize = batchSize;
+		this.numEpochs = numEpochs;
+		this.regularization = regularization;
+		this.lambda = lambda;
+		this.random = new Random(seed);
+	}
+
+	/** Parses the "regularization" option, as used by the batch trainers ("l1", "l2", or anything else for none) */
+	public static Regularization parseRegularization(String reg) {
+		if (reg.equalsIgnoreCase("l1")) return Regularization.L1;
+		if (reg.equalsIgnoreCase("l2")) return Regularization.L2;
+		return Regularization.NONE;
+	}
+
+	/**
+	 * Trains params in place.
+	 *
+	 * @param params the starting parameters. updated in place
+	 * @param numExamples the number of examples
+	 * @param example adds the gradient of each example's value to its gradient argument, and returns the value.
+	 *                reads the current parameters from params
+	 * @param gradientService computes minibatch gradients. must have the same dimension as params
+	 * @param heldOutScore scores the parameters on held-out data (higher is better)
+	 * @param modelFilePrefix where to save checkpoints and the final model
+	 * @return params
+	 */
+	public double[] train(double[] params,
+						  int numExamples,
+						  final GradientService.Example example,
+						  GradientService gradientService,
+						  Optional<Function<double[], Double>> heldOutScore,
+						  String modelFilePrefix) throws IOException {
+		final int dimension = params.length;
+		final double[] gradient = new double[dimension];
+		// AdaGrad: sum of squared gradients. Adam: first and second moments
+		final double[] firstMoments = method == Method.ADAM ? new double[dimension] : null;
+		final double[] secondMoments = new double[dimension];
+		final int[] order = new int[numExamples];
+		for (int i = 0; i < numExamples; i++) order[i] = i;
+
+		Optional<double[]> bestParams = Optional.absent();
+		double bestScore = Double.NEGATIVE_INFINITY;
+		int step = 0;
+		for (int epoch = 1; epoch <= numEpochs; epoch++) {
+			final long startTime = System.currentTimeMillis();
+			shuffle(order);
+			double value = 0.0;
+			for (int start = 0; start < numExamples; start += batchSize) {
+				final int batchStart = start;
+				final int batchLength = Math.min(batchSize, numExamples - start);
+				// the minibatch's share of the penalty
+				final double penalty = lambda * batchLength / numExamples;
+				value += gradientService.compute(batchLength, new GradientService.Example() {
+					@Override public double addGradient(int index, double[] buffer) throws Exception {
+						return example.addGradient(order[batchStart + index], buffer);
+					}
+				}, gradient);
+				step++;
+				final double firstCorrection = 1.0 - Math.pow(BETA1, step);
+				final double secondCorrection = 1.0 - Math.pow(BETA2, step);
+				for (int i = 0; i < dimension; i++) {
+					// we're minimizing, so the loss gradient is the negation
+					final double g = -gradient[i];
+					if (g == 0.0) {
+						params[i] = regularize(params[i], stepSize(secondMoments[i], secondCorrection) * penalty);
+						continue;
+					}
+					final double direction;
+					if (method == Method.ADAM) {
+						firstMoments[i] = BETA1 * firstMoments[i] + (1.0 - BETA1) * g;
+						secondMoments[i] = BETA2 * secondMoments[i] + (1.0 - BETA2) * g * g;
+						direction = firstMoments[i] / firstCorrection;
+					} else {
+						secondMoments[i] += g * g;
+						direction = g;
+					}
+					final double stepSize = stepSize(secondMoments[i], secondCorrection);
+					params[i] = regularize(params[i] - stepSize * direction, stepSize * penalty);
+				}
+			}
+			final long endTime = System.currentTimeMillis();
+			logger.info(String.format("Finished epoch %d. Sum of values: %f. Took %s seconds.",
+					epoch, value, (endTime - startTime) / 1000.0));
+			Lbfgs.saveModel(params, newWriterSupplier(new File(String.format("%s_%05d", modelFilePrefix, epoch)),
+					Charsets.UTF_8));
+			if (heldOutScore.isPresent()) {
+				final double score = heldOutScore.get().apply(params);
+				logger.info(String.format("Epoch %d held-out score: %f", epoch, score));
+				if (score > bestScore) {
+					bestScore = score;
+					bestParams = Optional.of(params.clone());
+				}
+			}
+		}
+		Lbfgs.saveModel(bestParams.or(params), newWriterSupplier(new File(modelFilePrefix), Charsets.UTF_8));
+		return params;
+	}
+
+	/** The per-coordinate learning rate, or 0 if the coordinate has never had a nonzero gradient */
+	private double stepSize(double secondMoment, double secondCorrection) {
+		if (secondMoment == 0.0) return 0.0;
+		final double scale = method == Method.ADAM ? secondMoment / secondCorrection : secondMoment;
+		return learningRate / (Math.sqrt(scale) + EPSILON);
+	}
+
+	/** Applies a proximal step of the penalty, of the given strength, to param */
+	private double regularize(double param, double strength) {
+		if (strength == 0.0 || param == 0.0) return param;
+		switch (regularization) {
+			case L1:
+				final double shrunk = Math.abs(param) - strength;
+				return shrunk <= 0.0 ? 0.0 : Math.copySign(shrunk, param);
+			case L2:
+				return param / (1.0 + 2.0 * strength);
+			default:
+				return param;
+		}
+	}
+
+	/** Fisher-Yates */
+	private void shuffle(int[] order) {
+		for (int i = order.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (learning rate %s, batch size %d, %d epochs, %s regularization, lambda %s)",
+				method, learningRate, batchSize, numEpochs, regularization, lambda);
+	}
+}
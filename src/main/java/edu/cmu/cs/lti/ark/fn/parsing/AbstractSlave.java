@@ -0,0 +1,121 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import edu.cmu.cs.lti.ark.fn.utils.BitOps;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+
+import java.util.Arrays;
+
+/**
+ * State and helpers shared by the slaves in {@link DDDecoding}.
+ * All of the scratch space a slave needs is allocated once, when it's created, so z-updates don't allocate.
+ */
+public abstract class AbstractSlave implements Slave {
+	/** the variables of this slave, in the order the factor treats them */
+	protected final int[] mIndices;
+	/** for each variable in mIndices, where its z and lambda are stored, relative to the slave's offset */
+	protected final int[] mPositions;
+	private final int[] parts;
+	/** scratch space */
+	protected final double[] as;
+	protected final double[] updZs;
+	private final double[] sorted;
+	private final double[] sums;
+	/** the last as that we projected, and the result */
+	private final double[] oldAs;
+	private final double[] oldZs;
+	private boolean hasCache = false;
+
+	protected AbstractSlave(int[] indices) {
+		mIndices = indices;
+		parts = Arrays.copyOf(indices, indices.length);
+		Arrays.sort(parts);
+		mPositions = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			mPositions[i] = Arrays.binarySearch(parts, indices[i]);
+		}
+		as = new double[indices.length];
+		updZs = new double[indices.length];
+		sorted = new double[indices.length];
+		sums = new double[indices.length];
+		oldAs = new double[indices.length];
+		oldZs = new double[indices.length];
+	}
+
+	@Override
+	public int[] getParts() {
+		return parts;
+	}
+
+	@Override
+	public double computeDual(double[] thetas, double rho, double[] us, double[] lambdas, double[] zs, int offset) {
+		double value = 0.0;
+		for (int i = 0; i < mIndices.length; i++) {
+			final int index = mIndices[i];
+			final int position = offset + mPositions[i];
+			value += zs[position] * (thetas[index] + lambdas[position]);
+			value -= lambdas[position] * us[index];
+			value -= (zs[position] - us[index]) * (zs[position] - us[index]) * rho / 2.0;
+		}
+		return value;
+	}
+
+	/** Sets as to us + (thetas + lambdas) / rho */
+	protected void computeAs(double[] thetas, double rho, double[] us, double[] lambdas, int offset) {
+		for (int i = 0; i < mIndices.length; i++) {
+			as[i] = us[mIndices[i]] + (1.0 / rho) * (thetas[mIndices[i]] + lambdas[offset + mPositions[i]]);
+		}
+	}
+
+	/**
+	 * If as is (nearly) the same as the last as we projected, writes the z's from then into zs.
+	 * @return whether the cached z's were used
+	 */
+	protected boolean useCache(double[] zs, int offset) {
+		if (!hasCache || !BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL)) return false;
+		writeZs(oldZs, zs, offset);
+		return true;
+	}
+
+	/** Remembers the current as and updZs, for {@link #useCache} */
+	protected void cache() {
+		System.arraycopy(as, 0, oldAs, 0, as.length);
+		System.arraycopy(updZs, 0, oldZs, 0, updZs.length);
+		hasCache = true;
+	}
+
+	/** Copies values (one per variable in mIndices) into zs */
+	protected void writeZs(double[] values, double[] zs, int offset) {
+		for (int i = 0; i < mIndices.length; i++) {
+			zs[offset + mPositions[i]] = values[i];
+		}
+	}
+
+	/**
+	 * Computes the threshold tau for projecting values onto the probability simplex,
+	 * i.e. the projection is max(values - tau, 0).
+	 */
+	protected double getSimplexThreshold(double[] values) {
+		final int n = values.length;
+		System.arraycopy(values, 0, sorted, 0, n);
+		Arrays.sort(sorted);
+		// sorted[n - 1 - i] is the i'th largest value
+		sums[0] = sorted[n - 1];
+		for (int i = 1; i < n; i++) {
+			sums[i] = sums[i-1] + sorted[n - 1 - i];
+		}
+		int tempRho = -1;
+		for (int i = 0; i < n; i++) {
+			double temp = sorted[n - 1 - i] - (1.0 / (double)(i+1)) * (sums[i] - 1.0);
+			if (temp > 0) {
+				if (i > tempRho) {
+					tempRho = i;
+				}
+			}
+		}
+		if (tempRho == -1) {
+			System.err.println("Problem. tempRho is -1");
+			System.exit(-1);
+		}
+		return (1.0 / (double)(tempRho+1)) * (sums[tempRho] - 1.0);
+	}
+}
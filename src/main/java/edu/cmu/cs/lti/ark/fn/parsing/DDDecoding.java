@@ -32,8 +32,16 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Decodes the arguments of a frame with AD^3 (or branch-and-bound over AD^3, if exact).
+ * All of the state for a decode is local to the call, so one instance can decode many frames concurrently,
+ * as long as setMaps and setFactorFile are called beforehand.
+ */
 public class DDDecoding implements JDecoding {
+	private static final Logger logger = Logger.getLogger(DDDecoding.class.getCanonicalName());
 	private Map<String, Set<Pair<String, String>>> excludesMap;
 	private Map<String, Set<Pair<String, String>>> requiresMap;
 	public static final double TAU = 1.5;
@@ -50,10 +58,45 @@ public class DDDecoding implements JDecoding {
 	public static final int STATUS_UNSOLVED = 4;
 	public static final double RESIDUAL_THRESH = 0.0000001;
 	public static final int NUM_ITERATIONS_COMPUTE_DUAL = 50;
-	public static boolean mExact = false;
+	private final boolean exact;
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		@Override protected Workspace initialValue() { return new Workspace(); }
+	};
+
+	/** Buffers for runAD3, which are reused between frames (and only grow) */
+	private static class Workspace {
+		int[] offsets = new int[1];
+		double[] zs = new double[0];
+		double[] lambdas = new double[0];
+		double[] u = new double[0];
+		double[] oldus = new double[0];
+
+		/**
+		 * Makes room for the given slaves over len variables, and zeroes the z's and lambdas.
+		 * @return the offset of each slave's z's and lambdas
+		 */
+		int[] resize(Slave[] slaves, int len) {
+			if (offsets.length < slaves.length + 1) offsets = new int[slaves.length + 1];
+			for (int s = 0; s < slaves.length; s++) {
+				offsets[s + 1] = offsets[s] + slaves[s].getParts().length;
+			}
+			final int numParts = offsets[slaves.length];
+			if (zs.length < numParts) {
+				zs = new double[numParts];
+				lambdas = new double[numParts];
+			}
+			if (u.length < len) {
+				u = new double[len];
+				oldus = new double[len];
+			}
+			Arrays.fill(zs, 0, numParts, 0.0);
+			Arrays.fill(lambdas, 0, numParts, 0.0);
+			return offsets;
+		}
+	}
 	
 	public DDDecoding(boolean exact) {
-		mExact = exact;
+		this.exact = exact;
 	}
 	
 	public void setMaps(Map<String, Set<Pair<String, String>>> excludesMap, 
@@ -66,16 +109,8 @@ public class DDDecoding implements JDecoding {
 									  String frame,
 									  boolean costAugmented,
 									  FrameFeatures goldFF) {
-		if (WRITE_FACTORS_TO_FILE) {
-			try {
-				if (bWriter == null) {
-					bWriter = new BufferedWriter(new FileWriter(mFactorFile));
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.exit(-1);
-			}
-		}
+		// this frame's factors are written all at once, so that concurrent decodes don't interleave
+		final StringBuilder factors = new StringBuilder();
 		Map<String, Pair<String, Double>> res = new THashMap<String, Pair<String, Double>>();
 		if (scoreMap.size() == 0) {
 			return res;
@@ -84,7 +119,7 @@ public class DDDecoding implements JDecoding {
 		scoreMap.keySet().toArray(keys);
 		Arrays.sort(keys);	
 		int totalCount = 0;
-		int max = -Integer.MAX_VALUE;
+		int max = -1;
 		
 		// counting the total number of z variables needed
 		// also mapping the role and span indices to a variable index
@@ -111,7 +146,7 @@ public class DDDecoding implements JDecoding {
 				count++;
 			}
 		}		
-		System.out.println("Max index:" + max);
+		logger.fine("Max index:" + max);
 		TIntHashSet[] overlapArray = new TIntHashSet[max+1];
 		for (int i = 0; i < max+1; i++) {
 			overlapArray[i] = new TIntHashSet();
@@ -133,7 +168,7 @@ public class DDDecoding implements JDecoding {
 				if (twoIndex < 0) {
 					continue;
 				}
-				System.out.println("Found two FEs with a requires relationship: " + one + "\t" + two);
+				logger.fine("Found two FEs with a requires relationship: " + one + "\t" + two);
 				
 				int nullIndex1 = -1;
 				int nullIndex2 = -1;
@@ -168,7 +203,7 @@ public class DDDecoding implements JDecoding {
 				String fe = fes.get(i);
 				int index = Arrays.binarySearch(keys, fe);
 				if (index < 0) {
-					System.out.println("Problem. Fe: " + fe + " not found in array. Exiting.");
+					logger.severe("Problem. Fe: " + fe + " not found in array. Exiting.");
 					System.exit(-1);
 				}
 				Pair<int[], Double>[] arr = scoreMap.get(keys[index]);
@@ -221,7 +256,7 @@ public class DDDecoding implements JDecoding {
 				if (twoIndex < 0) {
 					continue;
 				}
-				System.out.println("Found two mutually exclusive FEs: " + one + "\t" + two);
+				logger.fine("Found two mutually exclusive FEs: " + one + "\t" + two);
 				int nullIndex1 = -1;
 				int nullIndex2 = -1;
 				count = 0;
@@ -252,21 +287,13 @@ public class DDDecoding implements JDecoding {
 		int numExclusionSlaves = exclusionSets.size();
 		int numRequiredSlaves = requiredSets.size();
 		int slavelen = keys.length + max + 1 + numExclusionSlaves + numRequiredSlaves;
-		int[][] slaveparts = new int[slavelen][];
-		int[][] partslaves = new int[len][];
 		Arrays.fill(deltaarray, 0);
 		
 		if (WRITE_FACTORS_TO_FILE) {
-			try {
-				bWriter.write(objVals.length + "\n");
-				bWriter.write(slavelen + "\n");
-				for (int i = 0; i < objVals.length; i++) {
-					bWriter.write(objVals[i] + "\n");
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Could not write length of variables");
-				System.exit(-1);
+			factors.append(objVals.length).append("\n");
+			factors.append(slavelen).append("\n");
+			for (int i = 0; i < objVals.length; i++) {
+				factors.append(objVals[i]).append("\n");
 			}
 		}
 		
@@ -306,51 +333,33 @@ public class DDDecoding implements JDecoding {
 		// creating slaves
 		Slave[] slaves = new Slave[slavelen];
 		for (int i = 0; i < keys.length; i++) {
-			slaves[i] = new UniqueSpanSlave(thetas, 
-					   						mappedIndices[i][0], 
+			slaves[i] = new UniqueSpanSlave(mappedIndices[i][0],
 					   						mappedIndices[i][mappedIndices[i].length-1] + 1);
-			slaveparts[i] = new int[mappedIndices[i].length];
-			for (int j = 0; j < mappedIndices[i].length; j++) {
-				slaveparts[i][j] = mappedIndices[i][j];
-			}
 			if (WRITE_FACTORS_TO_FILE) {
-				try {
-					String line = "XOR ";
-					int numVars = mappedIndices[i][mappedIndices[i].length-1] + 1 - 
-								  mappedIndices[i][0];
-					line += numVars + " ";
-					for (int j = mappedIndices[i][0]; 
-							 j < mappedIndices[i][mappedIndices[i].length-1] + 1; 
-							 j++) {
-						line += (j+1) + " ";
-					}
-					line = line.trim();
-					bWriter.write(line + "\n");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("Could not XOR factors");
-					System.exit(-1);
+				String line = "XOR ";
+				int numVars = mappedIndices[i][mappedIndices[i].length-1] + 1 - 
+							  mappedIndices[i][0];
+				line += numVars + " ";
+				for (int j = mappedIndices[i][0]; 
+						 j < mappedIndices[i][mappedIndices[i].length-1] + 1; 
+						 j++) {
+					line += (j+1) + " ";
 				}
+				line = line.trim();
+				factors.append(line).append("\n");
 			}
 		}
 		
 		for (int i = keys.length; i < keys.length + max + 1; i++) {
 			int[] vars = overlapArray[i-keys.length].toArray();
-			slaves[i] = new OverlapSlave(thetas, vars);
-			slaveparts[i] = Arrays.copyOf(vars, vars.length);
+			slaves[i] = new OverlapSlave(vars);
 			if (WRITE_FACTORS_TO_FILE) {
-				try {
-					String line = "XOR1 " + vars.length + " ";
-					for (int var: vars) {
-						line += (var+1) + " ";
-					}
-					line = line.trim();
-					bWriter.write(line + "\n");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("Could not write overlap factors");
-					System.exit(-1);
+				String line = "XOR1 " + vars.length + " ";
+				for (int var: vars) {
+					line += (var+1) + " ";
 				}
+				line = line.trim();
+				factors.append(line).append("\n");
 			}
 		}
 		
@@ -358,21 +367,14 @@ public class DDDecoding implements JDecoding {
 				 i < keys.length + max + 1 + numExclusionSlaves; 
 				 i++) {
 			int[] vars = exclusionSets.get(i - (keys.length + max + 1));
-			slaves[i] = new ExclusionSlave(thetas, vars);
-			slaveparts[i] = Arrays.copyOf(vars, vars.length);
+			slaves[i] = new ExclusionSlave(vars);
 			if (WRITE_FACTORS_TO_FILE) {
-				try {
-					String line = "OR " + vars.length + " ";
-					for (int var: vars) {
-						line += (var+1) + " ";
-					}
-					line = line.trim();
-					bWriter.write(line + "\n");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("Could not write exclusion set factors");
-					System.exit(-1);
+				String line = "OR " + vars.length + " ";
+				for (int var: vars) {
+					line += (var+1) + " ";
 				}
+				line = line.trim();
+				factors.append(line).append("\n");
 			}
 		}		
 		
@@ -380,52 +382,27 @@ public class DDDecoding implements JDecoding {
 			     i < keys.length + max + 1 + numExclusionSlaves + numRequiredSlaves;
 			     i++) {
 			int[] vars = requiredSets.get(i - (keys.length + max + 1 + numExclusionSlaves));
-			slaves[i] = new RequiredSlave(thetas, vars);
-			slaveparts[i] = Arrays.copyOf(vars, vars.length);
+			slaves[i] = new RequiredSlave(vars);
 			if (WRITE_FACTORS_TO_FILE) {
-				try {
-					String line = "XOR " + vars.length + " ";
-					if (vars.length != 2) {
-						System.out.println("Problem. Required set's size is more than 2. Exiting");
-						System.exit(-1);
-					}
-					line += (vars[0]+1) + " -" + (vars[1]+1);
-					line = line.trim();
-					bWriter.write(line + "\n");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("Could not write required factors");
+				String line = "XOR " + vars.length + " ";
+				if (vars.length != 2) {
+					logger.severe("Problem. Required set's size is more than 2. Exiting");
 					System.exit(-1);
 				}
+				line += (vars[0]+1) + " -" + (vars[1]+1);
+				line = line.trim();
+				factors.append(line).append("\n");
 			}
 		}
 		
 		if (WRITE_FACTORS_TO_FILE) {
-			try {
-				bWriter.write("\n");
-			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Could not write required factors");
-				System.exit(-1);
-			}
-		}
-		
-		for (int s = 0; s < slaveparts.length; s++) {
-			Arrays.sort(slaveparts[s]);
+			factors.append("\n");
+			writeFactors(factors);
 		}
 		
 		double totalDelta = 0.0;
-		TIntHashSet[] partslavessets = new TIntHashSet[len];
 		for (int i = 0; i < len; i++) {
 			totalDelta += deltaarray[i];
-			partslavessets[i] = new TIntHashSet();			
-			for (int s = 0; s < slavelen; s++) {
-				if (Arrays.binarySearch(slaveparts[s], i) >= 0) {
-					partslavessets[i].add(s);
-				}
-			}
-			partslaves[i] = partslavessets[i].toArray();
-			Arrays.sort(partslaves[i]);
 		}		
 		double[] u = new double[len];
 		Arrays.fill(u, 0.5);
@@ -435,9 +412,9 @@ public class DDDecoding implements JDecoding {
 		double[] upperBound0 = new double[1];
 		double[] value0 = new double[1];
 		
-		if (!mExact) {
+		if (!exact) {
 			runAD3(len, slavelen, u, slaves, totalDelta, 
-			   slaveparts, partslaves, deltaarray, TOTAL_AD3_ITERATIONS,
+			   deltaarray, TOTAL_AD3_ITERATIONS,
 			   objVals,
 			   thetas,
 			   lowerBound0,
@@ -445,7 +422,7 @@ public class DDDecoding implements JDecoding {
 			   upperBound0);
 		} else {			
 			runAD3ILP(len, slavelen, u, slaves, totalDelta, 
-				   slaveparts, partslaves, deltaarray, TOTAL_AD3_ITERATIONS,
+				   deltaarray, TOTAL_AD3_ITERATIONS,
 				   objVals, thetas,
 				   upperBound0,
 				   value0,
@@ -478,13 +455,25 @@ public class DDDecoding implements JDecoding {
 				res.put(keys[i], p);
 			}  			
 		}
-		System.out.println("Solution value: " + totalScore);
+		logger.fine("Solution value: " + totalScore);
 		return res;
 	}
+
+	/** Appends one frame's factors to the factor file, opening it if necessary */
+	private synchronized void writeFactors(CharSequence factors) {
+		try {
+			if (bWriter == null) {
+				bWriter = new BufferedWriter(new FileWriter(mFactorFile));
+			}
+			bWriter.append(factors);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not write factors", e);
+			System.exit(-1);
+		}
+	}
 	
 	public int runAD3ILP(int len, int slavelen, double[] mU,
 			  Slave[] slaves, double totalDelta,
-			  int[][] slaveparts, int[][] partslaves,
 			  int[] deltaarray,
 			  int niters,
 			  double[] objVals,
@@ -496,17 +485,16 @@ public class DDDecoding implements JDecoding {
 		bestLowerBound0[0] = lowerBound;
 		boolean[] branchedVariables = new boolean[mU.length];
 		Arrays.fill(branchedVariables, false);
-		int status = runBranchAndBound(len, slavelen, mU, slaves, totalDelta, slaveparts,
-				                       partslaves, deltaarray, niters, objVals, thetas,
+		int status = runBranchAndBound(len, slavelen, mU, slaves, totalDelta,
+				                       deltaarray, niters, objVals, thetas,
 				                       upperBound0, value0, bestLowerBound0, branchedVariables,
 				                       0.0);
-		System.out.println("Solution value of AD3 ILP: " + value0[0]);
+		logger.fine("Solution value of AD3 ILP: " + value0[0]);
 		return status;
 	}
 	
 	public int runBranchAndBound(int len, int slavelen, double[] mU,
 			  					 Slave[] slaves, double totalDelta,
-			                     int[][] slaveparts, int[][] partslaves,
 			                     int[] deltaarray,
 			                     int niters,
 			                     double[] objVals,
@@ -518,7 +506,7 @@ public class DDDecoding implements JDecoding {
 			                     double cumulativeValue) {
 		bestLowerBound0[0] += cumulativeValue;
 		// solve the LP relaxation
-		int status = runAD3(len, slavelen, mU, slaves, totalDelta, slaveparts, partslaves,
+		int status = runAD3(len, slavelen, mU, slaves, totalDelta,
 							deltaarray, niters, objVals, thetas, bestLowerBound0, value0,
 							bestUpperBound0);
 		value0[0] -= cumulativeValue;
@@ -547,12 +535,12 @@ public class DDDecoding implements JDecoding {
 			}
 		}
 		if (variableToBranch < 0) {
-			System.out.println("Branched all variables.");
+			logger.fine("Branched all variables.");
 			return STATUS_UNSOLVED;
 		}
 		branchedVariables[variableToBranch] = true;
-		System.out.println("Branching on variable " + variableToBranch);
-		System.out.println("Value: " + mU[variableToBranch]);
+		logger.fine("Branching on variable " + variableToBranch);
+		logger.fine("Value: " + mU[variableToBranch]);
 		
 		double infinitePotential = 1000.0 * deltaarray[variableToBranch];
 		double originalPotential = objVals[variableToBranch];
@@ -562,8 +550,8 @@ public class DDDecoding implements JDecoding {
 		double[] value00 = new double[1];
 		double[] posteriors0 = new double[mU.length];
 		// zero branch
-		int status0 = runBranchAndBound(len, slavelen, posteriors0, slaves, totalDelta, slaveparts,
-				          partslaves, deltaarray, niters, objVals, thetas,
+		int status0 = runBranchAndBound(len, slavelen, posteriors0, slaves, totalDelta,
+				          deltaarray, niters, objVals, thetas,
 				          bestUpperBound0, value00, bestLowerBound0, branchedVariables,
 				          cumulativeValue);
 		objVals[variableToBranch] = originalPotential;
@@ -577,8 +565,8 @@ public class DDDecoding implements JDecoding {
 		double[] value01 = new double[1];
 		objVals[variableToBranch] += infinitePotential;
 		thetas[variableToBranch] += 1000.0;
-		int status1 = runBranchAndBound(len, slavelen, posteriors1, slaves, totalDelta, slaveparts,
-									partslaves, deltaarray, niters, objVals, thetas,
+		int status1 = runBranchAndBound(len, slavelen, posteriors1, slaves, totalDelta,
+									deltaarray, niters, objVals, thetas,
 									bestUpperBound0, value01, bestLowerBound0, branchedVariables,
 									cumulativeValue + infinitePotential);
 		objVals[variableToBranch] = originalPotential;
@@ -611,7 +599,6 @@ public class DDDecoding implements JDecoding {
 	
 	public int runAD3(int len, int slavelen, double[] mU,
 						  Slave[] slaves, double totalDelta,
-						  int[][] slaveparts, int[][] partslaves,
 						  int[] deltaarray,
 						  int niters,
 						  double[] objVals,
@@ -624,16 +611,14 @@ public class DDDecoding implements JDecoding {
 		double dualObjBest = Double.MAX_VALUE;
 		double primalRelObjBest = -Double.MAX_VALUE;
 				
-		double[][] zs = new double[slavelen][len];
-		double[][] lambdas = new double[slavelen][len];
-		double[] u = new double[len];
-		Arrays.fill(u, 0.5);
-		for (int i = 0; i < slavelen; i++) {
-			lambdas[i] = new double[len];
-			Arrays.fill(lambdas[i], 0.0);
-			zs[i] = new double[len];
-			Arrays.fill(zs[i], 0.0);
-		}			
+		// each slave's z's and lambdas are stored contiguously, starting at offsets[s]
+		final Workspace workspace = workspaces.get();
+		final int[] offsets = workspace.resize(slaves, len);
+		final double[] zs = workspace.zs;
+		final double[] lambdas = workspace.lambdas;
+		final double[] u = workspace.u;
+		final double[] oldus = workspace.oldus;
+		Arrays.fill(u, 0, len, 0.5);
 		double rho = RHO_START;
 		for (int itr = 0; itr < niters; itr++) {
 			// System.out.println("Rho: " + rho);
@@ -641,33 +626,30 @@ public class DDDecoding implements JDecoding {
 			// System.out.println("Eta: " + eta);
 			// making z-update
 			for (int s = 0; s < slavelen; s++) {
-				zs[s] = slaves[s].makeZUpdate(thetas, rho, u, lambdas[s], zs[s]);
-			}
-			// making u update
-			double[] oldus = Arrays.copyOf(u, u.length);
-			for (int i = 0; i < len; i++) {
-				double sum = 0.0;
-				for (int j = 0; j < partslaves[i].length; j++) {
-					int s = partslaves[i][j];
-					sum += zs[s][i];
-				}
-				u[i] = sum / deltaarray[i];
+				slaves[s].makeZUpdate(thetas, rho, u, lambdas, zs, offsets[s]);
 			}
-			
-			// making lambda update
+			// making u update: each u is the average of its slaves' z's
+			// (summed in order of slave, as before)
+			System.arraycopy(u, 0, oldus, 0, len);
+			Arrays.fill(u, 0, len, 0.0);
 			for (int s = 0; s < slavelen; s++) {
-				for (int r = 0; r < slaveparts[s].length; r++) {
-					int i = slaveparts[s][r];
-					lambdas[s][i] = lambdas[s][i] - eta * (zs[s][i] - u[i]);
+				final int[] parts = slaves[s].getParts();
+				for (int p = 0; p < parts.length; p++) {
+					u[parts[p]] += zs[offsets[s] + p];
 				}
 			}
+			for (int i = 0; i < len; i++) {
+				u[i] = u[i] / deltaarray[i];
+			}
 			
-			// computing the primal residual
+			// making lambda update, and computing the primal residual
 			double pr = 0.0;
 			for (int s = 0; s < slavelen; s++) {
-				for (int p = 0; p < slaveparts[s].length; p++) {
-					pr += (zs[s][slaveparts[s][p]] - u[slaveparts[s][p]]) *
-						   (zs[s][slaveparts[s][p]] - u[slaveparts[s][p]]);
+				final int[] parts = slaves[s].getParts();
+				for (int p = 0; p < parts.length; p++) {
+					final double diff = zs[offsets[s] + p] - u[parts[p]];
+					lambdas[offsets[s] + p] = lambdas[offsets[s] + p] - eta * diff;
+					pr += diff * diff;
 				}
 			}
 			pr /= totalDelta;
@@ -721,7 +703,7 @@ public class DDDecoding implements JDecoding {
 		    if (computeDual) {
 		    	dualObjective = 0.0;
 		    	for (int j = 0; j < slaves.length; ++j) {
-		    		dualObjective += slaves[j].computeDual(thetas, rho, u, lambdas[j], zs[j]);
+		    		dualObjective += slaves[j].computeDual(thetas, rho, u, lambdas, zs, offsets[j]);
 		      }
 		    }			
 			
@@ -729,7 +711,7 @@ public class DDDecoding implements JDecoding {
 		    double primalRelObjective = -Double.MAX_VALUE;
 		    if (computePrimalRel) {
 		    	primalRelObjective = 0.0;
-		    	for (int j = 0; j < u.length; j++) {
+		    	for (int j = 0; j < len; j++) {
 		    		primalRelObjective += u[j] * objVals[j];
 		    	}
 		    	// no higher order potentials, hence summing up only over unary factors
@@ -737,7 +719,7 @@ public class DDDecoding implements JDecoding {
 		    
 		    if (dualObjBest > dualObjective) {
 		    	dualObjBest = dualObjective;
-		    	for (int j = 0; j < u.length; j++) {
+		    	for (int j = 0; j < len; j++) {
 		    		mU[j] = u[j];
 		    	}
 		    	if (dualObjBest < lowerBound0[0]) {
@@ -751,8 +733,8 @@ public class DDDecoding implements JDecoding {
 		    }		    
 		    
 			if (pr < RESIDUAL_THRESH && dr < RESIDUAL_THRESH) {
-				System.out.println("Optimization converged: " + pr + " " + dr);
-				for (int j = 0; j < u.length; j++) {
+				logger.fine("Optimization converged: " + pr + " " + dr);
+				for (int j = 0; j < len; j++) {
 		    		mU[j] = u[j];
 		    	}
 				optimal = true;
@@ -761,7 +743,7 @@ public class DDDecoding implements JDecoding {
 		}
 		boolean fractional = false;
 		value0[0] = 0.0;
-		for (int i = 0; i < u.length; i++) {
+		for (int i = 0; i < len; i++) {
 			if (!BitOps.nearlyBinary(u[i], FNModelOptions.TOL)) fractional = true;
 			value0[0] += u[i] * objVals[i]; 
 		}
@@ -769,32 +751,30 @@ public class DDDecoding implements JDecoding {
 		
 		if (optimal) {
 		    if (!fractional) {
-		      System.out.println("Solution is integer.");
+		      logger.fine("Solution is integer.");
 		      return STATUS_OPTIMAL_INTEGER;
 		    } else {
-		      System.out.println("Solution is fractional.");
+		      logger.fine("Solution is fractional.");
 		      return STATUS_OPTIMAL_FRACTIONAL;
 		    }
 		  } else {
 		    if (reachedLowerBound) {
-		      System.out.println("Reached lower bound: " + lowerBound0[0]);
+		      logger.fine("Reached lower bound: " + lowerBound0[0]);
 		      return STATUS_INFEASIBLE;
 		    } else {
-		      System.out.println("Solution is only approximate.");
+		      logger.fine("Solution is only approximate.");
 		      return STATUS_UNSOLVED;
 		    }
 		  }		
 	}
 	
 	@Override
-	public void end() {
-		// TODO Auto-generated method stub
+	public synchronized void end() {
 		if (bWriter != null) {
 			try { 
 				bWriter.close();
 			} catch (IOException e) {
-				e.printStackTrace();
-				System.out.println("Could not close file.");
+				logger.log(Level.SEVERE, "Could not close file.", e);
 				System.exit(-1);
 			}
 		}
@@ -97,8 +97,24 @@ public class DataPrep {
 
 	/** Finds a set of candidate spans based on a dependency parse */
 	public static List<SpanAndParseIdx> findSpans(DataPointWithFrameElements dataPoint, int kBestParses) {
-		final DependencyParses parses = dataPoint.getParses();
-		final DependencyParse bestParse = parses.getBestParse();
+		final DependencyParse bestParse = dataPoint.getParses().getBestParse();
+		return findSpans(bestParse, dataPoint.getOvertFrameElementFillerSpans(), kBestParses > 1 ? dataPoint : null);
+	}
+
+	/**
+	 * Finds the candidate spans of a sentence with no overt frame elements, based on its best parse.
+	 * They're the same for every target in the sentence, so can be found once and shared.
+	 */
+	public static List<SpanAndParseIdx> findSpans(DependencyParse bestParse) {
+		return findSpans(bestParse, Collections.<Range0Based>emptyList(), null);
+	}
+
+	/**
+	 * @param kBestDataPoint if not null, spans from the k-best parses of this data point are added too
+	 */
+	private static List<SpanAndParseIdx> findSpans(DependencyParse bestParse,
+												   List<Range0Based> overtSpans,
+												   DataPointWithFrameElements kBestDataPoint) {
 		final DependencyParse[] nodes = bestParse.getIndexSortedListOfNodes();
 		// nodes includes a dummy head node
 		final int length = nodes.length - 1;
@@ -113,11 +129,11 @@ public class DataPrep {
 				heads[j][k] = -1;
 			}
 		}
-		for(Range0Based span : dataPoint.getOvertFrameElementFillerSpans()) {
+		for(Range0Based span : overtSpans) {
 			spanMatrix[span.start][span.end] = true;
 		}
-		if(kBestParses > 1) {
-			addKBestParses(dataPoint, depParses);
+		if(kBestDataPoint != null) {
+			addKBestParses(kBestDataPoint, depParses);
 		}
 		addConstituents(spanMatrix, heads, nodes);
 		final ArrayList<SpanAndParseIdx> spanList = Lists.newArrayList();
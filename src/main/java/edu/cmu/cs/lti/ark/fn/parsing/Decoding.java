@@ -26,6 +26,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.*;
 import edu.cmu.cs.lti.ark.util.FileUtil;
 import edu.cmu.cs.lti.ark.util.ds.Scored;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
 import org.pcollections.HashTreePMap;
 import org.pcollections.PMap;
 
@@ -41,10 +42,10 @@ import static java.lang.Math.min;
  * Predict spans for roles using beam search.
  */
 public class Decoding {
-	private static final int DEFAULT_BEAM_WIDTH = 100;
+	protected static final int DEFAULT_BEAM_WIDTH = 100;
 	private static final Joiner TAB_JOINER = Joiner.on("\t");
 
-	protected double[] modelWeights;
+	protected final WeightVector modelWeights;
 
 	/** 0-indexed. Both ends inclusive. Null span is represented as [-1,-1]. */
 	public static class Span implements Comparable<Span> {
@@ -137,14 +138,23 @@ public class Decoding {
 	public static class CandidatesForRole extends TreeSet<Scored<Span>> { }
 
 	public Decoding(double[] modelWeights) {
+		this(WeightVector.of(modelWeights));
+	}
+
+	public Decoding(WeightVector modelWeights) {
 		this.modelWeights = modelWeights;
 	}
 
+	/** The weight of each argument id feature, by its index in the alphabet */
+	public WeightVector getModelWeights() {
+		return modelWeights;
+	}
+
 	public static Decoding fromFile(String modelFile, String alphabetFile) {
 		return new Decoding(readModel(modelFile, alphabetFile));
 	}
 
-	protected static double[] readModel(String modelFile, String alphabetFile) {
+	public static double[] readModel(String modelFile, String alphabetFile) {
 		final Scanner localsc = FileUtil.openInFile(alphabetFile);
 		final int numLocalFeatures;
 		try {
@@ -205,6 +215,15 @@ public class Decoding {
 		return weightSum;
 	}
 
+	/** Same as {@link #getWeightSum(int[], double[])}, for weights that might not be on the heap */
+	public static double getWeightSum(int[] feats, WeightVector weights) {
+		double weightSum = weights.get(0);
+		for (int feat : feats) {
+			if (feat != 0) weightSum += weights.get(feat);
+		}
+		return weightSum;
+	}
+
 	/** Adds 'offset' to the sentence field and discards the 1st two fields. */
 	protected String getInitialDecisionLine(String frameLine, int offset) {
 		String[] frameTokens = frameLine.split("\t");
@@ -27,7 +27,9 @@ import edu.cmu.cs.lti.ark.util.SerializedObjects;
 import gnu.trove.THashSet;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A map from frames to their frame elements
@@ -84,6 +86,11 @@ public class FEDict {
 		} catch (Exception e) { throw new LoadingException(e); }
 	}
 
+	/** The frames that have frame elements */
+	public Set<String> getFrames() {
+		return Collections.unmodifiableSet(frameElementsForFrame.keySet());
+	}
+
 	/**
 	 * Get the frame elements for the given frame
 	 * @param frame the frame to look up
@@ -0,0 +1,122 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An AD^3 problem, as recorded by {@link DDDecoding#setFactorFile}: the number of variables, the number of factors,
+ * one potential per variable, then one factor per line ("XOR", "XOR1", "OR", or "XOR" with a negated last variable,
+ * followed by the number of variables and their 1-based indexes), then a blank line.
+ */
+public class FactorGraph {
+	private static final int UNIQUE_SPAN = 0;
+	private static final int OVERLAP = 1;
+	private static final int EXCLUSION = 2;
+	private static final int REQUIRED = 3;
+
+	public final double[] objVals;
+	private final int[] types;
+	private final int[][] vars;
+
+	private FactorGraph(double[] objVals, int[] types, int[][] vars) {
+		this.objVals = objVals;
+		this.types = types;
+		this.vars = vars;
+	}
+
+	/** Reads all of the factor graphs in a factor file */
+	public static List<FactorGraph> readAll(BufferedReader reader) throws IOException {
+		final List<FactorGraph> graphs = Lists.newArrayList();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().isEmpty()) continue;
+			final int numVars = Integer.parseInt(line.trim());
+			final int numFactors = Integer.parseInt(reader.readLine().trim());
+			final double[] objVals = new double[numVars];
+			for (int i = 0; i < numVars; i++) objVals[i] = Double.parseDouble(reader.readLine().trim());
+			final int[] types = new int[numFactors];
+			final int[][] vars = new int[numFactors][];
+			for (int f = 0; f < numFactors; f++) {
+				final String[] fields = reader.readLine().trim().split(" ");
+				final int n = Integer.parseInt(fields[1]);
+				vars[f] = new int[n];
+				boolean negated = false;
+				for (int i = 0; i < n; i++) {
+					final int var = Integer.parseInt(fields[2 + i]);
+					negated |= var < 0;
+					vars[f][i] = Math.abs(var) - 1;
+				}
+				if (fields[0].equals("XOR1")) {
+					types[f] = OVERLAP;
+				} else if (fields[0].equals("OR")) {
+					types[f] = EXCLUSION;
+				} else {
+					types[f] = negated ? REQUIRED : UNIQUE_SPAN;
+				}
+			}
+			graphs.add(new FactorGraph(objVals, types, vars));
+		}
+		return graphs;
+	}
+
+	/** New slaves for this graph (slaves cache their last update, so they can't be shared between runs) */
+	public Slave[] newSlaves() {
+		final Slave[] slaves = new Slave[types.length];
+		for (int f = 0; f < types.length; f++) {
+			switch (types[f]) {
+				case UNIQUE_SPAN: slaves[f] = new UniqueSpanSlave(vars[f][0], vars[f][vars[f].length - 1] + 1); break;
+				case OVERLAP: slaves[f] = new OverlapSlave(vars[f]); break;
+				case EXCLUSION: slaves[f] = new ExclusionSlave(vars[f]); break;
+				default: slaves[f] = new RequiredSlave(vars[f]);
+			}
+		}
+		return slaves;
+	}
+
+	/** The number of factors each variable is in */
+	public int[] getDeltas() {
+		final int[] deltas = new int[objVals.length];
+		for (int[] factorVars : vars) {
+			for (int var : factorVars) deltas[var]++;
+		}
+		return deltas;
+	}
+
+	/** Solves the LP relaxation with {@link DDDecoding#runAD3}, as DDDecoding.decode would */
+	public double[] solve(DDDecoding decoder) {
+		final double[] u = new double[objVals.length];
+		solve(decoder, false, u, new double[1], new double[1]);
+		return u;
+	}
+
+	/**
+	 * Solves this graph as DDDecoding.decode would: the LP relaxation with {@link DDDecoding#runAD3}, or, if exact,
+	 * the ILP with {@link DDDecoding#runAD3ILP}.
+	 * @param u set to the solution
+	 * @param value0 set to the solution's objective
+	 * @param upperBound0 set to the best dual objective (or, if exact, the objective of the best integer solution)
+	 * @return the solver's status, e.g. {@link DDDecoding#STATUS_OPTIMAL_INTEGER}
+	 */
+	public int solve(DDDecoding decoder, boolean exact, double[] u, double[] value0, double[] upperBound0) {
+		final int len = objVals.length;
+		final int[] deltas = getDeltas();
+		double totalDelta = 0.0;
+		final double[] thetas = new double[len];
+		for (int i = 0; i < len; i++) {
+			totalDelta += deltas[i];
+			thetas[i] = objVals[i] / (double) deltas[i];
+		}
+		Arrays.fill(u, 0.5);
+		if (!exact) {
+			return decoder.runAD3(len, types.length, u, newSlaves(), totalDelta, deltas,
+					DDDecoding.TOTAL_AD3_ITERATIONS, objVals, thetas, new double[] {-Double.MAX_VALUE}, value0,
+					upperBound0);
+		}
+		return decoder.runAD3ILP(len, types.length, u, newSlaves(), totalDelta, deltas,
+				DDDecoding.TOTAL_AD3_ITERATIONS, objVals, thetas, upperBound0, value0, -Double.MAX_VALUE);
+	}
+}
@@ -0,0 +1,308 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import edu.cmu.cs.lti.ark.util.ds.Scored;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static edu.cmu.cs.lti.ark.util.ds.Scored.scored;
+
+/**
+ * The same beam search as {@link Decoding#getPredictions}, without allocating for each expansion.
+ *
+ * Roles and candidate spans are represented by int indexes, and the tokens covered by a partial assignment by a
+ * long[] bitset, so checking for overlap is O(numTokens / 64) instead of O(numRoles).
+ * Beams live in preallocated arrays (one set per thread), and only the final k-best are converted back into
+ * {@link RoleAssignments}.
+ * Each beam is a binary heap that makes exactly the same comparisons as the java.util.PriorityQueue in
+ * {@link Decoding}, so the k-best lists are identical, except that partial assignments with exactly equal scores
+ * are ordered by when they were created, rather than arbitrarily.
+ */
+public class FastDecoding extends Decoding {
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		@Override protected Workspace initialValue() { return new Workspace(); }
+	};
+
+	public FastDecoding(double[] modelWeights) {
+		super(modelWeights);
+	}
+
+	public FastDecoding(WeightVector modelWeights) {
+		super(modelWeights);
+	}
+
+	public static FastDecoding fromFile(String modelFile, String alphabetFile) {
+		return new FastDecoding(readModel(modelFile, alphabetFile));
+	}
+
+	@Override
+	public List<Scored<RoleAssignments>> getPredictions(FrameFeatures frameFeatures, int kBestOutput) {
+		final Workspace workspace = workspaces.get();
+		final List<String> roleNames = scoreCandidates(frameFeatures, workspace);
+		final int numRoles = roleNames.size();
+		Beam currentBeam = workspace.currentBeam;
+		Beam newBeam = workspace.newBeam;
+		currentBeam.clear();
+		currentBeam.add(currentBeam.newEntry(0.0));
+		for (int role = 0; role < numRoles; role++) {
+			newBeam.clear();
+			for (int candidate = workspace.candidateOffsets[role];
+				 candidate < workspace.candidateOffsets[role + 1];
+				 candidate++) {
+				final int start = workspace.starts[candidate];
+				final int end = workspace.ends[candidate];
+				final double candidateScore = workspace.scores[candidate];
+				for (int i = 0; i < currentBeam.size; i++) {
+					final int partialAssignment = currentBeam.heap[i];
+					final double newScore = currentBeam.scores[partialAssignment] + candidateScore;
+					if (newBeam.size >= DEFAULT_BEAM_WIDTH && newScore <= newBeam.peekScore()) break;
+					if (!currentBeam.overlaps(partialAssignment, start, end)) {
+						final int newAssignment = newBeam.newEntry(newScore);
+						newBeam.extend(newAssignment, currentBeam, partialAssignment, role, candidate, start, end);
+						newBeam.add(newAssignment);
+					}
+					if (newBeam.size > DEFAULT_BEAM_WIDTH) newBeam.poll();
+				}
+			}
+			final Beam swap = currentBeam;
+			currentBeam = newBeam;
+			newBeam = swap;
+		}
+		// PriorityQueue's iteration order is the order of its heap array
+		final List<Scored<RoleAssignments>> results = Lists.newArrayList();
+		for (int i = 0; i < Math.min(kBestOutput, currentBeam.size); i++) {
+			final int entry = currentBeam.heap[i];
+			RoleAssignments assignments = new RoleAssignments();
+			for (int role = 0; role < numRoles; role++) {
+				final int candidate = currentBeam.choices[entry * currentBeam.numRoles + role];
+				assignments = assignments.plus(roleNames.get(role),
+						new Span(workspace.starts[candidate], workspace.ends[candidate]));
+			}
+			results.add(scored(assignments, currentBeam.scores[entry]));
+		}
+		return results;
+	}
+
+	/**
+	 * Scores each role's candidate spans, and stores them in workspace in the same order (and with the same
+	 * duplicates removed) as the {@link CandidatesForRole} that {@link Decoding} would build.
+	 * Also sizes the beams for this frame.
+	 * @return the role names, in the order Decoding would visit them
+	 */
+	private List<String> scoreCandidates(FrameFeatures frameFeatures, Workspace workspace) {
+		final List<String> fElements = frameFeatures.fElements;
+		final List<SpanAndCorrespondingFeatures[]> featuresList = frameFeatures.fElementSpansAndFeatures;
+		// Decoding visits roles in the iteration order of a HashMap, where later duplicates win
+		final Map<String, Integer> roleIdxs = Maps.newHashMap();
+		for (int i = 0; i < featuresList.size(); i++) {
+			roleIdxs.put(fElements.get(i), i);
+		}
+		final List<String> roleNames = Lists.newArrayList(roleIdxs.keySet());
+		int numCandidates = 0;
+		int maxEnd = -1;
+		for (int i : roleIdxs.values()) {
+			for (SpanAndCorrespondingFeatures spanAndFeatures : featuresList.get(i)) {
+				numCandidates++;
+				maxEnd = Math.max(maxEnd, spanAndFeatures.span[1]);
+			}
+		}
+		workspace.ensureCapacity(roleNames.size(), numCandidates, (maxEnd >> 6) + 1);
+		int offset = 0;
+		for (int role = 0; role < roleNames.size(); role++) {
+			workspace.candidateOffsets[role] = offset;
+			final int start = offset;
+			for (SpanAndCorrespondingFeatures spanAndFeatures : featuresList.get(roleIdxs.get(roleNames.get(role)))) {
+				workspace.starts[offset] = spanAndFeatures.span[0];
+				workspace.ends[offset] = spanAndFeatures.span[1];
+				workspace.scores[offset] = getWeightSum(spanAndFeatures.features, modelWeights);
+				offset++;
+			}
+			offset = workspace.sortAndRemoveDuplicates(start, offset);
+		}
+		workspace.candidateOffsets[roleNames.size()] = offset;
+		return roleNames;
+	}
+
+	/** Candidates and beams, reused between frames */
+	private static class Workspace {
+		int[] candidateOffsets = new int[0];
+		int[] starts = new int[0];
+		int[] ends = new int[0];
+		double[] scores = new double[0];
+		final Beam currentBeam = new Beam(DEFAULT_BEAM_WIDTH + 1);
+		final Beam newBeam = new Beam(DEFAULT_BEAM_WIDTH + 1);
+
+		void ensureCapacity(int numRoles, int numCandidates, int numWords) {
+			if (candidateOffsets.length < numRoles + 1) candidateOffsets = new int[numRoles + 1];
+			if (starts.length < numCandidates) {
+				starts = new int[numCandidates];
+				ends = new int[numCandidates];
+				scores = new double[numCandidates];
+			}
+			currentBeam.resize(numRoles, numWords);
+			newBeam.resize(numRoles, numWords);
+		}
+
+		/** Same order as Scored&lt;Span&gt;: by descending score, then descending span */
+		private int compare(int a, int b) {
+			int result = Double.compare(scores[b], scores[a]);
+			if (result != 0) return result;
+			result = starts[b] < starts[a] ? -1 : (starts[b] == starts[a] ? 0 : 1);
+			if (result != 0) return result;
+			return ends[b] < ends[a] ? -1 : (ends[b] == ends[a] ? 0 : 1);
+		}
+
+		private void swap(int a, int b) {
+			final int start = starts[a]; starts[a] = starts[b]; starts[b] = start;
+			final int end = ends[a]; ends[a] = ends[b]; ends[b] = end;
+			final double score = scores[a]; scores[a] = scores[b]; scores[b] = score;
+		}
+
+		/**
+		 * Sorts the candidates in [from, to), and removes duplicates (like a TreeSet would)
+		 * @return the new end of the candidates
+		 */
+		int sortAndRemoveDuplicates(int from, int to) {
+			// insertion sort, since most roles have few candidates
+			for (int i = from + 1; i < to; i++) {
+				for (int j = i; j > from && compare(j - 1, j) > 0; j--) swap(j - 1, j);
+			}
+			if (to == from) return to;
+			int last = from;
+			for (int i = from + 1; i < to; i++) {
+				if (compare(last, i) != 0) {
+					last++;
+					starts[last] = starts[i];
+					ends[last] = ends[i];
+					scores[last] = scores[i];
+				}
+			}
+			return last + 1;
+		}
+	}
+
+	/**
+	 * A bounded heap of partial assignments, ordered like Scored&lt;RoleAssignments&gt;: highest score first.
+	 * Entries are slots in preallocated arrays. Each one has a score, the candidate chosen for each role so far,
+	 * and a bitset of the tokens that its spans cover.
+	 */
+	private static class Beam {
+		private final int capacity;
+		int numRoles = 0;
+		private int numWords = 0;
+		final double[] scores;
+		/** entries are ordered by seq when they have the same score */
+		private final long[] seqs;
+		int[] choices = new int[0];
+		private long[] covered = new long[0];
+		/** slots, in heap order */
+		final int[] heap;
+		int size = 0;
+		private final int[] freeSlots;
+		private int numFree = 0;
+		private long nextSeq = 0;
+
+		Beam(int capacity) {
+			this.capacity = capacity;
+			this.scores = new double[capacity];
+			this.seqs = new long[capacity];
+			this.heap = new int[capacity];
+			this.freeSlots = new int[capacity];
+		}
+
+		void resize(int numRoles, int numWords) {
+			this.numRoles = numRoles;
+			this.numWords = numWords;
+			if (choices.length < capacity * numRoles) choices = new int[capacity * numRoles];
+			if (covered.length < capacity * numWords) covered = new long[capacity * numWords];
+		}
+
+		void clear() {
+			size = 0;
+			numFree = capacity;
+			for (int i = 0; i < capacity; i++) freeSlots[i] = capacity - 1 - i;
+		}
+
+		/** @return a new slot, with no spans chosen */
+		int newEntry(double score) {
+			final int slot = freeSlots[--numFree];
+			scores[slot] = score;
+			seqs[slot] = nextSeq++;
+			Arrays.fill(covered, slot * numWords, (slot + 1) * numWords, 0L);
+			return slot;
+		}
+
+		/** Copies the choices of other's entry, and adds candidate as the choice for role */
+		void extend(int slot, Beam other, int otherSlot, int role, int candidate, int start, int end) {
+			System.arraycopy(other.choices, otherSlot * numRoles, choices, slot * numRoles, role);
+			choices[slot * numRoles + role] = candidate;
+			System.arraycopy(other.covered, otherSlot * numWords, covered, slot * numWords, numWords);
+			if (start < 0) return; // the null span covers nothing
+			final int base = slot * numWords;
+			for (int token = start; token <= end; token++) {
+				covered[base + (token >> 6)] |= 1L << token;
+			}
+		}
+
+		/** Determines whether the span [start, end] overlaps any of the spans in slot's entry */
+		boolean overlaps(int slot, int start, int end) {
+			if (start < 0) return false;
+			final int base = slot * numWords;
+			final int firstWord = start >> 6;
+			final int lastWord = end >> 6;
+			for (int word = firstWord; word <= lastWord; word++) {
+				long mask = -1L;
+				if (word == firstWord) mask &= -1L << start;
+				if (word == lastWord) mask &= -1L >>> (63 - (end & 63));
+				if ((covered[base + word] & mask) != 0) return true;
+			}
+			return false;
+		}
+
+		double peekScore() {
+			return scores[heap[0]];
+		}
+
+		private int compare(int a, int b) {
+			final int result = Double.compare(scores[b], scores[a]);
+			if (result != 0) return result;
+			return seqs[a] < seqs[b] ? -1 : (seqs[a] == seqs[b] ? 0 : 1);
+		}
+
+		/** Same as PriorityQueue.offer */
+		void add(int slot) {
+			int k = size++;
+			while (k > 0) {
+				final int parent = (k - 1) >>> 1;
+				if (compare(slot, heap[parent]) >= 0) break;
+				heap[k] = heap[parent];
+				k = parent;
+			}
+			heap[k] = slot;
+		}
+
+		/** Same as PriorityQueue.poll, but frees the removed slot instead of returning it */
+		void poll() {
+			final int result = heap[0];
+			final int last = heap[--size];
+			if (size > 0) {
+				int k = 0;
+				final int half = size >>> 1;
+				while (k < half) {
+					int child = 2 * k + 1;
+					final int right = child + 1;
+					if (right < size && compare(heap[child], heap[right]) > 0) child = right;
+					if (compare(last, heap[child]) <= 0) break;
+					heap[k] = heap[child];
+					k = child;
+				}
+				heap[k] = last;
+			}
+			freeSlots[numFree++] = result;
+		}
+	}
+}
@@ -25,11 +25,13 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
-import edu.cmu.cs.lti.ark.util.ds.Pair;
 import edu.cmu.cs.lti.ark.util.ds.Range0Based;
 import edu.cmu.cs.lti.ark.util.ds.Range1Based;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyTreeIndex;
+import gnu.trove.TIntArrayList;
 
+import javax.annotation.concurrent.NotThreadSafe;
 import java.util.List;
 
 import static edu.cmu.cs.lti.ark.fn.parsing.CandidateFrameElementFilters.isEmptySpan;
@@ -39,14 +41,31 @@ import static java.lang.Math.max;
 /**
  * Extract features for the parsing model. Based on FeatureExtractor for the
  * frame identification model.
+ *
+ * Features can either be extracted as Strings ({@link #extractFeatures}), or looked up directly
+ * in a {@link FeatureIndex} ({@link #extractFeatureIdxs}). The latter builds each feature name in a
+ * reused buffer, so it never allocates intermediate Strings. Both produce the same features.
+ * When every role of a frame is scored, {@link #extractSpanFeatures} extracts the features of a span
+ * just once, and a {@link RoleFeatureIndex} conjoins them with each role.
+ * Instances hold that buffer, so they should not be shared between threads.
  * 
  * @author Nathan Schneider (nschneid)
  * @since 2009-04-07
  * @see CandidateFrameElementFilters
  * @see edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor
  */
+@NotThreadSafe
 public class FeatureExtractor {
 	private static final Joiner UNDERSCORE = Joiner.on("_");
+	private static final String[] FORMS_OF_BE = { "am", "are", "is", "was", "were", "be", "been", "being" };
+	private static final String[] FORMS_OF_HAVE = { "have", "has", "had", "having" };
+
+	/** longest path between the target and the head of a span that gets its own feature */
+	private static final int MAX_PATH_SIZE = 7;
+
+	private final IndexingFeatureSink indexingSink = new IndexingFeatureSink();
+	private final int[] path = new int[MAX_PATH_SIZE];
+	private final FactoringFeatureSink factoringSink = new FactoringFeatureSink();
 
 	protected enum ConjoinLevel {
 		FRAME_AND_ROLE_NAME,
@@ -71,6 +90,129 @@ public class FeatureExtractor {
 		}
 	}
 
+	/**
+	 * Accumulates the name of a feature in a reused buffer. {@link #add} hands it, with how it should be conjoined
+	 * with the role and/or frame name, to {@link #add(StringBuilder, ConjoinLevel)}, and clears the buffer.
+	 */
+	protected static abstract class FeatureSink {
+		private final StringBuilder feature = new StringBuilder();
+
+		/** Called before the features of a span are extracted. frameName and roleName may be null */
+		protected void reset(String frameName, String roleName) {
+			feature.setLength(0);
+		}
+
+		public FeatureSink append(String s) {
+			feature.append(s);
+			return this;
+		}
+
+		public FeatureSink append(char c) {
+			feature.append(c);
+			return this;
+		}
+
+		public FeatureSink append(int i) {
+			feature.append(i);
+			return this;
+		}
+
+		/** Appends the same string as {@link FeatureExtractor#quantizeLength} */
+		public FeatureSink appendQuantized(int numWords) {
+			if (numWords < 0) {
+				if (numWords > -5) feature.append(numWords);
+				else if (numWords > -10) feature.append("-5-9");
+				else if (numWords > -20) feature.append("-10-19");
+				else feature.append("-20-");
+			} else {
+				if (numWords < 5) feature.append(numWords);
+				else if (numWords < 10) feature.append("5-9");
+				else if (numWords < 20) feature.append("10-19");
+				else feature.append("20+");
+			}
+			return this;
+		}
+
+		/**
+		 * Adds the feature in the buffer, then clears the buffer.
+		 * @param level indicates whether to conjoin with role name and/or frame name.
+		 */
+		public void add(ConjoinLevel level) {
+			add(feature, level);
+			feature.setLength(0);
+		}
+
+		/**
+		 * Called once for each feature that fires, unconjoined.
+		 * May change feature, as long as it leaves it as it found it.
+		 */
+		protected abstract void add(StringBuilder feature, ConjoinLevel level);
+	}
+
+	/** Conjoins each feature with the frame and role name, and emits each result */
+	private static abstract class ConjoiningFeatureSink extends FeatureSink {
+		private String frameName;
+		private String roleName;
+
+		@Override protected void reset(String frameName, String roleName) {
+			super.reset(frameName, roleName);
+			this.frameName = frameName;
+			this.roleName = roleName;
+		}
+
+		@Override protected void add(StringBuilder feature, ConjoinLevel level) {
+			final int length = feature.length();
+			// each level also adds the features of the levels below it
+			if (level == ConjoinLevel.FRAME_AND_ROLE_NAME) {
+				feature.append('_').append(frameName).append('.').append(roleName);
+				emit(feature);
+				feature.setLength(length);
+			}
+			if (level == ConjoinLevel.FRAME_AND_ROLE_NAME || level == ConjoinLevel.ROLE_NAME) {
+				feature.append('_').append(roleName);
+				emit(feature);
+				feature.setLength(length);
+			}
+			emit(feature);
+		}
+
+		/** Called once for each (possibly conjoined) feature that fires */
+		protected abstract void emit(CharSequence feature);
+	}
+
+	/** Collects feature names in a Multiset */
+	private static class MultisetFeatureSink extends ConjoiningFeatureSink {
+		private final Multiset<String> featureMap = HashMultiset.create();
+
+		@Override protected void emit(CharSequence feature) {
+			featureMap.add(feature.toString());
+		}
+	}
+
+	/** Looks up features in a FeatureIndex, and collects the indexes of the ones that are present */
+	private static class IndexingFeatureSink extends ConjoiningFeatureSink {
+		private FeatureIndex featureIndex;
+		private TIntArrayList featureIdxs;
+
+		@Override protected void emit(CharSequence feature) {
+			final int idx = featureIndex.getIndex(feature);
+			if (idx != FeatureIndex.MISSING) featureIdxs.add(idx);
+		}
+	}
+
+	/**
+	 * Records each feature once, unconjoined, along with how it would have been conjoined, so that the features for
+	 * any role can be looked up afterwards
+	 */
+	private static class FactoringFeatureSink extends FeatureSink {
+		private RoleFeatureIndex featureIndex;
+		private RoleFeatureIndex.SpanFeatures spanFeatures;
+
+		@Override protected void add(StringBuilder feature, ConjoinLevel level) {
+			featureIndex.add(spanFeatures, feature, level);
+		}
+	}
+
 	/**
 	 * @param featureName feature to add
 	 * @param level indicates whether to conjoin with role name and/or frame name.
@@ -80,17 +222,14 @@ public class FeatureExtractor {
 										String roleName,
 										ConjoinLevel level,
 										Multiset<String> featureMap) {
-		switch(level) {
-			case FRAME_AND_ROLE_NAME:
-				featureMap.add(UNDERSCORE.join(featureName, frameAndRoleName));
-				//intentional fall through
-			case ROLE_NAME:
-				featureMap.add(UNDERSCORE.join(featureName, roleName));
-			case NO_CONJOIN:
-				featureMap.add(featureName);
-			default:
-				break;
+		// each level also adds the features of the levels below it
+		if (level == ConjoinLevel.FRAME_AND_ROLE_NAME) {
+			featureMap.add(UNDERSCORE.join(featureName, frameAndRoleName));
+		}
+		if (level == ConjoinLevel.FRAME_AND_ROLE_NAME || level == ConjoinLevel.ROLE_NAME) {
+			featureMap.add(UNDERSCORE.join(featureName, roleName));
 		}
+		featureMap.add(featureName);
 	}
 
 	public Multiset<String> extractFeatures(DataPointWithFrameElements dp,
@@ -98,57 +237,112 @@ public class FeatureExtractor {
 											String roleName,
 											final Range0Based fillerSpanRange,
 											DependencyParse parse) {
-		final Multiset<String> featureMap = HashMultiset.create();
-		final String frameAndRoleName = frameName + "." + roleName;
+		final MultisetFeatureSink sink = new MultisetFeatureSink();
+		extractFeatures(dp, frameName, roleName, fillerSpanRange, parse, sink);
+		return sink.featureMap;
+	}
+
+	/**
+	 * Extracts the same features as {@link #extractFeatures}, but looks each one up in featureIndex
+	 * as it is built, rather than creating Strings.
+	 * Features missing from featureIndex are dropped.
+	 *
+	 * @param featureIdxs cleared, then filled with the sorted, distinct indexes of firing features
+	 */
+	public void extractFeatureIdxs(DataPointWithFrameElements dp,
+								   String frameName,
+								   String roleName,
+								   final Range0Based fillerSpanRange,
+								   DependencyParse parse,
+								   FeatureIndex featureIndex,
+								   TIntArrayList featureIdxs) {
+		featureIdxs.resetQuick();
+		indexingSink.featureIndex = featureIndex;
+		indexingSink.featureIdxs = featureIdxs;
+		extractFeatures(dp, frameName, roleName, fillerSpanRange, parse, indexingSink);
+		sortAndRemoveDuplicates(featureIdxs);
+	}
+
+	/**
+	 * Extracts the role-independent part of the features of a candidate span, once for all roles of the frame.
+	 * {@link RoleFeatureIndex#getFeatureIdxs} then gives the same features as {@link #extractFeatureIdxs} would for
+	 * each role.
+	 *
+	 * @param spanFeatures cleared, then filled with the features of the span
+	 */
+	public void extractSpanFeatures(DataPointWithFrameElements dp,
+									final Range0Based fillerSpanRange,
+									DependencyParse parse,
+									RoleFeatureIndex featureIndex,
+									RoleFeatureIndex.SpanFeatures spanFeatures) {
+		spanFeatures.clear();
+		factoringSink.featureIndex = featureIndex;
+		factoringSink.spanFeatures = spanFeatures;
+		extractFeatures(dp, null, null, fillerSpanRange, parse, factoringSink);
+	}
+
+	/** Sorts idxs in place, and removes any repeated entries */
+	public static void sortAndRemoveDuplicates(TIntArrayList idxs) {
+		final int size = idxs.size();
+		if (size == 0) return;
+		idxs.sort();
+		int numDistinct = 1;
+		for (int i = 1; i < size; i++) {
+			final int idx = idxs.getQuick(i);
+			if (idx != idxs.getQuick(numDistinct - 1)) {
+				idxs.setQuick(numDistinct, idx);
+				numDistinct++;
+			}
+		}
+		if (numDistinct < size) idxs.remove(numDistinct, size - numDistinct);
+	}
+
+	protected void extractFeatures(DataPointWithFrameElements dp,
+								   String frameName,
+								   String roleName,
+								   final Range0Based fillerSpanRange,
+								   DependencyParse parse,
+								   FeatureSink sink) {
+		sink.reset(frameName, roleName);
 		int[] targetTokenNums = dp.getTargetTokenIdxs();
 		final DependencyParse[] nodes = parse.getIndexSortedListOfNodes();
-		final DependencyParse targetHeadNode = DependencyParse.getHeuristicHead(nodes, targetTokenNums);
+		final DependencyTreeIndex treeIndex = parse.getTreeIndex();
+		final DependencyParse targetHeadNode = treeIndex.getHeuristicHead(targetTokenNums);
 
 		final boolean isEmpty = isEmptySpan(fillerSpanRange);
-		String overtness = isEmpty ? "NULL" : "OVERT";
-		conjoinAndAdd(overtness, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);	// overtness of the role
+		sink.append(isEmpty ? "NULL" : "OVERT").add(FRAME_AND_ROLE_NAME);	// overtness of the role
 		
 		String nullness = isEmpty ? "NULL_" : "";
 		for (int targetTokenNum : targetTokenNums) {
 			final DependencyParse node = nodes[targetTokenNum + 1];
 			final Voice voice = findVoice(node);
 			final String lemma = node.getLemma();
-			final String feature = nullness + "targetLemma_" + lemma;
-			conjoinAndAdd(feature, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
-			conjoinAndAdd(UNDERSCORE.join(feature, voice.name), frameAndRoleName, roleName, ROLE_NAME, featureMap);
-			conjoinAndAdd(nullness + "targetPOS_" + node.getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+			sink.append(nullness).append("targetLemma_").append(lemma).add(FRAME_AND_ROLE_NAME);
+			sink.append(nullness).append("targetLemma_").append(lemma).append('_').append(voice.name).add(ROLE_NAME);
+			sink.append(nullness).append("targetPOS_").append(node.getPOS()).add(FRAME_AND_ROLE_NAME);
 		}
 
 		final List<DependencyParse> tgtChildren = targetHeadNode.getChildren();
-		conjoinAndAdd(nullness + "NCHILDREN_" + tgtChildren.size(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);	// number of children
+		sink.append(nullness).append("NCHILDREN_").append(tgtChildren.size()).add(FRAME_AND_ROLE_NAME);	// number of children
 
 		// Dependency subcategorization
-		String dsubcat = "";
 		if (tgtChildren.size() > 0) {
 			for (DependencyParse dpn : tgtChildren) {
-				dsubcat += dpn.getLabelType() + "_";
-				conjoinAndAdd(nullness + "SUBCAT_" + dpn.getLabelType(), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				sink.append(nullness).append("SUBCAT_").append(dpn.getLabelType()).add(ROLE_NAME);
+			}
+			sink.append(nullness).append("SUBCATSEQ");
+			for (DependencyParse dpn : tgtChildren) {
+				sink.append(dpn.getLabelType()).append('_');
 			}
-			conjoinAndAdd(nullness + "SUBCATSEQ" + dsubcat, frameAndRoleName, roleName, ROLE_NAME, featureMap);
+			sink.add(ROLE_NAME);
 		}
 
 		if (!isEmpty) { // null span
 			 // lemma, POS tag, voice, and relative position (with respect to target)
 			 // of each word in the candidate span
-			extractChildPOSFeatures(featureMap, dp, nodes, fillerSpanRange, frameAndRoleName, roleName);
-			final DependencyParse fillerHeadNode = DependencyParse.getHeuristicHead(
-					nodes, fillerSpanRange);
-			final List<Pair<String, DependencyParse>> targetToFillerPath =
-					DependencyParse.getPath(targetHeadNode, fillerHeadNode);
-			int pathSize = targetToFillerPath.size();
-			String depTypePath = ""; // target's POS and dependency types on the
-			// path to the head of the filler
-			// To avoid feature explosion, only include paths of length <=7, and
-			// only include the dependency types if the path's length is <=5.  
-			// (To put this in perspective, < FRAME_AND_ROLE_NAME% of FE fillers have a path length
-			// of >5 in the training/dev data, and hardly any have length >7.)
-			// e.g. "=<VB> !VMOD !PMOD" ( GIVE to [the paper *boy*] )
-			// "=<PRP> ^OBJ ^VMOD ^VMOD !OBJ" ( want [*him*] to make a REQUEST )
+			extractChildPOSFeatures(sink, dp, nodes, fillerSpanRange);
+			final DependencyParse fillerHeadNode = treeIndex.getHeuristicHead(fillerSpanRange);
+			final int pathSize = treeIndex.getPathLength(targetHeadNode.getIndex(), fillerHeadNode.getIndex());
 			final int spanStart = fillerSpanRange.start;
 			final int spanEnd = fillerSpanRange.end;
 			final int targetStart = targetTokenNums[0];
@@ -159,111 +353,103 @@ public class FeatureExtractor {
 				//relative position of the span with respect to the target
 				
 				//does the span overlap with target
-				conjoinAndAdd("O_W_T", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+				sink.append("O_W_T").add(FRAME_AND_ROLE_NAME);
 				if (targetTokenNums.length > 1) {
 					if ((spanStart < targetStart && spanEnd < targetEnd)
 							|| (spanStart > targetStart && spanEnd > targetEnd)) {
 						//does the span cross the target
-						conjoinAndAdd("CROS_TAR", frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+						sink.append("CROS_TAR").add(NO_CONJOIN);
 					}
 				}
 			} else {
 				// distance between nearest words of span and target
-				String dist = getDistToTarget(targetStart, targetEnd, spanStart, spanEnd);
-				String feature = "dist_" + dist;
-				conjoinAndAdd(feature, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				if (dist.charAt(0) == '-') {
+				final int dist = getDistToTarget(targetStart, targetEnd, spanStart, spanEnd);
+				sink.append("dist_").appendQuantized(dist).add(NO_CONJOIN);
+				if (dist < 0) {
 					//span is left to target
-					feature = "LEFTTAR";
+					sink.append("LEFTTAR").add(FRAME_AND_ROLE_NAME);
 				} else {
 					//span is right to target
-					feature = "RIGHTTAR";
+					sink.append("RIGHTTAR").add(FRAME_AND_ROLE_NAME);
 				}
-				conjoinAndAdd(feature, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
 				int targetMidpoint = (targetStart + targetEnd) / 2;
 				int feMidpoint = (spanStart + spanEnd) / 2;
 				//distance between words in the middle
 				//of target span and candidate span
-				feature = "midDist_" + getDistToTarget(targetMidpoint, targetMidpoint, feMidpoint, feMidpoint);
-				conjoinAndAdd(feature, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+				sink.append("midDist_")
+						.appendQuantized(getDistToTarget(targetMidpoint, targetMidpoint, feMidpoint, feMidpoint))
+						.add(NO_CONJOIN);
 			}
 
-			if (pathSize <= 7) {
-				DependencyParse lastNode = null;
-				for (int i = 0; i < targetToFillerPath.size(); i++) {
-					final Pair<String, DependencyParse> item = targetToFillerPath.get(i);
-					final DependencyParse node = item.second;
-					if (i == 0)
-						depTypePath += "=<" + node.getPOS() + ">";
-					else {
-						if (item.first.equals("^"))
-							depTypePath += " ^"
-									+ ((pathSize <= 5) ? lastNode.getLabelType()
-											: "");
-						else {
-							if (item.first.equals("!"))
-								depTypePath += " !"
-										+ ((pathSize <= 5) ? node
-										.getLabelType() : "");
-						}
+			// target's POS and dependency types on the path to the head of the filler
+			// To avoid feature explosion, only include paths of length <=7, and
+			// only include the dependency types if the path's length is <=5.  
+			// (To put this in perspective, < FRAME_AND_ROLE_NAME% of FE fillers have a path length
+			// of >5 in the training/dev data, and hardly any have length >7.)
+			// e.g. "=<VB> !VMOD !PMOD" ( GIVE to [the paper *boy*] )
+			// "=<PRP> ^OBJ ^VMOD ^VMOD !OBJ" ( want [*him*] to make a REQUEST )
+			sink.append("depPath_");
+			if (pathSize <= MAX_PATH_SIZE) {
+				treeIndex.getPath(targetHeadNode.getIndex(), fillerHeadNode.getIndex(), path);
+				sink.append("=<").append(targetHeadNode.getPOS()).append('>');
+				for (int i = 1; i < pathSize; i++) {
+					if (treeIndex.getDepth(path[i]) < treeIndex.getDepth(path[i - 1])) {
+						sink.append(" ^");
+						if (pathSize <= 5) sink.append(treeIndex.getNode(path[i - 1]).getLabelType());
+					} else {
+						sink.append(" !");
+						if (pathSize <= 5) sink.append(treeIndex.getNode(path[i]).getLabelType());
 					}
-					lastNode = node;
 				}
 			} else {
-				depTypePath = "=<"
-						+ targetToFillerPath.get(0).second.getPOS()
-						+ "> ...";
+				sink.append("=<").append(targetHeadNode.getPOS()).append("> ...");
 			}
-			conjoinAndAdd("depPath_" + depTypePath, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("pathLength_" + quantizeLength(pathSize), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			sink.add(NO_CONJOIN);
+			sink.append("pathLength_").appendQuantized(pathSize).add(NO_CONJOIN);
 
 			// head word
 			// left and right most dependents
 			List<DependencyParse> children = fillerHeadNode.getChildren();
-			conjoinAndAdd("headLemma_" + fillerHeadNode.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("headPOS_" + fillerHeadNode.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("headLabel_" + fillerHeadNode.getLabelType(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			sink.append("headLemma_").append(fillerHeadNode.getLemma()).add(NO_CONJOIN);
+			sink.append("headPOS_").append(fillerHeadNode.getPOS()).add(NO_CONJOIN);
+			sink.append("headLabel_").append(fillerHeadNode.getLabelType()).add(NO_CONJOIN);
 			if (children.size() > 0) {
 				final DependencyParse firstChild = children.get(0);
 				final DependencyParse lastChild = children.get(children.size() - 1);
-				conjoinAndAdd("leftLemma_" + firstChild.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("leftPOS_" + firstChild.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("rightLemma_" + lastChild.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("rightPOS_" + lastChild.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+				sink.append("leftLemma_").append(firstChild.getLemma()).add(NO_CONJOIN);
+				sink.append("leftPOS_").append(firstChild.getPOS()).add(NO_CONJOIN);
+				sink.append("rightLemma_").append(lastChild.getLemma()).add(NO_CONJOIN);
+				sink.append("rightPOS_").append(lastChild.getPOS()).add(NO_CONJOIN);
 			}
 			
 			// word/POS/dependency type of 1st,  FrameAndRoleNamend, last word in the span
 			int startNode = new Range1Based(fillerSpanRange).start;
 			int endNode = new Range1Based(fillerSpanRange).end;
 
-			if (isClosedClass(nodes[startNode].getPOS()))
-				conjoinAndAdd("w[0]pos[0]_" + nodes[startNode].getWord()
-						+ " " + nodes[startNode].getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
-			conjoinAndAdd("dep[0]_" + nodes[startNode].getLabelType(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+			if (isClosedClass(nodes[startNode].getPOS())) {
+				sink.append("w[0]pos[0]_").append(nodes[startNode].getWord())
+						.append(' ').append(nodes[startNode].getPOS()).add(FRAME_AND_ROLE_NAME);
+			}
+			sink.append("dep[0]_").append(nodes[startNode].getLabelType()).add(FRAME_AND_ROLE_NAME);
 
 			if (endNode - startNode > 0) {
-				if (isClosedClass(nodes[startNode + 1].getPOS()))
-					conjoinAndAdd("w[1]pos[1]_"
-							+ nodes[startNode + 1].getWord() + " "
-							+ nodes[startNode + 1].getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-					);
-				conjoinAndAdd("dep[1]_" + nodes[startNode + 1].getLabelType(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+				if (isClosedClass(nodes[startNode + 1].getPOS())) {
+					sink.append("w[1]pos[1]_").append(nodes[startNode + 1].getWord())
+							.append(' ').append(nodes[startNode + 1].getPOS()).add(FRAME_AND_ROLE_NAME);
+				}
+				sink.append("dep[1]_").append(nodes[startNode + 1].getLabelType()).add(FRAME_AND_ROLE_NAME);
 				if (endNode - startNode > 1) {
-					if (isClosedClass(nodes[endNode].getPOS()))
-						conjoinAndAdd("w[-1]pos[-1]_"
-								+ nodes[endNode].getWord() + " "
-								+ nodes[endNode].getPOS() + "_", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-						);
-					conjoinAndAdd("dep[-1]_"
-							+ nodes[endNode].getLabelType() + "_", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-					);
+					if (isClosedClass(nodes[endNode].getPOS())) {
+						sink.append("w[-1]pos[-1]_").append(nodes[endNode].getWord())
+								.append(' ').append(nodes[endNode].getPOS()).append('_').add(FRAME_AND_ROLE_NAME);
+					}
+					sink.append("dep[-1]_").append(nodes[endNode].getLabelType()).append('_').add(FRAME_AND_ROLE_NAME);
 				}
 			}
 			
 			// length of the filler span
-			conjoinAndAdd("len_" + quantizeLength(endNode - startNode + 1), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+			sink.append("len_").appendQuantized(endNode - startNode + 1).add(FRAME_AND_ROLE_NAME);
 		}
-		return featureMap;
 	}
 
 	public static String quantizeLength(int numWords) {
@@ -315,12 +501,10 @@ public class FeatureExtractor {
 	 * lemma ,POS tag ,voice and relative position(with respect to target)
 	 * of each word in the candidate span
 	 */
-	private void extractChildPOSFeatures(Multiset<String> featureMap,
+	private void extractChildPOSFeatures(FeatureSink sink,
 										 DataPointWithFrameElements dp,
 										 DependencyParse[] nodes,
-										 final Range0Based fillerSpanRange,
-										 String frameAndRoleName,
-										 String roleName) {
+										 final Range0Based fillerSpanRange) {
 		int targetStart = dp.getTargetTokenIdxs()[0];
 		int targetEnd = dp.getTargetTokenIdxs()[dp.getTargetTokenIdxs().length - 1];
 		//for each word in the frame element span
@@ -331,12 +515,12 @@ public class FeatureExtractor {
 			final Voice voice = findVoice(node);
 			//lemma of the word
 			final String lemma = node.getLemma();
-			conjoinAndAdd("ltok_" + lemma, frameAndRoleName, roleName, ROLE_NAME, featureMap);
+			sink.append("ltok_").append(lemma).add(ROLE_NAME);
 			//POS tag of the word
-			conjoinAndAdd("POS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			sink.append("POS_").append(node.getPOS()).add(NO_CONJOIN);
 			if (!voice.equals(Voice.NO_VOICE)) {
 				//lemma and voice of the token
-				conjoinAndAdd(UNDERSCORE.join("Voice", lemma, voice.name), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				sink.append("Voice_").append(lemma).append('_').append(voice.name).add(ROLE_NAME);
 				String before;
 				if (i < targetStart) {
 					before = "B4_TARGET";
@@ -347,37 +531,36 @@ public class FeatureExtractor {
 				}
 				//is the word before or after the frame evoking word
 				//+ voice + lemma of the word
-				conjoinAndAdd(UNDERSCORE.join("Voice", lemma, voice.name, before), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				sink.append("Voice_").append(lemma).append('_').append(voice.name).append('_').append(before)
+						.add(ROLE_NAME);
 			}
 		}
 		// up to 3 preceding POS tags
 		for (int i = max(0, start - 3); i < start; i++) {
 			final DependencyParse node = nodes[i + 1];
-			conjoinAndAdd("pPOS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			sink.append("pPOS_").append(node.getPOS()).add(NO_CONJOIN);
 		}
 		// up to 3 following POS tags
 		for (int i = end +  1; i <= end + 3; i++) {
 			if (i >= nodes.length - 1)
 				break;
 			final DependencyParse node = nodes[i + 1];
-			conjoinAndAdd("nPOS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			sink.append("nPOS_").append(node.getPOS()).add(NO_CONJOIN);
 		}
 	}
 
-	private static String getDistToTarget(int fstart, int fend, int festart, int feend) {
+	/** @return the signed distance between target and span, to be passed to {@link #quantizeLength} */
+	private static int getDistToTarget(int fstart, int fend, int festart, int feend) {
 		if (festart >= fstart) {
-			return quantizeLength(fend - festart);
-		}
-		if (festart <= fstart) {
-			return quantizeLength(fstart - feend);
+			return fend - festart;
 		}
-		return "0";
+		return fstart - feend;
 	}
 
 	public static Voice findVoice(DependencyParse tn) {
 		if (!tn.getPOS().startsWith("V"))
 			return Voice.NO_VOICE;
-		if (tn.getWord().toLowerCase().equals("been"))
+		if (tn.getWord().equalsIgnoreCase("been"))
 			return Voice.ACTIVE;
 		if (!tn.getPOS().equals("VBN"))
 			return Voice.ACTIVE;
@@ -388,20 +571,27 @@ public class FeatureExtractor {
 	private static Voice findVoiceInParents(DependencyParse n) {
 		if (n == null || n.getIndex() == 0)
 			return Voice.PASSIVE;
-		final String word = n.getWord().toLowerCase(), pos = n.getPOS();
+		final String word = n.getWord(), pos = n.getPOS();
 
 		if (pos.startsWith("NN"))
 			return Voice.PASSIVE;
 
-		if (word.matches("am|are|is|was|were|be|been|being"))
+		if (equalsAnyIgnoreCase(word, FORMS_OF_BE))
 			return Voice.PASSIVE;
 
-		if (word.matches("ha(ve|s|d|ving)"))
+		if (equalsAnyIgnoreCase(word, FORMS_OF_HAVE))
 			return Voice.ACTIVE;
 
-		if (pos.matches("VBZ|VBD|VBP|MD"))
+		if (pos.equals("VBZ") || pos.equals("VBD") || pos.equals("VBP") || pos.equals("MD"))
 			return Voice.PASSIVE;
 
 		return findVoiceInParents(n.getParent());
 	}
+
+	private static boolean equalsAnyIgnoreCase(String word, String[] candidates) {
+		for (String candidate : candidates) {
+			if (word.equalsIgnoreCase(candidate)) return true;
+		}
+		return false;
+	}
 }
@@ -0,0 +1,84 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import java.util.Map;
+
+/**
+ * An immutable map from feature name to feature index that can be queried with any CharSequence
+ * (e.g. a reused StringBuilder), so looking up a feature never requires building a String.
+ * Uses open addressing with linear probing.
+ */
+public class FeatureIndex {
+	/** returned by {@link #getIndex} for features that aren't in the index */
+	public static final int MISSING = 0;
+	private static final double LOAD_FACTOR = 0.5;
+
+	private final String[] keys;
+	private final int[] hashes;
+	private final int[] values;
+	private final int mask;
+	private final int size;
+
+	private FeatureIndex(String[] keys, int[] hashes, int[] values, int size) {
+		this.keys = keys;
+		this.hashes = hashes;
+		this.values = values;
+		this.mask = keys.length - 1;
+		this.size = size;
+	}
+
+	public static FeatureIndex fromMap(Map<String, Integer> featureIndex) {
+		int capacity = 2;
+		while (capacity * LOAD_FACTOR < featureIndex.size()) capacity <<= 1;
+		final String[] keys = new String[capacity];
+		final int[] hashes = new int[capacity];
+		final int[] values = new int[capacity];
+		final int mask = capacity - 1;
+		for (Map.Entry<String, Integer> entry : featureIndex.entrySet()) {
+			final String key = entry.getKey();
+			final int hash = hash(key);
+			int slot = hash & mask;
+			while (keys[slot] != null) slot = (slot + 1) & mask;
+			keys[slot] = key;
+			hashes[slot] = hash;
+			values[slot] = entry.getValue();
+		}
+		return new FeatureIndex(keys, hashes, values, featureIndex.size());
+	}
+
+	/**
+	 * @param feature the name of the feature to look up
+	 * @return the index of feature, or {@link #MISSING} if it isn't in the index
+	 */
+	public int getIndex(CharSequence feature) {
+		final int hash = hash(feature);
+		int slot = hash & mask;
+		String key;
+		while ((key = keys[slot]) != null) {
+			if (hashes[slot] == hash && contentEquals(key, feature)) return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return MISSING;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Same as String.hashCode, but with the bits spread so that low bits can be used as a slot */
+	private static int hash(CharSequence s) {
+		int h = 0;
+		for (int i = 0; i < s.length(); i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean contentEquals(String key, CharSequence feature) {
+		final int length = key.length();
+		if (length != feature.length()) return false;
+		for (int i = 0; i < length; i++) {
+			if (key.charAt(i) != feature.charAt(i)) return false;
+		}
+		return true;
+	}
+}
@@ -23,8 +23,10 @@
 package edu.cmu.cs.lti.ark.fn.parsing;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
 import gnu.trove.THashMap;
 
 import java.io.IOException;
@@ -32,24 +34,57 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Throwables.propagate;
 
 /**
  * AD^3
+ * Frames are decoded independently, so decodeAll decodes them in parallel on the given executor.
  */
 public class JointDecoding extends Decoding {
+	private static final Logger logger = Logger.getLogger(JointDecoding.class.getCanonicalName());
+
 	private DDDecoding jd = null;
-	private double[] w2 = null;
+	private WeightVector w2 = null;
 	private boolean ignoreNullSpansWhileJointDecoding;
+	private final ExecutorService executor;
 
-	public JointDecoding(double[] modelWeights, DDDecoding jd, double[] w2, boolean ignoreNullSpansWhileJointDecoding) {
+	public JointDecoding(WeightVector modelWeights,
+						 DDDecoding jd,
+						 WeightVector w2,
+						 boolean ignoreNullSpansWhileJointDecoding,
+						 ExecutorService executor) {
 		super(modelWeights);
 		this.jd = jd;
 		this.w2 = w2;
 		this.ignoreNullSpansWhileJointDecoding = ignoreNullSpansWhileJointDecoding;
+		this.executor = executor;
+	}
+
+	/** Decodes frames one at a time, on the calling thread */
+	public JointDecoding(WeightVector modelWeights, DDDecoding jd, WeightVector w2, boolean ignoreNullSpansWhileJointDecoding) {
+		this(modelWeights, jd, w2, ignoreNullSpansWhileJointDecoding, MoreExecutors.sameThreadExecutor());
 	}
 
 	public static JointDecoding fromFile(String modelFile, String alphabetFile, boolean ignoreNullSpansWhileJointDecoding, boolean exact) {
-		return new JointDecoding(readModel(modelFile, alphabetFile), new DDDecoding(exact), null, ignoreNullSpansWhileJointDecoding);
+		return fromFile(modelFile, alphabetFile, ignoreNullSpansWhileJointDecoding, exact, MoreExecutors.sameThreadExecutor());
+	}
+
+	public static JointDecoding fromFile(String modelFile,
+										 String alphabetFile,
+										 boolean ignoreNullSpansWhileJointDecoding,
+										 boolean exact,
+										 ExecutorService executor) {
+		return new JointDecoding(WeightVector.of(readModel(modelFile, alphabetFile)),
+				new DDDecoding(exact),
+				null,
+				ignoreNullSpansWhileJointDecoding,
+				executor);
 	}
 
 	@Override
@@ -63,13 +98,31 @@ public class JointDecoding extends Decoding {
 		return getNonOverlappingDecision(mFF, frameLine, offset, modelWeights, false, null, returnScores);
 	}
 
-	public ArrayList<String> decodeAll(List<FrameFeatures> frameFeaturesList, List<String> frameLines, int offset, int kBestOutput) {
-		int size = frameFeaturesList.size();
-		ArrayList<String> result = Lists.newArrayList();
-		for(int i = 0; i < size; i ++) {
-			System.out.println("Decoding index:"+i);
-			String decisionLine = decode(frameFeaturesList, frameLines, i, offset, false);
-			result.add(decisionLine);
+	public ArrayList<String> decodeAll(final List<FrameFeatures> frameFeaturesList,
+									   final List<String> frameLines,
+									   final int offset,
+									   int kBestOutput) {
+		final List<Future<String>> decisionLines = Lists.newArrayList();
+		for (int i = 0; i < frameFeaturesList.size(); i++) {
+			final int index = i;
+			decisionLines.add(executor.submit(new Callable<String>() {
+				@Override public String call() {
+					logger.fine("Decoding index:" + index);
+					return decode(frameFeaturesList, frameLines, index, offset, false);
+				} }));
+		}
+		final ArrayList<String> result = Lists.newArrayList();
+		try {
+			for (Future<String> decisionLine : decisionLines) {
+				result.add(decisionLine.get());
+			}
+		} catch (InterruptedException e) {
+			for (Future<String> decisionLine : decisionLines) decisionLine.cancel(true);
+			Thread.currentThread().interrupt();
+			throw propagate(e);
+		} catch (ExecutionException e) {
+			for (Future<String> decisionLine : decisionLines) decisionLine.cancel(true);
+			throw propagate(e.getCause());
 		}
 		return result;
 	}
@@ -80,9 +133,9 @@ public class JointDecoding extends Decoding {
 	}
 
 	public Pair<Map<String, String>, Double> 
-			getDecodedMap(FrameFeatures mFF, double[] w, boolean costAugmented, FrameFeatures goldFF) {
+			getDecodedMap(FrameFeatures mFF, WeightVector w, boolean costAugmented, FrameFeatures goldFF) {
 		String frameName = mFF.frameName;
-		System.out.println("Frame:"+frameName);
+		logger.fine("Frame:"+frameName);
 		List<SpanAndCorrespondingFeatures[]> featsList = mFF.fElementSpansAndFeatures;
 		List<String> frameElements = mFF.fElements;
 		int listSize = featsList.size();
@@ -117,7 +170,7 @@ public class JointDecoding extends Decoding {
 				} else {
 					vs.put(frameElements.get(i), arr);
 				}
-				System.out.println("Frame element:"+frameElements.get(i)+" Found span:"+outcome);
+				logger.fine("Frame element:"+frameElements.get(i)+" Found span:"+outcome);
 			}
 			Map<String, Pair<String, Double>> feMap = jd.decode(vs, frameName, costAugmented, goldFF);
 			double score = -1.0;
@@ -136,7 +189,7 @@ public class JointDecoding extends Decoding {
 
 	public String getNonOverlappingDecision(FrameFeatures mFF,
 			String frameLine, 
-			int offset, double[] w,
+			int offset, WeightVector w,
 			boolean costAugmented,
 			FrameFeatures goldFF,
 			boolean returnScores) {
@@ -150,7 +203,7 @@ public class JointDecoding extends Decoding {
 			decisionLine="0\t1"+"\t"+decisionLine.trim();
 			return decisionLine;
 		}
-		System.out.println("Frame:"+frameName);
+		logger.fine("Frame:"+frameName);
 		// vs is the set of FEs on which joint decoding has to be done
 		Pair<Map<String, String>, Double> pair = getDecodedMap(mFF, w, costAugmented, goldFF);
 		Map<String, String> feMap = pair.first;
@@ -176,7 +229,7 @@ public class JointDecoding extends Decoding {
 		if (returnScores) {
 			decisionLine = decisionLine + "\t" + pair.second;
 		}
-		System.out.println(decisionLine);
+		logger.fine(decisionLine);
 		return decisionLine;
 	}
 
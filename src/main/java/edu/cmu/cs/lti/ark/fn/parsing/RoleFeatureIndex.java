@@ -0,0 +1,160 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Maps;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongIntHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.FeatureIndex.MISSING;
+
+/**
+ * A {@link FeatureIndex} for argument identification features that can look up a feature conjoined with any role
+ * without building its name.
+ *
+ * Almost all of the work of extracting features for a candidate span is the same for every role of the frame;
+ * only the "_role" and "_frame.role" suffixes differ. So the features of a span are extracted once, unconjoined
+ * ({@link FeatureExtractor#extractSpanFeatures}), and the features for each role are then found with
+ * {@link #getFeatureIdxs}, which looks up each (base feature, role) pair in a hash table of ints.
+ * The result is the same as {@link FeatureExtractor#extractFeatureIdxs} for that role.
+ */
+@ThreadSafe
+public class RoleFeatureIndex {
+	private final FeatureIndex featureIndex;
+	/** unconjoined names of the features that are in the index conjoined with some role or frame.role */
+	private final FeatureIndex baseFeatureIndex;
+	/** role names, and frame.role names */
+	private final FeatureIndex suffixIndex;
+	/** (base feature id, suffix id) to feature index. see {@link #key} */
+	private final TLongIntHashMap conjoinedFeatureIndex;
+	private final int numSuffixes;
+
+	/** The role-independent features of one candidate span, for {@link #getFeatureIdxs} */
+	public static class SpanFeatures {
+		/** indexes of the features that fire without a suffix */
+		final TIntArrayList unconjoinedIdxs = new TIntArrayList();
+		/** ids of the base features that fire conjoined with the role */
+		final TIntArrayList roleConjoinedIds = new TIntArrayList();
+		/** ids of the base features that fire conjoined with frame.role */
+		final TIntArrayList frameRoleConjoinedIds = new TIntArrayList();
+
+		void clear() {
+			unconjoinedIdxs.resetQuick();
+			roleConjoinedIds.resetQuick();
+			frameRoleConjoinedIds.resetQuick();
+		}
+	}
+
+	private RoleFeatureIndex(FeatureIndex featureIndex,
+							 FeatureIndex baseFeatureIndex,
+							 FeatureIndex suffixIndex,
+							 TLongIntHashMap conjoinedFeatureIndex) {
+		this.featureIndex = featureIndex;
+		this.baseFeatureIndex = baseFeatureIndex;
+		this.suffixIndex = suffixIndex;
+		this.conjoinedFeatureIndex = conjoinedFeatureIndex;
+		this.numSuffixes = suffixIndex.size();
+	}
+
+	/**
+	 * Splits each feature name in the index at every '_' that is followed by the name of a role, or of a frame.role,
+	 * in frameElementsForFrame.
+	 *
+	 * @param featureIndex a FeatureIndex built from featureNames
+	 * @param featureNames the map from feature name to index that featureIndex was built from
+	 */
+	public static RoleFeatureIndex create(FeatureIndex featureIndex,
+										  Map<String, Integer> featureNames,
+										  FEDict frameElementsForFrame) {
+		final Map<String, Integer> suffixIds = Maps.newHashMap();
+		for (String frame : frameElementsForFrame.getFrames()) {
+			for (String role : frameElementsForFrame.lookupFrameElements(frame)) {
+				addId(suffixIds, role);
+				addId(suffixIds, frame + "." + role);
+			}
+		}
+		final Map<String, Integer> baseIds = Maps.newHashMap();
+		final TLongIntHashMap conjoinedFeatureIndex = new TLongIntHashMap();
+		for (Map.Entry<String, Integer> entry : featureNames.entrySet()) {
+			final String name = entry.getKey();
+			for (int i = name.indexOf('_'); i >= 0; i = name.indexOf('_', i + 1)) {
+				final Integer suffixId = suffixIds.get(name.substring(i + 1));
+				if (suffixId == null) continue;
+				final int baseId = addId(baseIds, name.substring(0, i));
+				conjoinedFeatureIndex.put(key(baseId, suffixId, suffixIds.size()), entry.getValue());
+			}
+		}
+		return new RoleFeatureIndex(featureIndex,
+				FeatureIndex.fromMap(baseIds),
+				FeatureIndex.fromMap(suffixIds),
+				conjoinedFeatureIndex);
+	}
+
+	/** Gives name the next id (starting from 1, since 0 is {@link FeatureIndex#MISSING}) if it doesn't have one */
+	private static int addId(Map<String, Integer> ids, String name) {
+		final Integer id = ids.get(name);
+		if (id != null) return id;
+		ids.put(name, ids.size() + 1);
+		return ids.size();
+	}
+
+	/**
+	 * Numbers the pairs densely. trove hashes a long by xor-ing its halves, so packing the ids into the two halves
+	 * would make most keys collide.
+	 */
+	private static long key(int baseId, int suffixId, int numSuffixes) {
+		return (long) baseId * (numSuffixes + 1) + suffixId;
+	}
+
+	public FeatureIndex getFeatureIndex() {
+		return featureIndex;
+	}
+
+	/** Called by {@link FeatureExtractor#extractSpanFeatures} for each feature that fires */
+	void add(SpanFeatures spanFeatures, CharSequence feature, FeatureExtractor.ConjoinLevel level) {
+		final int idx = featureIndex.getIndex(feature);
+		if (idx != MISSING) spanFeatures.unconjoinedIdxs.add(idx);
+		if (level == FeatureExtractor.ConjoinLevel.NO_CONJOIN) return;
+		final int baseId = baseFeatureIndex.getIndex(feature);
+		if (baseId == MISSING) return;
+		spanFeatures.roleConjoinedIds.add(baseId);
+		if (level == FeatureExtractor.ConjoinLevel.FRAME_AND_ROLE_NAME) spanFeatures.frameRoleConjoinedIds.add(baseId);
+	}
+
+	/** The id to pass to {@link #getFeatureIdxs} for role */
+	public int getRoleId(String role) {
+		return suffixIndex.getIndex(role);
+	}
+
+	/** The id to pass to {@link #getFeatureIdxs} for role of frame */
+	public int getFrameRoleId(String frame, String role) {
+		return suffixIndex.getIndex(frame + "." + role);
+	}
+
+	/**
+	 * Gets the features of a candidate span for one role of a frame
+	 *
+	 * @param roleId from {@link #getRoleId}
+	 * @param frameRoleId from {@link #getFrameRoleId}
+	 * @param featureIdxs cleared, then filled with the sorted, distinct indexes of firing features
+	 */
+	public void getFeatureIdxs(SpanFeatures spanFeatures, int roleId, int frameRoleId, TIntArrayList featureIdxs) {
+		featureIdxs.resetQuick();
+		final TIntArrayList unconjoinedIdxs = spanFeatures.unconjoinedIdxs;
+		for (int i = 0; i < unconjoinedIdxs.size(); i++) {
+			featureIdxs.add(unconjoinedIdxs.getQuick(i));
+		}
+		addConjoined(spanFeatures.roleConjoinedIds, roleId, featureIdxs);
+		addConjoined(spanFeatures.frameRoleConjoinedIds, frameRoleId, featureIdxs);
+		FeatureExtractor.sortAndRemoveDuplicates(featureIdxs);
+	}
+
+	private void addConjoined(TIntArrayList baseIds, int suffixId, TIntArrayList featureIdxs) {
+		if (suffixId == MISSING) return;
+		for (int i = 0; i < baseIds.size(); i++) {
+			final int idx = conjoinedFeatureIndex.get(key(baseIds.getQuick(i), suffixId, numSuffixes));
+			if (idx != MISSING) featureIdxs.add(idx);
+		}
+	}
+}
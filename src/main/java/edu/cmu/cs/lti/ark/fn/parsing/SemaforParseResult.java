@@ -6,6 +6,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -96,4 +97,8 @@ public class SemaforParseResult {
 	public String toJson() throws JsonProcessingException {
 		return jsonMapper.writeValueAsString(this);
 	}
+
+	public static SemaforParseResult fromJson(String json) throws IOException {
+		return jsonMapper.readValue(json, SemaforParseResult.class);
+	}
 }
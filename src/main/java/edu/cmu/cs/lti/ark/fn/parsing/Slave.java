@@ -22,10 +22,15 @@
 
 package edu.cmu.cs.lti.ark.fn.parsing;
 
+/**
+ * A factor of the AD^3 problem in {@link DDDecoding}.
+ * A slave's z's and lambdas are stored in flat arrays owned by the caller, one value per variable of the slave,
+ * in ascending order of variable index, starting at the given offset.
+ */
 public interface Slave {
-	public double[] makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas, double[] zs);
-	public void cache(double[] as, double[] zs);
-	public boolean checkEquals(double[] as);
-	public void setObjVals(double[] objVals);
-	public double computeDual(double[] objVals, double rho, double[] us, double[] lambdas, double[] zs);
+	/** The indexes of the variables this slave touches, in ascending order */
+	public int[] getParts();
+	/** Solves this slave's local quadratic problem, and writes the resulting z's into zs */
+	public void makeZUpdate(double[] thetas, double rho, double[] us, double[] lambdas, double[] zs, int offset);
+	public double computeDual(double[] thetas, double rho, double[] us, double[] lambdas, double[] zs, int offset);
 }
@@ -22,9 +22,9 @@
 package edu.cmu.cs.lti.ark.fn.parsing;
 
 import edu.cmu.cs.lti.ark.fn.data.prep.ParsePreparation;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientService;
 import edu.cmu.cs.lti.ark.fn.optimization.Lbfgs;
 import edu.cmu.cs.lti.ark.fn.optimization.SGA;
-import edu.cmu.cs.lti.ark.fn.utils.ThreadPool;
 import edu.cmu.cs.lti.ark.util.FileUtil;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
 import riso.numerical.LBFGS;
@@ -45,8 +45,8 @@ public class Training {
 	private double mLambda;
 	private int numDataPoints;
 	private int mNumThreads;
-	private double[][] tGradients;
-	private double[] tValues;
+	/** sums the (unregularized) gradients and values of examples, in parallel */
+	private GradientService gradientService;
 	
 	public Training()
 	{
@@ -161,6 +161,43 @@ public class Training {
 		}
 		return new Pair<Double, double[]>(value, sumDers);
 	}
+
+	/**
+	 * Adds the gradient of the negative log-likelihood of one example to gradients, without regularization.
+	 * Only the entries of features that fire are touched, so this costs O(#firing features), not O(#features).
+	 * Matches the unregularized part of {@link #getDerivativesOfSample}.
+	 *
+	 * @return the negative log-likelihood of the example
+	 */
+	public double addDerivativesOfSample(double[] gradients, int index) {
+		final FrameFeatures f = mFrameList.get(index);
+		final List<SpanAndCorrespondingFeatures[]> featsList = f.fElementSpansAndFeatures;
+		final List<Integer> goldSpans = f.goldSpanIdxs;
+		double value = 0.0;
+		for (int i = 0; i < featsList.size(); i++) {
+			final SpanAndCorrespondingFeatures[] featureArray = featsList.get(i);
+			final int goldSpan = goldSpans.get(i);
+			final double[] exp = new double[featureArray.length];
+			double sumExp = 0.0;
+			for (int j = 0; j < featureArray.length; j++) {
+				double weiFeatSum = W[0];
+				for (int feat : featureArray[j].features) {
+					if (feat != 0) weiFeatSum += W[feat];
+				}
+				exp[j] = Math.exp(weiFeatSum);
+				sumExp += exp[j];
+			}
+			value -= Math.log(exp[goldSpan] / sumExp);
+			for (int j = 0; j < featureArray.length; j++) {
+				final double yMinusP = (j == goldSpan ? 1 : 0) - exp[j] / sumExp;
+				gradients[0] -= yMinusP;
+				for (int feat : featureArray[j].features) {
+					gradients[feat] -= yMinusP;
+				}
+			}
+		}
+		return value;
+	}
 	
 	
 	public void trainSGA(int TOTAL_PASSES, int batchsize)
@@ -212,63 +249,42 @@ public class Training {
 	}
 	
 	
-	public void processBatch(int taskID, int start, int end) {
-		int threadID = taskID % mNumThreads;
-		System.out.println("Processing batch:" + taskID + " thread ID:" + threadID);
-		if (end > mFrameList.size()) {
-			end = mFrameList.size();
-		}
-		double[] sumDers = new double[W.length];
-		Arrays.fill(sumDers, 0.0);
-		for (int index = start; index < end; index ++) {
-			Pair<Double, double[]> p = getDerivativesOfSample(sumDers, index);
-			sumDers = p.second;
-			tValues[threadID] += p.first;
-		}
-		for (int i = 0; i < W.length; i++) {
-			tGradients[threadID][i] += sumDers[i];
-		}
-	}
-	
-	
-	public Runnable createTask(final int count, final int start, final int end)
-	{
-		return new Runnable() {
-		      public void run() {
-		        System.out.println("Task " + count + " : start");
-		        processBatch(count, start, end);
-		        System.out.println("Task " + count + " : end");
-		      }
-		};
+	private void allocateBuffers() {
+		mGradients = new double[W.length];
+		if (gradientService != null) gradientService.close();
+		gradientService = new GradientService(mNumThreads, W.length);
 	}
 
 	/**
+	 * Computes the L2-regularized negative log-likelihood of the training data.
+	 * Examples add their gradients sparsely into per-thread buffers, which are summed once,
+	 * and the regularizer is added once at the end, rather than once per example.
+	 * The gradient service is created once, and reused on every iteration.
+	 *
 	 * @return the value of the function. fills out mGradients as a side-effect
 	 */
-	private double getValuesAndGradients() {
-		double value = 0.0;
-		Arrays.fill(mGradients, 0.0);
-		for (int i = 0; i < mNumThreads; i++) {
-			Arrays.fill(tGradients[i], 0.0);
-		}
-		Arrays.fill(tValues, 0.0);
-		ThreadPool threadPool = new ThreadPool(mNumThreads);
-		int batchSize = 10;
-		int count = 0;
-		for (int i = 0; i < mFrameList.size(); i = i + batchSize) {
-			threadPool.runTask(createTask(count, i, i + batchSize));
-			count++;
-		}
-		threadPool.join();		
-		for (int i = 0; i < mNumThreads; i++) {
-			value += tValues[i];
-			for (int j = 0; j < W.length; j++) {
-				mGradients[j] += tGradients[i][j];
+	double getValuesAndGradients() {
+		if (mGradients == null) allocateBuffers();
+		double value = gradientService.compute(mFrameList.size(), new GradientService.Example() {
+			@Override public double addGradient(int index, double[] gradients) {
+				return addDerivativesOfSample(gradients, index);
 			}
+		}, mGradients);
+		for (int j = 0; j < W.length; j++) {
+			mGradients[j] += 2 * mLambda * W[j];
+			value += mLambda * W[j] * W[j];
 		}
 		System.out.println("Finished value and gradient computation.");
 		return value;
 	}
+
+	double[] getWeights() {
+		return W;
+	}
+
+	double[] getGradients() {
+		return mGradients;
+	}
 	
 	public void runCustomLBFGS() throws Exception
 	{   
@@ -279,32 +295,34 @@ public class Training {
 		iprint[1] = 0; //output the minimum level of info
 		int[] iflag = new int[1];
 		iflag[0] = 0;
-		mGradients = new double[modelSize];
-		tGradients =  new double[mNumThreads][modelSize];
-		tValues = new double[mNumThreads];
-		int iteration = 0;
-		do {
-			Arrays.fill(mGradients, 0.0);
-			System.out.println("Starting iteration:" + iteration);
-			double m_value = getValuesAndGradients();
-			System.out.println("Function value:"+m_value);
-			LBFGS.lbfgs(modelSize,
-					Lbfgs.NUM_CORRECTIONS,
-					W, 
-					m_value,
-					mGradients, 
-					false, //true if we're providing the diag of cov matrix Hk0 (?)
-					diagco, //the cov matrix
-					iprint, //type of output generated
-					Lbfgs.STOPPING_THRESHOLD,
-					Lbfgs.XTOL, //estimate of machine precision
-					iflag //i don't get what this is about
-			);
-			System.out.println("Finished iteration:"+iteration);
-			iteration++;
-			if (iteration% Lbfgs.SAVE_EVERY_K ==0)
-				writeModel(mModelFile+"_"+iteration);
-		} while (iteration <= Lbfgs.MAX_ITERATIONS &&iflag[0] != 0);
+		allocateBuffers();
+		try {
+			int iteration = 0;
+			do {
+				Arrays.fill(mGradients, 0.0);
+				System.out.println("Starting iteration:" + iteration);
+				double m_value = getValuesAndGradients();
+				System.out.println("Function value:"+m_value);
+				LBFGS.lbfgs(modelSize,
+						Lbfgs.NUM_CORRECTIONS,
+						W, 
+						m_value,
+						mGradients, 
+						false, //true if we're providing the diag of cov matrix Hk0 (?)
+						diagco, //the cov matrix
+						iprint, //type of output generated
+						Lbfgs.STOPPING_THRESHOLD,
+						Lbfgs.XTOL, //estimate of machine precision
+						iflag //i don't get what this is about
+				);
+				System.out.println("Finished iteration:"+iteration);
+				iteration++;
+				if (iteration% Lbfgs.SAVE_EVERY_K ==0)
+					writeModel(mModelFile+"_"+iteration);
+			} while (iteration <= Lbfgs.MAX_ITERATIONS &&iflag[0] != 0);
+		} finally {
+			gradientService.close();
+		}
 		writeModel(mModelFile);
 	}	
 	
@@ -23,6 +23,7 @@ package edu.cmu.cs.lti.ark.fn.utils;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
 import edu.cmu.cs.lti.ark.util.ds.Range;
 import edu.cmu.cs.lti.ark.util.ds.Range0Based;
@@ -35,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags.NUM_PARSE_ROWS;
 import static java.lang.Integer.parseInt;
 
 public class DataPoint {
@@ -182,6 +184,27 @@ public class DataPoint {
 		return dependencyParses;
 	}
 
+	/**
+	 * Builds the same parse that {@link #buildParsesForLine} would build from
+	 * {@code AllLemmaTags.makeLine(allLemmaTags)}, without going through the string representation.
+	 *
+	 * @param allLemmaTags a single parse, in the format of {@link AllLemmaTags#readLine}
+	 */
+	public static DependencyParse[] buildParsesForSentence(String[][] allLemmaTags) {
+		final int numWords = allLemmaTags[0].length;
+		final String[][][] parseData = new String[numWords][NUM_PARSE_ROWS][];
+		for (int j = 0; j < numWords; j++) {
+			for (int p = 0; p < NUM_PARSE_ROWS; p++) {
+				parseData[j][p] = new String[] { allLemmaTags[p][j].trim().intern() };
+			}
+		}
+		final DependencyParse[] dependencyParses = DependencyParse.process(parseData, 0.0);
+		for (DependencyParse parse : dependencyParses) {
+			parse.processSentence();
+		}
+		return dependencyParses;
+	}
+
 	public Range getCharacterIndicesForToken(int tokenNum) {
 		return tokenIndexMap.get(tokenNum);
 	}
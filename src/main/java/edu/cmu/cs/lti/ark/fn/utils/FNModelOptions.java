@@ -100,6 +100,9 @@ public final class FNModelOptions extends CommandLineOptions {
 
 	public StringOption idFeatureExtractorType = new StringOption("id-feature-extractor-type");
 	public StringOption eventsFile = new StringOption("eventsfile");
+	public StringOption devEventsFile = new StringOption("dev-eventsfile");
+	public StringOption optimizer = new StringOption("optimizer");
+	public DoubleOption learningRate = new DoubleOption("learning-rate");
 	public StringOption spansFile = new StringOption("spansfile");
 	public StringOption lexiconDir = new StringOption("lexicondir");
 	public StringOption frameFeaturesCacheFile = new StringOption("localfeaturescache");
@@ -121,6 +124,15 @@ public final class FNModelOptions extends CommandLineOptions {
 	public StringOption mstServerName = new StringOption("mstserver");
 	public IntOption mstServerPort = new IntOption("mstport");
 	public IntOption port = new IntOption("port");
+	public IntOption maxPendingPerConnection = new IntOption("max-pending-per-connection");
+	public IntOption parseCacheSize = new IntOption("parse-cache-size");
+	public StringOption parseCacheFile = new StringOption("parse-cache-file");
+	public PositiveIntOption maxCandidateFrames = new PositiveIntOption("max-candidate-frames");
+	public PositiveIntOption pipelineBatchSize = new PositiveIntOption("pipeline-batch-size");
+	public StringOption pipelineThreads = new StringOption("pipeline-threads");
+	public StringOption lemmaFrequencyFile = new StringOption("lemma-frequency-file");
+	public PositiveIntOption frameScoringThreads = new PositiveIntOption("frame-scoring-threads");
+	public PositiveIntOption metricsSummarySeconds = new PositiveIntOption("metrics-summary-seconds");
 	public StringOption modelDirectory = new StringOption("model-dir");
 	public StringOption goldSegFile = new StringOption("goldsegfile");
 	public StringOption posTaggedFile = new StringOption("posfile");
@@ -0,0 +1,93 @@
+package edu.cmu.cs.lti.ark.fn.utils;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParses;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+
+import static com.google.common.base.Suppliers.memoize;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+
+/**
+ * Everything about a (lemmatized) sentence that frame identification and argument identification need, regardless
+ * of which target they're looking at: its dependency parse trees, and the candidate spans for its arguments.
+ * Each is built the first time it's asked for, then shared by every target in the sentence, instead of being
+ * rebuilt (by way of its string representation) for every target.
+ *
+ * Frame identification and argument identification use different trees: frame identification's features were
+ * trained on the tree built by {@link DependencyParse#processFN}, which has no lemmas, and argument identification's
+ * on the tree built from the string representation of the sentence (with lemmas, and with every field trimmed).
+ * Both are kept, so that features are exactly what they were before.
+ *
+ * Nothing returned by an analysis may be modified.
+ */
+@ThreadSafe
+public class SentenceAnalysis {
+	private final Sentence sentence;
+	private final String[][] allLemmaTags;
+	private final Supplier<DependencyParse> frameIdParse = memoize(new Supplier<DependencyParse>() {
+		@Override public DependencyParse get() {
+			return DependencyParse.processFN(allLemmaTags, 0.0);
+		} });
+	private final Supplier<DependencyParses> argIdParses = memoize(new Supplier<DependencyParses>() {
+		@Override public DependencyParses get() {
+			return new DependencyParses(DataPoint.buildParsesForSentence(allLemmaTags));
+		} });
+	private final Supplier<Sentence> argIdSentence = memoize(new Supplier<Sentence>() {
+		@Override public Sentence get() {
+			final String[][] trimmed = new String[allLemmaTags.length][];
+			for (int p = 0; p < allLemmaTags.length; p++) {
+				trimmed[p] = new String[allLemmaTags[p].length];
+				for (int j = 0; j < allLemmaTags[p].length; j++) {
+					trimmed[p][j] = allLemmaTags[p][j].trim();
+				}
+			}
+			return Sentence.fromAllLemmaTagsArray(trimmed);
+		} });
+	private final Supplier<List<SpanAndParseIdx>> candidateSpans = memoize(new Supplier<List<SpanAndParseIdx>>() {
+		@Override public List<SpanAndParseIdx> get() {
+			return ImmutableList.copyOf(DataPrep.findSpans(getArgIdParses().getBestParse()));
+		} });
+
+	/**
+	 * @param sentence a lemmatized sentence
+	 */
+	public SentenceAnalysis(Sentence sentence) {
+		this.sentence = sentence;
+		this.allLemmaTags = sentence.toAllLemmaTagsArray();
+	}
+
+	public Sentence getSentence() {
+		return sentence;
+	}
+
+	/** The sentence in the AllLemmaTags format. Must not be modified */
+	public String[][] getAllLemmaTags() {
+		return allLemmaTags;
+	}
+
+	/** The dependency tree that frame identification's features are extracted from */
+	public DependencyParse getFrameIdParse() {
+		return frameIdParse.get();
+	}
+
+	/** The dependency trees that argument identification's features are extracted from */
+	public DependencyParses getArgIdParses() {
+		return argIdParses.get();
+	}
+
+	/** The sentence as argument identification sees it, i.e. read back from its string representation */
+	public Sentence getArgIdSentence() {
+		return argIdSentence.get();
+	}
+
+	/** The candidate spans for every frame element of every target, including the empty span */
+	public List<SpanAndParseIdx> getCandidateSpans() {
+		return candidateSpans.get();
+	}
+}
@@ -0,0 +1,47 @@
+package edu.cmu.cs.lti.ark.util.ds;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * A read-only vector of model weights, either in a double[] on the heap, or in a DoubleBuffer.
+ * When the buffer is a read-only memory-mapped file, the weights live in the page cache instead of on the heap:
+ * they're never scanned by the garbage collector, and every process that maps the same file shares one copy.
+ */
+public abstract class WeightVector {
+	public abstract double get(int i);
+
+	public abstract int size();
+
+	public static WeightVector of(double[] weights) {
+		return new ArrayWeightVector(weights);
+	}
+
+	/** Wraps weights without copying them. Reads use absolute gets, so they're safe to share between threads. */
+	public static WeightVector of(DoubleBuffer weights) {
+		return new BufferWeightVector(weights);
+	}
+
+	private static class ArrayWeightVector extends WeightVector {
+		private final double[] weights;
+
+		private ArrayWeightVector(double[] weights) {
+			this.weights = weights;
+		}
+
+		@Override public double get(int i) { return weights[i]; }
+
+		@Override public int size() { return weights.length; }
+	}
+
+	private static class BufferWeightVector extends WeightVector {
+		private final DoubleBuffer weights;
+
+		private BufferWeightVector(DoubleBuffer weights) {
+			this.weights = weights.slice();
+		}
+
+		@Override public double get(int i) { return weights.get(i); }
+
+		@Override public int size() { return weights.capacity(); }
+	}
+}
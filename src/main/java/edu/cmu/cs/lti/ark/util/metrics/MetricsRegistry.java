@@ -0,0 +1,256 @@
+package edu.cmu.cs.lti.ark.util.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.*;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Named latency histograms (one per stage of processing) and counters, cheap enough to leave on.
+ * Timing a stage costs two calls to {@link System#nanoTime}, a few atomic increments, and, where the JVM supports it,
+ * two reads of the current thread's allocation counter, so each stage also knows how many bytes it allocated.
+ *
+ * Metrics can be read with {@link #getSummary}, printed to stderr periodically ({@link #startSummary}), or
+ * exposed over JMX ({@link #registerMBean}). Stages and counters are listed in the order they were first asked for.
+ */
+@ThreadSafe
+public class MetricsRegistry implements Closeable {
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+	/** null if the JVM can't count the bytes allocated by a thread */
+	private static final com.sun.management.ThreadMXBean THREADS = getAllocationCountingThreadBean();
+
+	/** Guarded by this */
+	private final Map<String, Stage> stages = Maps.newLinkedHashMap();
+	/** Guarded by this */
+	private final Map<String, AtomicLong> counters = Maps.newLinkedHashMap();
+	/** prints summaries, if started. Guarded by this */
+	private ScheduledExecutorService summaryThread;
+
+	/** The latency and allocation of one stage of processing. Get one with {@link #stage} */
+	@ThreadSafe
+	public static class Stage {
+		private final String name;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+
+		private Stage(String name) {
+			this.name = name;
+		}
+
+		/** Starts timing one run of this stage, on the current thread */
+		public Timer start() {
+			return new Timer(this, getCurrentThreadAllocatedBytes(), System.nanoTime());
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/** @return the bytes allocated by the threads running this stage, while they were running it */
+		public long getAllocatedBytes() {
+			return allocatedBytes.get();
+		}
+	}
+
+	/** One run of a stage. Must be stopped by the thread that started it */
+	public static class Timer {
+		private final Stage stage;
+		private final long startAllocatedBytes;
+		private final long startNanos;
+
+		private Timer(Stage stage, long startAllocatedBytes, long startNanos) {
+			this.stage = stage;
+			this.startAllocatedBytes = startAllocatedBytes;
+			this.startNanos = startNanos;
+		}
+
+		public void stop() {
+			stage.latency.record(System.nanoTime() - startNanos);
+			if (THREADS != null) stage.allocatedBytes.addAndGet(getCurrentThreadAllocatedBytes() - startAllocatedBytes);
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean getAllocationCountingThreadBean() {
+		try {
+			final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+			final com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if (!sunThreads.isThreadAllocatedMemorySupported()) return null;
+			if (!sunThreads.isThreadAllocatedMemoryEnabled()) sunThreads.setThreadAllocatedMemoryEnabled(true);
+			return sunThreads;
+		} catch (LinkageError e) {
+			return null; // not a HotSpot-derived JVM
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	private static long getCurrentThreadAllocatedBytes() {
+		return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** @return the stage with this name, creating it if it doesn't exist yet */
+	public synchronized Stage stage(String name) {
+		Stage stage = stages.get(name);
+		if (stage == null) {
+			stage = new Stage(name);
+			stages.put(name, stage);
+		}
+		return stage;
+	}
+
+	/** @return the counter with this name, creating it if it doesn't exist yet */
+	public synchronized AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counter = new AtomicLong();
+			counters.put(name, counter);
+		}
+		return counter;
+	}
+
+	private synchronized List<Stage> getStages() {
+		return Lists.newArrayList(stages.values());
+	}
+
+	private synchronized Map<String, AtomicLong> getCounters() {
+		return ImmutableMap.copyOf(counters);
+	}
+
+	/** One line: the count, latency quantiles and allocation of each stage, then each counter */
+	public String getSummary() {
+		final StringBuilder summary = new StringBuilder("metrics:");
+		for (Stage stage : getStages()) {
+			final LatencyHistogram latency = stage.latency;
+			final long count = latency.getCount();
+			summary.append(String.format(" %s: %d, mean %.1fus", stage.name, count, latency.getMeanNanos() / 1e3));
+			for (double quantile : QUANTILES) {
+				summary.append(String.format(" p%s %.1fus", formatQuantile(quantile),
+						latency.getValueAtQuantile(quantile) / 1e3));
+			}
+			summary.append(String.format(" max %.1fus", latency.getMaxNanos() / 1e3));
+			if (THREADS != null && count > 0) {
+				summary.append(String.format(" %.1fKB/run", stage.getAllocatedBytes() / 1024.0 / count));
+			}
+			summary.append(';');
+		}
+		for (Map.Entry<String, AtomicLong> counter : getCounters().entrySet()) {
+			summary.append(String.format(" %s: %d;", counter.getKey(), counter.getValue().get()));
+		}
+		return summary.toString();
+	}
+
+	private static String formatQuantile(double quantile) {
+		final String percent = Double.toString(quantile * 100);
+		return percent.endsWith(".0") ? percent.substring(0, percent.length() - 2) : percent;
+	}
+
+	/** Prints {@link #getSummary} to stderr every intervalMillis, on a daemon thread, until {@link #close} */
+	public synchronized void startSummary(long intervalMillis) {
+		checkArgument(intervalMillis > 0, "summary interval must be positive");
+		if (summaryThread != null) summaryThread.shutdownNow();
+		summaryThread = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metrics-summary").build());
+		summaryThread.scheduleAtFixedRate(new Runnable() {
+			@Override public void run() {
+				System.err.println(getSummary());
+			} }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops printing summaries */
+	@Override
+	public synchronized void close() {
+		if (summaryThread != null) summaryThread.shutdownNow();
+		summaryThread = null;
+	}
+
+	/**
+	 * Registers a read-only MBean with the platform MBean server. It has an attribute for each counter, and, for each
+	 * stage, "&lt;stage&gt; count", "&lt;stage&gt; mean us", "&lt;stage&gt; p50 us" (and p90, p99),
+	 * "&lt;stage&gt; max us" and "&lt;stage&gt; allocated bytes", in microseconds. Stages and counters created later
+	 * show up too.
+	 *
+	 * @param name e.g. "edu.cmu.cs.lti.ark.fn:type=Semafor"
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(name));
+	}
+
+	private class MetricsMBean implements DynamicMBean {
+		/** every attribute's current value, by name */
+		private Map<String, Number> getValues() {
+			final Map<String, Number> values = Maps.newLinkedHashMap();
+			for (Stage stage : getStages()) {
+				final LatencyHistogram latency = stage.latency;
+				values.put(stage.name + " count", latency.getCount());
+				values.put(stage.name + " mean us", latency.getMeanNanos() / 1e3);
+				for (double quantile : QUANTILES) {
+					values.put(stage.name + " p" + formatQuantile(quantile) + " us",
+							latency.getValueAtQuantile(quantile) / 1e3);
+				}
+				values.put(stage.name + " max us", latency.getMaxNanos() / 1e3);
+				values.put(stage.name + " allocated bytes", stage.getAllocatedBytes());
+			}
+			for (Map.Entry<String, AtomicLong> counter : getCounters().entrySet()) {
+				values.put(counter.getKey(), counter.getValue().get());
+			}
+			return values;
+		}
+
+		@Override public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			final Number value = getValues().get(attribute);
+			if (value == null) throw new AttributeNotFoundException(attribute);
+			return value;
+		}
+
+		@Override public AttributeList getAttributes(String[] attributes) {
+			final Map<String, Number> values = getValues();
+			final AttributeList result = new AttributeList();
+			for (String attribute : attributes) {
+				if (values.containsKey(attribute)) result.add(new Attribute(attribute, values.get(attribute)));
+			}
+			return result;
+		}
+
+		@Override public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("metrics are read-only");
+		}
+
+		@Override public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override public MBeanInfo getMBeanInfo() {
+			final List<MBeanAttributeInfo> attributes = Lists.newArrayList();
+			for (Map.Entry<String, Number> value : getValues().entrySet()) {
+				attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+						value.getKey(), true, false, false));
+			}
+			return new MBeanInfo(MetricsRegistry.class.getName(),
+					"latency, allocation and counts of each stage of processing",
+					attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+					null, null, null);
+		}
+	}
+}
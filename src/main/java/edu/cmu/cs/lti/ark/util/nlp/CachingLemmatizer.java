@@ -0,0 +1,128 @@
+package edu.cmu.cs.lti.ark.util.nlp;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Remembers the lemmas of the most recently used (word, postag) pairs, so that frequent words are only lemmatized
+ * once. One instance can be shared by any number of threads (as long as the lemmatizer it wraps is thread-safe).
+ *
+ * The cache can be warmed with a frequency list (see {@link #main}), so that the most frequent words in a corpus
+ * never need to be lemmatized.
+ */
+@ThreadSafe
+public class CachingLemmatizer extends Lemmatizer {
+	public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+	private final Lemmatizer lemmatizer;
+	private final long maximumSize;
+	private final Cache<String, String> cache;
+
+	public CachingLemmatizer(Lemmatizer lemmatizer, long maximumSize) {
+		this.lemmatizer = lemmatizer;
+		this.maximumSize = maximumSize;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+	}
+
+	/** conll forms and postags can't contain tabs, so this is unambiguous */
+	private static String getKey(String word, String postag) {
+		return word + '\t' + postag;
+	}
+
+	@Override
+	public String getLemma(String word, String postag) {
+		final String key = getKey(word, postag);
+		String lemma = cache.getIfPresent(key);
+		if (lemma == null) {
+			// two threads may both lemmatize a word the first time they see it. that's cheaper than making them wait
+			lemma = lemmatizer.getLemma(word, postag);
+			cache.put(key, lemma);
+		}
+		return lemma;
+	}
+
+	/**
+	 * Lemmatizes the most frequent words in a frequency list, filling up to half of the cache.
+	 * The cache evicts its least recently used entries, and does so per segment, before it's full as a whole. So
+	 * the words are lemmatized least frequent first, which leaves the most frequent ones the last to be evicted, and
+	 * the cache is only filled halfway, so that warming alone doesn't evict anything.
+	 *
+	 * @param frequencyList lines of "word\tpostag\tcount", sorted by decreasing count (as written by {@link #main})
+	 * @return the number of words lemmatized
+	 */
+	public int warm(File frequencyList) throws IOException {
+		final List<String[]> words = Lists.newArrayList();
+		final BufferedReader reader = Files.newReader(frequencyList, Charsets.UTF_8);
+		try {
+			String line;
+			while (words.size() < maximumSize / 2 && (line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length >= 2) words.add(fields);
+			}
+		} finally {
+			closeQuietly(reader);
+		}
+		for (String[] fields : Lists.reverse(words)) {
+			getLemma(fields[0], fields[1]);
+		}
+		return words.size();
+	}
+
+	public String getSummary() {
+		return String.format("lemma cache: %d hits, %d misses, %d evictions, %d lemmas in memory",
+				cache.stats().hitCount(), cache.stats().missCount(), cache.stats().evictionCount(), cache.size());
+	}
+
+	/**
+	 * Counts the (word, postag) pairs in a conll file, and writes them, most frequent first, in the format
+	 * {@link #warm} expects.
+	 *
+	 * required flags:
+	 * input-file: conll sentences
+	 * output-file: where to write the frequency list
+	 */
+	public static void main(String[] args) throws IOException {
+		final FNModelOptions options = new FNModelOptions(args);
+		final Multiset<String> counts = HashMultiset.create();
+		final SentenceCodec.SentenceIterator sentences =
+				ConllCodec.readInput(Files.newReader(new File(options.inputFile.get()), Charsets.UTF_8));
+		try {
+			while (sentences.hasNext()) {
+				final Sentence sentence = sentences.next();
+				for (Token token : sentence.getTokens()) {
+					counts.add(getKey(token.getForm(), token.getPostag()));
+				}
+			}
+		} finally {
+			closeQuietly(sentences);
+		}
+		final PrintWriter output = new PrintWriter(Files.newWriter(new File(options.outputFile.get()), Charsets.UTF_8));
+		try {
+			for (Multiset.Entry<String> entry : Multisets.copyHighestCountFirst(counts).entrySet()) {
+				output.println(entry.getElement() + '\t' + entry.getCount());
+			}
+		} finally {
+			closeQuietly(output);
+		}
+	}
+}
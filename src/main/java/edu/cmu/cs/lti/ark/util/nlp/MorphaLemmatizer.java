@@ -9,18 +9,35 @@ import java.io.StringReader;
 /**
  * Adapts Morpha to Lemmatizer interface
  *
+ * Each thread reuses one Morpha lexer (and its 16K character buffer), resetting it for every word, rather than
+ * creating a new one per word.
+ *
  * @author sthomson@cs.cmu.edu
  */
 public class MorphaLemmatizer extends Lemmatizer {
+	private static final ThreadLocal<Morpha> LEXER = new ThreadLocal<Morpha>() {
+		@Override protected Morpha initialValue() {
+			return new Morpha(new StringReader(""), true);
+		}
+	};
+
 	@Override
 	public String getLemma(String word, String postag) {
 		Preconditions.checkNotNull(word);
 		Preconditions.checkNotNull(postag);
 		if (word.isEmpty()) return "";
 		final String token = word.toLowerCase();
-		final String tokenAndPostag = String.format("%s_%s", token.replaceAll("_", "-"), postag.toUpperCase());
+		final String tokenAndPostag = new StringBuilder(token.length() + postag.length() + 1)
+				.append(token.replace('_', '-'))
+				.append('_')
+				.append(postag.toUpperCase())
+				.toString();
+		final Morpha lexer = LEXER.get();
+		lexer.yyreset(new StringReader(tokenAndPostag));
+		// what the constructor does when the input is tagged
+		lexer.yybegin(Morpha.scan);
 		try {
-			return new Morpha(new StringReader(tokenAndPostag), true).next();
+			return lexer.next();
 		} catch (IOException e) {
 			return token;
 		} catch (Error e) {
@@ -58,6 +58,11 @@ public class DependencyParse extends ParseNode<DependencyParse> {
 				@Override public DependencyParse[] get() {
 					return sortNodesByIndex(getDescendants(true));
 				} });
+	private final Supplier<DependencyTreeIndex> treeIndexSupplier =
+			Suppliers.memoize(new Supplier<DependencyTreeIndex>() {
+				@Override public DependencyTreeIndex get() {
+					return new DependencyTreeIndex(getIndexSortedListOfNodes());
+				} });
 
 	public String getSentence() {
 		return sentence;
@@ -347,6 +352,15 @@ public class DependencyParse extends ParseNode<DependencyParse> {
 		return indexSortedNodesSupplier.get();
 	}
 
+	/**
+	 * @return an index of the parse rooted at this node, for finding paths, heads of spans, and constituents
+	 * 	without walking the tree
+	 */
+	public DependencyTreeIndex getTreeIndex() {
+		// memoized
+		return treeIndexSupplier.get();
+	}
+
 	public static DependencyParse[] sortNodesByIndex(List<DependencyParse> nodes) {
 		DependencyParse[] nodeArray = nodes.toArray(new DependencyParse[nodes.size()]);
 		Arrays.sort(nodeArray, indexComparator);
@@ -434,36 +448,10 @@ public class DependencyParse extends ParseNode<DependencyParse> {
 	 * @return the list of constituents in parse. results.get(i) is the span headed by token i.
 	 */
 	public List<Range0Based> getConstituents() {
-		final DependencyParse[] nodes = getIndexSortedListOfNodes();
-		final int length = nodes.length - 1;
-		// left[i] is the index of the left-most descendant of i
-		int left[] = new int[length];
-		// right[i] is the index of the right-most descendant of i
-		int right[] = new int[length];
-		// translate parent indices from 1-based to 0-based
-		int[] parent = new int[length];
-		for (int i : xrange(length)) {
-			parent[i] = (nodes[i+1].getParentIndex() - 1);
-			left[i] = i;
-			right[i] = i;
-		}
-
-		// for each node i, expand i's ancestors' spans to include i
-		for (int i : xrange(length)) {
-			int parentIndex = parent[i];
-			while (parentIndex >= 0) {
-				if (left[parentIndex] > i) {
-					left[parentIndex] = i;
-				}
-				if (right[parentIndex] < i) {
-					right[parentIndex] = i;
-				}
-				parentIndex = parent[parentIndex];
-			}
-		}
+		final DependencyTreeIndex treeIndex = getTreeIndex();
 		ImmutableList.Builder<Range0Based> results = ImmutableList.builder();
-		for(int i : xrange(length)) {
-			results.add(new Range0Based(left[i], right[i]));
+		for (int i : xrange(treeIndex.size() - 1)) {
+			results.add(new Range0Based(treeIndex.getConstituentStart(i), treeIndex.getConstituentEnd(i)));
 		}
 		return results.build();
 	}
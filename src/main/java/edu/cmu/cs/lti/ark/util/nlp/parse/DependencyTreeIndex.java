@@ -0,0 +1,264 @@
+package edu.cmu.cs.lti.ark.util.nlp.parse;
+
+import edu.cmu.cs.lti.ark.util.ds.Range0Based;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Answers questions about the shape of a dependency tree (lowest common ancestors, paths, heads of spans, constituents)
+ * without walking the tree or allocating.
+ * Built once per parse, in O(n log n) time: parent and depth arrays, the span of each node's subtree, and a sparse
+ * table over an Euler tour of the tree, which gives the lowest common ancestor of any two nodes in O(1).
+ *
+ * Nodes are numbered as in {@link DependencyParse#getIndexSortedListOfNodes}: 0 is the dummy root, and token i is
+ * node i + 1.
+ * Get an instance with {@link DependencyParse#getTreeIndex}.
+ */
+@Immutable
+public class DependencyTreeIndex {
+	private final DependencyParse[] nodes;
+	private final int[] parent;
+	private final int[] depth;
+	/** the left-most and right-most nodes in each node's subtree, and how many nodes it has */
+	private final int[] subtreeStart;
+	private final int[] subtreeEnd;
+	private final int[] subtreeSize;
+	/** whether each node's word contains "of", for {@link #getHeuristicHead} */
+	private final boolean[] containsOf;
+	/** position of each node's first visit in the Euler tour */
+	private final int[] firstVisit;
+	/** minDepthNode[k][i] is the shallowest node among the 2^k visits starting at position i of the Euler tour */
+	private final int[][] minDepthNode;
+
+	DependencyTreeIndex(DependencyParse[] nodes) {
+		final int n = nodes.length;
+		this.nodes = nodes;
+		parent = new int[n];
+		depth = new int[n];
+		subtreeStart = new int[n];
+		subtreeEnd = new int[n];
+		subtreeSize = new int[n];
+		containsOf = new boolean[n];
+		firstVisit = new int[n];
+		// children of each node, in index order, as ranges of one array
+		final int[] numChildren = new int[n + 1];
+		parent[0] = -1;
+		for (int i = 1; i < n; i++) {
+			parent[i] = nodes[i].getParentIndex();
+			checkArgument(parent[i] >= 0 && parent[i] < n, "node %s has no parent in the tree", i);
+			numChildren[parent[i] + 1]++;
+			containsOf[i] = nodes[i].getWord() != null && nodes[i].getWord().contains("of");
+		}
+		final int[] childrenStart = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			childrenStart[i + 1] = childrenStart[i] + numChildren[i + 1];
+		}
+		final int[] children = new int[n];
+		final int[] nextChild = new int[n];
+		System.arraycopy(childrenStart, 0, nextChild, 0, n);
+		for (int i = 1; i < n; i++) {
+			children[nextChild[parent[i]]++] = i;
+		}
+
+		// depth-first, without recursion, visiting each node once on the way down and again after each child
+		final int[] tour = new int[2 * n - 1];
+		int tourLength = 0;
+		final int[] stack = new int[n];
+		final int[] childrenVisited = new int[n];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		firstVisit[0] = tourLength;
+		tour[tourLength++] = 0;
+		initSubtree(0);
+		while (stackSize > 0) {
+			final int node = stack[stackSize - 1];
+			if (childrenVisited[node] < childrenStart[node + 1] - childrenStart[node]) {
+				final int child = children[childrenStart[node] + childrenVisited[node]++];
+				depth[child] = depth[node] + 1;
+				stack[stackSize++] = child;
+				firstVisit[child] = tourLength;
+				tour[tourLength++] = child;
+				initSubtree(child);
+			} else {
+				stackSize--;
+				if (stackSize > 0) {
+					final int up = stack[stackSize - 1];
+					subtreeStart[up] = Math.min(subtreeStart[up], subtreeStart[node]);
+					subtreeEnd[up] = Math.max(subtreeEnd[up], subtreeEnd[node]);
+					subtreeSize[up] += subtreeSize[node];
+					tour[tourLength++] = up;
+				}
+			}
+		}
+		checkArgument(tourLength == tour.length, "parse is not a tree");
+
+		final int numLevels = 32 - Integer.numberOfLeadingZeros(tourLength);
+		minDepthNode = new int[numLevels][];
+		minDepthNode[0] = tour;
+		for (int k = 1; k < numLevels; k++) {
+			final int[] previous = minDepthNode[k - 1];
+			final int half = 1 << (k - 1);
+			final int[] level = new int[tourLength - (1 << k) + 1];
+			for (int i = 0; i < level.length; i++) {
+				level[i] = shallower(previous[i], previous[i + half]);
+			}
+			minDepthNode[k] = level;
+		}
+	}
+
+	private void initSubtree(int node) {
+		subtreeStart[node] = node;
+		subtreeEnd[node] = node;
+		subtreeSize[node] = 1;
+	}
+
+	private int shallower(int a, int b) {
+		return depth[a] <= depth[b] ? a : b;
+	}
+
+	public int size() {
+		return nodes.length;
+	}
+
+	public DependencyParse getNode(int node) {
+		return nodes[node];
+	}
+
+	/** @return the parent of node, or -1 for the dummy root */
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/** @return the number of arcs between node and the dummy root */
+	public int getDepth(int node) {
+		return depth[node];
+	}
+
+	/** @return the deepest node that is an ancestor of (or equal to) both a and b */
+	public int getLowestCommonAncestor(int a, int b) {
+		int start = firstVisit[a];
+		int end = firstVisit[b];
+		if (start > end) {
+			final int tmp = start;
+			start = end;
+			end = tmp;
+		}
+		final int k = 31 - Integer.numberOfLeadingZeros(end - start + 1);
+		return shallower(minDepthNode[k][start], minDepthNode[k][end - (1 << k) + 1]);
+	}
+
+	/**
+	 * @return the number of nodes on the path from one node to another, counting both ends, i.e. the size of
+	 * 	{@link DependencyParse#getPath}
+	 */
+	public int getPathLength(int from, int to) {
+		return depth[from] + depth[to] - 2 * depth[getLowestCommonAncestor(from, to)] + 1;
+	}
+
+	/**
+	 * Fills path with the nodes on the path from one node to another: up from 'from' to the lowest common ancestor,
+	 * then down to 'to'. These are the nodes of {@link DependencyParse#getPath}, in the same order; a step is
+	 * upwards when the depth decreases.
+	 *
+	 * @param path must have room for {@link #getPathLength} nodes
+	 * @return the number of nodes on the path
+	 */
+	public int getPath(int from, int to, int[] path) {
+		final int ancestor = getLowestCommonAncestor(from, to);
+		final int length = depth[from] + depth[to] - 2 * depth[ancestor] + 1;
+		int i = 0;
+		for (int node = from; node != ancestor; node = parent[node]) {
+			path[i++] = node;
+		}
+		path[i] = ancestor;
+		int j = length - 1;
+		for (int node = to; node != ancestor; node = parent[node]) {
+			path[j--] = node;
+		}
+		return length;
+	}
+
+	/** @return the first token (0-based) in the subtree headed by token, i.e. the start of its constituent */
+	public int getConstituentStart(int token) {
+		return subtreeStart[token + 1] - 1;
+	}
+
+	/** @return the last token (0-based) in the subtree headed by token, i.e. the end of its constituent */
+	public int getConstituentEnd(int token) {
+		return subtreeEnd[token + 1] - 1;
+	}
+
+	/** @return whether the tokens start to end (0-based, inclusive) are exactly a token and all of its descendants */
+	public boolean isConstituent(int start, int end) {
+		// in a non-projective tree the head of the constituent can be above the ends' lowest common ancestor
+		int head = getLowestCommonAncestor(start + 1, end + 1);
+		while (parent[head] > 0 && subtreeStart[parent[head]] > start && subtreeEnd[parent[head]] <= end + 1) {
+			head = parent[head];
+		}
+		return head != 0
+				&& subtreeStart[head] == start + 1
+				&& subtreeEnd[head] == end + 1
+				&& subtreeSize[head] == end - start + 1;
+	}
+
+	/** Same as {@link DependencyParse#getHeuristicHead(DependencyParse[], Range0Based)}, but doesn't allocate */
+	public DependencyParse getHeuristicHead(Range0Based span) {
+		return getHeuristicHead(span.start, span.start + span.length() - 1);
+	}
+
+	/** @see #getHeuristicHead(Range0Based) */
+	public DependencyParse getHeuristicHead(int start, int end) {
+		if (start == end) return nodes[start + 1];
+		int first = -1;
+		int last = -1;
+		int numExternal = 0;
+		boolean fragmentContainsOf = false;
+		for (int node = start + 1; node <= end + 1; node++) {
+			if (isExternal(parent[node], start + 1, end + 1)) {
+				if (first < 0) first = node;
+				last = node;
+				numExternal++;
+			}
+			fragmentContainsOf |= containsOf[node];
+		}
+		return chooseHead(first, last, numExternal, fragmentContainsOf);
+	}
+
+	/** Same as {@link DependencyParse#getHeuristicHead(DependencyParse[], int[])}, but doesn't allocate */
+	public DependencyParse getHeuristicHead(int[] tokenNums) {
+		if (tokenNums.length == 1) return nodes[tokenNums[0] + 1];
+		final int start = tokenNums[0] + 1;
+		final int end = tokenNums[tokenNums.length - 1] + 1;
+		int first = -1;
+		int last = -1;
+		int numExternal = 0;
+		boolean fragmentContainsOf = false;
+		for (int tokenNum : tokenNums) {
+			final int node = tokenNum + 1;
+			if (isExternal(parent[node], start, end)) {
+				if (first < 0) first = node;
+				last = node;
+				numExternal++;
+			}
+			fragmentContainsOf |= containsOf[node];
+		}
+		return chooseHead(first, last, numExternal, fragmentContainsOf);
+	}
+
+	private static boolean isExternal(int node, int start, int end) {
+		return node < start || node > end;
+	}
+
+	private DependencyParse chooseHead(int first, int last, int numExternal, boolean fragmentContainsOf) {
+		if (numExternal == 0) throw new IllegalStateException("No node in the span has a parent outside of it");
+		final DependencyParse firstNode = nodes[first];
+		if (numExternal == 1) return firstNode;
+		final DependencyParse lastNode = nodes[last];
+		if (firstNode.getPOS().startsWith("V")) return firstNode;
+		if (firstNode.getPOS().startsWith("J")) return lastNode;
+		if (fragmentContainsOf && firstNode.getPOS().startsWith("N")) return firstNode;
+		return lastNode;
+	}
+}
@@ -0,0 +1,124 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random argument-identification problems, for testing and benchmarking decoders.
+ * The defaults are roughly the size of real problems; the with* methods change the shape of the frames.
+ */
+public class SyntheticFrames {
+	public static final String FRAME_NAME = "Frame";
+
+	private final Random random;
+	private final int numFeatures;
+	private int maxTokens = 40;
+	private int maxRoles = 8;
+	private int maxCandidates = 15;
+	private int maxSpanLength = 5;
+	private int maxFeatures = 20;
+	private boolean withDuplicates = false;
+	private boolean withDistinctScores = false;
+	private boolean withGoldSpans = false;
+	private int nextFeature = 1;
+
+	/** Frames whose candidate spans have features in [0, numFeatures) */
+	public SyntheticFrames(Random random, int numFeatures) {
+		this.random = random;
+		this.numFeatures = numFeatures;
+	}
+
+	/**
+	 * Frames in sentences of up to maxTokens tokens, with up to maxRoles roles named "Role0", "Role1", etc.
+	 * Each role has a null span and up to maxCandidates other candidate spans of up to maxSpanLength tokens,
+	 * each with up to maxFeatures features.
+	 */
+	public SyntheticFrames withShape(int maxTokens, int maxRoles, int maxCandidates, int maxSpanLength,
+									 int maxFeatures) {
+		this.maxTokens = maxTokens;
+		this.maxRoles = maxRoles;
+		this.maxCandidates = maxCandidates;
+		this.maxSpanLength = maxSpanLength;
+		this.maxFeatures = maxFeatures;
+		return this;
+	}
+
+	/** Occasionally repeats a role name, or a candidate span */
+	public SyntheticFrames withDuplicates() {
+		withDuplicates = true;
+		return this;
+	}
+
+	/**
+	 * Gives each candidate span its own feature, so that different assignments (almost surely) have
+	 * different scores, and the order of a k-best list is well-defined.
+	 */
+	public SyntheticFrames withDistinctScores() {
+		withDistinctScores = true;
+		return this;
+	}
+
+	/** Picks a random gold span for each role, for training */
+	public SyntheticFrames withGoldSpans() {
+		withGoldSpans = true;
+		return this;
+	}
+
+	public FrameFeatures frame() {
+		final int numTokens = 1 + random.nextInt(maxTokens);
+		final int numRoles = 1 + random.nextInt(maxRoles);
+		final FrameFeatures frameFeatures = new FrameFeatures(FRAME_NAME, 0, 0);
+		for (int role = 0; role < numRoles; role++) {
+			final String roleName = "Role" + (withDuplicates && random.nextInt(10) == 0 ? 0 : role);
+			final List<SpanAndCorrespondingFeatures> candidates = Lists.newArrayList();
+			candidates.add(new SpanAndCorrespondingFeatures(new int[] {-1, -1}, features()));
+			for (int i = random.nextInt(maxCandidates + 1); i > 0; i--) {
+				final int start = random.nextInt(numTokens);
+				final int end = Math.min(numTokens - 1, start + random.nextInt(maxSpanLength));
+				candidates.add(new SpanAndCorrespondingFeatures(new int[] {start, end}, features()));
+				if (withDuplicates && random.nextInt(10) == 0) candidates.add(candidates.get(candidates.size() - 1));
+			}
+			frameFeatures.fElements.add(roleName);
+			frameFeatures.fElementSpansAndFeatures.add(candidates.toArray(new SpanAndCorrespondingFeatures[0]));
+			if (withGoldSpans) frameFeatures.goldSpanIdxs.add(random.nextInt(candidates.size()));
+		}
+		return frameFeatures;
+	}
+
+	public List<FrameFeatures> frames(int numFrames) {
+		final List<FrameFeatures> frames = Lists.newArrayList();
+		for (int i = 0; i < numFrames; i++) frames.add(frame());
+		return frames;
+	}
+
+	private int[] features() {
+		final int[] features = new int[1 + random.nextInt(maxFeatures)];
+		int i = 0;
+		if (withDistinctScores) features[i++] = nextFeature++;
+		for (; i < features.length; i++) features[i] = random.nextInt(numFeatures);
+		return features;
+	}
+
+	/** Random weights for numFeatures features */
+	public static double[] weights(Random random, int numFeatures) {
+		final double[] weights = new double[numFeatures];
+		for (int i = 0; i < numFeatures; i++) weights[i] = random.nextGaussian();
+		return weights;
+	}
+
+	/** A frame line for a one-token target, in the format DataPointWithFrameElements expects */
+	public static String frameLine(String frame, int targetIdx) {
+		return "0\t1.0\t1\t" + frame + "\tlu.v\t" + targetIdx + "\tword\t0";
+	}
+
+	/** Frame lines to go with frames, in the format Decoding.getInitialDecisionLine expects */
+	public static List<String> frameLines(int numFrames) {
+		final List<String> frameLines = Lists.newArrayList();
+		for (int i = 0; i < numFrames; i++) {
+			frameLines.add("0\t1.0\t1\t" + FRAME_NAME + "\tlu.v\t0\tword\t" + i);
+		}
+		return frameLines;
+	}
+}
@@ -0,0 +1,57 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.copyOf;
+import static com.google.common.io.Resources.getResource;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static org.junit.Assert.assertEquals;
+
+public class CachingSemaforTest {
+	private static final String FIXTURE = "fixtures/example.conll";
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParseAllUsesTheCache() throws Exception {
+		final Semafor semafor =
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath());
+		final List<Sentence> fixture = copyOf(ConllCodec.readInput(
+				Resources.newReaderSupplier(getResource(FIXTURE), Charsets.UTF_8).getInput()));
+		final List<Sentence> sentences = Lists.newArrayList();
+		for (int i = 0; i < 3; i++) sentences.addAll(fixture);
+		final List<String> expected = Lists.newArrayList();
+		for (Sentence sentence : sentences) expected.add(semafor.parseSentence(sentence).toJson());
+
+		final ParseCache cache = new ParseCache(100, Optional.<File>absent(), "model");
+		final CachingSemafor cachingSemafor = new CachingSemafor(semafor, cache);
+		cachingSemafor.setBatchThreads(2);
+		try {
+			final List<SemaforParseResult> results = cachingSemafor.parseAll(sentences);
+			assertEquals(expected.size(), results.size());
+			for (int i = 0; i < results.size(); i++) assertEquals(expected.get(i), results.get(i).toJson());
+			// each distinct sentence was parsed once, and cached
+			assertEquals(0, cache.getHitCount());
+			for (Sentence sentence : fixture) cachingSemafor.parseSentence(sentence);
+			assertEquals(fixture.size(), cache.getHitCount());
+
+			final Iterator<SemaforParseResult> lazyResults = cachingSemafor.parseAll(sentences.iterator());
+			for (String json : expected) assertEquals(json, lazyResults.next().toJson());
+			assertEquals(fixture.size() + sentences.size(), cache.getHitCount());
+		} finally {
+			cachingSemafor.close();
+		}
+	}
+}
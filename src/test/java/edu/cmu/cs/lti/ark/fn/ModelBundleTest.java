@@ -0,0 +1,161 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.identification.RequiredDataForFrameIdentification;
+import edu.cmu.cs.lti.ark.fn.identification.SmoothedGraph;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier.GRAPH_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier.ID_MODEL_FILE;
+import static edu.cmu.cs.lti.ark.util.SerializedObjects.writeSerializedObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelBundleTest {
+	private static final String FIXTURE = "fixtures/example.conll";
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private static THashSet<String> setOf(String... values) {
+		return new THashSet<String>(ImmutableSet.copyOf(values));
+	}
+
+	private static THashMap<String, THashSet<String>> mapOf(Map<String, THashSet<String>> map) {
+		return new THashMap<String, THashSet<String>>(map);
+	}
+
+	/** Writes a tiny, made up model in the usual model directory format */
+	static File writeModel(File modelDir) throws IOException {
+		final THashMap<String, THashSet<String>> frameMap = mapOf(ImmutableMap.of(
+				"Locale_by_use", setOf("kitchen.n"),
+				"Sensation", setOf("smell.v"),
+				"Filling", setOf("fill.v")));
+		final THashMap<String, THashSet<String>> framesByLemma = mapOf(ImmutableMap.of(
+				"kitchen", setOf("Locale_by_use"),
+				"smell", setOf("Sensation", "Filling")));
+		writeSerializedObject(
+				new RequiredDataForFrameIdentification(setOf("kitchen_N", "smell_V", "fill_V", "air_N"),
+						null, null, frameMap, framesByLemma, null, null),
+				new File(modelDir, Semafor.REQUIRED_DATA_FILENAME).getAbsolutePath());
+		final Map<String, Set<String>> fineMap = new THashMap<String, Set<String>>();
+		fineMap.put("fill.v", setOf("Filling"));
+		final Map<String, Set<String>> coarseMap = new THashMap<String, Set<String>>();
+		coarseMap.put("air", setOf("Sensation", "Locale_by_use"));
+		writeSerializedObject(new SmoothedGraph(fineMap, coarseMap),
+				new File(modelDir, GRAPH_FILENAME).getAbsolutePath());
+		Files.write("basic\n" +
+				"f:Sensation bias\t0.5\n" +
+				"f:Filling bias\t0.25\n" +
+				"f:Locale_by_use bias\t-1.0\n" +
+				"bias\t0.125\n",
+				new File(modelDir, ID_MODEL_FILE), Charsets.UTF_8);
+		Files.write("3\nbias_Percept\nnullFeature\nnullFeature_Sensation.Percept\n",
+				new File(modelDir, Semafor.ALPHABET_FILENAME), Charsets.UTF_8);
+		Files.write("0.0\n0.5\n1.0\n-0.25\n", new File(modelDir, Semafor.ARG_MODEL_FILENAME), Charsets.UTF_8);
+		writeSerializedObject(mapOf(ImmutableMap.of(
+				"Sensation", setOf("Percept", "Perceiver_passive"),
+				"Filling", setOf("Goal", "Theme"))),
+				new File(modelDir, Semafor.FRAME_ELEMENT_MAP_FILENAME).getAbsolutePath());
+		return modelDir;
+	}
+
+	private static List<Sentence> readSentences() throws IOException {
+		return Lists.newArrayList(ConllCodec.readInput(
+				new InputStreamReader(Resources.getResource(FIXTURE).openStream(), Charsets.UTF_8)));
+	}
+
+	private static List<String> sorted(String[] values) {
+		return Ordering.natural().sortedCopy(Arrays.asList(values));
+	}
+
+	@Test
+	public void testBundledModelMatchesOriginal() throws Exception {
+		final File modelDir = writeModel(folder.newFolder("model"));
+		final Semafor original = Semafor.getSemaforInstance(modelDir.getAbsolutePath());
+		final File bundleFile = new File(modelDir, ModelBundle.DEFAULT_FILENAME);
+		ModelBundle.compile(modelDir.getAbsolutePath(), bundleFile);
+		// getSemaforInstance should now pick up the bundle
+		final Semafor bundled = Semafor.getSemaforInstance(modelDir.getAbsolutePath());
+		final Semafor onHeap = ModelBundle.load(bundleFile, false);
+
+		assertEquals(original.allRelatedWords, bundled.allRelatedWords);
+		assertEquals(original.argIdFeatureIndex, bundled.argIdFeatureIndex);
+		for (Map.Entry<String, Integer> feature : original.argIdFeatureIndex.entrySet()) {
+			final double weight = original.decoder.getModelWeights().get(feature.getValue());
+			assertEquals(feature.getKey(), weight,
+					bundled.decoder.getModelWeights().get(bundled.argIdFeatureIndex.get(feature.getKey())), 0.0);
+			assertEquals(feature.getKey(), weight,
+					onHeap.decoder.getModelWeights().get(onHeap.argIdFeatureIndex.get(feature.getKey())), 0.0);
+		}
+		for (String frame : ImmutableList.of("Sensation", "Filling", "Locale_by_use")) {
+			assertEquals(sorted(original.frameElementsForFrame.lookupFrameElements(frame)),
+					sorted(bundled.frameElementsForFrame.lookupFrameElements(frame)));
+		}
+		for (Sentence unLemmatized : readSentences()) {
+			final Sentence sentence = original.addLemmas(unLemmatized);
+			final List<List<Integer>> targets = original.predictTargets(sentence);
+			assertEquals(targets, bundled.predictTargets(sentence));
+			assertEquals(original.predictFrames(sentence, targets), bundled.predictFrames(sentence, targets));
+			assertEquals(original.predictFrames(sentence, targets), onHeap.predictFrames(sentence, targets));
+			// argument identification, with the bundle's mapped weights
+			final String parse = original.parseSentence(unLemmatized).toJson();
+			assertEquals(parse, bundled.parseSentence(unLemmatized).toJson());
+			assertEquals(parse, onHeap.parseSentence(unLemmatized).toJson());
+		}
+	}
+
+	@Test
+	public void testStaleBundleIsRefused() throws Exception {
+		final File modelDir = writeModel(folder.newFolder("model"));
+		final File bundleFile = new File(modelDir, ModelBundle.DEFAULT_FILENAME);
+		ModelBundle.compile(modelDir.getAbsolutePath(), bundleFile);
+		// retrain the argument model
+		final File argModelFile = new File(modelDir, Semafor.ARG_MODEL_FILENAME);
+		final long lastModified = argModelFile.lastModified();
+		Files.write("0.0\n0.5\n1.0\n-0.5\n", argModelFile, Charsets.UTF_8);
+		argModelFile.setLastModified(lastModified);
+		try {
+			Semafor.getSemaforInstance(modelDir.getAbsolutePath());
+			fail("expected a stale bundle to be refused");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(Semafor.ARG_MODEL_FILENAME));
+		}
+		// the same size, but touched
+		ModelBundle.compile(modelDir.getAbsolutePath(), bundleFile);
+		assertTrue(argModelFile.setLastModified(lastModified - 10000));
+		try {
+			Semafor.getSemaforInstance(modelDir.getAbsolutePath());
+			fail("expected a stale bundle to be refused");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(Semafor.ARG_MODEL_FILENAME));
+		}
+		// a bundle deployed without its model files loads
+		ModelBundle.compile(modelDir.getAbsolutePath(), bundleFile);
+		for (File file : modelDir.listFiles()) {
+			if (!file.equals(bundleFile)) assertTrue(file.delete());
+		}
+		Semafor.getSemaforInstance(modelDir.getAbsolutePath());
+	}
+}
@@ -0,0 +1,133 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult.Frame;
+import static org.junit.Assert.assertEquals;
+
+public class ParseCacheTest {
+	private static final String FIXTURE = "fixtures/example.conll";
+	private static final String FINGERPRINT = "model-1";
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger numParsed = new AtomicInteger();
+
+	private static List<Sentence> readSentences() throws IOException {
+		return Lists.newArrayList(ConllCodec.readInput(
+				new InputStreamReader(Resources.getResource(FIXTURE).openStream(), Charsets.UTF_8)));
+	}
+
+	/** A fake parse result, which just echoes the tokens */
+	private static String expected(Sentence sentence) throws IOException {
+		final List<String> tokens = Lists.newArrayList();
+		for (int i = 0; i < sentence.size(); i++) tokens.add(sentence.getTokens().get(i).getForm());
+		return new SemaforParseResult(ImmutableList.<Frame>of(), tokens).toJson();
+	}
+
+	/** A fake parse, which counts how many times it's called */
+	private Callable<SemaforParseResult> parse(final Sentence sentence) {
+		return new Callable<SemaforParseResult>() {
+			@Override public SemaforParseResult call() throws Exception {
+				numParsed.incrementAndGet();
+				return SemaforParseResult.fromJson(expected(sentence));
+			} };
+	}
+
+	@Test
+	public void testDuplicatesAreParsedOnce() throws IOException {
+		final List<Sentence> sentences = readSentences();
+		final ParseCache cache = new ParseCache(10, Optional.<File>absent(), FINGERPRINT);
+		for (int i = 0; i < 3; i++) {
+			for (Sentence sentence : sentences) {
+				// decode again, so that we're not relying on object identity
+				final Sentence copy = ConllCodec.decode(ConllCodec.encode(sentence));
+				assertEquals(expected(sentence), cache.get(copy, parse(copy)).toJson());
+			}
+		}
+		assertEquals(sentences.size(), numParsed.get());
+		assertEquals(2 * sentences.size(), cache.getHitCount());
+		assertEquals(sentences.size(), cache.getMissCount());
+	}
+
+	@Test
+	public void testEvictedResultsAreReadFromDisk() throws Exception {
+		final List<Sentence> sentences = readSentences();
+		final File storeFile = new File(folder.getRoot(), "cache.txt");
+		final ParseCache cache = new ParseCache(1, Optional.of(storeFile), FINGERPRINT);
+		try {
+			for (Sentence sentence : sentences) cache.get(sentence, parse(sentence));
+			// the first sentence has been evicted from memory, but not from disk
+			final Sentence first = sentences.get(0);
+			assertEquals(expected(first), cache.get(first, parse(first)).toJson());
+			assertEquals(sentences.size(), cache.getMissCount());
+			assertEquals(1, cache.getDiskHitCount());
+		} finally {
+			cache.close();
+		}
+		// simulate a crash in the middle of writing a result
+		Files.append("0123456789abcdef\t{\"frames\":", storeFile, Charsets.UTF_8);
+		// a new cache should reuse everything that's on disk
+		final ParseCache reopened = new ParseCache(10, Optional.of(storeFile), FINGERPRINT);
+		try {
+			numParsed.set(0);
+			for (Sentence sentence : sentences) {
+				assertEquals(expected(sentence), reopened.get(sentence, parse(sentence)).toJson());
+			}
+			assertEquals(0, numParsed.get());
+			assertEquals(0, reopened.getMissCount());
+			assertEquals(sentences.size(), reopened.getDiskHitCount());
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testResultsFromAnotherModelAreCleared() throws Exception {
+		final List<Sentence> sentences = readSentences();
+		final File storeFile = new File(folder.getRoot(), "cache.txt");
+		final ParseCache cache = new ParseCache(10, Optional.of(storeFile), FINGERPRINT);
+		try {
+			for (Sentence sentence : sentences) cache.get(sentence, parse(sentence));
+		} finally {
+			cache.close();
+		}
+		final ParseCache retrained = new ParseCache(10, Optional.of(storeFile), "model-2");
+		try {
+			numParsed.set(0);
+			for (Sentence sentence : sentences) {
+				assertEquals(expected(sentence), retrained.get(sentence, parse(sentence)).toJson());
+			}
+			assertEquals(sentences.size(), numParsed.get());
+			assertEquals(0, retrained.getDiskHitCount());
+		} finally {
+			retrained.close();
+		}
+		// the store now belongs to the new model
+		final ParseCache reopened = new ParseCache(10, Optional.of(storeFile), "model-2");
+		try {
+			for (Sentence sentence : sentences) reopened.get(sentence, parse(sentence));
+			assertEquals(sentences.size(), reopened.getDiskHitCount());
+		} finally {
+			reopened.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static edu.cmu.cs.lti.ark.fn.SemaforSocketServerTest.getConll;
+import static edu.cmu.cs.lti.ark.fn.SemaforSocketServerTest.getEchoSemafor;
+import static edu.cmu.cs.lti.ark.fn.SemaforSocketServerTest.getExpectedJson;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SemaforHttpServerTest {
+	private static final int NUM_SENTENCES = 30;
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private Semafor semafor;
+	private ExecutorService workerThreadPool;
+	private HttpServer server;
+	private URL parseUrl;
+
+	@Before
+	public void startServer() throws Exception {
+		semafor = getEchoSemafor(folder);
+		workerThreadPool = newFixedThreadPool(3);
+		server = new SemaforHttpServer(semafor, workerThreadPool, 4).start(new InetSocketAddress("localhost", 0));
+		parseUrl = new URL("http", "localhost", server.getAddress().getPort(), SemaforHttpServer.PARSE_PATH);
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+		workerThreadPool.shutdownNow();
+	}
+
+	@Test
+	public void testResultsComeBackInOrder() throws Exception {
+		// two batches, which HttpURLConnection sends over the same kept-alive connection
+		for (String batch : new String[] { "first", "second" }) {
+			final StringBuilder input = new StringBuilder();
+			final List<String> expected = Lists.newArrayList();
+			for (int i = 0; i < NUM_SENTENCES; i++) {
+				input.append(getConll(batch, i));
+				expected.add(getExpectedJson(semafor, batch, i));
+			}
+			final HttpURLConnection connection = post(input.toString());
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("application/x-ndjson"));
+			final InputStreamReader output = new InputStreamReader(connection.getInputStream(), Charsets.UTF_8);
+			try {
+				assertEquals(expected, CharStreams.readLines(output));
+			} finally {
+				output.close();
+			}
+		}
+	}
+
+	@Test
+	public void testRejectsGet() throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) parseUrl.openConnection();
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("POST", connection.getHeaderField("Allow"));
+		assertEquals("Use POST\n", readError(connection));
+	}
+
+	@Test
+	public void testRejectsMalformedInput() throws Exception {
+		final HttpURLConnection connection = post(getConll("ok", 0) + "not\ta\tconll\tline\n\n");
+		assertEquals(400, connection.getResponseCode());
+		assertTrue(readError(connection).contains("not\ta\tconll\tline"));
+	}
+
+	private HttpURLConnection post(String body) throws Exception {
+		final HttpURLConnection connection = (HttpURLConnection) parseUrl.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+		final OutputStream requestBody = connection.getOutputStream();
+		try {
+			requestBody.write(body.getBytes(Charsets.UTF_8));
+		} finally {
+			requestBody.close();
+		}
+		return connection;
+	}
+
+	private static String readError(HttpURLConnection connection) throws Exception {
+		final InputStreamReader error = new InputStreamReader(connection.getErrorStream(), Charsets.UTF_8);
+		try {
+			return CharStreams.toString(error);
+		} finally {
+			error.close();
+		}
+	}
+}
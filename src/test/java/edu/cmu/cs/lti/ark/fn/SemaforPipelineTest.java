@@ -0,0 +1,57 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static com.google.common.io.Resources.getResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SemaforPipelineTest {
+	private static final String FIXTURE = "fixtures/example.conll";
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMatchesRunParser() throws Exception {
+		final Semafor semafor =
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath());
+		final File input = folder.newFile("input.conll");
+		Files.write(Strings.repeat(Resources.toString(getResource(FIXTURE), Charsets.UTF_8).trim() + "\n\n", 25),
+				input, Charsets.UTF_8);
+		final File expected = folder.newFile("expected.json");
+		semafor.runParser(input, Files.newWriterSupplier(expected, Charsets.UTF_8), 2);
+
+		for (int batchSize : new int[] {1, 3, 100}) {
+			final File output = folder.newFile("output" + batchSize + ".json");
+			new SemaforPipeline(semafor, batchSize, 1, 2, 3, 10)
+					.run(input, Files.newWriterSupplier(output, Charsets.UTF_8));
+			assertEquals(Files.toString(expected, Charsets.UTF_8), Files.toString(output, Charsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testFailureStopsPipeline() throws Exception {
+		final Semafor semafor =
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath());
+		final File input = folder.newFile("input.conll");
+		final String fixture = Resources.toString(getResource(FIXTURE), Charsets.UTF_8).trim() + "\n\n";
+		Files.write(Strings.repeat(fixture, 10) + "not\ta\tconll\tline\n\n" + Strings.repeat(fixture, 10),
+				input, Charsets.UTF_8);
+		try {
+			new SemaforPipeline(semafor, 2, 1, 1, 1, 10)
+					.run(input, Files.newWriterSupplier(folder.newFile("output.json"), Charsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("not\ta\tconll\tline"));
+			return;
+		}
+		throw new AssertionError("expected the malformed sentence to fail");
+	}
+}
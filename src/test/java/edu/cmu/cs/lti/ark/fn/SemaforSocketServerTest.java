@@ -0,0 +1,155 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SemaforSocketServerTest {
+	private static final int NUM_CLIENTS = 4;
+	private static final int NUM_SENTENCES = 30;
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Parses a sentence into a result that just lists its tokens, taking longer for earlier sentences, so that
+	 * results finish out of order
+	 */
+	static class EchoSemafor extends Semafor {
+		EchoSemafor(Semafor other) {
+			super(other);
+		}
+
+		@Override public SemaforParseResult parseSentence(Sentence sentence) {
+			final List<String> forms = Lists.newArrayList();
+			for (Token token : sentence.getTokens()) forms.add(token.getForm());
+			try {
+				Thread.sleep(NUM_SENTENCES - Integer.parseInt(forms.get(1)) % NUM_SENTENCES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new SemaforParseResult(ImmutableList.<SemaforParseResult.Frame>of(), forms);
+		}
+	}
+
+	static EchoSemafor getEchoSemafor(TemporaryFolder folder) throws Exception {
+		return new EchoSemafor(
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath()));
+	}
+
+	/** sentence i of client, in conll format, ending with a blank line */
+	static String getConll(String client, int i) {
+		return "1\t" + client + "\t_\tNN\tNN\t_\t0\tROOT\t_\t_\n" +
+				"2\t" + i + "\t_\tCD\tCD\t_\t1\tNMOD\t_\t_\n\n";
+	}
+
+	static String getExpectedJson(Semafor semafor, String client, int i) throws Exception {
+		return semafor.parseSentence(ConllCodec.decode(getConll(client, i).trim())).toJson();
+	}
+
+	@Test
+	public void testConcurrentClientsGetTheirResultsInOrder() throws Exception {
+		final EchoSemafor semafor = getEchoSemafor(folder);
+		final ServerSocket serverSocket = new ServerSocket(0);
+		final Thread server = startServer(semafor, serverSocket);
+		final ExecutorService clients = newFixedThreadPool(NUM_CLIENTS);
+		try {
+			final List<Future<List<String>>> results = Lists.newArrayList();
+			for (int c = 0; c < NUM_CLIENTS; c++) {
+				final String client = "client" + c;
+				results.add(clients.submit(new Callable<List<String>>() {
+					@Override public List<String> call() throws Exception {
+						return parseOverSocket(serverSocket.getLocalPort(), client);
+					} }));
+			}
+			for (int c = 0; c < NUM_CLIENTS; c++) {
+				final List<String> expected = Lists.newArrayList();
+				for (int i = 0; i < NUM_SENTENCES; i++) expected.add(getExpectedJson(semafor, "client" + c, i));
+				assertEquals(expected, results.get(c).get());
+			}
+		} finally {
+			clients.shutdownNow();
+			serverSocket.close();
+		}
+		server.join(10000);
+		assertFalse(server.isAlive());
+	}
+
+	@Test
+	public void testClosingTheServerLetsOpenConnectionsFinish() throws Exception {
+		final EchoSemafor semafor = getEchoSemafor(folder);
+		final ServerSocket serverSocket = new ServerSocket(0);
+		final Thread server = startServer(semafor, serverSocket);
+		final Socket socket = new Socket("localhost", serverSocket.getLocalPort());
+		try {
+			final Writer input = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+			final BufferedReader output =
+					new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+			final List<String> expected = Lists.newArrayList();
+			for (int i = 0; i < NUM_SENTENCES; i++) expected.add(getExpectedJson(semafor, "client", i));
+			final List<String> lines = Lists.newArrayList();
+			for (int i = 0; i < NUM_SENTENCES / 2; i++) input.write(getConll("client", i));
+			input.flush();
+			// once the first result is back, the connection is being served
+			lines.add(output.readLine());
+			serverSocket.close();
+			for (int i = NUM_SENTENCES / 2; i < NUM_SENTENCES; i++) input.write(getConll("client", i));
+			input.flush();
+			socket.shutdownOutput();
+			for (String line = output.readLine(); line != null; line = output.readLine()) lines.add(line);
+			assertEquals(expected, lines);
+		} finally {
+			socket.close();
+		}
+		server.join(10000);
+		assertFalse(server.isAlive());
+	}
+
+	private static Thread startServer(final Semafor semafor, final ServerSocket serverSocket) {
+		final Thread server = new Thread(new Runnable() {
+			@Override public void run() {
+				SemaforSocketServer.runSocketServer(semafor, serverSocket, 3, 4);
+			} });
+		server.setDaemon(true);
+		server.start();
+		return server;
+	}
+
+	private static List<String> parseOverSocket(int port, String client) throws Exception {
+		final Socket socket = new Socket("localhost", port);
+		try {
+			final Writer input = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+			for (int i = 0; i < NUM_SENTENCES; i++) input.write(getConll(client, i));
+			input.flush();
+			socket.shutdownOutput();
+			final BufferedReader output =
+					new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+			final List<String> lines = Lists.newArrayList();
+			for (String line = output.readLine(); line != null; line = output.readLine()) lines.add(line);
+			return lines;
+		} finally {
+			socket.close();
+		}
+	}
+}
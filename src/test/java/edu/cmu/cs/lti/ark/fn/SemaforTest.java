@@ -0,0 +1,69 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.collect.ImmutableList.copyOf;
+import static com.google.common.io.Resources.getResource;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SemaforTest {
+	private static final String FIXTURE = "fixtures/example.conll";
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParseAllMatchesParseSentence() throws Exception {
+		final Semafor semafor =
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath());
+		final List<Sentence> fixture = copyOf(ConllCodec.readInput(
+				Resources.newReaderSupplier(getResource(FIXTURE), Charsets.UTF_8).getInput()));
+		final List<Sentence> sentences = Lists.newArrayList();
+		for (int i = 0; i < 300; i++) sentences.addAll(fixture);
+		final List<String> expected = Lists.newArrayList();
+		for (Sentence sentence : sentences) {
+			expected.add(semafor.parseSentence(sentence).toJson());
+		}
+
+		semafor.setBatchThreads(3);
+		try {
+			final List<SemaforParseResult> results = semafor.parseAll(sentences);
+			assertEquals(expected.size(), results.size());
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(expected.get(i), results.get(i).toJson());
+			}
+			final Iterator<SemaforParseResult> lazyResults = semafor.parseAll(sentences.iterator());
+			for (String json : expected) {
+				assertEquals(json, lazyResults.next().toJson());
+			}
+			assertFalse(lazyResults.hasNext());
+		} finally {
+			semafor.close();
+		}
+	}
+
+	@Test
+	public void testFailedSentencesAreTimed() throws Exception {
+		final Semafor semafor =
+				Semafor.getSemaforInstance(ModelBundleTest.writeModel(folder.newFolder("model")).getAbsolutePath());
+		try {
+			semafor.parseSentence(null);
+			fail("expected parsing a null sentence to fail");
+		} catch (NullPointerException expected) {
+			assertEquals(1, semafor.getMetrics().stage("sentence").getLatency().getCount());
+			assertEquals(1, semafor.getMetrics().stage("lemmatization").getLatency().getCount());
+		}
+	}
+}
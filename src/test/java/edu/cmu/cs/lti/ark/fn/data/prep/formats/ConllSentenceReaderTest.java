@@ -0,0 +1,76 @@
+package edu.cmu.cs.lti.ark.fn.data.prep.formats;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.io.Resources.getResource;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceTest.CONNL_FILENAME;
+import static org.junit.Assert.assertEquals;
+
+public class ConllSentenceReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMatchesConllCodec() throws IOException {
+		final String input = Resources.toString(getResource(CONNL_FILENAME), UTF_8);
+		final List<String> expected = Lists.newArrayList();
+		final SentenceCodec.SentenceIterator sentences = ConllCodec.readInput(new StringReader(input));
+		while (sentences.hasNext()) expected.add(ConllCodec.encode(sentences.next()));
+		sentences.close();
+
+		final File file = folder.newFile("example.conll");
+		Files.write(input, file, UTF_8);
+		assertEquals(expected, decodeAll(ConllSentenceReader.map(file)));
+		// small enough to need remapping, but big enough for any one sentence
+		assertEquals(expected, decodeAll(new ConllSentenceReader.Mapped(new RandomAccessFile(file, "r").getChannel(), 800)));
+		// small enough to need to grow
+		assertEquals(expected, decodeAll(streamed(input, 16)));
+	}
+
+	@Test
+	public void testBlankLines() throws IOException {
+		final String token = "1\tHi\t_\tUH\tUH\t_\t0\tROOT\t_\t_";
+		final String input = "\n \n" + token + "\r\n" + token + "\r\n\r\n\n\t\n" + token;
+		final List<String> expected = Lists.newArrayList(
+				ConllCodec.encode(ConllCodec.decode(token + "\n" + token)),
+				ConllCodec.encode(ConllCodec.decode(token)));
+		assertEquals(expected, decodeAll(streamed(input, 4)));
+		final File file = folder.newFile("blank.conll");
+		Files.write(input, file, UTF_8);
+		assertEquals(expected, decodeAll(ConllSentenceReader.map(file)));
+	}
+
+	private static ConllSentenceReader streamed(String input, int bufferSize) {
+		return new ConllSentenceReader.Streamed(
+				Channels.newChannel(new ByteArrayInputStream(input.getBytes(UTF_8))), bufferSize);
+	}
+
+	private static List<String> decodeAll(ConllSentenceReader reader) throws IOException {
+		final List<String> sentences = Lists.newArrayList();
+		try {
+			while (reader.hasNext()) {
+				final ByteBuffer sentence = reader.next();
+				sentences.add(ConllCodec.encode(ConllSentenceReader.decode(sentence)));
+			}
+		} finally {
+			reader.close();
+		}
+		return sentences;
+	}
+}
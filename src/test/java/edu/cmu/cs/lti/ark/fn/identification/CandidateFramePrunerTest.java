@@ -0,0 +1,86 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static edu.cmu.cs.lti.ark.fn.identification.FrameFeatureExtractor.BasicFrameFeatureExtractor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CandidateFramePrunerTest {
+	private static final int NUM_FRAMES = 200;
+	private static final int NUM_BASE_FEATURES = 50;
+
+	/** random weights for a few frames per base feature, and a bias weight for every frame */
+	private static FastFrameIdentifier makeIdModel(Random random) {
+		final List<String> frames = Lists.newArrayList();
+		for (int f = 0; f < NUM_FRAMES; f++) frames.add("Frame_" + f);
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		for (String frame : frames) params.put("f:" + frame + " bias", random.nextGaussian());
+		for (int b = 0; b < NUM_BASE_FEATURES; b++) {
+			for (int i = 0; i < 5; i++) {
+				params.put("f:" + frames.get(random.nextInt(NUM_FRAMES)) + " b" + b, random.nextGaussian());
+			}
+		}
+		final Set<String> allFrames = ImmutableSet.copyOf(frames);
+		final CompiledFrameScorer scorer =
+				CompiledFrameScorer.compile(params, new BasicFrameFeatureExtractor(), allFrames);
+		return new FastFrameIdentifier(null, scorer, allFrames, null);
+	}
+
+	private static Map<String, Double> makeBaseFeatures(Random random, boolean withBias) {
+		final Map<String, Double> baseFeatures = Maps.newHashMap();
+		if (withBias) baseFeatures.put("bias", 1.0);
+		for (int i = 0; i < 8; i++) baseFeatures.put("b" + random.nextInt(NUM_BASE_FEATURES), 1.0 + random.nextInt(3));
+		baseFeatures.put("not_in_model", 1.0);
+		return baseFeatures;
+	}
+
+	@Test
+	public void testBestCandidateIsTheExhaustiveChoice() {
+		final Random random = new Random(0);
+		final FastFrameIdentifier idModel = makeIdModel(random);
+		for (boolean withBias : new boolean[] { true, false }) {
+			for (int k : new int[] { 1, 3, 20 }) {
+				final CandidateFramePruner pruner = new CandidateFramePruner(idModel.getScorer(), idModel.allFrames, k);
+				for (int i = 0; i < 100; i++) {
+					final Map<String, Double> baseFeatures = makeBaseFeatures(random, withBias);
+					final String expected = idModel.pickBestFrame(idModel.allFrames, baseFeatures);
+					final Set<String> candidates = pruner.getCandidateFrames(baseFeatures);
+					assertEquals(k, candidates.size());
+					assertTrue(candidates.contains(expected));
+					assertEquals(expected, idModel.pickBestFrame(candidates, baseFeatures));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUntouchedFramesScoreZero() {
+		final Set<String> allFrames = ImmutableSet.of("Loser", "Untouched_1", "Untouched_2", "Winner");
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		params.put("f:Loser x", -2.0);
+		params.put("f:Winner x", -1.0);
+		final FastFrameIdentifier idModel = new FastFrameIdentifier(null,
+				CompiledFrameScorer.compile(params, new BasicFrameFeatureExtractor(), allFrames), allFrames, null);
+		final Map<String, Double> baseFeatures = ImmutableMap.of("x", 1.0);
+		final CandidateFramePruner pruner = new CandidateFramePruner(idModel.getScorer(), allFrames, 2);
+		// only the last of the frames tied at 0 can win, so it stands in for the rest. candidates keep their order
+		assertEquals(ImmutableList.of("Untouched_2", "Winner"),
+				ImmutableList.copyOf(pruner.getCandidateFrames(baseFeatures)));
+		assertEquals("Untouched_2", idModel.pickBestFrame(allFrames, baseFeatures));
+		assertEquals(ImmutableSet.of("Untouched_2"), pruner.withK(1).getCandidateFrames(baseFeatures));
+		assertEquals(ImmutableList.of("Loser", "Untouched_2", "Winner"),
+				ImmutableList.copyOf(pruner.withK(10).getCandidateFrames(baseFeatures)));
+	}
+}
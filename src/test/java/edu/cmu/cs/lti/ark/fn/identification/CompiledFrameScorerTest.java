@@ -0,0 +1,63 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompiledFrameScorerTest {
+	private static final List<String> FRAMES = ImmutableList.of("Text", "Entity", "Artifact", "Not_a_real_frame");
+	private static final Map<String, Double> BASE_FEATURES = ImmutableMap.of(
+			"aLP:book_N", 1.0,
+			"aP:N", 1.0,
+			"sLP:read_V", 2.0,
+			"not_in_model", 1.0,
+			"bias", 1.0);
+
+	private static TObjectDoubleHashMap<String> makeParams() {
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		params.put("f:Text aLP:book_N", 1.5);
+		params.put("af:Text aLP:book_N", 0.25);
+		params.put("af:Entity aP:N", -0.5);
+		params.put("af:Artifact sLP:read_V", 0.75);
+		params.put("f:Entity bias", 0.125);
+		params.put("af:Not_a_real_frame bias", -2.0);
+		params.put("f:Some_other_frame aLP:book_N", 3.0);
+		return params;
+	}
+
+	private static double getValueForFrameByName(FrameFeatureExtractor frameFeatureExtractor,
+												 TObjectDoubleHashMap<String> params,
+												 String frame) {
+		final Map<String, Double> features =
+				frameFeatureExtractor.conjoinAll(ImmutableList.of(frame), BASE_FEATURES).get(frame);
+		double featSum = 0.0;
+		for (String feat : features.keySet()) {
+			featSum += features.get(feat) * params.get(feat);
+		}
+		return featSum;
+	}
+
+	@Test
+	public void testMatchesConjoinedScores() throws IOException {
+		final TObjectDoubleHashMap<String> params = makeParams();
+		final FrameFeatureExtractor frameFeatureExtractor = FrameFeatureExtractor.AncestorFrameFeatureExtractor.load();
+		// leave out one frame, so that it has to be looked up at scoring time
+		final CompiledFrameScorer scorer =
+				CompiledFrameScorer.compile(params, frameFeatureExtractor, FRAMES.subList(0, 3));
+		final double[] frameFeatureScores = scorer.getFrameFeatureScores(BASE_FEATURES);
+		for (String frame : FRAMES) {
+			assertEquals(frame,
+					getValueForFrameByName(frameFeatureExtractor, params, frame),
+					scorer.getValueForFrame(frame, frameFeatureScores),
+					1e-12);
+		}
+		assertEquals(1.5 + 0.25 - 0.5 + 1.5, scorer.getValueForFrame("Text", frameFeatureScores), 1e-12);
+	}
+}
@@ -0,0 +1,127 @@
+package edu.cmu.cs.lti.ark.fn.identification.latentmodel;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.fn.wordnet.Relations;
+import edu.cmu.cs.lti.ark.fn.wordnet.WordNetRelations;
+import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.ImmutableList.copyOf;
+import static com.google.common.io.Resources.getResource;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceTest.CONNL_FILENAME;
+import static org.junit.Assert.assertEquals;
+
+public class CompiledLatentFrameScorerTest {
+	private static final double DELTA = 1e-9;
+
+	/** Relates tokens that share a first letter, so that the relation features fire for some hidden units */
+	private static final Relations RELATIONS = new Relations() {
+		@Override public Set<String> getRelations(String actualTokens, String hiddenUnitTokens) {
+			if (actualTokens.equals(hiddenUnitTokens)) return ImmutableSet.of("identity", "synonym");
+			if (actualTokens.charAt(0) == hiddenUnitTokens.charAt(0)) return ImmutableSet.of("synonym");
+			return ImmutableSet.of(WordNetRelations.NO_RELATION);
+		}
+	};
+
+	/** The scores should match summing weights over the features of every hidden unit */
+	@Test
+	public void testMatchesExtractedFeatures() throws IOException {
+		final List<Sentence> sentences =
+				copyOf(ConllCodec.readInput(Resources.newReaderSupplier(getResource(CONNL_FILENAME), UTF_8).getInput()));
+		final MorphaLemmatizer lemmatizer = new MorphaLemmatizer();
+		final LatentFeatureExtractor featureExtractor = new LatentFeatureExtractor(RELATIONS, lemmatizer);
+		final Random random = new Random(0);
+
+		// hidden units made of words from the sentences, so that tokens and lemmas match some targets
+		final List<String> words = Lists.newArrayList();
+		for (Sentence sentence : sentences) {
+			for (Token token : sentence.getTokens()) words.add(token.getForm() + "_" + token.getPostag());
+		}
+		final Map<String, Set<String>> hiddenUnitsByFrame = Maps.newHashMap();
+		final List<String> frames = Lists.newArrayList();
+		for (int f = 0; f < 300; f++) {
+			final Set<String> hiddenUnits = Sets.newHashSet();
+			for (int u = 0, numUnits = 1 + random.nextInt(4); u < numUnits; u++) {
+				final String word = words.get(random.nextInt(words.size()));
+				hiddenUnits.add(random.nextInt(4) == 0 ? word + " " + words.get(random.nextInt(words.size())) : word);
+			}
+			hiddenUnitsByFrame.put("Frame_" + f, hiddenUnits);
+			frames.add("Frame_" + f);
+		}
+
+		// a weight for most of the features that fire
+		final List<SentenceAnalysis> analyses = Lists.newArrayList();
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		for (Sentence sentence : sentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(lemmatizer.addLemmas(sentence));
+			analyses.add(analysis);
+			for (int i = 0; i < sentence.size(); i++) {
+				for (String frame : frames.subList(0, 20)) {
+					for (String hiddenUnit : hiddenUnitsByFrame.get(frame)) {
+						final IntCounter<String> features = featureExtractor.extractFeatures(frame, new int[] { i },
+								hiddenUnit, analysis.getAllLemmaTags(), analysis.getFrameIdParse(), true);
+						for (String feature : features.keySet()) {
+							if (random.nextInt(5) > 0) params.put(feature, random.nextGaussian());
+						}
+					}
+				}
+			}
+		}
+
+		final CompiledLatentFrameScorer scorer =
+				CompiledLatentFrameScorer.compile(featureExtractor, hiddenUnitsByFrame, params);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (SentenceAnalysis analysis : analyses) {
+				final int length = analysis.getAllLemmaTags()[0].length;
+				for (int i = 0; i < length; i++) {
+					final int[] targetTokenIdxs = i + 1 < length ? new int[] { i + 1, i } : new int[] { i };
+					final CompiledLatentFrameScorer.Target target = scorer.getTarget(targetTokenIdxs, analysis);
+					final double[] values = scorer.getValuesForFrames(frames, target, executor);
+					for (int f = 0; f < frames.size(); f++) {
+						final String frame = frames.get(f);
+						double sum = 0.0;
+						for (String hiddenUnit : hiddenUnitsByFrame.get(frame)) {
+							final IntCounter<String> features = featureExtractor.extractFeatures(frame,
+									targetTokenIdxs.clone(), hiddenUnit, analysis.getAllLemmaTags(),
+									analysis.getFrameIdParse(), true);
+							double featSum = 0.0;
+							for (String feature : features.keySet()) {
+								featSum += features.getT(feature) * params.get(feature);
+							}
+							sum += Math.exp(featSum);
+						}
+						assertEquals(Math.log(sum), scorer.getValueForFrame(frame, target), DELTA);
+						assertEquals(Math.log(sum), values[f], DELTA);
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(Double.NEGATIVE_INFINITY,
+				scorer.getValueForFrame("Not_a_frame", scorer.getTarget(new int[] { 0 }, analyses.get(0))), 0.0);
+		assertEquals(0, scorer.getValuesForFrames(ImmutableList.<String>of(),
+				scorer.getTarget(new int[] { 0 }, analyses.get(0)), executor).length);
+	}
+}
@@ -0,0 +1,75 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import gnu.trove.TIntDoubleHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PackedEventsTest {
+	private static final int NUM_FEATURES = 200;
+	private static final int NUM_TARGETS = 30;
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private static FeaturesAndCost[] randomEvents(Random random) {
+		final FeaturesAndCost[] featuresByFrame = new FeaturesAndCost[1 + random.nextInt(20)];
+		for (int frameIdx = 0; frameIdx < featuresByFrame.length; frameIdx++) {
+			final TIntDoubleHashMap features = new TIntDoubleHashMap();
+			for (int i = random.nextInt(15); i > 0; i--) {
+				features.put(random.nextInt(NUM_FEATURES), random.nextBoolean() ? 1.0 : random.nextGaussian());
+			}
+			featuresByFrame[frameIdx] = new FeaturesAndCost(features, frameIdx == 0 ? 0f : random.nextFloat());
+		}
+		return featuresByFrame;
+	}
+
+	private TrainBatch trainBatch(File alphabetFile, File events) throws Exception {
+		return new TrainBatch(alphabetFile.getPath(), events.getPath(), new File(folder.getRoot(), "model").getPath(),
+				"l1", 1.0, Optional.<String>absent(), 1, true, 5f);
+	}
+
+	@Test
+	public void testPackedEventsGiveSameLossAndGradient() throws Exception {
+		final Random random = new Random(3);
+		final File alphabetFile = folder.newFile("alphabet.dat");
+		Files.write(Strings.repeat("feature\n", NUM_FEATURES), alphabetFile, Charsets.UTF_8);
+		final File eventsDir = folder.newFolder("events");
+		for (int targetIdx = 0; targetIdx < NUM_TARGETS; targetIdx++) {
+			final String filename = TrainBatch.FEATURE_FILENAME_PREFIX + targetIdx + TrainBatch.FEATURE_FILENAME_SUFFIX;
+			SerializedObjects.writeSerializedObject(randomEvents(random), new File(eventsDir, filename).getPath());
+		}
+		final File packedFile = new File(folder.getRoot(), "events.packed");
+		PackedEvents.pack(TrainBatch.getEventFiles(eventsDir), packedFile);
+
+		final TrainBatch unpacked = trainBatch(alphabetFile, eventsDir);
+		final TrainBatch packed = trainBatch(alphabetFile, packedFile);
+		final PackedEvents mapped = PackedEvents.Mapped.map(packedFile);
+		assertEquals(NUM_TARGETS, mapped.size());
+		final double[] params = new double[NUM_FEATURES];
+		for (int i = 0; i < NUM_FEATURES; i++) params[i] = random.nextGaussian();
+		for (int targetIdx = 0; targetIdx < NUM_TARGETS; targetIdx++) {
+			final double[] expectedGradient = new double[NUM_FEATURES];
+			final double expected = unpacked.addLogLossAndGradientForExample(
+					unpacked.getFeaturesForTarget(targetIdx), params, expectedGradient);
+			final double[] gradient = new double[NUM_FEATURES];
+			assertEquals(expected, packed.addLogLossAndGradientForExample(
+					packed.getFeaturesForTarget(targetIdx), params, gradient), 0.0);
+			assertArrayEquals(expectedGradient, gradient, 0.0);
+			final double[] mappedGradient = new double[NUM_FEATURES];
+			assertEquals(expected, unpacked.addLogLossAndGradientForExample(
+					mapped.get(targetIdx), params, mappedGradient), 0.0);
+			assertArrayEquals(expectedGradient, mappedGradient, 0.0);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class GradientServiceTest {
+	private static final int DIMENSION = 40000;
+	private static final int NUM_EXAMPLES = 1000;
+	private static final double TOLERANCE = 1e-9;
+
+	/** Each example has a few random sparse features */
+	private static GradientService.Example randomExamples(Random random) {
+		final int[][] features = new int[NUM_EXAMPLES][];
+		final double[] values = new double[NUM_EXAMPLES];
+		for (int i = 0; i < NUM_EXAMPLES; i++) {
+			features[i] = new int[random.nextInt(20)];
+			for (int j = 0; j < features[i].length; j++) features[i][j] = random.nextInt(DIMENSION);
+			values[i] = random.nextGaussian();
+		}
+		return new GradientService.Example() {
+			@Override public double addGradient(int index, double[] gradient) {
+				for (int feature : features[index]) gradient[feature] += values[index];
+				return values[index];
+			}
+		};
+	}
+
+	@Test
+	public void testMatchesSequentialSum() throws Exception {
+		final GradientService.Example examples = randomExamples(new Random(5));
+		final double[] expectedGradient = new double[DIMENSION];
+		double expectedValue = 0.0;
+		for (int i = 0; i < NUM_EXAMPLES; i++) expectedValue += examples.addGradient(i, expectedGradient);
+
+		final GradientService service = new GradientService(4, DIMENSION);
+		try {
+			// the second call checks that buffers are cleared between calls
+			for (int call = 0; call < 2; call++) {
+				final double[] gradient = new double[DIMENSION];
+				assertEquals(expectedValue, service.compute(NUM_EXAMPLES, examples, gradient), TOLERANCE);
+				for (int i = 0; i < DIMENSION; i++) assertEquals(expectedGradient[i], gradient[i], TOLERANCE);
+			}
+		} finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testSumLeavesGradientsAlone() throws Exception {
+		final GradientService.Example examples = randomExamples(new Random(7));
+		final double[] expectedGradient = new double[DIMENSION];
+		double expectedValue = 0.0;
+		for (int i = 0; i < NUM_EXAMPLES; i++) expectedValue += examples.addGradient(i, expectedGradient);
+
+		final GradientService service = new GradientService(4, DIMENSION);
+		try {
+			final double[] gradient = new double[DIMENSION];
+			assertEquals(expectedValue, service.compute(NUM_EXAMPLES, examples, gradient), TOLERANCE);
+			assertEquals(NUM_EXAMPLES / 2, service.sum(NUM_EXAMPLES, new GradientService.Value() {
+				@Override public double getValue(int index) {
+					return index % 2;
+				}
+			}), 0.0);
+			for (int i = 0; i < DIMENSION; i++) assertEquals(expectedGradient[i], gradient[i], TOLERANCE);
+			// and the next compute starts from clean buffers
+			assertEquals(expectedValue, service.compute(NUM_EXAMPLES, examples, gradient), TOLERANCE);
+			for (int i = 0; i < DIMENSION; i++) assertEquals(expectedGradient[i], gradient[i], TOLERANCE);
+		} finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testUsableAfterFailure() {
+		final GradientService.Example examples = randomExamples(new Random(6));
+		final GradientService service = new GradientService(4, DIMENSION);
+		try {
+			try {
+				service.compute(NUM_EXAMPLES, new GradientService.Example() {
+					@Override public double addGradient(int index, double[] gradient) throws Exception {
+						examples.addGradient(index, gradient);
+						if (index == NUM_EXAMPLES / 2) throw new Exception("failed");
+						return 0.0;
+					}
+				}, new double[DIMENSION]);
+				fail();
+			} catch (RuntimeException expected) { }
+			final double[] expected = new double[DIMENSION];
+			final double expectedValue = new GradientService(1, DIMENSION).compute(NUM_EXAMPLES, examples, expected);
+			final double[] gradient = new double[DIMENSION];
+			assertEquals(expectedValue, service.compute(NUM_EXAMPLES, examples, gradient), TOLERANCE);
+			for (int i = 0; i < DIMENSION; i++) assertEquals(expected[i], gradient[i], TOLERANCE);
+		} finally {
+			service.close();
+		}
+	}
+}
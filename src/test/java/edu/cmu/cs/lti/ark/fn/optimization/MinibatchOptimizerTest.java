@@ -0,0 +1,138 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Random;
+
+import static edu.cmu.cs.lti.ark.fn.optimization.MinibatchOptimizer.Method;
+import static edu.cmu.cs.lti.ark.fn.optimization.MinibatchOptimizer.Regularization;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinibatchOptimizerTest {
+	private static final int DIMENSION = 500;
+	private static final int NUM_EXAMPLES = 300;
+	private static final int BATCH_SIZE = 16;
+	private static final int NUM_EPOCHS = 3;
+	private static final double LEARNING_RATE = 0.1;
+	private static final double LAMBDA = 2.0;
+	private static final long SEED = 17;
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Logistic regression on sparse binary features. The label is the sign of the sum of a hidden weight vector */
+	private static class Data implements GradientService.Example {
+		final int[][] features = new int[NUM_EXAMPLES][];
+		final double[] labels = new double[NUM_EXAMPLES];
+		final double[] params = new double[DIMENSION];
+
+		Data(Random random) {
+			final double[] hidden = new double[DIMENSION];
+			for (int i = 0; i < DIMENSION; i++) hidden[i] = random.nextGaussian();
+			for (int i = 0; i < NUM_EXAMPLES; i++) {
+				features[i] = new int[1 + random.nextInt(10)];
+				double sum = 0.0;
+				for (int j = 0; j < features[i].length; j++) {
+					features[i][j] = random.nextInt(DIMENSION);
+					sum += hidden[features[i][j]];
+				}
+				labels[i] = sum > 0 ? 1.0 : -1.0;
+			}
+		}
+
+		/** log-likelihood */
+		@Override public double addGradient(int index, double[] gradient) {
+			double score = 0.0;
+			for (int feature : features[index]) score += params[feature];
+			final double margin = labels[index] * score;
+			final double probWrong = 1.0 / (1.0 + Math.exp(margin));
+			for (int feature : features[index]) gradient[feature] += labels[index] * probWrong;
+			return -Math.log1p(Math.exp(-margin));
+		}
+
+		double accuracy() {
+			int numCorrect = 0;
+			for (int i = 0; i < NUM_EXAMPLES; i++) {
+				double score = 0.0;
+				for (int feature : features[i]) score += params[feature];
+				if (score * labels[i] > 0) numCorrect++;
+			}
+			return numCorrect / (double) NUM_EXAMPLES;
+		}
+	}
+
+	/** Proximal AdaGrad, updating every coordinate (including its sum of squares) on every step */
+	private static double[] eagerAdaGrad(Data data, Regularization regularization) {
+		final double[] params = data.params;
+		final double[] sumSquares = new double[DIMENSION];
+		final int[] order = new int[NUM_EXAMPLES];
+		for (int i = 0; i < NUM_EXAMPLES; i++) order[i] = i;
+		final Random random = new Random(SEED);
+		for (int epoch = 0; epoch < NUM_EPOCHS; epoch++) {
+			for (int i = order.length - 1; i > 0; i--) {
+				final int j = random.nextInt(i + 1);
+				final int tmp = order[i];
+				order[i] = order[j];
+				order[j] = tmp;
+			}
+			for (int start = 0; start < NUM_EXAMPLES; start += BATCH_SIZE) {
+				final int end = Math.min(start + BATCH_SIZE, NUM_EXAMPLES);
+				// the last batch is smaller, and gets a smaller share of the penalty
+				final double penalty = LAMBDA * (end - start) / NUM_EXAMPLES;
+				final double[] gradient = new double[DIMENSION];
+				for (int i = start; i < end; i++) {
+					data.addGradient(order[i], gradient);
+				}
+				for (int i = 0; i < DIMENSION; i++) {
+					sumSquares[i] += gradient[i] * gradient[i];
+					if (sumSquares[i] == 0.0) continue;
+					final double stepSize = LEARNING_RATE / (Math.sqrt(sumSquares[i]) + 1e-8);
+					final double z = params[i] + stepSize * gradient[i];
+					if (regularization == Regularization.L1) {
+						params[i] = Math.signum(z) * Math.max(0.0, Math.abs(z) - stepSize * penalty);
+					} else {
+						params[i] = z / (1.0 + 2.0 * stepSize * penalty);
+					}
+				}
+			}
+		}
+		return params;
+	}
+
+	@Test
+	public void testSparseAdaGradMatchesFull() throws Exception {
+		for (Regularization regularization : new Regularization[] {Regularization.L1, Regularization.L2}) {
+			final double[] expected = eagerAdaGrad(new Data(new Random(1)), regularization);
+			final Data data = new Data(new Random(1));
+			final GradientService service = new GradientService(1, DIMENSION);
+			try {
+				new MinibatchOptimizer(Method.ADAGRAD, LEARNING_RATE, BATCH_SIZE, NUM_EPOCHS, regularization, LAMBDA, SEED)
+						.train(data.params, NUM_EXAMPLES, data, service, Optional.<Function<double[], Double>>absent(),
+								folder.newFile().getPath());
+			} finally {
+				service.close();
+			}
+			for (int i = 0; i < DIMENSION; i++) assertEquals(expected[i], data.params[i], 1e-9);
+		}
+	}
+
+	@Test
+	public void testAdamLearns() throws Exception {
+		final Data data = new Data(new Random(2));
+		final double initialAccuracy = data.accuracy();
+		final GradientService service = new GradientService(4, DIMENSION);
+		try {
+			new MinibatchOptimizer(Method.ADAM, 0.05, BATCH_SIZE, 20, Regularization.L2, 0.01, SEED)
+					.train(data.params, NUM_EXAMPLES, data, service, Optional.<Function<double[], Double>>absent(),
+							folder.newFile().getPath());
+		} finally {
+			service.close();
+		}
+		assertTrue(initialAccuracy < 0.1);
+		assertTrue(data.accuracy() > 0.95);
+	}
+}
@@ -0,0 +1,63 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import static com.google.common.io.Resources.getResource;
+import static org.junit.Assert.assertEquals;
+
+public class DDDecodingTest {
+	/** factor graphs recorded by {@link DDDecoding#setFactorFile}, from decoding random frames */
+	private static final String FACTORS = "fixtures/example.factors";
+	/**
+	 * for each graph, a line for its AD3 solution and a line for its ILP solution, from the solver as it was before
+	 * it used flat buffers: "AD3" or "ILP", status, value0, upperBound0, then u
+	 */
+	private static final String SOLUTIONS = "fixtures/example.factors.solutions";
+
+	/**
+	 * The solver should give exactly the same results as it used to, since it sums in the same order.
+	 * One decoder solves every graph, so its reused buffers go from larger graphs to smaller ones and back.
+	 */
+	@Test
+	public void testMatchesGoldenSolutions() throws IOException {
+		final BufferedReader factors =
+				new BufferedReader(new InputStreamReader(getResource(FACTORS).openStream(), Charsets.UTF_8));
+		final List<FactorGraph> graphs;
+		try {
+			graphs = FactorGraph.readAll(factors);
+		} finally {
+			factors.close();
+		}
+		final List<String> solutions = Resources.readLines(getResource(SOLUTIONS), Charsets.UTF_8);
+		assertEquals(2 * graphs.size(), solutions.size());
+
+		final DDDecoding decoder = new DDDecoding(false);
+		for (int g = 0; g < graphs.size(); g++) {
+			final FactorGraph graph = graphs.get(g);
+			for (boolean exact : new boolean[] { false, true }) {
+				final String[] expected = solutions.get(2 * g + (exact ? 1 : 0)).split(" ");
+				final String solution = "graph " + g + (exact ? " ILP" : " AD3");
+				assertEquals(exact ? "ILP" : "AD3", expected[0]);
+				final double[] u = new double[graph.objVals.length];
+				final double[] value0 = new double[1];
+				final double[] upperBound0 = new double[1];
+				final int status = graph.solve(decoder, exact, u, value0, upperBound0);
+
+				assertEquals(solution, Integer.parseInt(expected[1]), status);
+				assertEquals(solution, Double.parseDouble(expected[2]), value0[0], 0.0);
+				assertEquals(solution, Double.parseDouble(expected[3]), upperBound0[0], 0.0);
+				assertEquals(solution, expected.length - 4, u.length);
+				for (int i = 0; i < u.length; i++) {
+					assertEquals(solution + " u[" + i + "]", Double.parseDouble(expected[4 + i]), u[i], 0.0);
+				}
+			}
+		}
+	}
+}
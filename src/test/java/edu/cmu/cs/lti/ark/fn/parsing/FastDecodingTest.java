@@ -0,0 +1,40 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import edu.cmu.cs.lti.ark.util.ds.Scored;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.Decoding.RoleAssignments;
+import static org.junit.Assert.assertEquals;
+
+public class FastDecodingTest {
+	private static final int NUM_FEATURES = 100000;
+	private static final int NUM_FRAMES = 200;
+
+	@Test
+	public void testSamePredictionsAsDecoding() {
+		final Random random = new Random(1234);
+		final double[] weights = SyntheticFrames.weights(random, NUM_FEATURES);
+		final Decoding decoding = new Decoding(weights);
+		final FastDecoding fastDecoding = new FastDecoding(weights);
+		// sentences are sometimes longer than 64 tokens, so that spans cross bitset words
+		final SyntheticFrames syntheticFrames = new SyntheticFrames(random, NUM_FEATURES)
+				.withShape(150, 12, 29, 8, 5)
+				.withDuplicates()
+				.withDistinctScores();
+		for (int i = 0; i < NUM_FRAMES; i++) {
+			final FrameFeatures frameFeatures = syntheticFrames.frame();
+			for (int kBest : new int[] {1, 10, 1000}) {
+				final List<Scored<RoleAssignments>> expected = decoding.getPredictions(frameFeatures, kBest);
+				final List<Scored<RoleAssignments>> actual = fastDecoding.getPredictions(frameFeatures, kBest);
+				assertEquals(expected.size(), actual.size());
+				for (int j = 0; j < expected.size(); j++) {
+					assertEquals(expected.get(j).value.toString(), actual.get(j).value.toString());
+					assertEquals(expected.get(j).score, actual.get(j).score, 0.0);
+				}
+			}
+		}
+	}
+}
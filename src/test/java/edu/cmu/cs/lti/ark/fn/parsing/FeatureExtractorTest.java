@@ -0,0 +1,124 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureExtractorTest {
+	final String maltLine = "My/PRP$/2/NMOD kitchen/NN/5/SBJ no/RB/5/ADV longer/RB/3/AMOD smells/VBZ/0/ROOT ././5/P";
+	final Sentence sentence = MaltCodec.decode(maltLine);
+	final String frameElementsLine = "0\t1.0\t1\tTemporal_collocation\tno.r\t2_3\tno longer\t0\n";
+	final String frame = "Temporal_collocation";
+	final List<String> roles = Lists.newArrayList("Trajector_event", "Landmark_period", "Time");
+
+	@Test
+	public void testIndexedFeaturesMatchStringFeatures() {
+		final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(sentence, frameElementsLine);
+		final DependencyParse parse = dataPoint.getParses().getBestParse();
+		final List<SpanAndParseIdx> spans = DataPrep.findSpans(dataPoint, 1);
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		// index every other feature we see, so that some features are missing from the index
+		final Map<String, Integer> featureIndex = Maps.newHashMap();
+		int numSeen = 0;
+		for (String role : roles) {
+			for (SpanAndParseIdx span : spans) {
+				for (String feature : featureExtractor.extractFeatures(dataPoint, frame, role, span.span, parse)) {
+					if (!featureIndex.containsKey(feature) && numSeen++ % 2 == 0) {
+						featureIndex.put(feature, featureIndex.size() + 1);
+					}
+				}
+			}
+		}
+		final FeatureIndex index = FeatureIndex.fromMap(featureIndex);
+		assertEquals(featureIndex.size(), index.size());
+		final TIntArrayList featureIdxs = new TIntArrayList();
+		for (String role : roles) {
+			for (SpanAndParseIdx span : spans) {
+				final List<Integer> expected = Lists.newArrayList();
+				for (String feature : featureExtractor.extractFeatures(dataPoint, frame, role, span.span, parse).elementSet()) {
+					final Integer idx = featureIndex.get(feature);
+					if (idx != null) expected.add(idx);
+				}
+				final int[] expectedIdxs = Ints.toArray(expected);
+				Arrays.sort(expectedIdxs);
+				featureExtractor.extractFeatureIdxs(dataPoint, frame, role, span.span, parse, index, featureIdxs);
+				assertArrayEquals(expectedIdxs, featureIdxs.toNativeArray());
+			}
+		}
+	}
+
+	@Test
+	public void testRoleFactoredFeaturesMatchIndexedFeatures() {
+		final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(sentence, frameElementsLine);
+		final DependencyParse parse = dataPoint.getParses().getBestParse();
+		final List<SpanAndParseIdx> spans = DataPrep.findSpans(dataPoint, 1);
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		final Map<String, Integer> featureIndex = Maps.newHashMap();
+		int numSeen = 0;
+		for (String role : roles) {
+			for (SpanAndParseIdx span : spans) {
+				for (String feature : featureExtractor.extractFeatures(dataPoint, frame, role, span.span, parse)) {
+					if (!featureIndex.containsKey(feature) && numSeen++ % 2 == 0) {
+						featureIndex.put(feature, featureIndex.size() + 1);
+					}
+				}
+			}
+		}
+		final Map<String, THashSet<String>> frameElementsForFrame = Maps.newHashMap();
+		frameElementsForFrame.put(frame, new THashSet<String>(roles));
+		frameElementsForFrame.put("Other_frame", new THashSet<String>(Arrays.asList("Time", "Place")));
+		final RoleFeatureIndex index = RoleFeatureIndex.create(FeatureIndex.fromMap(featureIndex), featureIndex,
+				new FEDict(frameElementsForFrame));
+		final RoleFeatureIndex.SpanFeatures spanFeatures = new RoleFeatureIndex.SpanFeatures();
+		final TIntArrayList expectedIdxs = new TIntArrayList();
+		final TIntArrayList featureIdxs = new TIntArrayList();
+		for (SpanAndParseIdx span : spans) {
+			featureExtractor.extractSpanFeatures(dataPoint, span.span, parse, index, spanFeatures);
+			for (String role : roles) {
+				featureExtractor.extractFeatureIdxs(dataPoint, frame, role, span.span, parse, index.getFeatureIndex(),
+						expectedIdxs);
+				index.getFeatureIdxs(spanFeatures, index.getRoleId(role), index.getFrameRoleId(frame, role),
+						featureIdxs);
+				assertArrayEquals(expectedIdxs.toNativeArray(), featureIdxs.toNativeArray());
+			}
+		}
+	}
+
+	@Test
+	public void testFeatureIndexLooksUpCharSequences() {
+		final Map<String, Integer> featureIndex = Maps.newHashMap();
+		featureIndex.put("headPOS_NN", 1);
+		featureIndex.put("headPOS_NN_Time", 2);
+		final FeatureIndex index = FeatureIndex.fromMap(featureIndex);
+		final StringBuilder feature = new StringBuilder("headPOS_NN");
+		assertEquals(1, index.getIndex(feature));
+		feature.append("_Time");
+		assertEquals(2, index.getIndex(feature));
+		feature.append("_");
+		assertEquals(FeatureIndex.MISSING, index.getIndex(feature));
+	}
+
+	@Test
+	public void testSortAndRemoveDuplicates() {
+		final TIntArrayList idxs = new TIntArrayList(new int[] {5, 3, 5, 1, 3, 3});
+		FeatureExtractor.sortAndRemoveDuplicates(idxs);
+		assertArrayEquals(new int[] {1, 3, 5}, idxs.toNativeArray());
+		assertTrue(idxs.size() == 3);
+	}
+}
@@ -0,0 +1,44 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.ImmutableMap;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.WeightVector;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+
+public class JointDecodingTest {
+	private static final int NUM_FEATURES = 50;
+	private static final int NUM_FRAMES = 40;
+
+	private static JointDecoding decoder(double[] weights, ExecutorService executor) {
+		final DDDecoding ddDecoding = new DDDecoding(false);
+		ddDecoding.setMaps(ImmutableMap.<String, Set<Pair<String, String>>>of(),
+				ImmutableMap.<String, Set<Pair<String, String>>>of());
+		return new JointDecoding(WeightVector.of(weights), ddDecoding, null, false, executor);
+	}
+
+	@Test
+	public void testParallelDecodeAllMatchesSequential() {
+		final Random random = new Random(42);
+		final double[] weights = SyntheticFrames.weights(random, NUM_FEATURES);
+		final List<FrameFeatures> frameFeaturesList =
+				new SyntheticFrames(random, NUM_FEATURES).withShape(15, 5, 5, 3, 2).frames(NUM_FRAMES);
+		final List<String> frameLines = SyntheticFrames.frameLines(NUM_FRAMES);
+		final List<String> expected =
+				decoder(weights, sameThreadExecutor()).decodeAll(frameFeaturesList, frameLines, 0, 1);
+		final ExecutorService executor = newFixedThreadPool(4);
+		try {
+			assertEquals(expected, decoder(weights, executor).decodeAll(frameFeaturesList, frameLines, 0, 1));
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
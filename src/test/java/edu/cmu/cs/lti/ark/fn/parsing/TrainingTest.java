@@ -0,0 +1,54 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrainingTest {
+	private static final int NUM_FEATURES = 300;
+	private static final int NUM_FRAMES = 57;
+	private static final double LAMBDA = 0.3;
+	private static final double TOLERANCE = 1e-9;
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSparseGradientsMatchDense() throws IOException {
+		final Random random = new Random(7);
+		final File alphabetFile = folder.newFile("alphabet.dat");
+		Files.write((NUM_FEATURES - 1) + "\n", alphabetFile, Charsets.UTF_8);
+		final File frameFile = folder.newFile("frames");
+		final Training training = new Training();
+		// feature 0 (the bias) occasionally fires explicitly too
+		final ArrayList<FrameFeatures> frames = Lists.newArrayList(
+				new SyntheticFrames(random, NUM_FEATURES).withShape(6, 4, 5, 1, 8).withGoldSpans().frames(NUM_FRAMES));
+		training.init(new File(folder.getRoot(), "model").getPath(), alphabetFile.getPath(), frames,
+				frameFile.getPath(), "reg", LAMBDA, 3);
+		final double[] weights = training.getWeights();
+		for (int i = 0; i < weights.length; i++) weights[i] = random.nextGaussian() * 0.5;
+
+		// the old path: a dense gradient, and the regularizer, for each example
+		final double[] expectedGradients = new double[NUM_FEATURES];
+		double expectedValue = 0.0;
+		for (int i = 0; i < NUM_FRAMES; i++) {
+			expectedValue += training.getDerivativesOfSample(expectedGradients, i).first;
+		}
+
+		final double value = training.getValuesAndGradients();
+		assertEquals(expectedValue, value, TOLERANCE * Math.abs(expectedValue));
+		final double[] gradients = training.getGradients();
+		for (int i = 0; i < NUM_FEATURES; i++) {
+			assertEquals(expectedGradients[i], gradients[i], TOLERANCE * Math.max(1.0, Math.abs(expectedGradients[i])));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package edu.cmu.cs.lti.ark.fn.utils;
+
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.ImmutableList.copyOf;
+import static com.google.common.io.Resources.getResource;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceTest.CONNL_FILENAME;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SentenceAnalysisTest {
+	/** The shared parses and spans should give the same features as the ones built from each target's string input */
+	@Test
+	public void testMatchesStringRepresentation() throws IOException {
+		final List<Sentence> sentences =
+				copyOf(ConllCodec.readInput(Resources.newReaderSupplier(getResource(CONNL_FILENAME), UTF_8).getInput()));
+		final MorphaLemmatizer lemmatizer = new MorphaLemmatizer();
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		for (Sentence unLemmatized : sentences) {
+			final Sentence sentence = lemmatizer.addLemmas(unLemmatized);
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			assertEquals(AllLemmaTags.makeLine(sentence.toAllLemmaTagsArray()),
+					AllLemmaTags.makeLine(analysis.getArgIdSentence().toAllLemmaTagsArray()));
+			assertSame(analysis.getArgIdParses(), analysis.getArgIdParses());
+			for (int i = 0; i < sentence.size(); i++) {
+				final String feLine = "0\t1.0\t1\tFilling\tfill.v\t" + i + "\tfill\t0";
+				final DataPointWithFrameElements expectedDataPoint = new DataPointWithFrameElements(sentence, feLine);
+				final DataPointWithFrameElements dataPoint =
+						new DataPointWithFrameElements(analysis.getArgIdParses(), feLine, null);
+				final List<SpanAndParseIdx> expectedSpans = DataPrep.findSpans(expectedDataPoint, 1);
+				final List<SpanAndParseIdx> spans = analysis.getCandidateSpans();
+				assertEquals(expectedSpans.size(), spans.size());
+				for (int j = 0; j < spans.size(); j++) {
+					assertEquals(expectedSpans.get(j).span, spans.get(j).span);
+					assertEquals(
+							featureExtractor.extractFeatures(expectedDataPoint, "Filling", "Theme",
+									expectedSpans.get(j).span, expectedDataPoint.getParses().getBestParse()),
+							featureExtractor.extractFeatures(dataPoint, "Filling", "Theme",
+									spans.get(j).span, dataPoint.getParses().getBestParse()));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package edu.cmu.cs.lti.ark.util.ds;
+
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeightVectorTest {
+	private static final double[] WEIGHTS = {0.5, -1.25, 3.0, 0.0, 1e-9};
+	private static final int[] FEATS = {0, 2, 4, 2};
+
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	private WeightVector mapWeights() throws IOException {
+		final File file = folder.newFile("weights.bin");
+		final DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+		try {
+			for (double weight : WEIGHTS) output.writeDouble(weight);
+		} finally {
+			output.close();
+		}
+		return WeightVector.of(Files.map(file).asDoubleBuffer());
+	}
+
+	@Test
+	public void testMappedWeightsMatchArray() throws IOException {
+		final WeightVector mapped = mapWeights();
+		final WeightVector array = WeightVector.of(WEIGHTS);
+		assertEquals(WEIGHTS.length, mapped.size());
+		assertEquals(WEIGHTS.length, array.size());
+		for (int i = 0; i < WEIGHTS.length; i++) {
+			assertEquals(WEIGHTS[i], mapped.get(i), 0.0);
+			assertEquals(WEIGHTS[i], array.get(i), 0.0);
+		}
+		final double expected = Decoding.getWeightSum(FEATS, WEIGHTS);
+		assertEquals(expected, Decoding.getWeightSum(FEATS, array), 0.0);
+		assertEquals(expected, Decoding.getWeightSum(FEATS, mapped), 0.0);
+	}
+}
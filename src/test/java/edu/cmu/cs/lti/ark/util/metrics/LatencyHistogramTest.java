@@ -0,0 +1,44 @@
+package edu.cmu.cs.lti.ark.util.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+	@Test
+	public void testBucketsCoverEveryValue() {
+		int lastBucket = 0;
+		for (long value = 0; value < 1 << 16; value++) {
+			final int bucket = LatencyHistogram.getBucket(value);
+			assertTrue(bucket == lastBucket || bucket == lastBucket + 1);
+			assertTrue(value <= LatencyHistogram.getBucketMax(bucket));
+			if (bucket > 0) assertTrue(value > LatencyHistogram.getBucketMax(bucket - 1));
+			lastBucket = bucket;
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketMax(LatencyHistogram.getBucket(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testQuantilesAreWithinPrecision() {
+		final Random random = new Random(0);
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final long[] values = new long[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 25);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(values[values.length - 1], histogram.getMaxNanos());
+		for (double quantile : new double[] { 0.01, 0.5, 0.9, 0.99, 1.0 }) {
+			final long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+			final long actual = histogram.getValueAtQuantile(quantile);
+			assertTrue(actual >= expected);
+			assertTrue(actual <= expected + expected / 32 + 1);
+		}
+	}
+}
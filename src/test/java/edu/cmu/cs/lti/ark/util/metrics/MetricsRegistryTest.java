@@ -0,0 +1,42 @@
+package edu.cmu.cs.lti.ark.util.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+	@Test
+	public void testStagesAndCountersAreExposed() throws Exception {
+		final MetricsRegistry registry = new MetricsRegistry();
+		final MetricsRegistry.Stage stage = registry.stage("work");
+		assertSame(stage, registry.stage("work"));
+		for (int i = 0; i < 3; i++) {
+			final MetricsRegistry.Timer timer = stage.start();
+			Thread.sleep(1);
+			timer.stop();
+		}
+		registry.counter("things").addAndGet(5);
+		assertEquals(3, stage.getLatency().getCount());
+		assertTrue(stage.getLatency().getValueAtQuantile(0.5) >= 1000000);
+		final String summary = registry.getSummary();
+		assertTrue(summary, summary.contains("work: 3,") && summary.contains("things: 5;"));
+
+		final String name = "edu.cmu.cs.lti.ark.util.metrics:type=MetricsRegistryTest";
+		registry.registerMBean(name);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals(3L, server.getAttribute(new ObjectName(name), "work count"));
+			assertEquals(5L, server.getAttribute(new ObjectName(name), "things"));
+			registry.counter("later").incrementAndGet();
+			assertEquals(1L, server.getAttribute(new ObjectName(name), "later"));
+		} finally {
+			server.unregisterMBean(new ObjectName(name));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package edu.cmu.cs.lti.ark.util.nlp;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingLemmatizerTest {
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Counts how many words actually get lemmatized */
+	private static class CountingLemmatizer extends Lemmatizer {
+		final AtomicInteger count = new AtomicInteger();
+		final Lemmatizer lemmatizer = new MorphaLemmatizer();
+
+		@Override public String getLemma(String word, String postag) {
+			count.incrementAndGet();
+			return lemmatizer.getLemma(word, postag);
+		}
+	}
+
+	@Test
+	public void testCachesLemmas() {
+		final CountingLemmatizer counting = new CountingLemmatizer();
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(counting, 10);
+		assertEquals("goose", lemmatizer.getLemma("geese", "NNS"));
+		assertEquals("goose", lemmatizer.getLemma("geese", "NNS"));
+		assertEquals("run", lemmatizer.getLemma("running", "VBG"));
+		assertEquals("running", lemmatizer.getLemma("running", "NN"));
+		assertEquals(3, counting.count.get());
+	}
+
+	@Test
+	public void testWarm() throws Exception {
+		final File frequencyList = folder.newFile("frequencies.tsv");
+		Files.write("the\tDT\t100\nran\tVBD\t50\nfell\tVBD\t10\n", frequencyList, Charsets.UTF_8);
+		final CountingLemmatizer counting = new CountingLemmatizer();
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(counting, 4);
+		// only as many words as fill half the cache
+		assertEquals(2, lemmatizer.warm(frequencyList));
+		assertEquals("run", lemmatizer.getLemma("ran", "VBD"));
+		assertEquals("the", lemmatizer.getLemma("the", "DT"));
+		assertEquals(2, counting.count.get());
+	}
+
+	@Test
+	public void testWarmingKeepsTheMostFrequentWords() throws Exception {
+		final File frequencyList = folder.newFile("frequencies.tsv");
+		final PrintWriter output = new PrintWriter(Files.newWriter(frequencyList, Charsets.UTF_8));
+		for (int i = 0; i < 2 * CachingLemmatizer.DEFAULT_MAXIMUM_SIZE; i++) {
+			output.println("word" + i + "\tNN\t" + (2 * CachingLemmatizer.DEFAULT_MAXIMUM_SIZE - i));
+		}
+		output.close();
+		final CountingLemmatizer counting = new CountingLemmatizer();
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(counting, CachingLemmatizer.DEFAULT_MAXIMUM_SIZE);
+		final int numWarmed = lemmatizer.warm(frequencyList);
+		assertEquals(numWarmed, counting.count.get());
+		for (int i = 0; i < 1000; i++) lemmatizer.getLemma("word" + i, "NN");
+		assertEquals(numWarmed, counting.count.get());
+	}
+}
@@ -51,4 +51,14 @@ public class MorphaLemmatizerTest {
 		Assert.assertEquals(">", lemmatizer.getLemma(">", "JJR"));
 		Assert.assertEquals("<", lemmatizer.getLemma("<", "JJR"));
 	}
+
+	@Test
+	public void testLexerIsReusable() {
+		// each thread reuses one lexer, so failing to match one word mustn't affect the next
+		final Lemmatizer lemmatizer = new MorphaLemmatizer();
+		Assert.assertEquals(">", lemmatizer.getLemma(">", "JJR"));
+		Assert.assertEquals("goose", lemmatizer.getLemma("geese", "NNS"));
+		Assert.assertEquals("run", lemmatizer.getLemma("running", "VBG"));
+		Assert.assertEquals("running", lemmatizer.getLemma("running", "NN"));
+	}
 }
@@ -0,0 +1,101 @@
+package edu.cmu.cs.lti.ark.util.nlp.parse;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.Range0Based;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DependencyTreeIndexTest {
+	private static final String[] WORDS = { "kitchen", "of", "proof", "smells", "no", "longer" };
+	private static final String[] POSTAGS = { "NN", "VBZ", "JJ", "IN", "RB" };
+
+	/** A random (not necessarily projective) tree, in which each token's head comes before it in a random order */
+	private static DependencyParse randomParse(Random random, int length) {
+		final List<Integer> order = Lists.newArrayList();
+		for (int i = 1; i <= length; i++) order.add(i);
+		Collections.shuffle(order, random);
+		final int[] heads = new int[length + 1];
+		for (int i = 0; i < length; i++) {
+			heads[order.get(i)] = i == 0 ? 0 : order.get(random.nextInt(i));
+		}
+		final List<String> tokens = Lists.newArrayList();
+		for (int i = 1; i <= length; i++) {
+			tokens.add(WORDS[random.nextInt(WORDS.length)] + "/" + POSTAGS[random.nextInt(POSTAGS.length)] + "/"
+					+ heads[i] + "/L" + i);
+		}
+		final Sentence sentence = MaltCodec.decode(Joiner.on(" ").join(tokens));
+		return DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0);
+	}
+
+	@Test
+	public void testPathsMatchTreeWalks() {
+		final Random random = new Random(0);
+		final int[] path = new int[32];
+		for (int t = 0; t < 20; t++) {
+			final DependencyParse parse = randomParse(random, 1 + random.nextInt(15));
+			final DependencyParse[] nodes = parse.getIndexSortedListOfNodes();
+			final DependencyTreeIndex treeIndex = parse.getTreeIndex();
+			for (int from = 1; from < nodes.length; from++) {
+				for (int to = 1; to < nodes.length; to++) {
+					final List<Pair<String, DependencyParse>> expected = DependencyParse.getPath(nodes[from], nodes[to]);
+					assertEquals(expected.size(), treeIndex.getPathLength(from, to));
+					assertEquals(expected.size(), treeIndex.getPath(from, to, path));
+					for (int i = 0; i < expected.size(); i++) {
+						assertEquals(expected.get(i).second.getIndex(), path[i]);
+						if (i > 0) {
+							final boolean isUp = treeIndex.getDepth(path[i]) < treeIndex.getDepth(path[i - 1]);
+							assertEquals(expected.get(i).first, isUp ? "^" : "!");
+						}
+					}
+					assertSame(nodes[from].nearestCommonAncestorWith(nodes[to], null),
+							nodes[treeIndex.getLowestCommonAncestor(from, to)]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testHeadsAndConstituentsMatchTreeWalks() {
+		final Random random = new Random(1);
+		for (int t = 0; t < 20; t++) {
+			final DependencyParse parse = randomParse(random, 1 + random.nextInt(15));
+			final DependencyParse[] nodes = parse.getIndexSortedListOfNodes();
+			final DependencyTreeIndex treeIndex = parse.getTreeIndex();
+			final int length = nodes.length - 1;
+			for (int start = 0; start < length; start++) {
+				for (int end = start; end < length; end++) {
+					final Range0Based span = new Range0Based(start, end);
+					assertSame(DependencyParse.getHeuristicHead(nodes, span), treeIndex.getHeuristicHead(span));
+					final int[] tokenNums = new int[end - start + 1];
+					for (int i = 0; i < tokenNums.length; i++) tokenNums[i] = start + i;
+					assertSame(DependencyParse.getHeuristicHead(nodes, tokenNums), treeIndex.getHeuristicHead(tokenNums));
+					boolean isConstituent = false;
+					for (int token = 0; token < length; token++) {
+						final List<DependencyParse> descendants = nodes[token + 1].getDescendants(true);
+						int min = Integer.MAX_VALUE, max = -1;
+						for (DependencyParse descendant : descendants) {
+							min = Math.min(min, descendant.getIndex() - 1);
+							max = Math.max(max, descendant.getIndex() - 1);
+						}
+						if (token == start) {
+							assertEquals(min, treeIndex.getConstituentStart(token));
+							assertEquals(max, treeIndex.getConstituentEnd(token));
+						}
+						isConstituent |= min == start && max == end && descendants.size() == end - start + 1;
+					}
+					assertEquals(isConstituent, treeIndex.isConstituent(start, end));
+				}
+			}
+		}
+	}
+}
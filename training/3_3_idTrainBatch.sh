@@ -16,6 +16,15 @@ if [ -e ${log_file} ]; then
     rm "${log_file}"
 fi
 
+# pack the feature events into one file, so they are only deserialized once
+${JAVA_HOME_BIN}/java \
+    -classpath ${classpath} \
+    -Xms1g \
+    -Xmx8g \
+  edu.cmu.cs.lti.ark.fn.identification.training.PackedEvents \
+  eventsfile:${model_dir}/events \
+  output-file:${model_dir}/events.packed
+
 ${JAVA_HOME_BIN}/java \
     -classpath ${classpath} \
     -Xms1g \
@@ -23,7 +32,7 @@ ${JAVA_HOME_BIN}/java \
     -XX:ParallelGCThreads=${gc_threads} \
   edu.cmu.cs.lti.ark.fn.identification.training.TrainBatch \
   alphabetfile:${model_dir}/alphabet.dat \
-  eventsfile:${model_dir}/events \
+  eventsfile:${model_dir}/events.packed \
   model:${model_dir}/idmodel.dat \
   regularization:l1 \
   lambda:1.0 \